@@ -1,33 +1,56 @@
 package de.uni_heidelberg.cos.agw.ij;
 
+import de.uni_heidelberg.cos.agw.ij.util.Parallel;
+import de.uni_heidelberg.cos.agw.ij.util.RegionStatistics;
+import de.uni_heidelberg.cos.agw.ij.util.RegionStatisticsWriter;
 import de.uni_heidelberg.cos.agw.ij.util.Util;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.ImageStack;
+import ij.WindowManager;
 import ij.gui.GenericDialog;
+import ij.gui.OvalRoi;
+import ij.gui.Overlay;
 import ij.measure.Calibration;
 import ij.measure.ResultsTable;
 import ij.plugin.filter.PlugInFilter;
+import ij.process.ByteProcessor;
 import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
 
 import javax.vecmath.Point3d;
 import javax.vecmath.Point3i;
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Computes the average 2D or 3D position of discrete intensities in an image;
  * intended to be used on connected components. Result can be displayed as plot
  * in a new image, as a table, or both. Entries in the table can be pixel grid
  * positions or calibrated positions.
- *
- * @todo Center of Mass computation using the connected components as mask for
- * raw intensity values.
+ * <p>
+ * Optionally, full region statistics are measured instead, see
+ * {@link RegionStatistics}. If an intensity image is selected, the connected
+ * components are used as mask for its raw intensity values and the centers of
+ * mass are plotted.
+ * <p>
+ * Hyperstacks with several frames or channels are measured volume by volume,
+ * see {@link #writeTimeLapse(ImagePlus, ImagePlus, File, boolean, boolean)}.
  */
 public class FindIntensityCenters implements PlugInFilter {
 
     private ImagePlus inputImp = null;
     private Map<Integer, Point3d> centerMap = null;
     private final String outputTitleAddition = "-centers";
+    private static final String noIntensityImage = "None";
+    // Fields per value of the coordinate sums: sumX, sumY, sumZ, n.
+    static final int nFields = 4;
+    private static boolean doMeasureStatistics = false;
+    private static String outputPath = "";
+    private static boolean isBinaryOutput = false;
+    private static boolean doPlotOverlay = false;
 
     @Override
     public int setup(String args, ImagePlus imp) {
@@ -37,12 +60,19 @@ public class FindIntensityCenters implements PlugInFilter {
 
     @Override
     public void run(ImageProcessor inputIp) {
+        if (inputImp.getNFrames() > 1 || inputImp.getNChannels() > 1) {
+            runTimeLapse();
+            return;
+        }
         IJ.showStatus("Find intensity centers ...");
         GenericDialog dialog = new GenericDialog("Find Intensity Centers");
         dialog.addCheckbox("Display table", true);
         dialog.addCheckbox("Calibrate table", true);
         dialog.addCheckbox("Display image", false);
         dialog.addNumericField("Point radius", 0, 0);
+        dialog.addCheckbox("Plot as overlay", doPlotOverlay);
+        dialog.addCheckbox("Region statistics", doMeasureStatistics);
+        dialog.addChoice("Intensity image", getImageTitles(), noIntensityImage);
         dialog.showDialog();
         if (dialog.wasCanceled()) {
             return;
@@ -52,9 +82,32 @@ public class FindIntensityCenters implements PlugInFilter {
         final boolean doCalibrateTable = dialog.getNextBoolean();
         final boolean doDisplayImage = dialog.getNextBoolean();
         final int pointRadius = (int) Math.round(dialog.getNextNumber());
+        doPlotOverlay = dialog.getNextBoolean();
+        doMeasureStatistics = dialog.getNextBoolean();
+        final String intensityTitle = dialog.getNextChoice();
 
-        centerMap = getCenterMap(inputImp);
-        if (doDisplayTable) {
+        if (doMeasureStatistics) {
+            ImagePlus intensityImp = null;
+            if (!intensityTitle.equals(noIntensityImage)) {
+                intensityImp = WindowManager.getImage(intensityTitle);
+                if (intensityImp == null || intensityImp.getWidth() != inputImp.getWidth()
+                        || intensityImp.getHeight() != inputImp.getHeight()
+                        || intensityImp.getStackSize() != inputImp.getStackSize()) {
+                    IJ.error("Find Intensity Centers", "Intensity image must have the same dimensions as the input.");
+                    return;
+                }
+            }
+            final RegionStatistics statistics = getStatistics(inputImp, intensityImp);
+            centerMap = statistics.getCentroidMap(statistics.hasIntensities());
+            if (doDisplayTable) {
+                final Calibration calibration = doCalibrateTable ? inputImp.getCalibration() : null;
+                statistics.getResultsTable(calibration).show(Util.addToFilename(inputImp.getTitle(),
+                        "-statistics") + " - in " + (doCalibrateTable ? calibration.getUnits() : "pixels"));
+            }
+        } else {
+            centerMap = getCenterMap(inputImp);
+        }
+        if (doDisplayTable && !doMeasureStatistics) {
             ResultsTable resultsTable;
             String title = Util.addToFilename(inputImp.getTitle(),
                     outputTitleAddition) + " - in ";
@@ -67,70 +120,255 @@ public class FindIntensityCenters implements PlugInFilter {
             }
             resultsTable.show(title);
         }
-        if (doDisplayImage) {
+        if (doDisplayImage && doPlotOverlay) {
+            inputImp.setOverlay(getOverlay(centerMap, pointRadius, inputImp.getCalibration(),
+                    inputImp.getStackSize()));
+        } else if (doDisplayImage) {
             int[] dimensions = new int[]{inputImp.getWidth(), inputImp.getHeight(), inputImp.getStackSize()};
             ImagePlus outputImp = getPlot(centerMap, pointRadius, dimensions);
             outputImp.show();
         }
     }
 
+    private void runTimeLapse() {
+        GenericDialog dialog = new GenericDialog("Find Intensity Centers");
+        dialog.addMessage(String.format("%d frames, %d channels: centers are written to a file.",
+                inputImp.getNFrames(), inputImp.getNChannels()));
+        dialog.addCheckbox("Calibrate", true);
+        dialog.addChoice("Intensity image", getImageTitles(), noIntensityImage);
+        dialog.addStringField("Output_file", outputPath, 30);
+        dialog.addCheckbox("Binary output", isBinaryOutput);
+        dialog.showDialog();
+        if (dialog.wasCanceled()) {
+            return;
+        }
+        final boolean doCalibrate = dialog.getNextBoolean();
+        final String intensityTitle = dialog.getNextChoice();
+        outputPath = dialog.getNextString().trim();
+        isBinaryOutput = dialog.getNextBoolean();
+
+        ImagePlus intensityImp = null;
+        if (!intensityTitle.equals(noIntensityImage)) {
+            intensityImp = WindowManager.getImage(intensityTitle);
+            if (intensityImp == null || !Arrays.equals(intensityImp.getDimensions(), inputImp.getDimensions())) {
+                IJ.error("Find Intensity Centers", "Intensity image must have the same dimensions as the input.");
+                return;
+            }
+        }
+        if (outputPath.isEmpty()) {
+            IJ.error("Find Intensity Centers", "No output file given.");
+            return;
+        }
+
+        IJ.showStatus("Find intensity centers ...");
+        try {
+            writeTimeLapse(inputImp, intensityImp, new File(outputPath), isBinaryOutput, doCalibrate);
+        } catch (IOException ex) {
+            IJ.error("Find Intensity Centers", "Could not write " + outputPath + ":\n" + ex.getMessage());
+        }
+        IJ.showStatus("");
+    }
+
     /**
-     * Returns a map holding value, center pairs in pixel grid positions.
+     * Measures the centers of the regions in each frame and channel of a
+     * hyperstack and streams them to a file, see
+     * {@link RegionStatisticsWriter} for the format. Volumes are measured in
+     * parallel and written in order as soon as they are done, so only the
+     * volumes currently processed are held in memory.
      *
-     * @param imp input
-     * @return value, center map
+     * @param imp          label hyperstack
+     * @param intensityImp hyperstack of the same dimensions whose intensities
+     *                     are used to compute centers of mass, may be null
+     * @param file         output file
+     * @param isBinary     whether to write binary records instead of text
+     * @param doCalibrate  whether to write calibrated positions
      */
-    private Map<Integer, Point3d> getCenterMap(final ImagePlus imp) {
-        // Read intensity values from image, store in data structure.
-        // Map<intensity, List<sumX, sumY, sumZ, n>>
-        Map<Integer, List<Integer>> data = new HashMap<Integer, List<Integer>>();
-        final ImageStack stack = imp.getImageStack();
-        for (int z = 1; z <= stack.getSize(); ++z) {
-            final ImageProcessor ip = stack.getProcessor(z);
-            for (int y = 0; y < imp.getHeight(); ++y) {
-                for (int x = 0; x < imp.getWidth(); ++x) {
-                    final int value = ip.getPixel(x, y);
-                    if (value == 0) {
-                        continue;
-                    }
-                    List<Integer> valueData = data.get(value);
-                    if (valueData == null) {
-                        final int nfields = 4;
-                        valueData = new ArrayList<Integer>(nfields);
-                        for (int i = 0; i < nfields; ++i) {
-                            valueData.add(0);
+    public void writeTimeLapse(final ImagePlus imp, final ImagePlus intensityImp, final File file,
+                               final boolean isBinary, final boolean doCalibrate) throws IOException {
+        final int nChannels = imp.getNChannels();
+        final int nVolumes = nChannels * imp.getNFrames();
+        final Calibration calibration = imp.getCalibration();
+        final double[] scale = doCalibrate
+                ? new double[]{calibration.pixelWidth, calibration.pixelHeight, calibration.pixelDepth}
+                : new double[]{1, 1, 1};
+        final boolean doParallelVolumes = nVolumes >= Parallel.getNThreads();
+        final RegionStatisticsWriter writer = new RegionStatisticsWriter(file, isBinary);
+        final Map<Integer, RegionStatistics> done = new HashMap<Integer, RegionStatistics>();
+        final AtomicInteger nextVolume = new AtomicInteger(0);
+        final int[] nextWrite = {0};
+        final IOException[] error = {null};
+        try {
+            Parallel.forRanges(doParallelVolumes ? Parallel.getNThreads() : 1, new Parallel.RangeTask() {
+                @Override
+                public void run(final int chunk, final int start, final int end) {
+                    for (int v = nextVolume.getAndIncrement(); v < nVolumes; v = nextVolume.getAndIncrement()) {
+                        final int channel = v % nChannels;
+                        final int frame = v / nChannels;
+                        final RegionStatistics statistics = RegionStatistics.measure(
+                                getVolume(imp, channel, frame),
+                                intensityImp == null ? null : getVolume(intensityImp, channel, frame),
+                                !doParallelVolumes);
+                        synchronized (done) {
+                            if (error[0] != null) {
+                                return;
+                            }
+                            done.put(v, statistics);
+                            while (done.containsKey(nextWrite[0])) {
+                                final int w = nextWrite[0]++;
+                                try {
+                                    writer.write(w / nChannels, w % nChannels, done.remove(w),
+                                            intensityImp != null, scale);
+                                } catch (IOException ex) {
+                                    error[0] = ex;
+                                    return;
+                                }
+                                IJ.showProgress(nextWrite[0], nVolumes);
+                            }
                         }
-                        data.put(value, valueData);
-                    }
-                    final int[] pointData = new int[]{x, y, z, 1};
-                    for (int i = 0; i < pointData.length; ++i) {
-                        valueData.set(i, valueData.get(i) + pointData[i]);
                     }
                 }
+            });
+        } finally {
+            writer.close();
+        }
+        if (error[0] != null) {
+            throw error[0];
+        }
+    }
+
+    // The slices of one channel and frame of a hyperstack, 0-based, without
+    // copying pixels.
+    private static ImageStack getVolume(final ImagePlus imp, final int channel, final int frame) {
+        final ImageStack stack = imp.getImageStack();
+        final ImageStack volume = new ImageStack(imp.getWidth(), imp.getHeight());
+        for (int z = 1; z <= imp.getNSlices(); ++z) {
+            volume.addSlice("", stack.getPixels(imp.getStackIndex(channel + 1, z, frame + 1)));
+        }
+        return volume;
+    }
+
+    /**
+     * Measures the regions of a label image.
+     *
+     * @param imp          label image
+     * @param intensityImp image of the same dimensions whose intensities are
+     *                     measured within the regions, may be null
+     * @return statistics of all regions
+     */
+    public RegionStatistics getStatistics(final ImagePlus imp, final ImagePlus intensityImp) {
+        return RegionStatistics.measure(imp.getImageStack(),
+                intensityImp == null ? null : intensityImp.getImageStack());
+    }
+
+    private static String[] getImageTitles() {
+        final int[] ids = WindowManager.getIDList();
+        final List<String> titles = new ArrayList<String>();
+        titles.add(noIntensityImage);
+        if (ids != null) {
+            for (final int id : ids) {
+                titles.add(WindowManager.getImage(id).getTitle());
             }
         }
+        return titles.toArray(new String[titles.size()]);
+    }
+
+    /**
+     * Returns a map holding value, center pairs in pixel grid positions.
+     *
+     * @param imp input
+     * @return value, center map
+     */
+    private Map<Integer, Point3d> getCenterMap(final ImagePlus imp) {
+        final int nValues = 1 << imp.getBitDepth();
+        final long[] sums = getCoordinateSums(imp.getImageStack(), imp.getBitDepth());
 
         // Generate value, center map.
         Map<Integer, Point3d> centerMap = new HashMap<Integer, Point3d>();
-        for (final int value : data.keySet()) {
-            List<Integer> valueData = data.get(value);
-            final int n = valueData.get(3);
+        for (int value = 1; value < nValues; ++value) {
+            final int offset = nFields * value;
+            final long n = sums[offset + 3];
+            if (n == 0) {
+                continue;
+            }
             final Point3d center = new Point3d();
-            center.x = (double) valueData.get(0) / n;
-            center.y = (double) valueData.get(1) / n;
-            center.z = (double) valueData.get(2) / n;
+            center.x = (double) sums[offset] / n;
+            center.y = (double) sums[offset + 1] / n;
+            center.z = (double) sums[offset + 2] / n;
             centerMap.put(value, center);
         }
 
         return centerMap;
     }
 
+    /**
+     * Returns the sums of x, y, z (1-based) and the number of voxels of each
+     * value, at nFields * value.
+     * <p>
+     * Coordinate sums are accumulated per value in primitive arrays indexed
+     * by value, one set per thread, each thread processing a z-slab of the
+     * raw pixel arrays. The partial sums are added up at the end.
+     *
+     * @param stack    8 or 16-bit input
+     * @param bitDepth bit depth of the input
+     * @return sums, nFields * 2^bitDepth values
+     */
+    static long[] getCoordinateSums(final ImageStack stack, final int bitDepth) {
+        final int width = stack.getWidth();
+        final int nValues = 1 << bitDepth;
+        final long[][] partialSums = new long[Parallel.getNRanges(stack.getSize())][];
+        Parallel.forRanges(stack.getSize(), new Parallel.RangeTask() {
+            @Override
+            public void run(final int chunk, final int start, final int end) {
+                final long[] sums = new long[nFields * nValues];
+                for (int z = start + 1; z <= end; ++z) {
+                    final Object pixels = stack.getPixels(z);
+                    if (pixels instanceof byte[]) {
+                        final byte[] bytes = (byte[]) pixels;
+                        for (int i = 0; i < bytes.length; ++i) {
+                            final int value = bytes[i] & 0xff;
+                            if (value != 0) {
+                                add(sums, nFields * value, i % width, i / width, z);
+                            }
+                        }
+                    } else {
+                        final short[] shorts = (short[]) pixels;
+                        for (int i = 0; i < shorts.length; ++i) {
+                            final int value = shorts[i] & 0xffff;
+                            if (value != 0) {
+                                add(sums, nFields * value, i % width, i / width, z);
+                            }
+                        }
+                    }
+                }
+                partialSums[chunk] = sums;
+            }
+        });
+
+        final long[] sums = partialSums[0];
+        for (int chunk = 1; chunk < partialSums.length; ++chunk) {
+            final long[] partial = partialSums[chunk];
+            for (int i = 0; i < sums.length; ++i) {
+                sums[i] += partial[i];
+            }
+        }
+        return sums;
+    }
+
+    private static void add(final long[] sums, final int offset, final int x, final int y, final int z) {
+        sums[offset] += x;
+        sums[offset + 1] += y;
+        sums[offset + 2] += z;
+        sums[offset + 3]++;
+    }
+
     /**
      * Returns an image showing the center positions. Center positions are drawn
-     * as squares with a size given as pointRadius.
+     * as spheres of the value of their region, round in real world dimensions
+     * according to the calibration of the input.
      *
      * @param imp         input
-     * @param pointRadius the radius of drawn center positions
+     * @param pointRadius the radius of drawn center positions in pixels along
+     *                    x
      * @return image showing center positions
      */
     public ImagePlus getPlot(final ImagePlus imp, final int pointRadius) {
@@ -150,7 +388,10 @@ public class FindIntensityCenters implements PlugInFilter {
     /**
      * @param pointMap    value, center map as produced by
      *                    {@link #getCenterMap(ij.ImagePlus)}
-     * @param pointRadius the radius of drawn center positions
+     * @param pointRadius the radius of drawn center positions in pixels along
+     *                    x, scaled along y and z according to the calibration
+     *                    of the input, so that spheres are round in real
+     *                    world dimensions
      * @param dimensions  the dimensions of the output image {x, y, z}, should be
      *                    identical to the ones of input image
      * @return image showing center positions
@@ -158,28 +399,63 @@ public class FindIntensityCenters implements PlugInFilter {
      */
     private ImagePlus getPlot(final Map<Integer, Point3d> pointMap,
                               final int pointRadius, final int[] dimensions) {
-        final ImageStack outputStack = new ImageStack(dimensions[0],
-                dimensions[1]);
-        for (int z = 1; z <= dimensions[2]; ++z) {
-            outputStack.addSlice("", inputImp.getProcessor().createProcessor(
-                    outputStack.getWidth(), outputStack.getHeight()));
+        final int width = dimensions[0];
+        final int height = dimensions[1];
+        final double[] radii = getRadii(pointRadius, inputImp.getCalibration());
+        final boolean isByte = inputImp.getBitDepth() == 8;
+        final int n = pointMap.size();
+        final int[] values = new int[n];
+        final Point3i[] points = new Point3i[n];
+        int i = 0;
+        for (final int value : pointMap.keySet()) {
+            values[i] = value;
+            points[i] = Util.getGridPosition(pointMap.get(value));
+            i++;
         }
 
-        for (final int value : pointMap.keySet()) {
-            final Point3i point = Util.getGridPosition(pointMap.get(value));
-            for (int z = point.z - pointRadius; z <= point.z + pointRadius; ++z) {
-                if (z < 1 || z > dimensions[2]) {
-                    continue;
+        // Each thread allocates and fills the slices of one z-slab, writing
+        // the spans of all spheres intersecting a row directly into the
+        // pixel arrays.
+        final Object[] slices = new Object[dimensions[2]];
+        Parallel.forRanges(dimensions[2], new Parallel.RangeTask() {
+            @Override
+            public void run(final int chunk, final int start, final int end) {
+                for (int s = start; s < end; ++s) {
+                    slices[s] = isByte ? new byte[width * height] : new short[width * height];
                 }
-                final ImageProcessor ip = outputStack.getProcessor(z);
-                for (int x = point.x - pointRadius; x <= point.x
-                        + pointRadius; ++x) {
-                    for (int y = point.y - pointRadius; y <= point.y
-                            + pointRadius; ++y) {
-                        ip.putPixel(x, y, value);
+                for (int p = 0; p < n; ++p) {
+                    final Point3i point = points[p];
+                    final int rz = (int) radii[2];
+                    final int zStart = Math.max(start + 1, point.z - rz);
+                    final int zEnd = Math.min(end, point.z + rz);
+                    for (int z = zStart; z <= zEnd; ++z) {
+                        final double dz = (z - point.z) / radii[2];
+                        final double ryz = radii[1] * Math.sqrt(1 - dz * dz);
+                        final int yStart = Math.max(0, point.y - (int) ryz);
+                        final int yEnd = Math.min(height - 1, point.y + (int) ryz);
+                        for (int y = yStart; y <= yEnd; ++y) {
+                            final double dy = (y - point.y) / radii[1];
+                            final int rx = (int) (radii[0] * Math.sqrt(Math.max(0, 1 - dz * dz - dy * dy)));
+                            final int xStart = y * width + Math.max(0, point.x - rx);
+                            final int xEnd = y * width + Math.min(width - 1, point.x + rx) + 1;
+                            if (xStart >= xEnd) {
+                                continue;
+                            }
+                            if (isByte) {
+                                Arrays.fill((byte[]) slices[z - 1], xStart, xEnd, (byte) values[p]);
+                            } else {
+                                Arrays.fill((short[]) slices[z - 1], xStart, xEnd, (short) values[p]);
+                            }
+                        }
                     }
                 }
             }
+        });
+
+        final ImageStack outputStack = new ImageStack(width, height);
+        for (final Object pixels : slices) {
+            outputStack.addSlice("", isByte ? new ByteProcessor(width, height, (byte[]) pixels, null)
+                    : new ShortProcessor(width, height, (short[]) pixels, null));
         }
 
         ImagePlus plotImp = new ImagePlus("", outputStack);
@@ -189,6 +465,51 @@ public class FindIntensityCenters implements PlugInFilter {
         return plotImp;
     }
 
+    /**
+     * Returns an overlay showing the center positions as circles, one per
+     * slice intersected by the sphere around a center, instead of a dense
+     * image.
+     *
+     * @param pointMap    value, center map as produced by
+     *                    {@link #getCenterMap(ij.ImagePlus)}
+     * @param pointRadius the radius of drawn center positions
+     * @param calibration calibration of the image the overlay is shown on
+     * @param stackSize   number of slices of the image the overlay is shown on
+     * @return overlay
+     * @see FindIntensityCenters#getPlot(java.util.Map, int, int[])
+     */
+    public Overlay getOverlay(final Map<Integer, Point3d> pointMap, final int pointRadius,
+                              final Calibration calibration, final int stackSize) {
+        final double[] radii = getRadii(pointRadius, calibration);
+        final Overlay overlay = new Overlay();
+        for (final int value : pointMap.keySet()) {
+            final Point3i point = Util.getGridPosition(pointMap.get(value));
+            final int rz = (int) radii[2];
+            for (int z = Math.max(1, point.z - rz); z <= Math.min(stackSize, point.z + rz); ++z) {
+                final double dz = (z - point.z) / radii[2];
+                final double scale = Math.sqrt(1 - dz * dz);
+                final double rx = radii[0] * scale + 0.5;
+                final double ry = radii[1] * scale + 0.5;
+                final OvalRoi roi = new OvalRoi(point.x + 0.5 - rx, point.y + 0.5 - ry, 2 * rx, 2 * ry);
+                roi.setName(String.valueOf(value));
+                roi.setPosition(z);
+                overlay.add(roi);
+            }
+        }
+        return overlay;
+    }
+
+    // Radii {x, y, z} in pixels of a sphere with a radius of pointRadius
+    // pixels along x. Slightly enlarged, so that a radius of 0 yields a
+    // single voxel and voxels on the surface are included.
+    private static double[] getRadii(final int pointRadius, final Calibration calibration) {
+        final double radius = pointRadius * calibration.pixelWidth;
+        return new double[]{
+                pointRadius + 1e-6,
+                radius / calibration.pixelHeight + 1e-6,
+                radius / calibration.pixelDepth + 1e-6};
+    }
+
     /**
      * Returns a ResultsTable holding the value and center positions.
      *
@@ -0,0 +1,100 @@
+package de.uni_heidelberg.cos.agw.ij;
+
+import de.uni_heidelberg.cos.agw.ij.util.ShellFitter;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.gui.GenericDialog;
+import ij.plugin.filter.PlugInFilter;
+import ij.process.AutoThresholder;
+import ij.process.ImageProcessor;
+import ij.process.StackStatistics;
+
+/**
+ * Estimates the center and radii of a spherical or cylindrical object, see
+ * {@link ShellFitter}, and pre-fills the {@link MapTransform} dialog with
+ * them. For a cylinder, the rotation is set to align the axis.
+ */
+public class FitMapShell implements PlugInFilter {
+
+    private static final String pluginName = "Fit Map Shell";
+    private static final String[] shapes = {"Sphere", "Cylinder"};
+    // Number of grid samples up to which the volume is not subsampled.
+    private static final double maxSamples = 1 << 24;
+    private static int shapeIndex = 0;
+    private static double coveragePercent = 98;
+    private static boolean doOpenMapTransform = true;
+    private ImagePlus inputImp;
+
+    @Override
+    public int setup(String args, ImagePlus imp) {
+        inputImp = imp;
+        return STACK_REQUIRED + DOES_8G + DOES_16 + DOES_32;
+    }
+
+    @Override
+    public void run(ImageProcessor inputIp) {
+        final StackStatistics statistics = new StackStatistics(inputImp);
+        final int bin = new AutoThresholder().getThreshold(AutoThresholder.Method.Otsu, statistics.histogram);
+        final double defaultThreshold = statistics.histMin + (bin + 1) * statistics.binSize;
+        final double nVoxels = (double) inputImp.getWidth() * inputImp.getHeight() * inputImp.getStackSize();
+        final int defaultStep = (int) Math.max(1, Math.ceil(Math.cbrt(nVoxels / maxSamples)));
+
+        GenericDialog dialog = new GenericDialog(pluginName);
+        dialog.addChoice("Shape", shapes, shapes[shapeIndex]);
+        dialog.addNumericField("Threshold", defaultThreshold, 2);
+        dialog.addNumericField("Subsampling", defaultStep, 0, 6, "voxels");
+        dialog.addNumericField("Coverage", coveragePercent, 1, 6, "% of foreground within radii");
+        dialog.addCheckbox("Open Map Transform", doOpenMapTransform);
+        dialog.showDialog();
+        if (dialog.wasCanceled()) {
+            return;
+        }
+        shapeIndex = dialog.getNextChoiceIndex();
+        final double threshold = dialog.getNextNumber();
+        final int step = (int) Math.round(dialog.getNextNumber());
+        coveragePercent = dialog.getNextNumber();
+        doOpenMapTransform = dialog.getNextBoolean();
+        if (step < 1) {
+            IJ.error(pluginName, "Subsampling must be at least 1.");
+            return;
+        }
+        if (coveragePercent <= 0 || coveragePercent > 100) {
+            IJ.error(pluginName, "Coverage must be between 0 and 100.");
+            return;
+        }
+
+        IJ.showStatus(pluginName + " ...");
+        final ShellFitter fitter = new ShellFitter(inputImp.getImageStack(), threshold, step);
+        fitter.setCoverage(coveragePercent / 100);
+        final boolean isCylinder = shapeIndex == 1;
+        try {
+            if (isCylinder) {
+                fitter.fitCylinder();
+            } else {
+                fitter.fitSphere();
+            }
+        } catch (IllegalStateException ex) {
+            IJ.error(pluginName, ex.getMessage() + "\nPlease check the threshold.");
+            return;
+        }
+        IJ.showStatus("");
+
+        final double[] center = fitter.getCenter();
+        IJ.log(String.format("%s of %s: center (%.2f, %.2f, %.2f), radius %.2f, inner radius %.2f, outer radius %.2f",
+                shapes[shapeIndex], inputImp.getTitle(), center[0], center[1], center[2],
+                fitter.getRadius(), fitter.getInnerRadius(), fitter.getOuterRadius()));
+        if (isCylinder) {
+            final double[] axis = fitter.getAxis();
+            IJ.log(String.format("  axis (%.3f, %.3f, %.3f), height %.2f",
+                    axis[0], axis[1], axis[2], fitter.getHeight()));
+            MapTransform.setCylinder(center, axis, fitter.getInnerRadius(), fitter.getOuterRadius(),
+                    fitter.getHeight());
+        } else {
+            MapTransform.setSphere(center, fitter.getInnerRadius(), fitter.getOuterRadius());
+        }
+
+        if (doOpenMapTransform) {
+            IJ.run(inputImp, "Map Transform...", "");
+        }
+    }
+}
@@ -0,0 +1,543 @@
+package de.uni_heidelberg.cos.agw.ij;
+
+import de.uni_heidelberg.cos.agw.ij.util.Parallel;
+import de.uni_heidelberg.cos.agw.ij.util.Util;
+import de.uni_heidelberg.cos.agw.imglib2.realtransform.AzimuthalEquidistantToCartesianTransform;
+import de.uni_heidelberg.cos.agw.imglib2.realtransform.CylindricalToCartesianIntervalTransform;
+import de.uni_heidelberg.cos.agw.imglib2.realtransform.CylindricalToCartesianTransform;
+import de.uni_heidelberg.cos.agw.imglib2.realtransform.EquirectangularToCartesianTransform;
+import de.uni_heidelberg.cos.agw.imglib2.realtransform.PolarToCartesianTransform;
+import de.uni_heidelberg.cos.agw.imglib2.realtransform.PositionableInvertibleRealTransform;
+import de.uni_heidelberg.cos.agw.imglib2.realtransform.SphericalToCartesianTransform;
+import de.uni_heidelberg.cos.agw.imglib2.realtransform.TrigPrecision;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.gui.GenericDialog;
+import ij.plugin.filter.PlugInFilter;
+import ij.process.ImageProcessor;
+import net.imglib2.Interval;
+import net.imglib2.realtransform.InvertibleRealTransform;
+
+/**
+ * Paints a map made by {@link MapTransform}, e.g. labels segmented on the map,
+ * back into a volume. For each voxel of the volume within the bounding box of
+ * the shell, the position on the map is computed with the inverse of the
+ * spherical or cylindrical transform and the map is sampled there, with
+ * nearest neighbor interpolation for labels or linearly for intensities.
+ * Voxels outside the shell stay 0; for spheres, rows are clipped to the
+ * shell analytically. The parameters of the last Map Transform are used as
+ * defaults. Slices are processed in parallel. By default, the trigonometric
+ * functions are approximated to 1e-15, see {@link TrigPrecision}.
+ */
+public class InverseMapTransform implements PlugInFilter {
+
+    private static final String pluginName = "Inverse Map Transform";
+    private static final String[] transformations = {"Equirectangular", "Azimuthal Equidistant", "Cylindrical"};
+    private static final String[] interpolations = {"Nearest Neighbor", "Linear"};
+    private static final String[] precisions = {"Exact", "High (1e-15)", "Low (1e-7)"};
+    private static final TrigPrecision[] trigPrecisions = {TrigPrecision.EXACT, TrigPrecision.HIGH, TrigPrecision.LOW};
+    private static int transformationIndex = 0;
+    private static double centerX = 600;
+    private static double centerY = 600;
+    private static double centerZ = 425;
+    private static double rotationX = 0;
+    private static double rotationY = 0;
+    private static double rotationSelf = 0;
+    private static double innerRadius = 200;
+    private static double outerRadius = 425;
+    private static double stdRadiusOffset = 0.7;
+    private static double scale = 1;
+    private static double cylinderHeight = 512;
+    private static int width = 1200;
+    private static int height = 1200;
+    private static int depth = 850;
+    private static int interpolationIndex = 0;
+    private static int precisionIndex = 1;
+    private ImagePlus mapImp;
+
+    /**
+     * Sets the defaults of the next dialog to the parameters of a map and
+     * the dimensions of the volume it was made from.
+     */
+    static void setParameters(final int transformation, final double[] center, final double[] rotation,
+                              final double inner, final double outer, final double stdOffset,
+                              final double mapScale, final double height, final int[] volumeDimensions) {
+        transformationIndex = transformation;
+        centerX = center[0];
+        centerY = center[1];
+        centerZ = center[2];
+        rotationX = rotation[0];
+        rotationY = rotation[1];
+        rotationSelf = rotation[2];
+        innerRadius = inner;
+        outerRadius = outer;
+        stdRadiusOffset = stdOffset;
+        scale = mapScale;
+        cylinderHeight = height;
+        InverseMapTransform.width = volumeDimensions[0];
+        InverseMapTransform.height = volumeDimensions[1];
+        depth = volumeDimensions[2];
+    }
+
+    @Override
+    public int setup(String args, ImagePlus imp) {
+        mapImp = imp;
+        return STACK_REQUIRED + DOES_8G + DOES_16 + DOES_32;
+    }
+
+    @Override
+    public void run(ImageProcessor ip) {
+        GenericDialog dialog = new GenericDialog(pluginName);
+        dialog.addChoice("Transformation", transformations, transformations[transformationIndex]);
+        dialog.addNumericField("Center_x", centerX, 2, 7, "voxel");
+        dialog.addNumericField("Center_y", centerY, 2, 7, "voxel");
+        dialog.addNumericField("Center_z", centerZ, 2, 7, "voxel");
+        dialog.addNumericField("Rotation_x", Math.toDegrees(rotationX), 2, 7, "degrees");
+        dialog.addNumericField("Rotation_y", Math.toDegrees(rotationY), 2, 7, "degrees");
+        dialog.addNumericField("Rotation_self", Math.toDegrees(rotationSelf), 2, 7, "degrees");
+        dialog.addNumericField("Inner_radius", innerRadius, 2, 7, "voxels");
+        dialog.addNumericField("Outer_radius", outerRadius, 2, 7, "voxels");
+        dialog.addNumericField("Standard_radius_offset", stdRadiusOffset, 2, 7, "0-1");
+        dialog.addNumericField("Scale", scale, 2, 7, "x");
+        dialog.addNumericField("Cylinder_height", cylinderHeight, 2, 7, "voxels");
+        dialog.addNumericField("Volume_width", width, 0, 7, "voxels");
+        dialog.addNumericField("Volume_height", height, 0, 7, "voxels");
+        dialog.addNumericField("Volume_depth", depth, 0, 7, "voxels");
+        dialog.addChoice("Interpolation", interpolations, interpolations[interpolationIndex]);
+        dialog.addMessage("Use Nearest Neighbor for labels.");
+        dialog.addChoice("Trigonometric_precision", precisions, precisions[precisionIndex]);
+        dialog.showDialog();
+        if (dialog.wasCanceled()) {
+            return;
+        }
+        transformationIndex = dialog.getNextChoiceIndex();
+        centerX = dialog.getNextNumber();
+        centerY = dialog.getNextNumber();
+        centerZ = dialog.getNextNumber();
+        rotationX = Math.toRadians(dialog.getNextNumber());
+        rotationY = Math.toRadians(dialog.getNextNumber());
+        rotationSelf = Math.toRadians(dialog.getNextNumber());
+        innerRadius = dialog.getNextNumber();
+        outerRadius = dialog.getNextNumber();
+        stdRadiusOffset = dialog.getNextNumber();
+        scale = dialog.getNextNumber();
+        cylinderHeight = dialog.getNextNumber();
+        width = (int) Math.round(dialog.getNextNumber());
+        height = (int) Math.round(dialog.getNextNumber());
+        depth = (int) Math.round(dialog.getNextNumber());
+        interpolationIndex = dialog.getNextChoiceIndex();
+        precisionIndex = dialog.getNextChoiceIndex();
+
+        if (dialog.invalidNumber()) {
+            IJ.error(pluginName, "Invalid number.");
+            return;
+        }
+        if (stdRadiusOffset <= 0 || stdRadiusOffset > 1) {
+            IJ.error(pluginName, "Standard radius offset must be between 0 and 1.");
+            return;
+        }
+        if (scale <= 0) {
+            IJ.error(pluginName, "Scale must be greater than 0.");
+            return;
+        }
+        if (width < 1 || height < 1 || depth < 1) {
+            IJ.error(pluginName, "Volume dimensions must be at least 1.");
+            return;
+        }
+
+        final ShellInverse inverse = new ShellInverse(transformationIndex,
+                new double[]{centerX, centerY, centerZ}, new double[]{rotationX, rotationY, rotationSelf},
+                innerRadius, outerRadius, stdRadiusOffset, scale, cylinderHeight);
+        inverse.setPrecision(trigPrecisions[precisionIndex]);
+        final int[] mapDimensions = inverse.getMapDimensions();
+        if (mapImp.getWidth() != mapDimensions[0] || mapImp.getHeight() != mapDimensions[1]
+                || mapImp.getStackSize() != mapDimensions[2]) {
+            IJ.error(pluginName, String.format(
+                    "The map is %d x %d x %d, but these parameters give a map of %d x %d x %d.",
+                    mapImp.getWidth(), mapImp.getHeight(), mapImp.getStackSize(),
+                    mapDimensions[0], mapDimensions[1], mapDimensions[2]));
+            return;
+        }
+
+        IJ.showStatus(pluginName + " ...");
+        final ImagePlus outputImp = compute(mapImp.getImageStack(), inverse, new int[]{width, height, depth},
+                interpolationIndex == 1);
+        outputImp.setTitle(Util.addToFilename(mapImp.getTitle(), "-inverse"));
+        outputImp.show();
+        IJ.showStatus("");
+    }
+
+    /**
+     * Samples a map at the voxels of a volume of the given dimensions. The
+     * output has the type of the map.
+     *
+     * @param inverse  the transform the map was made with, see
+     *                 {@link ShellInverse}
+     * @param isLinear linear interpolation if true, else nearest neighbor
+     */
+    public static ImagePlus compute(final ImageStack map, final ShellInverse inverse, final int[] dimensions,
+                                    final boolean isLinear) {
+        final ImageProcessor[] mapSlices = new ImageProcessor[map.getSize()];
+        for (int z = 0; z < mapSlices.length; ++z) {
+            mapSlices[z] = map.getProcessor(z + 1);
+        }
+        final ImageProcessor[] outputSlices = new ImageProcessor[dimensions[2]];
+        for (int z = 0; z < outputSlices.length; ++z) {
+            outputSlices[z] = mapSlices[0].createProcessor(dimensions[0], dimensions[1]);
+        }
+        final boolean isFloat = mapSlices[0].getBitDepth() == 32;
+
+        final int[] min = new int[3];
+        final int[] max = new int[3];
+        inverse.getBoundingBox(min, max);
+        for (int d = 0; d < 3; ++d) {
+            min[d] = Math.max(0, min[d]);
+            max[d] = Math.min(dimensions[d] - 1, max[d]);
+        }
+
+        if (min[2] <= max[2]) {
+            Parallel.forRanges(max[2] - min[2] + 1, new Parallel.RangeTask() {
+                @Override
+                public void run(final int chunk, final int start, final int end) {
+                    // ShellInverse keeps intermediate coordinates in scratch arrays, and
+                    // the transforms it chains keep theirs, so each range needs a copy.
+                    final ShellInverse rangeInverse = inverse.copy();
+                    final double[] cartesian = new double[3];
+                    final double[] mapPosition = new double[3];
+                    final int[] range = new int[4];
+                    for (int z = min[2] + start; z < min[2] + end; ++z) {
+                        final ImageProcessor outputSlice = outputSlices[z];
+                        cartesian[2] = z;
+                        for (int y = min[1]; y <= max[1]; ++y) {
+                            cartesian[1] = y;
+                            final int nRanges = rangeInverse.getRowRanges(y, z, min[0], max[0], range);
+                            for (int r = 0; r < nRanges; ++r) {
+                                for (int x = range[2 * r]; x <= range[2 * r + 1]; ++x) {
+                                    cartesian[0] = x;
+                                    if (!rangeInverse.toMap(cartesian, mapPosition)) {
+                                        continue;
+                                    }
+                                    final double value = isLinear
+                                            ? rangeInverse.sampleLinear(mapSlices, mapPosition)
+                                            : rangeInverse.sampleNearest(mapSlices, mapPosition);
+                                    outputSlice.setf(y * dimensions[0] + x,
+                                            (float) (isFloat || !isLinear ? value : Math.round(value)));
+                                }
+                            }
+                        }
+                    }
+                }
+            });
+        }
+
+        final ImageStack outputStack = new ImageStack(dimensions[0], dimensions[1]);
+        for (final ImageProcessor slice : outputSlices) {
+            outputStack.addSlice(slice);
+        }
+        return new ImagePlus("", outputStack);
+    }
+
+    /**
+     * Maps positions of a volume to a map made by {@link MapTransform} with
+     * the same parameters. Cartesian positions are converted to spherical or
+     * cylindrical coordinates with the inverse of the rotation, translation
+     * and {@link SphericalToCartesianTransform} or
+     * {@link CylindricalToCartesianTransform}, then to map coordinates by
+     * inverting the map projection. Not thread-safe, use one
+     * {@link #copy()} per thread.
+     */
+    public static class ShellInverse {
+
+        private static final double TWO_PI = 2 * Math.PI;
+        private final int transformationIndex;
+        private final double[] center, rotation;
+        private final double innerRadius, outerRadius, stdRadiusOffset, scale, cylinderHeight;
+        private final double radiusInterval, maxPlanarRadius;
+        private final int[] mapDimensions = new int[3];
+        private final InvertibleRealTransform curvilinearToCartesian;
+        private final PositionableInvertibleRealTransform transform;
+        private final PolarToCartesianTransform polarToCartesian = new PolarToCartesianTransform();
+        private final double[] temp = new double[3];
+        private final double[] curvilinear = new double[3];
+        private final double[] planarPolar = new double[2];
+        private final double[] planar = new double[2];
+        private TrigPrecision precision = TrigPrecision.EXACT;
+
+        /**
+         * @param transformationIndex 0 equirectangular, 1 azimuthal
+         *                            equidistant, 2 cylindrical, as in
+         *                            {@link MapTransform}
+         */
+        public ShellInverse(final int transformationIndex, final double[] center, final double[] rotation,
+                            final double innerRadius, final double outerRadius, final double stdRadiusOffset,
+                            final double scale, final double cylinderHeight) {
+            this.transformationIndex = transformationIndex;
+            this.center = center.clone();
+            this.rotation = rotation.clone();
+            this.innerRadius = innerRadius;
+            this.outerRadius = outerRadius;
+            this.stdRadiusOffset = stdRadiusOffset;
+            this.scale = scale;
+            this.cylinderHeight = cylinderHeight;
+            radiusInterval = outerRadius - innerRadius + 1;
+
+            // Map dimensions as in MapTransform.
+            final Interval mapInterval;
+            switch (transformationIndex) {
+                case 1:
+                    mapInterval = new AzimuthalEquidistantToCartesianTransform(innerRadius, outerRadius, stdRadiusOffset, scale);
+                    curvilinearToCartesian = new SphericalToCartesianTransform();
+                    break;
+                case 2:
+                    mapInterval = new CylindricalToCartesianIntervalTransform(cylinderHeight, innerRadius, outerRadius, stdRadiusOffset, scale);
+                    curvilinearToCartesian = new CylindricalToCartesianTransform();
+                    break;
+                default:
+                    mapInterval = new EquirectangularToCartesianTransform(innerRadius, outerRadius, stdRadiusOffset, scale);
+                    curvilinearToCartesian = new SphericalToCartesianTransform();
+                    break;
+            }
+            for (int d = 0; d < 3; ++d) {
+                mapDimensions[d] = (int) mapInterval.dimension(d);
+            }
+            maxPlanarRadius = Math.sqrt(0.25 * mapDimensions[0] * mapDimensions[0] + 0.25 * mapDimensions[1] * mapDimensions[1]);
+
+            // Same rotation and translation as the forward Transformation.
+            transform = new PositionableInvertibleRealTransform(curvilinearToCartesian);
+            for (int d = 0; d < 3; ++d) {
+                transform.setPosition(center[d], d);
+                transform.rotate(d, rotation[d]);
+            }
+        }
+
+        public ShellInverse copy() {
+            final ShellInverse copy = new ShellInverse(transformationIndex, center, rotation, innerRadius,
+                    outerRadius, stdRadiusOffset, scale, cylinderHeight);
+            copy.setPrecision(precision);
+            return copy;
+        }
+
+        /**
+         * Selects the accuracy of the trigonometric functions of
+         * {@link #toMap(double[], double[])}, {@link TrigPrecision#EXACT} by
+         * default.
+         */
+        public void setPrecision(final TrigPrecision precision) {
+            this.precision = precision;
+            polarToCartesian.setPrecision(precision);
+            if (curvilinearToCartesian instanceof SphericalToCartesianTransform) {
+                ((SphericalToCartesianTransform) curvilinearToCartesian).setPrecision(precision);
+            } else {
+                ((PolarToCartesianTransform) curvilinearToCartesian).setPrecision(precision);
+            }
+        }
+
+        public TrigPrecision getPrecision() {
+            return precision;
+        }
+
+        /**
+         * @return {width, height, depth} of the map
+         */
+        public int[] getMapDimensions() {
+            return mapDimensions.clone();
+        }
+
+        private boolean isCylinder() {
+            return transformationIndex == 2;
+        }
+
+        /**
+         * Computes the bounding box of the shell in voxel coordinates,
+         * inclusive and not clipped to any volume.
+         */
+        public void getBoundingBox(final int[] min, final int[] max) {
+            final double[] extent = new double[3];
+            if (isCylinder()) {
+                // Cylinder axis from the transform of (0, 0, 0) and (0, 0, 1).
+                final double[] axis = new double[3];
+                transform.apply(new double[]{0, 0, 1}, axis);
+                final double halfHeight = 0.5 * mapDimensions[0] / scale;
+                for (int d = 0; d < 3; ++d) {
+                    final double a = axis[d] - center[d];
+                    extent[d] = Math.abs(a) * halfHeight + outerRadius * Math.sqrt(Math.max(0, 1 - a * a));
+                }
+            } else {
+                for (int d = 0; d < 3; ++d) {
+                    extent[d] = outerRadius;
+                }
+            }
+            for (int d = 0; d < 3; ++d) {
+                min[d] = (int) Math.floor(center[d] - extent[d]);
+                max[d] = (int) Math.ceil(center[d] + extent[d]);
+            }
+        }
+
+        /**
+         * Computes up to two ranges of x, given as inclusive {start, end}
+         * pairs, of row (y, z) between x0 and x1 that may be inside the shell.
+         *
+         * @return the number of ranges
+         */
+        int getRowRanges(final int y, final int z, final int x0, final int x1, final int[] ranges) {
+            if (isCylinder()) {
+                ranges[0] = x0;
+                ranges[1] = x1;
+                return 1;
+            }
+            // Rows of a spherical shell cross the outer sphere in one segment,
+            // minus the segment inside the inner sphere. One voxel margin
+            // for rounding, toMap decides exactly.
+            final double dy = y - center[1];
+            final double dz = z - center[2];
+            final double rowDistance = dy * dy + dz * dz;
+            final double outer = outerRadius + 1;
+            if (rowDistance > outer * outer) {
+                return 0;
+            }
+            final double outerHalf = Math.sqrt(outer * outer - rowDistance);
+            final int start = Math.max(x0, (int) Math.floor(center[0] - outerHalf));
+            final int end = Math.min(x1, (int) Math.ceil(center[0] + outerHalf));
+            final double inner = getMinRadius() - 1;
+            if (inner <= 0 || rowDistance >= inner * inner) {
+                ranges[0] = start;
+                ranges[1] = end;
+                return start <= end ? 1 : 0;
+            }
+            final double innerHalf = Math.sqrt(inner * inner - rowDistance);
+            int n = 0;
+            final int leftEnd = Math.min(end, (int) Math.ceil(center[0] - innerHalf));
+            if (start <= leftEnd) {
+                ranges[2 * n] = start;
+                ranges[2 * n + 1] = leftEnd;
+                ++n;
+            }
+            final int rightStart = Math.max(start, (int) Math.floor(center[0] + innerHalf));
+            if (rightStart <= end && rightStart > leftEnd) {
+                ranges[2 * n] = rightStart;
+                ranges[2 * n + 1] = end;
+                ++n;
+            }
+            return n;
+        }
+
+        // Radius of the last plane of the map.
+        private double getMinRadius() {
+            return outerRadius - (mapDimensions[2] - 1) * radiusInterval / mapDimensions[2];
+        }
+
+        /**
+         * Computes the map position of a voxel position.
+         *
+         * @return false if the position is outside the map
+         */
+        public boolean toMap(final double[] cartesian, final double[] map) {
+            // The inverse overwrites its target.
+            System.arraycopy(cartesian, 0, temp, 0, 3);
+            transform.applyInverse(curvilinear, temp);
+            final double radius = curvilinear[0];
+            map[2] = (outerRadius - radius) * mapDimensions[2] / radiusInterval;
+            switch (transformationIndex) {
+                case 1: {
+                    // SphericalToCartesianTransform inverts to radius, azimuth, polar.
+                    final double polar = curvilinear[2];
+                    planarPolar[0] = (Math.PI - polar) / Math.PI * maxPlanarRadius;
+                    planarPolar[1] = curvilinear[1];
+                    polarToCartesian.apply(planarPolar, planar);
+                    map[0] = planar[0] + 0.5 * mapDimensions[0];
+                    map[1] = planar[1] + 0.5 * mapDimensions[1];
+                    break;
+                }
+                case 2: {
+                    // CylindricalToCartesianTransform inverts to radius, azimuth in [0, 2 PI), height.
+                    map[0] = curvilinear[2] * scale + 0.5 * mapDimensions[0];
+                    map[1] = curvilinear[1] / TWO_PI * mapDimensions[1];
+                    break;
+                }
+                default: {
+                    double azimuth = curvilinear[1];
+                    if (azimuth < 0) {
+                        azimuth += TWO_PI;
+                    }
+                    map[0] = azimuth / TWO_PI * mapDimensions[0];
+                    map[1] = curvilinear[2] / Math.PI * (mapDimensions[1] - 1);
+                    break;
+                }
+            }
+            final int periodic = getPeriodicDimension();
+            for (int d = 0; d < 3; ++d) {
+                if (d != periodic && (map[d] < 0 || map[d] > mapDimensions[d] - 1)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Dimension of the map that wraps around, the azimuth, or -1.
+        private int getPeriodicDimension() {
+            switch (transformationIndex) {
+                case 0:
+                    return 0;
+                case 2:
+                    return 1;
+                default:
+                    return -1;
+            }
+        }
+
+        /**
+         * Samples a map at a position from {@link #toMap(double[], double[])}.
+         */
+        public double sampleNearest(final ImageProcessor[] slices, final double[] map) {
+            final int x = wrap((int) Math.round(map[0]), 0);
+            final int y = wrap((int) Math.round(map[1]), 1);
+            final int z = (int) Math.round(map[2]);
+            return slices[z].getf(y * mapDimensions[0] + x);
+        }
+
+        /**
+         * Samples a map at a position from {@link #toMap(double[], double[])}
+         * by trilinear interpolation.
+         */
+        public double sampleLinear(final ImageProcessor[] slices, final double[] map) {
+            final int x0 = (int) Math.floor(map[0]);
+            final int y0 = (int) Math.floor(map[1]);
+            final int z0 = (int) Math.floor(map[2]);
+            final double fx = map[0] - x0, fy = map[1] - y0, fz = map[2] - z0;
+            double result = 0;
+            for (int k = 0; k < 2; ++k) {
+                final double wz = k == 0 ? 1 - fz : fz;
+                if (wz == 0) {
+                    continue;
+                }
+                final ImageProcessor slice = slices[Math.min(z0 + k, mapDimensions[2] - 1)];
+                for (int j = 0; j < 2; ++j) {
+                    final double wy = j == 0 ? 1 - fy : fy;
+                    if (wy == 0) {
+                        continue;
+                    }
+                    final int row = wrap(y0 + j, 1) * mapDimensions[0];
+                    for (int i = 0; i < 2; ++i) {
+                        final double wx = i == 0 ? 1 - fx : fx;
+                        if (wx == 0) {
+                            continue;
+                        }
+                        result += wz * wy * wx * slice.getf(row + wrap(x0 + i, 0));
+                    }
+                }
+            }
+            return result;
+        }
+
+        // Wraps around the periodic dimension, clamps the others.
+        private int wrap(final int i, final int d) {
+            final int n = mapDimensions[d];
+            if (d == getPeriodicDimension()) {
+                final int wrapped = i % n;
+                return wrapped < 0 ? wrapped + n : wrapped;
+            }
+            return Math.max(0, Math.min(n - 1, i));
+        }
+    }
+}
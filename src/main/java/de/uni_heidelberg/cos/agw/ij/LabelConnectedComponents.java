@@ -0,0 +1,65 @@
+package de.uni_heidelberg.cos.agw.ij;
+
+import de.uni_heidelberg.cos.agw.ij.util.ConnectedComponents;
+import de.uni_heidelberg.cos.agw.ij.util.Util;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.gui.GenericDialog;
+import ij.plugin.filter.PlugInFilter;
+import ij.process.ImageProcessor;
+
+/**
+ * Labels the 3D connected components of non-zero voxels. The result is a
+ * 16-bit label image, or 32-bit if there are more than 65535 components, and
+ * can be used directly by Edit Regions and Find Intensity Centers.
+ */
+public class LabelConnectedComponents implements PlugInFilter {
+
+    private static final String pluginName = "Label Connected Components";
+    private static final String[] connectivities = {"6", "18", "26"};
+    private static int connectivityIndex = 2;
+    private static boolean byValue = false;
+    private ImagePlus inputImp;
+
+    @Override
+    public int setup(String args, ImagePlus imp) {
+        inputImp = imp;
+        return DOES_8G + DOES_16 + DOES_32;
+    }
+
+    @Override
+    public void run(ImageProcessor inputIp) {
+        GenericDialog dialog = new GenericDialog(pluginName);
+        dialog.addChoice("Connectivity", connectivities, connectivities[connectivityIndex]);
+        dialog.addCheckbox("Connect_identical_values_only", byValue);
+        dialog.showDialog();
+        if (dialog.wasCanceled()) {
+            return;
+        }
+        connectivityIndex = dialog.getNextChoiceIndex();
+        byValue = dialog.getNextBoolean();
+
+        IJ.showStatus(pluginName + " ...");
+        final int connectivity = Integer.parseInt(connectivities[connectivityIndex]);
+        ImagePlus outputImp = run(inputImp, connectivity, byValue);
+        outputImp.show();
+        IJ.showStatus(String.format("%s: %d components", pluginName,
+                (int) Math.round(outputImp.getDisplayRangeMax())));
+    }
+
+    /**
+     * @param imp          input, 0 is background
+     * @param connectivity 6, 18 or 26
+     * @param byValue      whether only voxels of identical value are connected
+     * @return label image
+     */
+    public ImagePlus run(final ImagePlus imp, final int connectivity, final boolean byValue) {
+        final ConnectedComponents components = new ConnectedComponents(connectivity, byValue);
+        components.run(imp.getImageStack());
+        final ImagePlus outputImp = components.getLabelImage(
+                Util.addToFilename(imp.getTitle(), "-labels"));
+        outputImp.setDisplayRange(0, Math.max(1, components.getNLabels()));
+        outputImp.copyScale(imp);
+        return outputImp;
+    }
+}
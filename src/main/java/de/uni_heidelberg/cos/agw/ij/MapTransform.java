@@ -1,24 +1,35 @@
 package de.uni_heidelberg.cos.agw.ij;
 
+import de.uni_heidelberg.cos.agw.ij.util.CurveClipper;
+import de.uni_heidelberg.cos.agw.ij.util.KernelInterpolator;
+import de.uni_heidelberg.cos.agw.ij.util.Parallel;
 import de.uni_heidelberg.cos.agw.ij.util.Util;
+import de.uni_heidelberg.cos.agw.ij.util.VolumePyramid;
 import de.uni_heidelberg.cos.agw.imglib2.realtransform.AzimuthalEquidistantToCartesianTransform;
+import de.uni_heidelberg.cos.agw.imglib2.realtransform.CartesianIntervalToCylindricalTransform;
 import de.uni_heidelberg.cos.agw.imglib2.realtransform.CylindricalToCartesianIntervalTransform;
 import de.uni_heidelberg.cos.agw.imglib2.realtransform.EquirectangularToCartesianTransform;
+import de.uni_heidelberg.cos.agw.imglib2.realtransform.EquirectangularToSphericalTransform;
 import de.uni_heidelberg.cos.agw.imglib2.realtransform.PositionableRealTransform;
+import de.uni_heidelberg.cos.agw.imglib2.realtransform.TransformPipeline;
+import de.uni_heidelberg.cos.agw.imglib2.realtransform.TrigPrecision;
+import de.uni_heidelberg.cos.agw.imglib2.realtransform.TrigTransform;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.ImageStack;
+import ij.gui.DialogListener;
 import ij.gui.GenericDialog;
 import ij.plugin.filter.PlugInFilter;
+import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
-import net.imglib2.Cursor;
 import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
 import net.imglib2.RealRandomAccess;
+import net.imglib2.RealRandomAccessible;
 import net.imglib2.img.Img;
 import net.imglib2.img.ImgFactory;
 import net.imglib2.img.display.imagej.ImageJFunctions;
 import net.imglib2.interpolation.InterpolatorFactory;
-import net.imglib2.interpolation.randomaccess.LanczosInterpolatorFactory;
 import net.imglib2.interpolation.randomaccess.NLinearInterpolatorFactory;
 import net.imglib2.interpolation.randomaccess.NearestNeighborInterpolatorFactory;
 import net.imglib2.realtransform.RealTransform;
@@ -28,7 +39,31 @@ import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.GenericShortType;
 import net.imglib2.view.Views;
 
-public class MapTransform<T extends NumericType<T> & RealType<T> & NativeType<T>, V extends RealTransform & Interval> implements PlugInFilter {
+import java.awt.AWTEvent;
+
+/**
+ * Transforms a spherical or cylindrical shell of a volume into a map.
+ * <p>
+ * With Preview checked, the maximum intensity projection of the map through
+ * the shell is rendered from a downsampled copy of the input whenever a
+ * parameter changes, for interactive tuning. The downsampled copies (2x, 4x
+ * and 8x) are built once, on first preview, and the coarsest level needed to
+ * keep the preview fast is used. The full resolution map is only computed on
+ * OK.
+ * <p>
+ * Lanczos, Catmull-Rom and B-spline interpolation use a
+ * {@link KernelInterpolator} with precomputed weights on the pixel arrays of
+ * the input. The ImageJ1 output is computed in parallel slabs of z.
+ * <p>
+ * The trigonometric functions can be approximated, see
+ * {@link TrigPrecision}, and the positions computed in single precision,
+ * see {@link TrigTransform#setFastFloat(boolean)}. With Fused_transform
+ * checked, the map projection, its transform to Cartesian coordinates and
+ * the rotation and translation are applied as one {@link TransformPipeline}
+ * step; by default they are chained. TransformPipelineBenchmark compares
+ * both.
+ */
+public class MapTransform<T extends NumericType<T> & RealType<T> & NativeType<T>, V extends RealTransform & Interval> implements PlugInFilter, DialogListener {
 
     private static double centerX = 600;
     private static double centerY = 600;
@@ -42,18 +77,37 @@ public class MapTransform<T extends NumericType<T> & RealType<T> & NativeType<T>
     private static double scale = 1;
     private static int interpolationIndex = 1;
     private static int transformationIndex = 0;
+    private static int precisionIndex = 0;
+    private static boolean isSinglePrecision = false;
+    private static boolean isFused = false;
     private static boolean doMakeImageJ1Output = true;
     private static double cylinderHeight = 512;
+    private static boolean doPreview = false;
+    private static boolean isCylinderHeightFitted = false;
+    // Number of samples up to which a preview level is considered fast.
+    private static final double maxPreviewSamples = 1 << 21;
     private final String pluginName = "Map Transform";
-    private final String[] interpolations = {"Nearest Neighbor", "Linear", "Lanczos"};
+    private final String[] interpolations = {"Nearest Neighbor", "Linear", "Lanczos", "Catmull-Rom", "B-Spline"};
+    private final KernelInterpolator.Kernel[] kernels = {null, null, KernelInterpolator.Kernel.LANCZOS3,
+            KernelInterpolator.Kernel.CATMULL_ROM, KernelInterpolator.Kernel.B_SPLINE};
+    // Distance outside the input beyond which each interpolation yields 0,
+    // rounded up generously.
+    private final double[] interpolationMargins = {1, 2, 4, 3, 5};
     private final String[] transformations = {"Equirectangular", "Azimuthal Equidistant", "Cylindrical"};
+    private final String[] transformNames = {"Equirectangular", "AzimuthalEquidistant", "Cylindrical"};
+    private final String[] precisions = {"Exact", "High (1e-15)", "Low (1e-7)"};
+    private final TrigPrecision[] trigPrecisions = {TrigPrecision.EXACT, TrigPrecision.HIGH, TrigPrecision.LOW};
     private Img<T> inputImg;
+    private ImagePlus inputImp;
     private String imageTitle;
+    private VolumePyramid pyramid;
+    private ImagePlus previewImp;
 
     @Override
     public int setup(String args, ImagePlus imp) {
         try {
             inputImg = ImageJFunctions.wrap(imp);
+            inputImp = imp;
             imageTitle = imp.getTitle();
         } catch (NullPointerException ex) {
         }
@@ -62,7 +116,10 @@ public class MapTransform<T extends NumericType<T> & RealType<T> & NativeType<T>
 
     @Override
     public void run(ImageProcessor ip) {
-        cylinderHeight = inputImg.dimension(0);
+        if (!isCylinderHeightFitted) {
+            cylinderHeight = inputImg.dimension(0);
+        }
+        isCylinderHeightFitted = false;
 
         GenericDialog dialog = new GenericDialog(pluginName);
         dialog.addChoice("Transformation", transformations, transformations[transformationIndex]);
@@ -77,13 +134,147 @@ public class MapTransform<T extends NumericType<T> & RealType<T> & NativeType<T>
         dialog.addNumericField("Standard_radius_offset", stdRadiusOffset, 2, 7, "0-1");
         dialog.addNumericField("Scale", scale, 2, 7, "x");
         dialog.addChoice("Interpolation", interpolations, interpolations[interpolationIndex]);
+        dialog.addChoice("Trigonometric_precision", precisions, precisions[precisionIndex]);
+        dialog.addCheckbox("Single_precision", isSinglePrecision);
+        dialog.addCheckbox("Fused_transform", isFused);
         dialog.addCheckbox("ImageJ1_output", doMakeImageJ1Output);
         dialog.addNumericField("Cylinder_height", cylinderHeight, 2, 7, "voxels");
+        dialog.addCheckbox("Preview", doPreview);
+        dialog.addDialogListener(this);
         dialog.showDialog();
+        closePreview();
         if (dialog.wasCanceled()) {
             return;
         }
 
+        final String error = readParameters(dialog);
+        if (error != null) {
+            IJ.error(pluginName, error);
+            return;
+        }
+
+        final double[] translation = {centerX, centerY, centerZ};
+        final double[] rotation = {rotationX, rotationY, rotationSelf};
+        InverseMapTransform.setParameters(transformationIndex, translation, rotation, innerRadius, outerRadius,
+                stdRadiusOffset, scale, cylinderHeight,
+                new int[]{inputImp.getWidth(), inputImp.getHeight(), inputImp.getStackSize()});
+
+        final KernelInterpolator.Kernel kernel = kernels[interpolationIndex];
+        final KernelInterpolator kernelInterpolator;
+        final RealRandomAccessible<T> input;
+        if (kernel != null) {
+            IJ.showStatus(pluginName + ": preparing interpolation ...");
+            kernelInterpolator = new KernelInterpolator(inputImp.getImageStack(), kernel);
+            input = null;
+            IJ.showStatus("");
+        } else {
+            kernelInterpolator = null;
+            final InterpolatorFactory interpolation = interpolationIndex == 0
+                    ? new NearestNeighborInterpolatorFactory<T>() : new NLinearInterpolatorFactory<T>();
+            input = Views.interpolate(Views.extendZero(inputImg), interpolation);
+        }
+
+        final String transformName = transformNames[transformationIndex];
+        final String filenameParams = String.format(
+                "-%s-cx%.2f-cy%.2f-cz%.2f-rx%.2f-ry%.2f-rs%.2f-ri%.2f-ro%.2f-sr%.2f-sc%.2f",
+                transformName, centerX, centerY, centerZ,
+                rotationX, rotationY, rotationSelf,
+                innerRadius, outerRadius, stdRadiusOffset, scale);
+        final String fileName = Util.addToFilename(imageTitle, filenameParams);
+
+
+        if (doMakeImageJ1Output) {
+            final long[] dimensions = new long[3];
+            createTransform(1).dimensions(dimensions);
+            final int bits = inputImg.firstElement() instanceof GenericShortType ? 16 : 8;
+            final ImagePlus outputImp = IJ.createImage(fileName, (int) dimensions[0], (int) dimensions[1],
+                    (int) dimensions[2], bits);
+            final ImageStack outputStack = outputImp.getImageStack();
+            // Transforms and accesses are not thread-safe, each range gets
+            // its own.
+            Parallel.forRanges((int) dimensions[2], new Parallel.RangeTask() {
+                @Override
+                public void run(final int chunk, final int start, final int end) {
+                    final Transformation<T, V> transformation = createTransformation(translation, rotation, input,
+                            kernelInterpolator);
+                    transformation.computeIj1(outputStack, start, end, chunk == 0);
+                }
+            });
+            outputImp.show();
+        } else {
+            final Transformation<T, V> transformation = createTransformation(translation, rotation, input,
+                    kernelInterpolator);
+            Img<T> outputImg = transformation.compute(inputImg.factory(), inputImg.firstElement());
+            ImageJFunctions.show(outputImg, fileName);
+        }
+    }
+
+    private Transformation<T, V> createTransformation(final double[] translation, final double[] rotation,
+                                                      final RealRandomAccessible<T> input,
+                                                      final KernelInterpolator kernelInterpolator) {
+        final Transformation<T, V> transformation = new Transformation<T, V>(createTransform(1), translation,
+                rotation, input == null ? null : input.realRandomAccess(), isFused);
+        transformation.setKernelInterpolator(kernelInterpolator);
+        transformation.setInputBounds(inputImg, interpolationMargins[interpolationIndex]);
+        return transformation;
+    }
+
+    /**
+     * Sets center and radii of the next dialog to a sphere, e.g. from a
+     * {@link de.uni_heidelberg.cos.agw.ij.util.ShellFitter}. Rotations are
+     * kept.
+     */
+    static void setSphere(final double[] center, final double inner, final double outer) {
+        if (transformationIndex == 2) {
+            transformationIndex = 0;
+        }
+        centerX = center[0];
+        centerY = center[1];
+        centerZ = center[2];
+        innerRadius = inner;
+        outerRadius = outer;
+    }
+
+    /**
+     * Sets the next dialog to a cylinder, rotated to align its axis (a unit
+     * vector with z >= 0) with the cylindrical transform's z axis.
+     */
+    static void setCylinder(final double[] center, final double[] axis, final double inner, final double outer,
+                            final double height) {
+        transformationIndex = 2;
+        centerX = center[0];
+        centerY = center[1];
+        centerZ = center[2];
+        // The transform rotates z by Rx * Ry to (sin ry, -sin rx cos ry, cos rx cos ry).
+        rotationY = Math.asin(Math.max(-1, Math.min(1, axis[0])));
+        rotationX = Math.atan2(-axis[1], axis[2]);
+        rotationSelf = 0;
+        innerRadius = inner;
+        outerRadius = outer;
+        cylinderHeight = height;
+        isCylinderHeightFitted = true;
+    }
+
+    @Override
+    public boolean dialogItemChanged(GenericDialog dialog, AWTEvent event) {
+        if (readParameters(dialog) != null) {
+            return false;
+        }
+        // The event is null for the final call after OK.
+        if (event == null) {
+            return true;
+        }
+        if (doPreview) {
+            updatePreview();
+        } else {
+            closePreview();
+        }
+        return true;
+    }
+
+    // Reads the dialog into the parameters, returns an error message if
+    // they are invalid.
+    private String readParameters(final GenericDialog dialog) {
         transformationIndex = dialog.getNextChoiceIndex();
         centerX = dialog.getNextNumber();
         centerY = dialog.getNextNumber();
@@ -96,123 +287,374 @@ public class MapTransform<T extends NumericType<T> & RealType<T> & NativeType<T>
         stdRadiusOffset = dialog.getNextNumber();
         scale = dialog.getNextNumber();
         interpolationIndex = dialog.getNextChoiceIndex();
+        precisionIndex = dialog.getNextChoiceIndex();
+        isSinglePrecision = dialog.getNextBoolean();
+        isFused = dialog.getNextBoolean();
         doMakeImageJ1Output = dialog.getNextBoolean();
         cylinderHeight = dialog.getNextNumber();
+        doPreview = dialog.getNextBoolean();
 
-        final double[] translation = {centerX, centerY, centerZ};
-        final double[] rotation = {rotationX, rotationY, rotationSelf};
-
+        if (dialog.invalidNumber()) {
+            return "Invalid number.";
+        }
         if (stdRadiusOffset <= 0 || stdRadiusOffset > 1) {
-            IJ.error(pluginName, "Standard radius offset must be between 0 and 1.");
-            return;
+            return "Standard radius offset must be between 0 and 1.";
         }
         if (scale <= 0) {
-            IJ.error(pluginName, "Scale must be greater than 0.");
-            return;
+            return "Scale must be greater than 0.";
         }
+        return null;
+    }
 
-        InterpolatorFactory interpolation = null;
-        switch (interpolationIndex) {
-            case 0:
-                interpolation = new NearestNeighborInterpolatorFactory<T>();
-                break;
-            case 2:
-                interpolation = new LanczosInterpolatorFactory<T>();
-                break;
-            default:
-                interpolation = new NLinearInterpolatorFactory<T>();
-                break;
-        }
-        final RealRandomAccess<T> inputRa = Views.interpolate(Views.extendZero(inputImg), interpolation).realRandomAccess();
-
-        V transform = null;
-        String transformName;
+    // Creates the transform with all lengths divided by divisor, e.g. for
+    // mapping a downsampled copy of the input.
+    private V createTransform(final double divisor) {
+        final double inner = innerRadius / divisor;
+        final double outer = outerRadius / divisor;
+        final TrigTransform transform;
         switch (transformationIndex) {
             case 1:
-                transform = (V) (new AzimuthalEquidistantToCartesianTransform(innerRadius, outerRadius, stdRadiusOffset, scale));
-                transformName = "AzimuthalEquidistant";
+                transform = new AzimuthalEquidistantToCartesianTransform(inner, outer, stdRadiusOffset, scale);
                 break;
             case 2:
-                transform = (V) (new CylindricalToCartesianIntervalTransform(cylinderHeight, innerRadius, outerRadius, stdRadiusOffset, scale));
-                transformName = "Cylindrical";
+                transform = new CylindricalToCartesianIntervalTransform(cylinderHeight / divisor, inner, outer, stdRadiusOffset, scale);
                 break;
             default:
-                transform = (V) (new EquirectangularToCartesianTransform(innerRadius, outerRadius, stdRadiusOffset, scale));
-                transformName = "Equirectangular";
+                transform = new EquirectangularToCartesianTransform(inner, outer, stdRadiusOffset, scale);
                 break;
         }
-        final Transformation transformation = new Transformation(transform, translation, rotation, inputRa);
-        final String filenameParams = String.format(
-                "-%s-cx%.2f-cy%.2f-cz%.2f-rx%.2f-ry%.2f-rs%.2f-ri%.2f-ro%.2f-sr%.2f-sc%.2f",
-                transformName, centerX, centerY, centerZ,
-                rotationX, rotationY, rotationSelf,
-                innerRadius, outerRadius, stdRadiusOffset, scale);
-        final String fileName = Util.addToFilename(imageTitle, filenameParams);
+        transform.setPrecision(trigPrecisions[precisionIndex]);
+        transform.setFastFloat(isSinglePrecision);
+        return (V) transform;
+    }
+
+    private void updatePreview() {
+        if (pyramid == null) {
+            IJ.showStatus(pluginName + ": preparing preview ...");
+            pyramid = new VolumePyramid(inputImp.getImageStack(), 3);
+        }
 
+        // Coarsest level needed to stay below maxPreviewSamples.
+        final long[] dimensions = new long[3];
+        createTransform(1).dimensions(dimensions);
+        final double nSamples = (double) dimensions[0] * dimensions[1] * dimensions[2];
+        int level = 0;
+        while (level < pyramid.getNLevels() - 1 && nSamples / Math.pow(pyramid.getFactor(level), 3) > maxPreviewSamples) {
+            ++level;
+        }
+        final int previewLevel = level;
+        final double factor = pyramid.getFactor(level);
 
-        if (doMakeImageJ1Output) {
-            ImagePlus outputImp = transformation.computeIj1(inputImg.firstElement());
-            outputImp.setTitle(fileName);
-            outputImp.show();
+        final double[] translation = {centerX / factor, centerY / factor, centerZ / factor};
+        final double[] rotation = {rotationX, rotationY, rotationSelf};
+        createTransform(factor).dimensions(dimensions);
+        final int width = (int) Math.max(1, dimensions[0]);
+        final int height = (int) Math.max(1, dimensions[1]);
+        final float[] output = new float[width * height];
+        // Transforms are not thread-safe, each range gets its own.
+        Parallel.forRanges(height, new Parallel.RangeTask() {
+            @Override
+            public void run(final int chunk, final int start, final int end) {
+                final Transformation<T, V> transformation = new Transformation<T, V>(createTransform(factor), translation, rotation, null, isFused);
+                transformation.computeMaxPreview(pyramid, previewLevel, output, start, end);
+            }
+        });
+
+        final String title = String.format("%s preview (1/%d)", pluginName, (int) factor);
+        final FloatProcessor ip = new FloatProcessor(width, height, output, null);
+        if (previewImp == null || previewImp.getWindow() == null) {
+            previewImp = new ImagePlus(title, ip);
+            previewImp.show();
         } else {
-            Img<T> outputImg = transformation.compute(inputImg.factory(), inputImg.firstElement());
-            ImageJFunctions.show(outputImg, fileName);
+            previewImp.setProcessor(title, ip);
+        }
+        previewImp.resetDisplayRange();
+        previewImp.updateAndDraw();
+        IJ.showStatus("");
+    }
+
+    private void closePreview() {
+        if (previewImp != null) {
+            previewImp.close();
+            previewImp = null;
         }
     }
 }
 
 class Transformation<T extends NumericType<T> & RealType<T> & NativeType<T>, V extends RealTransform & Interval> {
 
+    private enum RowShape {
+        CIRCLE, LINE, CURVE
+    }
+
     private final long[] outputDimensions;
-    private final PositionableRealTransform transform;
+    private final RealTransform transform;
+    // Whether positions are computed with the float[] methods, through
+    // sourceFloat and targetFloat.
+    private final boolean isFastFloat;
+    private final float[] sourceFloat = new float[3];
+    private final float[] targetFloat = new float[3];
     private final RealRandomAccess<T> inputRa;
+    // Rows of equirectangular maps are circles, rows of cylindrical maps are
+    // lines parallel to the axis.
+    private final RowShape rowShape;
+    private double[] inputLower, inputUpper;
+    private KernelInterpolator kernelInterpolator;
 
-    public Transformation(final V transformInterval, final double[] translation, final double[] rotation, final RealRandomAccess<T> sourceRa) {
+    /**
+     * @param isFused whether to apply the transform fused by a
+     *                {@link TransformPipeline} instead of the chained one
+     */
+    public Transformation(final V transformInterval, final double[] translation, final double[] rotation,
+                          final RealRandomAccess<T> sourceRa, final boolean isFused) {
         outputDimensions = new long[transformInterval.numDimensions()];
         transformInterval.dimensions(outputDimensions);
 
-        transform = new PositionableRealTransform(transformInterval);
+        final PositionableRealTransform positionable = new PositionableRealTransform(transformInterval);
         for (int d = 0; d < outputDimensions.length; ++d) {
-            transform.setPosition(translation[d], d);
-            transform.rotate(d, rotation[d]);
+            positionable.setPosition(translation[d], d);
+            positionable.rotate(d, rotation[d]);
         }
+        // Projection, spherical or cylindrical to Cartesian, rotation and
+        // translation in one step if fused.
+        transform = isFused ? new TransformPipeline().then(positionable).fuse() : positionable;
+        isFastFloat = transformInterval instanceof TrigTransform && ((TrigTransform) transformInterval).isFastFloat();
 
         inputRa = sourceRa;
+        if (transformInterval instanceof EquirectangularToSphericalTransform) {
+            rowShape = RowShape.CIRCLE;
+        } else if (transformInterval instanceof CartesianIntervalToCylindricalTransform) {
+            rowShape = RowShape.LINE;
+        } else {
+            rowShape = RowShape.CURVE;
+        }
+    }
+
+    /**
+     * Samples the input with a kernel interpolator instead of the
+     * RealRandomAccess, if not null.
+     */
+    public void setKernelInterpolator(final KernelInterpolator kernelInterpolator) {
+        this.kernelInterpolator = kernelInterpolator;
+    }
+
+    /**
+     * Restricts sampling to positions within margin of the input. Output
+     * voxels mapping farther outside are left 0 without interpolating; for
+     * circular and straight rows, the voxels inside are found analytically
+     * per row, without transforming the others.
+     */
+    public void setInputBounds(final Interval input, final double margin) {
+        inputLower = new double[input.numDimensions()];
+        inputUpper = new double[input.numDimensions()];
+        for (int d = 0; d < inputLower.length; ++d) {
+            inputLower[d] = input.min(d) - margin;
+            inputUpper[d] = input.max(d) + margin;
+        }
+    }
+
+    /**
+     * Computes the ranges of x of row (y, z) of the output that map into the
+     * input bounds, as inclusive {first, last} pairs.
+     *
+     * @param ranges of length 2 * {@link CurveClipper#maxArcs} or more
+     * @return the number of ranges
+     */
+    private int getRowRanges(final long y, final long z, final long[] ranges) {
+        final long width = outputDimensions[0];
+        if (inputLower == null || rowShape == RowShape.CURVE) {
+            ranges[0] = 0;
+            ranges[1] = width - 1;
+            return 1;
+        }
+        final double[] map = {0, y, z};
+        final double[] a = new double[3];
+        final double[] b = new double[3];
+        if (rowShape == RowShape.LINE) {
+            // a + x * b
+            transform.apply(map, a);
+            map[0] = 1;
+            transform.apply(map, b);
+            for (int d = 0; d < 3; ++d) {
+                b[d] -= a[d];
+            }
+            final double[] range = new double[2];
+            if (!CurveClipper.clipLine(a, b, inputLower, inputUpper, range)) {
+                return 0;
+            }
+            return addRange(range[0], range[1], width, ranges, 0);
+        }
+
+        // a + cos(phi) * b + sin(phi) * c, with phi = 2 PI x / width, from
+        // the positions at phi = 0, PI / 2 and PI.
+        final double[] c = new double[3];
+        final double[] opposite = new double[3];
+        transform.apply(map, b);
+        map[0] = 0.25 * width;
+        transform.apply(map, c);
+        map[0] = 0.5 * width;
+        transform.apply(map, opposite);
+        for (int d = 0; d < 3; ++d) {
+            a[d] = 0.5 * (b[d] + opposite[d]);
+            b[d] -= a[d];
+            c[d] -= a[d];
+        }
+        final double[] arcs = new double[2 * CurveClipper.maxArcs];
+        final int nArcs = CurveClipper.clipCircle(a, b, c, inputLower, inputUpper, arcs);
+        final double xPerRadian = width / (2 * Math.PI);
+        int n = 0;
+        for (int i = 0; i < nArcs; ++i) {
+            n = addRange(arcs[2 * i] * xPerRadian, arcs[2 * i + 1] * xPerRadian, width, ranges, n);
+        }
+        return n;
+    }
+
+    // Adds the integers from first to last within 0 to width - 1 as a range,
+    // merging with the previous one if adjacent. Returns the new number of
+    // ranges.
+    private static int addRange(final double first, final double last, final long width, final long[] ranges,
+                                int n) {
+        final long start = Math.max(0, (long) Math.ceil(first));
+        final long end = Math.min(width - 1, (long) Math.floor(last));
+        if (start > end) {
+            return n;
+        }
+        if (n > 0 && start <= ranges[2 * n - 1] + 1) {
+            ranges[2 * n - 1] = Math.max(ranges[2 * n - 1], end);
+            return n;
+        }
+        ranges[2 * n] = start;
+        ranges[2 * n + 1] = end;
+        return n + 1;
+    }
+
+    // Transforms a position of the map to the input.
+    private void apply(final double[] map, final double[] cartesian) {
+        if (!isFastFloat) {
+            transform.apply(map, cartesian);
+            return;
+        }
+        for (int d = 0; d < 3; ++d) {
+            sourceFloat[d] = (float) map[d];
+        }
+        transform.apply(sourceFloat, targetFloat);
+        for (int d = 0; d < 3; ++d) {
+            cartesian[d] = targetFloat[d];
+        }
+    }
+
+    private boolean isInInput(final double[] position) {
+        if (inputLower == null) {
+            return true;
+        }
+        for (int d = 0; d < inputLower.length; ++d) {
+            if (position[d] < inputLower[d] || position[d] > inputUpper[d]) {
+                return false;
+            }
+        }
+        return true;
     }
 
     public Img<T> compute(final ImgFactory<T> factory, final T element) {
         final Img<T> outputImg = factory.create(outputDimensions, element);
-        final Cursor<T> outputCur = outputImg.localizingCursor();
-        while (outputCur.hasNext()) {
-            outputCur.next();
-            transform.apply(outputCur, inputRa);
-            outputCur.get().set(inputRa.get());
+        final RandomAccess<T> outputRa = outputImg.randomAccess();
+        final long[] ranges = new long[2 * CurveClipper.maxArcs];
+        final double[] map = new double[3];
+        final double[] cartesian = new double[3];
+        for (long z = 0; z < outputDimensions[2]; ++z) {
+            map[2] = z;
+            for (long y = 0; y < outputDimensions[1]; ++y) {
+                map[1] = y;
+                final int nRanges = getRowRanges(y, z, ranges);
+                for (int r = 0; r < nRanges; ++r) {
+                    outputRa.setPosition(ranges[2 * r], 0);
+                    outputRa.setPosition(y, 1);
+                    outputRa.setPosition(z, 2);
+                    for (long x = ranges[2 * r]; x <= ranges[2 * r + 1]; ++x, outputRa.fwd(0)) {
+                        map[0] = x;
+                        apply(map, cartesian);
+                        if (!isInInput(cartesian)) {
+                            continue;
+                        }
+                        if (kernelInterpolator != null) {
+                            final T output = outputRa.get();
+                            final double value = kernelInterpolator.get(cartesian[0], cartesian[1], cartesian[2]);
+                            output.setReal(Math.max(output.getMinValue(), Math.min(output.getMaxValue(), value)));
+                        } else {
+                            inputRa.setPosition(cartesian);
+                            outputRa.get().set(inputRa.get());
+                        }
+                    }
+                }
+            }
         }
         return outputImg;
     }
 
-    public ImagePlus computeIj1(final T element) {
-        int bits = 8;
-        if (element instanceof GenericShortType) {
-            bits = 16;
-        }
-        final ImagePlus outputImp = IJ.createImage("", (int) outputDimensions[0], (int) outputDimensions[1], (int) outputDimensions[2], bits);
-        final ImageStack stack = outputImp.getImageStack();
+    /**
+     * Computes slices startZ to endZ (exclusive) of the map into a stack of
+     * the output dimensions.
+     *
+     * @param doShowProgress whether to show the progress of these slices
+     */
+    public void computeIj1(final ImageStack stack, final int startZ, final int endZ, final boolean doShowProgress) {
+        final long[] ranges = new long[2 * CurveClipper.maxArcs];
         final double[] cylindrical = new double[3];
         final double[] cartesian = new double[3];
-        for (int z = 0; z < outputDimensions[2]; ++z) {
+        for (int z = startZ; z < endZ; ++z) {
             cylindrical[2] = z;
             for (int y = 0; y < outputDimensions[1]; ++y) {
                 cylindrical[1] = y;
-                for (int x = 0; x < outputDimensions[0]; ++x) {
-                    cylindrical[0] = x;
-                    transform.apply(cylindrical, cartesian);
-                    inputRa.setPosition(cartesian);
-                    stack.setVoxel((int) Math.round(cylindrical[0]), (int) Math.round(cylindrical[1]), (int) Math.round(cylindrical[2]), inputRa.get().getRealDouble());
+                final int nRanges = getRowRanges(y, z, ranges);
+                for (int r = 0; r < nRanges; ++r) {
+                    for (int x = (int) ranges[2 * r]; x <= ranges[2 * r + 1]; ++x) {
+                        cylindrical[0] = x;
+                        apply(cylindrical, cartesian);
+                        if (!isInInput(cartesian)) {
+                            continue;
+                        }
+                        if (kernelInterpolator != null) {
+                            stack.setVoxel(x, y, z, kernelInterpolator.get(cartesian[0], cartesian[1], cartesian[2]));
+                        } else {
+                            inputRa.setPosition(cartesian);
+                            stack.setVoxel(x, y, z, inputRa.get().getRealDouble());
+                        }
+                    }
+                }
+            }
+            if (doShowProgress) {
+                IJ.showProgress(z - startZ + 1, endZ - startZ);
+            }
+        }
+    }
+
+    /**
+     * Computes rows startRow to endRow (exclusive) of the maximum intensity
+     * projection of the map along z from a level of a pyramid. The transform
+     * must be scaled to the level, see {@link VolumePyramid#getFactor(int)}.
+     */
+    public void computeMaxPreview(final VolumePyramid pyramid, final int level, final float[] output,
+                                  final int startRow, final int endRow) {
+        final double factor = pyramid.getFactor(level);
+        final int width = (int) Math.max(1, outputDimensions[0]);
+        final double[] map = new double[3];
+        final double[] cartesian = new double[3];
+        for (int y = startRow; y < endRow; ++y) {
+            map[1] = y;
+            for (int x = 0; x < width; ++x) {
+                map[0] = x;
+                float max = 0;
+                for (int z = 0; z < outputDimensions[2]; ++z) {
+                    map[2] = z;
+                    apply(map, cartesian);
+                    final float value = pyramid.getLinear(level, cartesian[0] * factor,
+                            cartesian[1] * factor, cartesian[2] * factor);
+                    if (z == 0 || value > max) {
+                        max = value;
+                    }
                 }
+                output[y * width + x] = max;
             }
-            IJ.showProgress(z + 1, (int) outputDimensions[2]);
         }
-        return outputImp;
     }
 }
@@ -0,0 +1,203 @@
+package de.uni_heidelberg.cos.agw.ij;
+
+import de.uni_heidelberg.cos.agw.ij.util.ObliqueProjector;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.gui.GenericDialog;
+import ij.measure.Calibration;
+import ij.measure.ResultsTable;
+import ij.plugin.filter.PlugInFilter;
+import ij.process.ImageProcessor;
+import ij.process.StackStatistics;
+
+/**
+ * Projects a volume along an arbitrary direction, generalizing
+ * {@link OrthogonalProject}. The direction is given by two rotation angles, or
+ * by the last three points measured with {@link ThreePointAngle}: points 1 and
+ * 2 give the projection direction, point 3 the direction of the y axis of
+ * the output. Alpha compositing makes the maximum of each volume opaque.
+ */
+public class ObliqueProject implements PlugInFilter {
+
+    private static final String pluginName = "Oblique Project";
+    private static final String[] directions = {"Angles", "3 Point Angle points"};
+    private static final String[] interpolations = {"Nearest neighbor", "Linear"};
+    private static final String[] projections = {"Max Intensity", "Sum", "Mean", "Alpha Compositing"};
+    private static final String[] titlePrefixes = {"MAX", "SUM", "AVG", "ALPHA"};
+    private static int directionIndex = 0;
+    private static double angleX = 0, angleY = 0;
+    private static int interpolationIndex = 0;
+    private static int projectionIndex = 0;
+    private ImagePlus inputImp;
+
+    @Override
+    public int setup(String args, ImagePlus imp) {
+        inputImp = imp;
+        return STACK_REQUIRED + DOES_8G + DOES_16 + DOES_32;
+    }
+
+    @Override
+    public void run(ImageProcessor inputIp) {
+        GenericDialog dialog = new GenericDialog(pluginName);
+        dialog.addChoice("Direction", directions, directions[directionIndex]);
+        dialog.addNumericField("Angle_x", angleX, 1, 6, "degrees");
+        dialog.addNumericField("Angle_y", angleY, 1, 6, "degrees");
+        dialog.addChoice("Interpolation", interpolations, interpolations[interpolationIndex]);
+        dialog.addChoice("Projection_type", projections, projections[projectionIndex]);
+        dialog.addNumericField("Start plane", 1, 0);
+        dialog.addNumericField("End plane", 0, 0, 6, "0 = last");
+        dialog.showDialog();
+        if (dialog.wasCanceled()) {
+            return;
+        }
+        directionIndex = dialog.getNextChoiceIndex();
+        angleX = dialog.getNextNumber();
+        angleY = dialog.getNextNumber();
+        interpolationIndex = dialog.getNextChoiceIndex();
+        projectionIndex = dialog.getNextChoiceIndex();
+        final int startPlane = (int) Math.round(dialog.getNextNumber());
+        final int endPlane = (int) Math.round(dialog.getNextNumber());
+
+        double[][] view = null;
+        if (directionIndex == 1) {
+            view = getViewFromPoints(inputImp.getCalibration());
+            if (view == null) {
+                IJ.error(pluginName, "Please measure three distinct points with 3 Point Angle first.");
+                return;
+            }
+        }
+
+        IJ.showStatus(pluginName + " ...");
+        ImagePlus outputImp = run(inputImp, view, Math.toRadians(angleX), Math.toRadians(angleY),
+                interpolationIndex == 1, ObliqueProjector.Reduction.values()[projectionIndex],
+                startPlane, endPlane);
+        outputImp.show();
+        IJ.showStatus("");
+    }
+
+    /**
+     * Projects each channel and frame of the image.
+     *
+     * @param imp        input
+     * @param view       {u, v, w}, see {@link ObliqueProjector}, or null to
+     *                   use the angles
+     * @param radiansX   rotation around x, used if view is null
+     * @param radiansY   rotation around y, used if view is null
+     * @param isLinear   whether to interpolate linearly instead of using the
+     *                   nearest neighbor
+     * @param reduction  projection type
+     * @param startPlane first plane along the projection direction, 1-based
+     * @param endPlane   last plane, inclusive, or 0 for the last plane
+     * @return projection
+     */
+    public ImagePlus run(final ImagePlus imp, final double[][] view, final double radiansX,
+                         final double radiansY, final boolean isLinear,
+                         final ObliqueProjector.Reduction reduction, final int startPlane, final int endPlane) {
+        final Calibration calibration = imp.getCalibration();
+        final double[] voxelSize = {calibration.pixelWidth, calibration.pixelHeight, calibration.pixelDepth};
+        final int nChannels = imp.getNChannels();
+        final int nFrames = imp.getNFrames();
+        final ImageStack stack = imp.getImageStack();
+        ImageStack outputStack = null;
+        for (int frame = 1; frame <= nFrames; ++frame) {
+            for (int channel = 1; channel <= nChannels; ++channel) {
+                final ImageStack volume = new ImageStack(imp.getWidth(), imp.getHeight());
+                for (int z = 1; z <= imp.getNSlices(); ++z) {
+                    volume.addSlice("", stack.getPixels(imp.getStackIndex(channel, z, frame)));
+                }
+                final ObliqueProjector projector = new ObliqueProjector(volume, voxelSize);
+                if (view != null) {
+                    projector.setDirection(view[0], view[1], view[2]);
+                } else {
+                    projector.setAngles(radiansX, radiansY);
+                }
+                projector.setInterpolation(isLinear);
+                projector.setReduction(reduction);
+                if (reduction == ObliqueProjector.Reduction.ALPHA) {
+                    final double max = new StackStatistics(new ImagePlus("", volume)).max;
+                    if (max > 0) {
+                        projector.setOpaqueValue(max);
+                    }
+                }
+                final int[] size = projector.getOutputSize();
+                final int start = Math.max(1, Math.min(startPlane, size[2]));
+                final int end = endPlane < 1 ? size[2] : Math.max(start, Math.min(endPlane, size[2]));
+                ImageProcessor ip = projector.project(start, end);
+                if (reduction == ObliqueProjector.Reduction.MAX && imp.getBitDepth() == 8) {
+                    ip = ip.convertToByte(false);
+                } else if (reduction == ObliqueProjector.Reduction.MAX && imp.getBitDepth() == 16) {
+                    ip = ip.convertToShort(false);
+                }
+                if (outputStack == null) {
+                    outputStack = new ImageStack(ip.getWidth(), ip.getHeight());
+                }
+                outputStack.addSlice("", ip);
+                IJ.showProgress(outputStack.getSize(), nChannels * nFrames);
+            }
+        }
+
+        final ImagePlus outputImp = new ImagePlus(titlePrefixes[reduction.ordinal()] + "oblique_"
+                + imp.getTitle(), outputStack);
+        outputImp.setDimensions(nChannels, 1, nFrames);
+        final Calibration outputCalibration = outputImp.getCalibration();
+        outputCalibration.setUnit(calibration.getUnit());
+        outputCalibration.pixelWidth = calibration.pixelWidth;
+        outputCalibration.pixelHeight = calibration.pixelWidth;
+        outputImp.getProcessor().setLut(imp.getProcessor().getLut());
+        outputImp.resetDisplayRange();
+        return outputImp;
+    }
+
+    // Returns {u, v, w} from the points of the last row of the 3 Point Angle
+    // table, or null if there are none.
+    private static double[][] getViewFromPoints(final Calibration calibration) {
+        final ResultsTable table = ResultsTable.getResultsTable();
+        if (table == null || table.getCounter() == 0 || !table.columnExists(table.getColumnIndex("x3 (voxel)"))) {
+            return null;
+        }
+        final int row = table.getCounter() - 1;
+        final double[] scale = {calibration.pixelWidth, calibration.pixelHeight, calibration.pixelDepth};
+        final String[] axes = {"x", "y", "z"};
+        final double[][] points = new double[3][3];
+        for (int i = 0; i < 3; ++i) {
+            for (int d = 0; d < 3; ++d) {
+                points[i][d] = table.getValue(String.format("%s%d (voxel)", axes[d], i + 1), row) * scale[d];
+            }
+        }
+        final double[] w = new double[3];
+        final double[] up = new double[3];
+        for (int d = 0; d < 3; ++d) {
+            w[d] = points[1][d] - points[0][d];
+            up[d] = points[2][d] - points[0][d];
+        }
+        if (!normalize(w)) {
+            return null;
+        }
+        // v is the part of the direction to point 3 orthogonal to w.
+        final double dot = up[0] * w[0] + up[1] * w[1] + up[2] * w[2];
+        final double[] v = new double[3];
+        for (int d = 0; d < 3; ++d) {
+            v[d] = up[d] - dot * w[d];
+        }
+        if (!normalize(v)) {
+            return null;
+        }
+        final double[] u = {
+                v[1] * w[2] - v[2] * w[1],
+                v[2] * w[0] - v[0] * w[2],
+                v[0] * w[1] - v[1] * w[0]};
+        return new double[][]{u, v, w};
+    }
+
+    private static boolean normalize(final double[] vector) {
+        final double length = Math.sqrt(vector[0] * vector[0] + vector[1] * vector[1] + vector[2] * vector[2]);
+        if (length < 1e-9) {
+            return false;
+        }
+        for (int d = 0; d < 3; ++d) {
+            vector[d] /= length;
+        }
+        return true;
+    }
+}
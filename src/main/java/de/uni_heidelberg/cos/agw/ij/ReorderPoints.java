@@ -1,33 +1,57 @@
 package de.uni_heidelberg.cos.agw.ij;
 
+import de.uni_heidelberg.cos.agw.ij.util.Parallel;
+import de.uni_heidelberg.cos.agw.ij.util.PointCloud;
+import de.uni_heidelberg.cos.agw.ij.util.PointGrid;
+import de.uni_heidelberg.cos.agw.ij.util.PointIndex;
+import de.uni_heidelberg.cos.agw.ij.util.PointKDTree;
 import ij.IJ;
 import ij.WindowManager;
 import ij.gui.GenericDialog;
 import ij.plugin.PlugIn;
 import net.imglib2.*;
-import net.imglib2.collection.KDTree;
-import net.imglib2.collection.RealPointSampleList;
 import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
 import net.imglib2.img.display.imagej.ImageJFunctions;
-import net.imglib2.interpolation.InterpolatorFactory;
-import net.imglib2.interpolation.neighborsearch.InverseDistanceWeightingInterpolatorFactory;
-import net.imglib2.interpolation.neighborsearch.NearestNeighborInterpolatorFactory;
-import net.imglib2.neighborsearch.KNearestNeighborSearch;
-import net.imglib2.neighborsearch.KNearestNeighborSearchOnKDTree;
-import net.imglib2.neighborsearch.NearestNeighborSearch;
 import net.imglib2.type.NativeType;
-import net.imglib2.type.Type;
 import net.imglib2.type.numeric.IntegerType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.real.DoubleType;
 import net.imglib2.view.Views;
 
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 
 // TODO: Some of this only seems to work when using DoubleType.
 public class ReorderPoints<I extends RealType<I> & NativeType<I>, C extends RealType<C> & NativeType<C>, M extends IntegerType<M> & NativeType<M>> implements PlugIn {
 
+    public enum Interpolation {
+        NEAREST_NEIGHBOR, INVERSE_DISTANCE_WEIGHTING,
+        /**
+         * Each point is added to the output voxels within splatRadius,
+         * weighted by a smooth kernel, and the sums are normalized. Voxels
+         * without points nearby are 0.
+         */
+        SPLATTING
+    }
+
+    public enum SpatialIndex {
+        KD_TREE, GRID
+    }
+
+    // Power of the distance in inverse distance weighting.
+    private static final double idwPower = 3;
+    // Squared distance ratio below which the nearest neighbor is used instead
+    // of inverse distance weighting.
+    private static final double idwMinRatio = 4.94E-321;
+    // Edge length of the bricks of output voxels that are rasterized as a
+    // whole by one thread.
+    private static final int brickSize = 16;
+    // Radius of the splatting kernel, in output voxels.
+    private static final double splatRadius = 1.5;
     private String pluginName = "Reorder Points";
+    private SpatialIndex spatialIndex = SpatialIndex.KD_TREE;
+    private double cellSize = 0;
 
     @Override
     public void run(String arg) {
@@ -49,9 +73,7 @@ public class ReorderPoints<I extends RealType<I> & NativeType<I>, C extends Real
             mask = ImageJFunctions.wrap(WindowManager.getImage(params[1]));
         }
 
-        final InterpolatorFactory<DoubleType, NearestNeighborSearch<DoubleType>> interpolation = params[5] == 0
-                ? new NearestNeighborInterpolatorFactory()
-                : new InverseDistanceWeightingInterpolatorFactory<DoubleType>();
+        final Interpolation interpolation = Interpolation.values()[params[5]];
         final int nn = params[6];
 
         RandomAccessibleInterval<DoubleType> output;
@@ -78,7 +100,8 @@ public class ReorderPoints<I extends RealType<I> & NativeType<I>, C extends Real
         }
         optionalTitles[ids.length] = "*None*";
 
-        String[] interpolations = {"Nearest Neighbor", "Linear"};
+        String[] interpolations = {"Nearest Neighbor", "Linear", "Splatting"};
+        String[] indices = {"KD-tree", "Grid"};
 
         GenericDialog dialog = new GenericDialog(pluginName);
         dialog.addChoice("Source", titles, titles[0]);
@@ -88,6 +111,8 @@ public class ReorderPoints<I extends RealType<I> & NativeType<I>, C extends Real
         dialog.addChoice("z", optionalTitles, optionalTitles[optionalTitles.length - 1]);
         dialog.addChoice("Interpolation", interpolations, interpolations[1]);
         dialog.addNumericField("Neighbors for interpolation", 10, 0);
+        dialog.addChoice("Neighbor search", indices, indices[spatialIndex.ordinal()]);
+        dialog.addNumericField("Grid cell size", cellSize, 2, 6, "(0 = auto)");
         dialog.showDialog();
         if (dialog.wasCanceled()) {
             return null;
@@ -112,83 +137,173 @@ public class ReorderPoints<I extends RealType<I> & NativeType<I>, C extends Real
 
         int interpolationIdx = dialog.getNextChoiceIndex();
         int nn = (int) Math.round(dialog.getNextNumber());
+        SpatialIndex index = SpatialIndex.values()[dialog.getNextChoiceIndex()];
+        double gridCellSize = dialog.getNextNumber();
+        if (gridCellSize < 0) {
+            IJ.error(pluginName, "Grid cell size must not be negative.");
+            return null;
+        }
+        setSpatialIndex(index, gridCellSize);
 
         int[] params = {sourceId, maskId, xId, yId, zId, interpolationIdx, nn};
         return params;
     }
 
-    public RandomAccessibleInterval<DoubleType> compute(final IterableInterval<I> source, final RandomAccessibleInterval<C>[] coordinates, final InterpolatorFactory<DoubleType, NearestNeighborSearch<DoubleType>> interpolation, final int nn) {
+    /**
+     * Sets the index used to search the nearest points, a KD-tree by default.
+     *
+     * @param cellSize cell size of a grid index, 0 for automatic
+     */
+    public void setSpatialIndex(final SpatialIndex spatialIndex, final double cellSize) {
+        this.spatialIndex = spatialIndex;
+        this.cellSize = cellSize;
+    }
+
+    public RandomAccessibleInterval<DoubleType> compute(final IterableInterval<I> source, final RandomAccessibleInterval<C>[] coordinates, final Interpolation interpolation, final int nn) {
         for (int i = 0; i < coordinates.length; ++i) {
             compareDimensions(source, coordinates[i]);
         }
-        RealPointSampleList<DoubleType> points = getPoints(source, coordinates);
-        return getRandomAccessibleInterval(points, interpolation, nn);
+        PointCloud points = getPoints(null, source, null, coordinates);
+        return rasterize(points, interpolation, nn);
     }
 
-    public RandomAccessibleInterval<DoubleType> compute(final IterableInterval<M> mask, final RandomAccessibleInterval<I> source, final RandomAccessibleInterval<C>[] coordinates, final InterpolatorFactory<DoubleType, NearestNeighborSearch<DoubleType>> interpolation, final int nn) {
+    public RandomAccessibleInterval<DoubleType> compute(final IterableInterval<M> mask, final RandomAccessibleInterval<I> source, final RandomAccessibleInterval<C>[] coordinates, final Interpolation interpolation, final int nn) {
         compareDimensions(source, mask);
         for (int i = 0; i < coordinates.length; ++i) {
             compareDimensions(source, coordinates[i]);
         }
-        RealPointSampleList<DoubleType> points = getPoints(mask, source, coordinates);
-        return getRandomAccessibleInterval(points, interpolation, nn);
+        final IterableInterval<I> sourceIterable = source instanceof IterableInterval ? (IterableInterval<I>) source : null;
+        PointCloud points = getPoints(mask, sourceIterable, source, coordinates);
+        return rasterize(points, interpolation, nn);
     }
 
-    private RealPointSampleList<DoubleType> getPoints(IterableInterval<I> source, RandomAccessible<C>[] coordinates) {
+    /**
+     * Collects the points in a single pass over all images: all voxels inside
+     * the mask or, without a mask, all voxels with a non-zero coordinate.
+     * If all images are iterated in the same order (e.g. array or ImageJ
+     * images of equal size), their cursors are moved in lockstep, otherwise
+     * the source and coordinates are read at the positions of the driving
+     * cursor. Ranges of voxels are processed in parallel and their points
+     * concatenated in iteration order. Package-private for the benchmark.
+     *
+     * @param mask             mask or null
+     * @param sourceIterable   source if iterable, must not be null without a
+     *                         mask
+     * @param sourceAccessible source, may be null without a mask
+     */
+    PointCloud getPoints(final IterableInterval<M> mask, final IterableInterval<I> sourceIterable, final RandomAccessible<I> sourceAccessible, final RandomAccessibleInterval<C>[] coordinates) {
         final int nDimensions = coordinates.length;
-        RealPointSampleList<DoubleType> points = new RealPointSampleList<DoubleType>(nDimensions);
-        Cursor<I> sourceCur = source.localizingCursor();
-        RandomAccess<C>[] ras = new RandomAccess[nDimensions];
+        final IterableInterval<?> driver = mask != null ? mask : sourceIterable;
+        final Object order = driver.iterationOrder();
+        boolean isLockstep = sourceIterable != null && order.equals(sourceIterable.iterationOrder());
         for (int i = 0; i < nDimensions; ++i) {
-            ras[i] = coordinates[i].randomAccess();
-        }
-        double[] p = new double[nDimensions];
-        while (sourceCur.hasNext()) {
-            sourceCur.fwd();
-            for (int i = 0; i < nDimensions; ++i) {
-                RandomAccess<C> ra = ras[i];
-                ra.setPosition(sourceCur);
-                p[i] = ra.get().getRealDouble();
-            }
-            for (int i = 0; i < nDimensions; ++i) {
-                if (p[i] != 0d) {
-                    points.add(new RealPoint(p), new DoubleType(sourceCur.get().getRealDouble()));
-                    break;
+            isLockstep &= coordinates[i] instanceof IterableInterval
+                    && order.equals(((IterableInterval<?>) coordinates[i]).iterationOrder());
+        }
+        final boolean isFlat = isLockstep;
+
+        final long size = driver.size();
+        final int nChunks = (int) Math.max(1, Math.min(size, Parallel.getNThreads()));
+        final PointCloud[] partials = new PointCloud[nChunks];
+        Parallel.forRanges(nChunks, new Parallel.RangeTask() {
+            @Override
+            public void run(final int chunk, final int startChunk, final int endChunk) {
+                final long start = size * chunk / nChunks;
+                final long n = size * (chunk + 1) / nChunks - start;
+                final PointCloud partial = new PointCloud(nDimensions, (int) Math.min(n, 1 << 16));
+                final double[] p = new double[nDimensions];
+                if (isFlat) {
+                    final Cursor<M> maskCur = mask == null ? null : mask.cursor();
+                    final Cursor<I> sourceCur = sourceIterable.cursor();
+                    @SuppressWarnings({"unchecked", "rawtypes"})
+                    final Cursor<C>[] coordinateCurs = new Cursor[nDimensions];
+                    for (int i = 0; i < nDimensions; ++i) {
+                        coordinateCurs[i] = ((IterableInterval<C>) coordinates[i]).cursor();
+                        coordinateCurs[i].jumpFwd(start);
+                    }
+                    sourceCur.jumpFwd(start);
+                    if (maskCur != null) {
+                        maskCur.jumpFwd(start);
+                    }
+                    for (long j = 0; j < n; ++j) {
+                        sourceCur.fwd();
+                        for (int i = 0; i < nDimensions; ++i) {
+                            coordinateCurs[i].fwd();
+                        }
+                        if (maskCur != null) {
+                            maskCur.fwd();
+                            if (maskCur.get().getInteger() <= 0) {
+                                continue;
+                            }
+                        }
+                        for (int i = 0; i < nDimensions; ++i) {
+                            p[i] = coordinateCurs[i].get().getRealDouble();
+                        }
+                        if (maskCur != null || !isZero(p)) {
+                            partial.add(p, sourceCur.get().getRealDouble());
+                        }
+                    }
+                } else {
+                    final Cursor<?> driverCur = driver.localizingCursor();
+                    final RandomAccess<I> sourceRa = mask == null ? null : sourceAccessible.randomAccess();
+                    @SuppressWarnings({"unchecked", "rawtypes"})
+                    final RandomAccess<C>[] coordinateRas = new RandomAccess[nDimensions];
+                    for (int i = 0; i < nDimensions; ++i) {
+                        coordinateRas[i] = coordinates[i].randomAccess();
+                    }
+                    driverCur.jumpFwd(start);
+                    for (long j = 0; j < n; ++j) {
+                        driverCur.fwd();
+                        if (mask != null && ((IntegerType<?>) driverCur.get()).getInteger() <= 0) {
+                            continue;
+                        }
+                        for (int i = 0; i < nDimensions; ++i) {
+                            coordinateRas[i].setPosition(driverCur);
+                            p[i] = coordinateRas[i].get().getRealDouble();
+                        }
+                        if (mask != null) {
+                            sourceRa.setPosition(driverCur);
+                            partial.add(p, sourceRa.get().getRealDouble());
+                        } else if (!isZero(p)) {
+                            partial.add(p, ((RealType<?>) driverCur.get()).getRealDouble());
+                        }
+                    }
                 }
+                partials[chunk] = partial;
             }
+        });
+
+        int nPoints = 0;
+        for (final PointCloud partial : partials) {
+            nPoints += partial.size();
+        }
+        final PointCloud points = new PointCloud(nDimensions, nPoints);
+        for (final PointCloud partial : partials) {
+            points.addAll(partial);
         }
         return points;
     }
 
-    private RealPointSampleList<DoubleType> getPoints(IterableInterval<M> mask, RandomAccessible<I> source, RandomAccessible<C>[] coordinates) {
-        final int nDimensions = coordinates.length;
-        RealPointSampleList<DoubleType> points = new RealPointSampleList<DoubleType>(nDimensions);
-        Cursor<M> maskCur = mask.localizingCursor();
-        RandomAccess<I> sourceRa = source.randomAccess();
-        RandomAccess<C>[] ras = new RandomAccess[nDimensions];
-        for (int i = 0; i < nDimensions; ++i) {
-            ras[i] = coordinates[i].randomAccess();
-        }
-        double[] p = new double[nDimensions];
-        while (maskCur.hasNext()) {
-            maskCur.fwd();
-            if (maskCur.get().getInteger() > 0) {
-                sourceRa.setPosition(maskCur);
-                points.add(new RealPoint(p), new DoubleType(sourceRa.get().getRealDouble()));
+    private static boolean isZero(final double[] p) {
+        for (int i = 0; i < p.length; ++i) {
+            if (p[i] != 0d) {
+                return false;
             }
         }
-        return points;
+        return true;
     }
 
-    private <T extends Type<T>> RandomAccessibleInterval<T> getRandomAccessibleInterval(final RealPointSampleList<T> points, final InterpolatorFactory<T, NearestNeighborSearch<T>> interpolation, final int nn) {
-        KNearestNeighborSearch<T> knnSearch = new KNearestNeighborSearchOnKDTree<T>(
-                new KDTree<T>(points), Math.min(nn, (int) points.size()));
-        RealRandomAccessible<T> realRandomAccessible = Views.interpolate(knnSearch, interpolation);
-        RandomAccessible<T> randomAccessible = Views.raster(realRandomAccessible);
-
-        final double[] bounds = new double[points.numDimensions()];
-        final long[] min = new long[bounds.length];
-        final long[] max = new long[bounds.length];
+    /**
+     * Interpolates the points on the integer grid of their bounding box into
+     * an array image, see {@link #search(PointCloud, Interpolation, int,
+     * long[], int[], double[])} and {@link #splat(PointCloud, long[], int[],
+     * double[])}.
+     */
+    private RandomAccessibleInterval<DoubleType> rasterize(final PointCloud points, final Interpolation interpolation, final int nn) {
+        final int nDimensions = points.numDimensions();
+        final double[] bounds = new double[nDimensions];
+        final long[] min = new long[nDimensions];
+        final long[] max = new long[nDimensions];
         points.realMin(bounds);
         for (int i = 0; i < bounds.length; ++i) {
             min[i] = Math.round(bounds[i]);
@@ -198,7 +313,189 @@ public class ReorderPoints<I extends RealType<I> & NativeType<I>, C extends Real
             max[i] = Math.round(bounds[i]);
         }
 
-        return Views.interval(randomAccessible, min, max);
+        // 2D output is rasterized as a single plane.
+        final long[] dimensions = new long[nDimensions];
+        final int[] size = {1, 1, 1};
+        long nVoxels = 1;
+        for (int d = 0; d < nDimensions; ++d) {
+            dimensions[d] = max[d] - min[d] + 1;
+            // Both factors are at most Integer.MAX_VALUE, so the product does
+            // not overflow.
+            if (dimensions[d] > Integer.MAX_VALUE || nVoxels * dimensions[d] > Integer.MAX_VALUE) {
+                String msg = String.format("Coordinates span too many voxels, the output is limited to %d voxels.",
+                        Integer.MAX_VALUE);
+                IJ.error(pluginName, msg);
+                throw new IllegalArgumentException(msg);
+            }
+            nVoxels *= dimensions[d];
+            size[d] = (int) dimensions[d];
+        }
+        final double[] data = new double[(int) nVoxels];
+        if (interpolation == Interpolation.SPLATTING) {
+            splat(points, min, size, data);
+        } else {
+            search(points, interpolation, nn, min, size, data);
+        }
+        return Views.translate(ArrayImgs.doubles(data, dimensions), min);
+    }
+
+    /**
+     * Searches the nearest points of each output voxel. Bricks of
+     * brickSize^3 voxels are handed out to the threads one by one; each
+     * thread has its own searcher on the shared index and walks a brick row
+     * by row in alternating directions, so successive queries are close.
+     */
+    private void search(final PointCloud points, final Interpolation interpolation, final int nn, final long[] min, final int[] size, final double[] data) {
+        final PointIndex index;
+        if (spatialIndex == SpatialIndex.GRID) {
+            index = cellSize > 0 ? new PointGrid(points, cellSize) : new PointGrid(points);
+        } else {
+            index = new PointKDTree(points);
+        }
+        final int k = interpolation == Interpolation.NEAREST_NEIGHBOR ? 1 : Math.max(1, nn);
+        final int nDimensions = points.numDimensions();
+        final int[] nBricks = new int[3];
+        for (int d = 0; d < 3; ++d) {
+            nBricks[d] = (size[d] + brickSize - 1) / brickSize;
+        }
+        final int nBricksTotal = nBricks[0] * nBricks[1] * nBricks[2];
+
+        final AtomicInteger nextBrick = new AtomicInteger(0);
+        Parallel.forRanges(Parallel.getNThreads(), new Parallel.RangeTask() {
+            @Override
+            public void run(final int chunk, final int start, final int end) {
+                final PointIndex.Searcher searcher = index.searcher();
+                final double[] position = new double[nDimensions];
+                for (int brick = nextBrick.getAndIncrement(); brick < nBricksTotal; brick = nextBrick.getAndIncrement()) {
+                    final int x0 = brick % nBricks[0] * brickSize;
+                    final int y0 = brick / nBricks[0] % nBricks[1] * brickSize;
+                    final int z0 = brick / (nBricks[0] * nBricks[1]) * brickSize;
+                    final int x1 = Math.min(x0 + brickSize, size[0]);
+                    final int y1 = Math.min(y0 + brickSize, size[1]);
+                    final int z1 = Math.min(z0 + brickSize, size[2]);
+                    boolean isForward = true;
+                    for (int z = z0; z < z1; ++z) {
+                        if (nDimensions > 2) {
+                            position[2] = min[2] + z;
+                        }
+                        for (int y = y0; y < y1; ++y) {
+                            position[1] = min[1] + y;
+                            for (int i = 0; i < x1 - x0; ++i) {
+                                final int x = isForward ? x0 + i : x1 - 1 - i;
+                                position[0] = min[0] + x;
+                                searcher.search(position, k);
+                                data[(z * size[1] + y) * size[0] + x] = interpolate(index, searcher);
+                            }
+                            isForward = !isForward;
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Adds each point to the output voxels within splatRadius, weighted by
+     * (1 - r^2 / splatRadius^2)^2, and divides by the sum of weights. The
+     * points are sorted by their nearest plane along the last axis; each
+     * thread owns a range of planes and splats the points near it, so no
+     * voxel is written by two threads.
+     */
+    private void splat(final PointCloud points, final long[] min, final int[] size, final double[] data) {
+        final int nDimensions = points.numDimensions();
+        final int axis = nDimensions - 1;
+        final int nPlanes = size[axis];
+        final int planeSize = data.length / nPlanes;
+        // Points of plane p are order[planeStarts[p]] to
+        // order[planeStarts[p + 1] - 1].
+        final int[] planeStarts = new int[nPlanes + 1];
+        final int[] planes = new int[points.size()];
+        for (int i = 0; i < points.size(); ++i) {
+            planes[i] = Math.max(0, Math.min(nPlanes - 1, Math.round(points.getCoordinate(i, axis) - min[axis])));
+            ++planeStarts[planes[i] + 1];
+        }
+        for (int p = 1; p <= nPlanes; ++p) {
+            planeStarts[p] += planeStarts[p - 1];
+        }
+        final int[] next = Arrays.copyOf(planeStarts, nPlanes);
+        final int[] order = new int[points.size()];
+        for (int i = 0; i < points.size(); ++i) {
+            order[next[planes[i]]++] = i;
+        }
+
+        final int reach = (int) Math.ceil(splatRadius + 0.5);
+        final double squareRadius = splatRadius * splatRadius;
+        Parallel.forRanges(nPlanes, new Parallel.RangeTask() {
+            @Override
+            public void run(final int chunk, final int start, final int end) {
+                final int offset = start * planeSize;
+                final double[] weights = new double[(end - start) * planeSize];
+                final double[] position = new double[3];
+                final int[] lower = new int[3];
+                final int[] upper = new int[3];
+                final int firstPoint = planeStarts[Math.max(0, start - reach)];
+                final int lastPoint = planeStarts[Math.min(nPlanes, end + reach)];
+                for (int j = firstPoint; j < lastPoint; ++j) {
+                    final int i = order[j];
+                    for (int d = 0; d < 3; ++d) {
+                        if (d < nDimensions) {
+                            position[d] = points.getCoordinate(i, d) - min[d];
+                            lower[d] = (int) Math.max(0, Math.ceil(position[d] - splatRadius));
+                            upper[d] = (int) Math.min(size[d] - 1, Math.floor(position[d] + splatRadius));
+                        } else {
+                            position[d] = 0;
+                            lower[d] = 0;
+                            upper[d] = 0;
+                        }
+                    }
+                    // Only the planes of this thread.
+                    lower[axis] = Math.max(lower[axis], start);
+                    upper[axis] = Math.min(upper[axis], end - 1);
+                    final double value = points.getValue(i);
+                    for (int z = lower[2]; z <= upper[2]; ++z) {
+                        final double dz = z - position[2];
+                        for (int y = lower[1]; y <= upper[1]; ++y) {
+                            final double dy = y - position[1];
+                            final int row = (z * size[1] + y) * size[0];
+                            for (int x = lower[0]; x <= upper[0]; ++x) {
+                                final double dx = x - position[0];
+                                final double ratio = (dx * dx + dy * dy + dz * dz) / squareRadius;
+                                if (ratio >= 1) {
+                                    continue;
+                                }
+                                final double weight = (1 - ratio) * (1 - ratio);
+                                data[row + x] += weight * value;
+                                weights[row + x - offset] += weight;
+                            }
+                        }
+                    }
+                }
+                for (int v = 0; v < weights.length; ++v) {
+                    data[offset + v] = weights[v] > 0 ? data[offset + v] / weights[v] : 0;
+                }
+            }
+        });
+    }
+
+    // Inverse distance weighting of the neighbors found, as in ImgLib2's
+    // InverseDistanceWeightingInterpolator; the nearest neighbor if only one
+    // was searched or it is (almost) at the position.
+    private static double interpolate(final PointIndex index, final PointIndex.Searcher searcher) {
+        final int n = searcher.getN();
+        if (n == 0) {
+            return 0;
+        }
+        if (n == 1 || searcher.getSquareDistance(0) <= idwMinRatio * searcher.getSquareDistance(1)) {
+            return index.getValue(searcher.getIndex(0));
+        }
+        double sum = 0;
+        double weightSum = 0;
+        for (int i = 0; i < n; ++i) {
+            final double weight = 1 / Math.pow(searcher.getSquareDistance(i), idwPower / 2);
+            sum += weight * index.getValue(searcher.getIndex(i));
+            weightSum += weight;
+        }
+        return sum / weightSum;
     }
 
     private void compareDimensions(final Interval i1, final Interval i2) {
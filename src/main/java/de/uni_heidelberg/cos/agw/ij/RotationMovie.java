@@ -0,0 +1,226 @@
+package de.uni_heidelberg.cos.agw.ij;
+
+import de.uni_heidelberg.cos.agw.ij.util.ObliqueProjector;
+import de.uni_heidelberg.cos.agw.ij.util.Parallel;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.VirtualStack;
+import ij.gui.GenericDialog;
+import ij.io.FileSaver;
+import ij.measure.Calibration;
+import ij.plugin.filter.AVI_Writer;
+import ij.plugin.filter.PlugInFilter;
+import ij.process.ImageProcessor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders maximum intensity projections of the current volume at evenly spaced
+ * angles around one axis, e.g. for 360 degree rotation movies. All frames
+ * have the same size and are centered on the center of the volume.
+ * <p>
+ * Angles are rendered in parallel, each by its own copy of an
+ * {@link ObliqueProjector} that skips empty space using a precomputation
+ * shared by all angles. If an output folder is given, frames are saved as
+ * numbered TIFF files as soon as they are done, so only the frames currently
+ * rendered are held in memory, and the result is opened as a virtual stack.
+ * Optionally, the frames are encoded into an AVI file in the same folder.
+ */
+public class RotationMovie implements PlugInFilter {
+
+    private static final String pluginName = "Rotation Movie";
+    private static final String[] axes = {"X", "Y", "Z"};
+    private static final String[] interpolations = {"Nearest neighbor", "Linear"};
+    private static int axisIndex = 1;
+    private static int nAngles = 36;
+    private static double totalDegrees = 360;
+    private static int interpolationIndex = 0;
+    private static String outputPath = "";
+    private static boolean doWriteAvi = false;
+    private static double framesPerSecond = 7;
+    private ImagePlus inputImp;
+
+    @Override
+    public int setup(String args, ImagePlus imp) {
+        inputImp = imp;
+        return STACK_REQUIRED + DOES_8G + DOES_16 + DOES_32;
+    }
+
+    @Override
+    public void run(ImageProcessor inputIp) {
+        GenericDialog dialog = new GenericDialog(pluginName);
+        dialog.addChoice("Axis", axes, axes[axisIndex]);
+        dialog.addNumericField("Frames", nAngles, 0);
+        dialog.addNumericField("Total rotation", totalDegrees, 1, 6, "degrees");
+        dialog.addChoice("Interpolation", interpolations, interpolations[interpolationIndex]);
+        dialog.addStringField("Output_folder", outputPath, 30);
+        dialog.addMessage("Leave the folder empty to keep the frames in memory.");
+        dialog.addCheckbox("Write AVI", doWriteAvi);
+        dialog.addNumericField("Frame rate", framesPerSecond, 1, 6, "fps");
+        dialog.showDialog();
+        if (dialog.wasCanceled()) {
+            return;
+        }
+        axisIndex = dialog.getNextChoiceIndex();
+        nAngles = (int) Math.round(dialog.getNextNumber());
+        totalDegrees = dialog.getNextNumber();
+        interpolationIndex = dialog.getNextChoiceIndex();
+        outputPath = dialog.getNextString().trim();
+        doWriteAvi = dialog.getNextBoolean();
+        framesPerSecond = dialog.getNextNumber();
+
+        if (nAngles < 1) {
+            IJ.error(pluginName, "Number of frames must be at least 1.");
+            return;
+        }
+        File folder = null;
+        if (!outputPath.isEmpty()) {
+            folder = new File(outputPath);
+            if (!folder.isDirectory() && !folder.mkdirs()) {
+                IJ.error(pluginName, "Could not create " + outputPath);
+                return;
+            }
+        } else if (doWriteAvi) {
+            IJ.error(pluginName, "Writing an AVI requires an output folder.");
+            return;
+        }
+
+        IJ.showStatus(pluginName + " ...");
+        try {
+            final ImagePlus outputImp = run(inputImp, axisIndex, nAngles, Math.toRadians(totalDegrees),
+                    interpolationIndex == 1, folder);
+            if (doWriteAvi) {
+                IJ.showStatus(pluginName + ": writing AVI ...");
+                outputImp.getCalibration().fps = framesPerSecond;
+                new AVI_Writer().writeImage(outputImp, new File(folder, "rotation.avi").getPath(),
+                        AVI_Writer.JPEG_COMPRESSION, 90);
+            }
+            outputImp.show();
+        } catch (IOException ex) {
+            IJ.error(pluginName, "Could not write to " + outputPath + ":\n" + ex.getMessage());
+        }
+        IJ.showStatus("");
+    }
+
+    /**
+     * Renders the current channel and frame of the image.
+     *
+     * @param imp          input
+     * @param axis         0, 1 or 2 for x, y or z, see
+     *                     {@link ObliqueProjector#setRotation(int, double)}
+     * @param nAngles      number of frames
+     * @param totalRadians rotation between the first frame and the frame after
+     *                     the last, i.e. 2 pi for a seamless loop
+     * @param isLinear     whether to interpolate linearly instead of using the
+     *                     nearest neighbor
+     * @param folder       folder to save the frames to, or null to keep them
+     *                     in memory
+     * @return the frames, a virtual stack of the saved files if folder is not
+     * null
+     */
+    public ImagePlus run(final ImagePlus imp, final int axis, final int nAngles, final double totalRadians,
+                         final boolean isLinear, final File folder) throws IOException {
+        final Calibration calibration = imp.getCalibration();
+        final double[] voxelSize = {calibration.pixelWidth, calibration.pixelHeight, calibration.pixelDepth};
+        final ImageStack stack = imp.getImageStack();
+        final ImageStack volume = new ImageStack(imp.getWidth(), imp.getHeight());
+        for (int z = 1; z <= imp.getNSlices(); ++z) {
+            volume.addSlice("", stack.getPixels(imp.getStackIndex(imp.getChannel(), z, imp.getFrame())));
+        }
+
+        final ObliqueProjector projector = new ObliqueProjector(volume, voxelSize);
+        projector.setInterpolation(isLinear);
+        projector.setReduction(ObliqueProjector.Reduction.MAX);
+        projector.setSkipEmptySpace(true);
+        // One size that fits the volume at all angles.
+        final int[] size = new int[3];
+        for (int i = 0; i < nAngles; ++i) {
+            projector.setRotation(axis, getAngle(i, nAngles, totalRadians));
+            final int[] angleSize = projector.getOutputSize();
+            for (int d = 0; d < 3; ++d) {
+                size[d] = Math.max(size[d], angleSize[d]);
+            }
+        }
+
+        // Render angles in parallel if there are enough of them, else rows.
+        final boolean isParallelAngles = nAngles >= Parallel.getNThreads();
+        projector.setParallel(!isParallelAngles);
+        final String[] fileNames = new String[nAngles];
+        final ImageProcessor[] frames = new ImageProcessor[nAngles];
+        final IOException[] error = new IOException[1];
+        final AtomicInteger nextAngle = new AtomicInteger(0);
+        final AtomicInteger nDone = new AtomicInteger(0);
+        final int bitDepth = imp.getBitDepth();
+        Parallel.forRanges(isParallelAngles ? Parallel.getNThreads() : 1, new Parallel.RangeTask() {
+            @Override
+            public void run(final int chunk, final int start, final int end) {
+                final ObliqueProjector angleProjector = new ObliqueProjector(projector);
+                for (int i = nextAngle.getAndIncrement(); i < nAngles; i = nextAngle.getAndIncrement()) {
+                    synchronized (error) {
+                        if (error[0] != null) {
+                            return;
+                        }
+                    }
+                    angleProjector.setRotation(axis, getAngle(i, nAngles, totalRadians));
+                    angleProjector.setOutputSize(size);
+                    ImageProcessor ip = angleProjector.project(1, size[2]);
+                    if (bitDepth == 8) {
+                        ip = ip.convertToByte(false);
+                    } else if (bitDepth == 16) {
+                        ip = ip.convertToShort(false);
+                    }
+                    if (folder == null) {
+                        frames[i] = ip;
+                    } else {
+                        fileNames[i] = String.format("rotation-%04d.tif", i);
+                        final ImagePlus frameImp = new ImagePlus(fileNames[i], ip);
+                        frameImp.setCalibration(getOutputCalibration(calibration));
+                        if (!new FileSaver(frameImp).saveAsTiff(new File(folder, fileNames[i]).getPath())) {
+                            synchronized (error) {
+                                error[0] = new IOException("Could not save " + fileNames[i]);
+                            }
+                            return;
+                        }
+                    }
+                    IJ.showProgress(nDone.incrementAndGet(), nAngles);
+                }
+            }
+        });
+        if (error[0] != null) {
+            throw error[0];
+        }
+
+        final ImageStack outputStack;
+        if (folder == null) {
+            outputStack = new ImageStack(size[0], size[1]);
+            for (final ImageProcessor ip : frames) {
+                outputStack.addSlice("", ip);
+            }
+        } else {
+            outputStack = new VirtualStack(size[0], size[1], null, folder.getPath() + File.separator);
+            for (final String fileName : fileNames) {
+                ((VirtualStack) outputStack).addSlice(fileName);
+            }
+        }
+        final ImagePlus outputImp = new ImagePlus("MAXrotation_" + imp.getTitle(), outputStack);
+        outputImp.setCalibration(getOutputCalibration(calibration));
+        outputImp.getProcessor().setLut(imp.getProcessor().getLut());
+        outputImp.resetDisplayRange();
+        return outputImp;
+    }
+
+    private static double getAngle(final int i, final int nAngles, final double totalRadians) {
+        return i * totalRadians / nAngles;
+    }
+
+    private static Calibration getOutputCalibration(final Calibration calibration) {
+        final Calibration outputCalibration = new Calibration();
+        outputCalibration.setUnit(calibration.getUnit());
+        outputCalibration.pixelWidth = calibration.pixelWidth;
+        outputCalibration.pixelHeight = calibration.pixelWidth;
+        return outputCalibration;
+    }
+}
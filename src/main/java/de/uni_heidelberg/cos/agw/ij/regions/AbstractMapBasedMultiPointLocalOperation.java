@@ -47,6 +47,14 @@ abstract public class AbstractMapBasedMultiPointLocalOperation extends AbstractM
         return localImp;
     }
 
+    /**
+     * Returns the global position of voxel (0, 0, 0) of the last slab returned
+     * by {@link #getLocalSlab(int)}, z is the 1-based slice index.
+     */
+    protected final Point3i getLocalSlabCorner() {
+        return new Point3i(boundsCorner);
+    }
+
     protected final void putLocalSlab(ImagePlus imp, int value) {
         new RemoveOperation(super.imp).run(value);
         Map<Integer, List<Point3i>> localMap = getIntensityMap(imp);
@@ -14,12 +14,18 @@ abstract public class AbstractMapBasedOperation implements Operation {
 
     protected static Map<Integer, List<Point3i>> intensityMap =
             new HashMap<Integer, List<Point3i>>();
+    protected static final EditJournal journal = new EditJournal(256L << 20);
+    private static ImagePlus mappedImp = null;
     protected final ImagePlus imp;
     protected final ImageStack stack;
 
     public AbstractMapBasedOperation(final ImagePlus imp) {
         this.imp = imp;
         stack = this.imp.getImageStack();
+        if (this.imp != mappedImp) {
+            clearIntensityMap();
+            mappedImp = this.imp;
+        }
         if (intensityMap.isEmpty()) {
             intensityMap = getIntensityMap(this.imp);
         }
@@ -36,6 +42,26 @@ abstract public class AbstractMapBasedOperation implements Operation {
         imp.updateAndDraw();
     }
 
+    protected final void beginEdit() {
+        journal.begin(getName(), stack.getWidth(), stack.getHeight());
+    }
+
+    protected final void endEdit() {
+        journal.end();
+    }
+
+    /**
+     * Sets the value of a voxel and records the change in the undo journal.
+     *
+     * @param ip    the slice containing the voxel
+     * @param point the voxel, z is the 1-based slice index
+     * @param value the new value
+     */
+    protected final void putValue(final ImageProcessor ip, final Point3i point, final int value) {
+        journal.record(point.x, point.y, point.z, ip.getPixel(point.x, point.y), value);
+        ip.putPixel(point.x, point.y, value);
+    }
+
     protected final Map<Integer, List<Point3i>> getIntensityMap(ImagePlus imp) {
         Map<Integer, List<Point3i>> map = new HashMap<Integer, List<Point3i>>();
         final ImageStack stack = imp.getStack();
@@ -70,5 +96,14 @@ abstract public class AbstractMapBasedOperation implements Operation {
 
     public static final void clearIntensityMap() {
         intensityMap.clear();
+        journal.clear();
+    }
+
+    public static final void setUndoMemoryBudget(final long bytes) {
+        journal.setMemoryBudget(bytes);
+    }
+
+    public static final long getUndoMemoryBudget() {
+        return journal.getMemoryBudget();
     }
 }
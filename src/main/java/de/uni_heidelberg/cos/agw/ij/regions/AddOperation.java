@@ -23,9 +23,14 @@ public class AddOperation extends AbstractMapBasedOperation {
     }
 
     public void run(int value, List<Point3i> points) {
-        for (Point3i point : points) {
-            ImageProcessor ip = stack.getProcessor(point.z);
-            ip.putPixel(point.x, point.y, value);
+        beginEdit();
+        try {
+            for (Point3i point : points) {
+                ImageProcessor ip = stack.getProcessor(point.z);
+                putValue(ip, point, value);
+            }
+        } finally {
+            endEdit();
         }
         if (!intensityMap.containsKey(value)) {
             intensityMap.put(value, new ArrayList<Point3i>());
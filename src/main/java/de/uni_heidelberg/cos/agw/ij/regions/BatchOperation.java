@@ -0,0 +1,185 @@
+package de.uni_heidelberg.cos.agw.ij.regions;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.measure.ResultsTable;
+import ij.process.ImageProcessor;
+
+import javax.vecmath.Point3i;
+import java.util.*;
+
+/**
+ * Applies many merge, remove and split operations at once, e.g. from a
+ * curation table. Merges and removals are resolved into a single mapping of
+ * old to new values first, so every slice is accessed once and the value map
+ * is updated by moving whole regions. Splits are applied afterwards, to the
+ * regions resulting from the merges. The whole batch is one undo step.
+ */
+public class BatchOperation extends AbstractMapBasedOperation {
+
+    public static final String OPERATION_COLUMN = "Operation";
+    public static final String VALUE_COLUMN = "Value";
+    public static final String TARGET_COLUMN = "Target";
+    private final Map<Integer, Integer> targets = new HashMap<Integer, Integer>();
+    private final Set<Integer> splits = new LinkedHashSet<Integer>();
+
+    public BatchOperation(ImagePlus imp) {
+        super(imp);
+    }
+
+    @Override
+    public String getName() {
+        return "Batch";
+    }
+
+    public void merge(final int value, final int target) {
+        final int resolvedValue = resolve(value);
+        final int resolvedTarget = resolve(target);
+        if (resolvedValue == 0 || resolvedTarget == 0) {
+            IJ.log(String.format("Edit Regions: Warning! Cannot merge %d into %d, one of them has been removed.",
+                    value, target));
+            return;
+        }
+        if (resolvedValue != resolvedTarget) {
+            targets.put(resolvedValue, resolvedTarget);
+        }
+    }
+
+    public void remove(final int value) {
+        final int resolvedValue = resolve(value);
+        if (resolvedValue != 0) {
+            targets.put(resolvedValue, 0);
+        }
+    }
+
+    public void split(final int value) {
+        splits.add(value);
+    }
+
+    /**
+     * Adds one operation per table row. The table needs the columns
+     * {@value #OPERATION_COLUMN} (Merge, Remove or Split) and
+     * {@value #VALUE_COLUMN}, merges additionally {@value #TARGET_COLUMN},
+     * the value to merge into.
+     *
+     * @param table operations
+     * @return the number of operations added
+     */
+    public int add(final ResultsTable table) {
+        if (table.getColumnIndex(OPERATION_COLUMN) == ResultsTable.COLUMN_NOT_FOUND
+                || table.getColumnIndex(VALUE_COLUMN) == ResultsTable.COLUMN_NOT_FOUND) {
+            throw new IllegalArgumentException(String.format("Table must have the columns %s and %s.",
+                    OPERATION_COLUMN, VALUE_COLUMN));
+        }
+        final boolean hasTarget = table.getColumnIndex(TARGET_COLUMN) != ResultsTable.COLUMN_NOT_FOUND;
+        int nAdded = 0;
+        for (int row = 0; row < table.getCounter(); ++row) {
+            final String operation = table.getStringValue(OPERATION_COLUMN, row).trim();
+            final int value = (int) Math.round(table.getValue(VALUE_COLUMN, row));
+            if ("Merge".equalsIgnoreCase(operation) && hasTarget) {
+                merge(value, (int) Math.round(table.getValue(TARGET_COLUMN, row)));
+            } else if ("Remove".equalsIgnoreCase(operation)) {
+                remove(value);
+            } else if ("Split".equalsIgnoreCase(operation)) {
+                split(value);
+            } else {
+                IJ.log(String.format("Edit Regions: Warning! Skipping row %d, unknown operation \"%s\".",
+                        row + 1, operation));
+                continue;
+            }
+            nAdded++;
+        }
+        return nAdded;
+    }
+
+    @Override
+    public void run() {
+        beginEdit();
+        try {
+            applyTargets();
+            if (!splits.isEmpty()) {
+                final SplitOperation splitOperation = new SplitOperation(imp, "Watershed");
+                for (final int value : splits) {
+                    final int resolvedValue = resolve(value);
+                    if (resolvedValue != 0) {
+                        splitOperation.split(resolvedValue);
+                    }
+                }
+            }
+        } finally {
+            endEdit();
+        }
+        targets.clear();
+        splits.clear();
+        postRun();
+    }
+
+    private void applyTargets() {
+        // Collect all changed voxels, bucketed by slice.
+        final int nSlices = stack.getSize();
+        final int[] sliceStarts = new int[nSlices + 2];
+        final List<Integer> values = new ArrayList<Integer>();
+        for (final int value : targets.keySet()) {
+            final List<Point3i> points = intensityMap.get(value);
+            if (points == null) {
+                continue;
+            }
+            values.add(value);
+            for (final Point3i point : points) {
+                sliceStarts[point.z + 1]++;
+            }
+        }
+        for (int z = 1; z < sliceStarts.length; ++z) {
+            sliceStarts[z] += sliceStarts[z - 1];
+        }
+        final int[] fill = Arrays.copyOf(sliceStarts, sliceStarts.length);
+        final Point3i[] changedPoints = new Point3i[sliceStarts[nSlices + 1]];
+        final int[] changedValues = new int[changedPoints.length];
+        for (final int value : values) {
+            final int target = resolve(value);
+            for (final Point3i point : intensityMap.get(value)) {
+                final int i = fill[point.z]++;
+                changedPoints[i] = point;
+                changedValues[i] = target;
+            }
+        }
+
+        for (int z = 1; z <= nSlices; ++z) {
+            if (sliceStarts[z] == sliceStarts[z + 1]) {
+                continue;
+            }
+            final ImageProcessor ip = stack.getProcessor(z);
+            for (int i = sliceStarts[z]; i < sliceStarts[z + 1]; ++i) {
+                putValue(ip, changedPoints[i], changedValues[i]);
+            }
+        }
+
+        // Move whole regions in the value map.
+        for (final int value : values) {
+            final List<Point3i> points = intensityMap.remove(value);
+            final int target = resolve(value);
+            if (target == 0) {
+                continue;
+            }
+            List<Point3i> targetPoints = intensityMap.get(target);
+            if (targetPoints == null) {
+                targetPoints = new ArrayList<Point3i>();
+                intensityMap.put(target, targetPoints);
+            }
+            targetPoints.addAll(points);
+        }
+    }
+
+    // Follows merges to the value a region ends up with, 0 if it is removed.
+    private int resolve(int value) {
+        Integer target = targets.get(value);
+        while (target != null) {
+            value = target;
+            if (value == 0) {
+                break;
+            }
+            target = targets.get(value);
+        }
+        return value;
+    }
+}
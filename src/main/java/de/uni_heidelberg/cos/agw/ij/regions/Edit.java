@@ -0,0 +1,256 @@
+package de.uni_heidelberg.cos.agw.ij.regions;
+
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+
+import javax.vecmath.Point3i;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Compact record of the voxels changed by one operation. Changes are stored
+ * as runs of consecutive voxels (in stack order) that share the same previous
+ * and new value, so the size of an edit is proportional to the number of
+ * changed voxels, not to the size of the image.
+ */
+class Edit {
+
+    private final String name;
+    private final int width, height;
+
+    // Raw changes as recorded, compacted into runs by compact().
+    private long[] recordedIndices = new long[64];
+    private int[] recordedOldValues = new int[64];
+    private int[] recordedNewValues = new int[64];
+    private int nRecorded = 0;
+
+    // Runs of consecutive voxels: start index, length, previous and new value.
+    private long[] runStarts;
+    private int[] runLengths, runOldValues, runNewValues;
+    private int nRuns = 0;
+
+    public Edit(final String name, final int width, final int height) {
+        this.name = name;
+        this.width = width;
+        this.height = height;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void record(final int x, final int y, final int z, final int oldValue, final int newValue) {
+        if (nRecorded == recordedIndices.length) {
+            final int capacity = 2 * nRecorded;
+            recordedIndices = Arrays.copyOf(recordedIndices, capacity);
+            recordedOldValues = Arrays.copyOf(recordedOldValues, capacity);
+            recordedNewValues = Arrays.copyOf(recordedNewValues, capacity);
+        }
+        recordedIndices[nRecorded] = getIndex(x, y, z);
+        recordedOldValues[nRecorded] = oldValue;
+        recordedNewValues[nRecorded] = newValue;
+        nRecorded++;
+    }
+
+    /**
+     * Converts the recorded changes into runs. A voxel that was changed more
+     * than once keeps its first previous value and its last new value; voxels
+     * that end up unchanged are dropped.
+     */
+    public void compact() {
+        final int[] order = getStableOrder(recordedIndices, nRecorded);
+        runStarts = new long[16];
+        runLengths = new int[16];
+        runOldValues = new int[16];
+        runNewValues = new int[16];
+        nRuns = 0;
+
+        int i = 0;
+        while (i < nRecorded) {
+            final long index = recordedIndices[order[i]];
+            final int oldValue = recordedOldValues[order[i]];
+            int newValue = recordedNewValues[order[i]];
+            while (++i < nRecorded && recordedIndices[order[i]] == index) {
+                newValue = recordedNewValues[order[i]];
+            }
+            if (oldValue == newValue) {
+                continue;
+            }
+            final int last = nRuns - 1;
+            if (last >= 0 && runStarts[last] + runLengths[last] == index
+                    && runOldValues[last] == oldValue && runNewValues[last] == newValue) {
+                runLengths[last]++;
+            } else {
+                addRun(index, 1, oldValue, newValue);
+            }
+        }
+
+        recordedIndices = null;
+        recordedOldValues = null;
+        recordedNewValues = null;
+        nRecorded = 0;
+    }
+
+    public boolean isEmpty() {
+        return nRuns == 0;
+    }
+
+    public boolean isLoaded() {
+        return runStarts != null;
+    }
+
+    /**
+     * Returns the approximate number of bytes held by this edit in memory.
+     */
+    public long getMemorySize() {
+        if (!isLoaded()) {
+            return 0;
+        }
+        return 20L * runStarts.length;
+    }
+
+    /**
+     * Writes the voxels of this edit into the stack and updates the map of
+     * values to voxel positions accordingly.
+     *
+     * @param stack        the stack the edit was recorded on
+     * @param intensityMap value, voxel positions map of the stack
+     * @param undo         whether to restore the previous values instead of
+     *                     applying the new ones
+     */
+    public void apply(final ImageStack stack, final Map<Integer, List<Point3i>> intensityMap, final boolean undo) {
+        // Positions are removed through the index of their label, so the cost
+        // depends on the size of the edit, not on the size of the regions.
+        final Set<Integer> fromValues = new HashSet<Integer>();
+        final long sliceSize = (long) width * height;
+        int currentZ = -1;
+        ImageProcessor ip = null;
+        for (int r = 0; r < nRuns; ++r) {
+            final int fromValue = undo ? runNewValues[r] : runOldValues[r];
+            final int toValue = undo ? runOldValues[r] : runNewValues[r];
+            final PointList fromPoints = fromValue == 0 ? null : PointList.get(intensityMap, fromValue);
+            List<Point3i> toPoints = null;
+            if (toValue != 0) {
+                toPoints = intensityMap.get(toValue);
+                if (toPoints == null) {
+                    toPoints = new PointList();
+                    intensityMap.put(toValue, toPoints);
+                }
+            }
+            if (fromPoints != null) {
+                fromValues.add(fromValue);
+            }
+            for (long index = runStarts[r]; index < runStarts[r] + runLengths[r]; ++index) {
+                final int z = (int) (index / sliceSize) + 1;
+                final int xy = (int) (index % sliceSize);
+                if (z != currentZ) {
+                    ip = stack.getProcessor(z);
+                    currentZ = z;
+                }
+                final int x = xy % width;
+                final int y = xy / width;
+                ip.putPixel(x, y, toValue);
+                final Point3i point = new Point3i(x, y, z);
+                if (toPoints != null) {
+                    toPoints.add(point);
+                }
+                if (fromPoints != null) {
+                    fromPoints.removePoint(point);
+                }
+            }
+        }
+        for (final int value : fromValues) {
+            final List<Point3i> points = intensityMap.get(value);
+            if (points != null && points.isEmpty()) {
+                intensityMap.remove(value);
+            }
+        }
+    }
+
+    public void write(final DataOutput out) throws IOException {
+        out.writeInt(nRuns);
+        for (int r = 0; r < nRuns; ++r) {
+            out.writeLong(runStarts[r]);
+            out.writeInt(runLengths[r]);
+            out.writeInt(runOldValues[r]);
+            out.writeInt(runNewValues[r]);
+        }
+    }
+
+    public void read(final DataInput in) throws IOException {
+        final int n = in.readInt();
+        runStarts = new long[n];
+        runLengths = new int[n];
+        runOldValues = new int[n];
+        runNewValues = new int[n];
+        for (int r = 0; r < n; ++r) {
+            runStarts[r] = in.readLong();
+            runLengths[r] = in.readInt();
+            runOldValues[r] = in.readInt();
+            runNewValues[r] = in.readInt();
+        }
+        nRuns = n;
+    }
+
+    /**
+     * Releases the runs after they have been written to disk. The number of
+     * runs is kept, so an unloaded edit is not mistaken for an empty one.
+     */
+    public void unload() {
+        runStarts = null;
+        runLengths = null;
+        runOldValues = null;
+        runNewValues = null;
+    }
+
+    private long getIndex(final int x, final int y, final int z) {
+        return ((long) (z - 1) * height + y) * width + x;
+    }
+
+    private void addRun(final long start, final int length, final int oldValue, final int newValue) {
+        if (nRuns == runStarts.length) {
+            final int capacity = 2 * nRuns;
+            runStarts = Arrays.copyOf(runStarts, capacity);
+            runLengths = Arrays.copyOf(runLengths, capacity);
+            runOldValues = Arrays.copyOf(runOldValues, capacity);
+            runNewValues = Arrays.copyOf(runNewValues, capacity);
+        }
+        runStarts[nRuns] = start;
+        runLengths[nRuns] = length;
+        runOldValues[nRuns] = oldValue;
+        runNewValues[nRuns] = newValue;
+        nRuns++;
+    }
+
+    // Stable merge sort of positions 0..n-1 by key, so repeated changes of a
+    // voxel stay in the order they were recorded.
+    private static int[] getStableOrder(final long[] keys, final int n) {
+        int[] order = new int[n];
+        for (int i = 0; i < n; ++i) {
+            order[i] = i;
+        }
+        int[] buffer = new int[n];
+        for (int width = 1; width < n; width *= 2) {
+            for (int left = 0; left < n; left += 2 * width) {
+                final int mid = Math.min(left + width, n);
+                final int right = Math.min(left + 2 * width, n);
+                int i = left, j = mid, k = left;
+                while (i < mid && j < right) {
+                    buffer[k++] = keys[order[j]] < keys[order[i]] ? order[j++] : order[i++];
+                }
+                while (i < mid) {
+                    buffer[k++] = order[i++];
+                }
+                while (j < right) {
+                    buffer[k++] = order[j++];
+                }
+            }
+            final int[] swap = order;
+            order = buffer;
+            buffer = swap;
+        }
+        return order;
+    }
+}
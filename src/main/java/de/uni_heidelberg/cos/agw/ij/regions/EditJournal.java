@@ -0,0 +1,247 @@
+package de.uni_heidelberg.cos.agw.ij.regions;
+
+import ij.IJ;
+import ij.ImageStack;
+
+import javax.vecmath.Point3i;
+import java.io.*;
+import java.util.*;
+
+/**
+ * Undo/redo history of region edits. Each edit only stores the voxels it
+ * changed. When the edits held in memory exceed the memory budget, the oldest
+ * ones are moved to a temporary file and read back on demand. The space of
+ * edits read back is reused, and the file shrinks when its end is freed.
+ * <p>
+ * Calls to {@link #begin(String, int, int)} and {@link #end()} may be nested,
+ * e.g. when an operation uses other operations internally; all changes
+ * recorded until the outermost end() form one edit.
+ */
+public class EditJournal {
+
+    private final Deque<Edit> undoStack = new ArrayDeque<Edit>();
+    private final Deque<Edit> redoStack = new ArrayDeque<Edit>();
+    // Offset and length of the edits in the temporary file.
+    private final Map<Edit, long[]> spillSlots = new HashMap<Edit, long[]>();
+    // Unused space before the end of the temporary file, offset to length.
+    private final TreeMap<Long, Long> freeSlots = new TreeMap<Long, Long>();
+    private long memoryBudget;
+    private long memorySize = 0;
+    private Edit current = null;
+    private int depth = 0;
+    private File spillFile = null;
+    private RandomAccessFile spill = null;
+
+    public EditJournal(final long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public void setMemoryBudget(final long bytes) {
+        memoryBudget = bytes;
+        enforceMemoryBudget();
+    }
+
+    public void begin(final String name, final int width, final int height) {
+        if (depth++ == 0) {
+            current = new Edit(name, width, height);
+        }
+    }
+
+    public void record(final int x, final int y, final int z, final int oldValue, final int newValue) {
+        if (current != null && oldValue != newValue) {
+            current.record(x, y, z, oldValue, newValue);
+        }
+    }
+
+    public void end() {
+        if (depth == 0 || --depth > 0) {
+            return;
+        }
+        final Edit edit = current;
+        current = null;
+        edit.compact();
+        if (edit.isEmpty()) {
+            return;
+        }
+        for (final Edit discarded : redoStack) {
+            memorySize -= discarded.getMemorySize();
+        }
+        redoStack.clear();
+        push(undoStack, edit);
+    }
+
+    public boolean canUndo() {
+        return !undoStack.isEmpty();
+    }
+
+    public boolean canRedo() {
+        return !redoStack.isEmpty();
+    }
+
+    /**
+     * Reverts the most recent edit.
+     *
+     * @return the name of the reverted edit, or null if there is nothing to undo
+     */
+    public String undo(final ImageStack stack, final Map<Integer, List<Point3i>> intensityMap) {
+        return move(undoStack, redoStack, stack, intensityMap, true);
+    }
+
+    /**
+     * Re-applies the most recently reverted edit.
+     *
+     * @return the name of the re-applied edit, or null if there is nothing to redo
+     */
+    public String redo(final ImageStack stack, final Map<Integer, List<Point3i>> intensityMap) {
+        return move(redoStack, undoStack, stack, intensityMap, false);
+    }
+
+    // Number of edits held in the temporary file.
+    int getSpilledCount() {
+        return spillSlots.size();
+    }
+
+    // Size of the temporary file in bytes.
+    long getSpillLength() throws IOException {
+        return spill == null ? 0 : spill.length();
+    }
+
+    public void clear() {
+        undoStack.clear();
+        redoStack.clear();
+        spillSlots.clear();
+        freeSlots.clear();
+        memorySize = 0;
+        current = null;
+        depth = 0;
+        closeSpill();
+    }
+
+    private String move(final Deque<Edit> from, final Deque<Edit> to, final ImageStack stack,
+                        final Map<Integer, List<Point3i>> intensityMap, final boolean undo) {
+        if (from.isEmpty()) {
+            return null;
+        }
+        final Edit edit = from.peekLast();
+        if (edit.isLoaded()) {
+            memorySize -= edit.getMemorySize();
+        } else if (!load(edit)) {
+            return null;
+        }
+        from.removeLast();
+        edit.apply(stack, intensityMap, undo);
+        push(to, edit);
+        return edit.getName();
+    }
+
+    private void push(final Deque<Edit> stack, final Edit edit) {
+        stack.addLast(edit);
+        memorySize += edit.getMemorySize();
+        enforceMemoryBudget();
+    }
+
+    // Spills the oldest in-memory edits of the undo history, the redo
+    // history is only ever as old as the last undo and stays in memory.
+    private void enforceMemoryBudget() {
+        final Iterator<Edit> it = undoStack.iterator();
+        while (memorySize > memoryBudget && it.hasNext()) {
+            final Edit edit = it.next();
+            if (!edit.isLoaded() || edit == undoStack.peekLast()) {
+                continue;
+            }
+            if (!spill(edit)) {
+                return;
+            }
+        }
+    }
+
+    private boolean spill(final Edit edit) {
+        try {
+            if (spill == null) {
+                spillFile = File.createTempFile("edit-regions-", ".journal");
+                spillFile.deleteOnExit();
+                spill = new RandomAccessFile(spillFile, "rw");
+            }
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            edit.write(new DataOutputStream(bytes));
+            final long offset = allocate(bytes.size());
+            spill.seek(offset);
+            spill.write(bytes.toByteArray());
+            spillSlots.put(edit, new long[]{offset, bytes.size()});
+            memorySize -= edit.getMemorySize();
+            edit.unload();
+            return true;
+        } catch (IOException ex) {
+            IJ.log("Edit Regions: Warning! Could not write undo history to disk: " + ex.getMessage());
+            return false;
+        }
+    }
+
+    private boolean load(final Edit edit) {
+        try {
+            final long[] slot = spillSlots.get(edit);
+            spill.seek(slot[0]);
+            edit.read(spill);
+            spillSlots.remove(edit);
+            free(slot[0], slot[1]);
+            return true;
+        } catch (IOException ex) {
+            IJ.log("Edit Regions: Warning! Could not read undo history from disk: " + ex.getMessage());
+            return false;
+        }
+    }
+
+    // Returns the offset of the first free slot of at least length bytes,
+    // or the end of the file.
+    private long allocate(final long length) throws IOException {
+        for (final Map.Entry<Long, Long> slot : freeSlots.entrySet()) {
+            final long offset = slot.getKey();
+            final long slotLength = slot.getValue();
+            if (slotLength >= length) {
+                freeSlots.remove(offset);
+                if (slotLength > length) {
+                    freeSlots.put(offset + length, slotLength - length);
+                }
+                return offset;
+            }
+        }
+        return spill.length();
+    }
+
+    // Marks a slot as unused, merging it with adjacent free slots, and
+    // truncates the file if the slot is at its end.
+    private void free(long offset, long length) throws IOException {
+        final Map.Entry<Long, Long> before = freeSlots.floorEntry(offset);
+        if (before != null && before.getKey() + before.getValue() == offset) {
+            freeSlots.remove(before.getKey());
+            offset = before.getKey();
+            length += before.getValue();
+        }
+        final Long after = freeSlots.remove(offset + length);
+        if (after != null) {
+            length += after;
+        }
+        if (offset + length >= spill.length()) {
+            spill.setLength(offset);
+        } else {
+            freeSlots.put(offset, length);
+        }
+    }
+
+    private void closeSpill() {
+        if (spill == null) {
+            return;
+        }
+        try {
+            spill.close();
+        } catch (IOException ex) {
+        }
+        spillFile.delete();
+        spill = null;
+        spillFile = null;
+    }
+}
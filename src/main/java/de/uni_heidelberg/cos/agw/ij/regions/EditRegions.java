@@ -2,6 +2,7 @@ package de.uni_heidelberg.cos.agw.ij.regions;
 
 import fiji.util.gui.GenericDialogPlus;
 import ij.IJ;
+import ij.gui.GenericDialog;
 import ij.ImagePlus;
 import ij.plugin.filter.PlugInFilter;
 import ij.process.ImageProcessor;
@@ -12,6 +13,7 @@ import java.awt.event.ActionListener;
 
 public class EditRegions implements PlugInFilter, ActionListener {
 
+    private static double undoMemory = 256;
     private ImagePlus inputImp;
     private GenericDialogPlus dialog;
 
@@ -29,6 +31,7 @@ public class EditRegions implements PlugInFilter, ActionListener {
     @Override
     public void run(ImageProcessor inputIp) {
         AbstractMapBasedOperation.clearIntensityMap();
+        AbstractMapBasedOperation.setUndoMemoryBudget(getUndoMemoryBytes());
         runDialog();
     }
 
@@ -40,7 +43,11 @@ public class EditRegions implements PlugInFilter, ActionListener {
         dialog.addButton("Split watershed", this);
         dialog.addButton("Merge", this);
         dialog.addButton("Remove", this);
+        dialog.addButton("Relabel disconnected", this);
         dialog.addButton("Clear selection", this);
+        dialog.addButton("Undo", this);
+        dialog.addButton("Redo", this);
+        dialog.addButton("Undo settings", this);
         dialog.setModal(false);
         dialog.showDialog();
     }
@@ -60,11 +67,40 @@ public class EditRegions implements PlugInFilter, ActionListener {
             new MergeOperation(inputImp).run();
         } else if ("Remove".equals(buttonLabel)) {
             new RemoveOperation(inputImp).run();
+        } else if ("Relabel disconnected".equals(buttonLabel)) {
+            new RelabelOperation(inputImp, 26).run();
         } else if ("Clear selection".equals(buttonLabel)) {
             inputImp.setRoi(null, false);
+        } else if ("Undo".equals(buttonLabel)) {
+            new UndoOperation(inputImp).run();
+        } else if ("Redo".equals(buttonLabel)) {
+            new RedoOperation(inputImp).run();
+        } else if ("Undo settings".equals(buttonLabel)) {
+            runUndoSettingsDialog();
         } else {
             IJ.log("Edit Regions: Warning! No suitable handler found for event "
                     + event.toString());
         }
     }
+
+    private void runUndoSettingsDialog() {
+        GenericDialog settings = new GenericDialog("Edit Regions - Undo");
+        settings.addNumericField("Undo_memory", undoMemory, 0, 7, "MB");
+        settings.addMessage("Older edits are moved to a temporary file.");
+        settings.showDialog();
+        if (settings.wasCanceled()) {
+            return;
+        }
+        final double memory = settings.getNextNumber();
+        if (Double.isNaN(memory) || memory < 0) {
+            IJ.error("Edit Regions", "Undo memory must be 0 or greater.");
+            return;
+        }
+        undoMemory = memory;
+        AbstractMapBasedOperation.setUndoMemoryBudget(getUndoMemoryBytes());
+    }
+
+    private long getUndoMemoryBytes() {
+        return Math.round(undoMemory * (1 << 20));
+    }
 }
\ No newline at end of file
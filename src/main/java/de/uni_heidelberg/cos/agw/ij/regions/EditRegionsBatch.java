@@ -0,0 +1,86 @@
+package de.uni_heidelberg.cos.agw.ij.regions;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.gui.GenericDialog;
+import ij.measure.ResultsTable;
+import ij.plugin.filter.PlugInFilter;
+import ij.process.ImageProcessor;
+
+import java.io.IOException;
+
+/**
+ * Applies a table of Edit Regions operations to an image without user
+ * interaction, e.g. from a macro:
+ * <pre>
+ * run("Edit Regions Batch...", "source=[CSV file] csv_file=/path/to/operations.csv");
+ * </pre>
+ * See {@link BatchOperation#add(ResultsTable)} for the expected columns.
+ */
+public class EditRegionsBatch implements PlugInFilter {
+
+    private static final String pluginName = "Edit Regions Batch";
+    private static final String[] sources = {"Results table", "CSV file"};
+    private static int sourceIndex = 0;
+    private static String csvPath = "";
+    private ImagePlus inputImp;
+
+    @Override
+    public int setup(String args, ImagePlus imp) {
+        inputImp = imp;
+        return DOES_8G + DOES_16;
+    }
+
+    @Override
+    public void run(ImageProcessor inputIp) {
+        GenericDialog dialog = new GenericDialog(pluginName);
+        dialog.addChoice("Source", sources, sources[sourceIndex]);
+        dialog.addStringField("CSV_file", csvPath, 30);
+        dialog.addMessage("Columns: " + BatchOperation.OPERATION_COLUMN
+                + " (Merge, Remove or Split), " + BatchOperation.VALUE_COLUMN
+                + ", " + BatchOperation.TARGET_COLUMN + " (Merge only)");
+        dialog.showDialog();
+        if (dialog.wasCanceled()) {
+            return;
+        }
+        sourceIndex = dialog.getNextChoiceIndex();
+        csvPath = dialog.getNextString().trim();
+
+        ResultsTable table;
+        if (sourceIndex == 0) {
+            table = ResultsTable.getResultsTable();
+        } else {
+            try {
+                table = ResultsTable.open(csvPath);
+            } catch (IOException ex) {
+                IJ.error(pluginName, "Could not read " + csvPath + ":\n" + ex.getMessage());
+                return;
+            }
+        }
+        if (table == null || table.getCounter() == 0) {
+            IJ.error(pluginName, "No operations found.");
+            return;
+        }
+
+        try {
+            final int n = run(inputImp, table);
+            IJ.showStatus(String.format("%s: %d operations applied", pluginName, n));
+        } catch (IllegalArgumentException ex) {
+            IJ.error(pluginName, ex.getMessage());
+        }
+    }
+
+    /**
+     * Applies all operations of the table to the image as one undo step.
+     *
+     * @param imp   label image
+     * @param table operations
+     * @return the number of operations applied
+     */
+    public int run(final ImagePlus imp, final ResultsTable table) {
+        final BatchOperation batch = new BatchOperation(imp);
+        final int n = batch.add(table);
+        batch.run();
+        return n;
+    }
+}
@@ -24,20 +24,25 @@ public class MergeOperation extends AbstractMapBasedMultiPointOperation {
             return;
         }
 
-        int mergedValue = selectedValues.get(0);
-        for (int i = 1; i < selectedValues.size(); ++i) {
-            int value = selectedValues.get(i);
-            List<Point3i> pixels = intensityMap.remove(value);
-            if (pixels == null) {
-                continue;
+        beginEdit();
+        try {
+            int mergedValue = selectedValues.get(0);
+            for (int i = 1; i < selectedValues.size(); ++i) {
+                int value = selectedValues.get(i);
+                List<Point3i> pixels = intensityMap.remove(value);
+                if (pixels == null) {
+                    continue;
+                }
+
+                ImageProcessor stackIp;
+                for (Point3i pixel : pixels) {
+                    stackIp = stack.getProcessor(pixel.z);
+                    putValue(stackIp, pixel, mergedValue);
+                }
+                intensityMap.get(mergedValue).addAll(pixels);
             }
-
-            ImageProcessor stackIp;
-            for (Point3i pixel : pixels) {
-                stackIp = stack.getProcessor(pixel.z);
-                stackIp.putPixel(pixel.x, pixel.y, mergedValue);
-            }
-            intensityMap.get(mergedValue).addAll(pixels);
+        } finally {
+            endEdit();
         }
         postRun();
     }
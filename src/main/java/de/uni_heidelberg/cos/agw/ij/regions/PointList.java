@@ -0,0 +1,112 @@
+package de.uni_heidelberg.cos.agw.ij.regions;
+
+import javax.vecmath.Point3i;
+import java.util.*;
+
+/**
+ * List of the voxel positions of one label that can remove a position without
+ * searching for it. The index from position to slot is built on the first
+ * {@link #removePoint(Point3i)}, so labels that are never undone do not pay
+ * for it, and is kept up to date by appending and removing points. Inserting
+ * or removing by slot drops it.
+ */
+class PointList extends AbstractList<Point3i> implements RandomAccess {
+
+    private final ArrayList<Point3i> points;
+    private Map<Point3i, Integer> slots = null;
+
+    public PointList() {
+        points = new ArrayList<Point3i>();
+    }
+
+    public PointList(final Collection<Point3i> points) {
+        this.points = new ArrayList<Point3i>(points);
+    }
+
+    /**
+     * Returns the positions of a value in the map as a PointList, replacing
+     * them if they are a different kind of list.
+     *
+     * @return the list, or null if there is none
+     */
+    public static PointList get(final Map<Integer, List<Point3i>> intensityMap, final int value) {
+        final List<Point3i> list = intensityMap.get(value);
+        if (list == null || list instanceof PointList) {
+            return (PointList) list;
+        }
+        final PointList pointList = new PointList(list);
+        intensityMap.put(value, pointList);
+        return pointList;
+    }
+
+    @Override
+    public Point3i get(final int index) {
+        return points.get(index);
+    }
+
+    @Override
+    public int size() {
+        return points.size();
+    }
+
+    @Override
+    public Point3i set(final int index, final Point3i point) {
+        final Point3i previous = points.set(index, point);
+        if (slots != null) {
+            slots.remove(previous);
+            slots.put(point, index);
+        }
+        return previous;
+    }
+
+    @Override
+    public void add(final int index, final Point3i point) {
+        if (index != points.size()) {
+            slots = null;
+        } else if (slots != null) {
+            slots.put(point, index);
+        }
+        points.add(index, point);
+        ++modCount;
+    }
+
+    @Override
+    public Point3i remove(final int index) {
+        slots = null;
+        ++modCount;
+        return points.remove(index);
+    }
+
+    @Override
+    public void clear() {
+        slots = null;
+        ++modCount;
+        points.clear();
+    }
+
+    /**
+     * Removes a position in constant time by moving the last point into its
+     * slot, so the order of the remaining points changes.
+     *
+     * @return whether the position was in the list
+     */
+    public boolean removePoint(final Point3i point) {
+        if (slots == null) {
+            slots = new HashMap<Point3i, Integer>(2 * points.size());
+            for (int i = 0; i < points.size(); ++i) {
+                slots.put(points.get(i), i);
+            }
+        }
+        final Integer slot = slots.remove(point);
+        if (slot == null) {
+            return false;
+        }
+        final Point3i last = points.remove(points.size() - 1);
+        ++modCount;
+        if (slot < points.size()) {
+            points.set(slot, last);
+            slots.put(last, slot);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,25 @@
+package de.uni_heidelberg.cos.agw.ij.regions;
+
+import ij.IJ;
+import ij.ImagePlus;
+
+public class RedoOperation extends AbstractMapBasedOperation {
+
+    public RedoOperation(ImagePlus imp) {
+        super(imp);
+    }
+
+    @Override
+    public String getName() {
+        return "Redo";
+    }
+
+    @Override
+    public void run() {
+        final String name = journal.redo(stack, intensityMap);
+        if (name != null) {
+            IJ.showStatus("Edit Regions: Redo " + name);
+        }
+        postRun();
+    }
+}
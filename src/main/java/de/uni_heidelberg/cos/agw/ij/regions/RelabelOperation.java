@@ -0,0 +1,93 @@
+package de.uni_heidelberg.cos.agw.ij.regions;
+
+import de.uni_heidelberg.cos.agw.ij.util.ConnectedComponents;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.process.ImageProcessor;
+
+import javax.vecmath.Point3i;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Gives every disconnected part of a region its own value. The first part of
+ * each region (in stack order) keeps its value, so only the other parts are
+ * changed. The value map is taken directly from the labeling instead of
+ * rescanning the image.
+ */
+public class RelabelOperation extends AbstractMapBasedOperation {
+
+    private final int connectivity;
+
+    public RelabelOperation(ImagePlus imp, final int connectivity) {
+        super(imp);
+        this.connectivity = connectivity;
+    }
+
+    @Override
+    public String getName() {
+        return "Relabel";
+    }
+
+    @Override
+    public void run() {
+        final ConnectedComponents components = new ConnectedComponents(connectivity, true);
+        components.run(stack);
+        final Map<Integer, List<Point3i>> regionMap = components.getRegionMap();
+
+        // Value of each component; components sharing a value get new ones.
+        final int maxValue = imp.getBitDepth() == 8 ? 255 : 65535;
+        final Set<Integer> usedValues = new HashSet<Integer>();
+        final Map<Integer, List<Point3i>> newIntensityMap = new HashMap<Integer, List<Point3i>>();
+        final int[] labelValues = new int[components.getNLabels() + 1];
+        int freeValue = 1;
+        for (int label = 1; label <= components.getNLabels(); ++label) {
+            final Point3i first = regionMap.get(label).get(0);
+            final int value = stack.getProcessor(first.z).getPixel(first.x, first.y);
+            if (usedValues.add(value)) {
+                labelValues[label] = value;
+            }
+        }
+        for (int label = 1; label <= components.getNLabels(); ++label) {
+            if (labelValues[label] == 0) {
+                while (usedValues.contains(freeValue)) {
+                    freeValue++;
+                }
+                if (freeValue > maxValue) {
+                    IJ.error("Edit Regions", "Not enough free values to relabel all regions.");
+                    return;
+                }
+                labelValues[label] = freeValue;
+                usedValues.add(freeValue);
+            }
+            newIntensityMap.put(labelValues[label], regionMap.get(label));
+        }
+
+        beginEdit();
+        try {
+            for (int label = 1; label <= components.getNLabels(); ++label) {
+                final List<Point3i> points = regionMap.get(label);
+                final Point3i first = points.get(0);
+                if (stack.getProcessor(first.z).getPixel(first.x, first.y) == labelValues[label]) {
+                    continue;
+                }
+                int currentZ = -1;
+                ImageProcessor ip = null;
+                for (Point3i point : points) {
+                    if (point.z != currentZ) {
+                        ip = stack.getProcessor(point.z);
+                        currentZ = point.z;
+                    }
+                    putValue(ip, point, labelValues[label]);
+                }
+            }
+        } finally {
+            endEdit();
+        }
+        intensityMap = newIntensityMap;
+        postRun();
+    }
+}
@@ -20,8 +20,13 @@ public class RemoveOperation extends AbstractMapBasedMultiPointOperation {
     @Override
     public void run() {
         List<Integer> selectedValues = getSelectedValues();
-        for (int value : selectedValues) {
-            run(value);
+        beginEdit();
+        try {
+            for (int value : selectedValues) {
+                run(value);
+            }
+        } finally {
+            endEdit();
         }
     }
 
@@ -31,14 +36,19 @@ public class RemoveOperation extends AbstractMapBasedMultiPointOperation {
             return;
         }
 
-        int currentZ = pixels.get(0).z;
-        ImageProcessor ip = stack.getProcessor(currentZ);
-        for (Point3i pixel : pixels) {
-            if (pixel.z != currentZ) {
-                ip = stack.getProcessor(pixel.z);
-                currentZ = pixel.z;
+        beginEdit();
+        try {
+            int currentZ = pixels.get(0).z;
+            ImageProcessor ip = stack.getProcessor(currentZ);
+            for (Point3i pixel : pixels) {
+                if (pixel.z != currentZ) {
+                    ip = stack.getProcessor(pixel.z);
+                    currentZ = pixel.z;
+                }
+                putValue(ip, pixel, 0);
             }
-            ip.putPixel(pixel.x, pixel.y, 0);
+        } finally {
+            endEdit();
         }
         postRun();
     }
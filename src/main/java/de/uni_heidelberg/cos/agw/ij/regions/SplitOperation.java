@@ -1,10 +1,18 @@
 package de.uni_heidelberg.cos.agw.ij.regions;
 
-import ij.IJ;
+import de.uni_heidelberg.cos.agw.ij.util.Watershed3D;
 import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+import ij.process.ImageProcessor;
+
+import javax.vecmath.Point3i;
+import java.util.ArrayList;
+import java.util.List;
 
 public class SplitOperation extends AbstractMapBasedMultiPointLocalOperation {
 
+    private static final double watershedTolerance = 0.5;
     private final String strategy;
 
     public SplitOperation(ImagePlus imp, final String strategy) {
@@ -19,14 +27,33 @@ public class SplitOperation extends AbstractMapBasedMultiPointLocalOperation {
 
     @Override
     public void run() {
-        for (int value : getSelectedValues()) {
-            if (strategy == "Manual") {
-                manual(value);
-            } else if (strategy == "Watershed") {
-                watershed(value);
-            } else {
-                return;
+        beginEdit();
+        try {
+            for (int value : getSelectedValues()) {
+                split(value);
             }
+        } finally {
+            endEdit();
+        }
+        postRun();
+    }
+
+    public void run(int value) {
+        beginEdit();
+        try {
+            split(value);
+        } finally {
+            endEdit();
+        }
+        postRun();
+    }
+
+    // Splits without updating the display, for use in batches.
+    void split(int value) {
+        if (strategy == "Manual") {
+            manual(value);
+        } else if (strategy == "Watershed") {
+            watershed(value);
         }
     }
 
@@ -35,24 +62,49 @@ public class SplitOperation extends AbstractMapBasedMultiPointLocalOperation {
         localImp.show();
     }
 
+    // Splits the region by a 3D watershed on its bounding box and assigns
+    // each resulting part a new value. The region's voxels are visited once.
     private void watershed(int value) {
-        ImagePlus localImp = getLocalSlab(value);
-//		IJ.setThreshold(localImp, 1, 65535);
-        IJ.run(localImp, "Convert to Mask", "");
-        IJ.run(localImp, "Invert LUT", "");
-        IJ.run(localImp, "Invert", "");
-        IJ.run(localImp, "Watershed", "");
-        IJ.run(localImp, "Invert", "");
-        localImp.show();
-        IJ.run("Find Connected Regions",
-                "allow_diagonal display_one_image regions_for_values_over=100"
-                        + " minimum_number_of_points=1 stop_after=-1");
-        ImagePlus localCcImp = IJ.getImage();
-        localCcImp.setTitle(localImp.getTitle());
-        localImp.hide();
-        localImp.close();
-        localCcImp.hide();
-        putLocalSlab(localCcImp, value);
-        localCcImp.clone();
+        if (!intensityMap.containsKey(value)) {
+            return;
+        }
+        final ImageStack localStack = getLocalSlab(value).getImageStack();
+        final Point3i corner = getLocalSlabCorner();
+        final Calibration calibration = imp.getCalibration();
+        final double[] voxelSize = {1, calibration.pixelHeight / calibration.pixelWidth,
+                calibration.pixelDepth / calibration.pixelWidth};
+        final Watershed3D watershed = new Watershed3D(watershedTolerance, voxelSize);
+        final int[] localLabels = watershed.run(localStack);
+        final int nLabels = watershed.getNLabels();
+        if (nLabels < 2) {
+            return;
+        }
+
+        final List<Point3i> points = intensityMap.remove(value);
+        final int[] newValues = new int[nLabels + 1];
+        final List<List<Point3i>> newPoints = new ArrayList<List<Point3i>>(nLabels + 1);
+        newPoints.add(null);
+        for (int label = 1; label <= nLabels; ++label) {
+            newValues[label] = getFreeValue();
+            final List<Point3i> labelPoints = new ArrayList<Point3i>();
+            newPoints.add(labelPoints);
+            intensityMap.put(newValues[label], labelPoints);
+        }
+
+        final int localWidth = localStack.getWidth();
+        final int localHeight = localStack.getHeight();
+        int currentZ = -1;
+        ImageProcessor ip = null;
+        for (Point3i point : points) {
+            if (point.z != currentZ) {
+                ip = stack.getProcessor(point.z);
+                currentZ = point.z;
+            }
+            final int localIndex = ((point.z - corner.z) * localHeight + point.y - corner.y) * localWidth
+                    + point.x - corner.x;
+            final int label = localLabels[localIndex];
+            putValue(ip, point, newValues[label]);
+            newPoints.get(label).add(point);
+        }
     }
 }
\ No newline at end of file
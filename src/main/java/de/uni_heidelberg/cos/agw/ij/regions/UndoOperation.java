@@ -0,0 +1,25 @@
+package de.uni_heidelberg.cos.agw.ij.regions;
+
+import ij.IJ;
+import ij.ImagePlus;
+
+public class UndoOperation extends AbstractMapBasedOperation {
+
+    public UndoOperation(ImagePlus imp) {
+        super(imp);
+    }
+
+    @Override
+    public String getName() {
+        return "Undo";
+    }
+
+    @Override
+    public void run() {
+        final String name = journal.undo(stack, intensityMap);
+        if (name != null) {
+            IJ.showStatus("Edit Regions: Undo " + name);
+        }
+        postRun();
+    }
+}
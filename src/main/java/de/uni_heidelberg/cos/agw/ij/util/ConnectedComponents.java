@@ -0,0 +1,356 @@
+package de.uni_heidelberg.cos.agw.ij.util;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+import javax.vecmath.Point3i;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 3D connected component labeling with 6, 18 or 26-connectivity.
+ * <p>
+ * The stack is divided into z-slabs that are labeled in parallel with a
+ * union-find over provisional labels. The equivalences across slab borders
+ * are resolved afterwards, and final labels 1..n are assigned in the order
+ * in which components are first encountered in the stack, independent of the
+ * number of threads.
+ * <p>
+ * Components are either all connected non-zero voxels, or connected voxels
+ * of identical value, e.g. to separate disconnected parts of regions in a
+ * label image.
+ */
+public class ConnectedComponents {
+
+    private final int[][] backwardOffsets;
+    private final boolean byValue;
+    private int width, height, depth;
+    private Object[] pixels;
+    private int[][] labels;
+    private int nLabels = 0;
+
+    /**
+     * @param connectivity 6, 18 or 26
+     * @param byValue      whether neighboring voxels must have identical
+     *                     values to be connected, otherwise any non-zero
+     *                     voxels are
+     */
+    public ConnectedComponents(final int connectivity, final boolean byValue) {
+        if (connectivity != 6 && connectivity != 18 && connectivity != 26) {
+            throw new IllegalArgumentException("Connectivity must be 6, 18 or 26.");
+        }
+        this.byValue = byValue;
+
+        // Neighbors preceding a voxel in raster order.
+        final List<int[]> offsets = new ArrayList<int[]>();
+        for (int dz = -1; dz <= 0; ++dz) {
+            for (int dy = -1; dy <= 1; ++dy) {
+                for (int dx = -1; dx <= 1; ++dx) {
+                    if (dz == 0 && (dy > 0 || (dy == 0 && dx >= 0))) {
+                        continue;
+                    }
+                    final int distance = Math.abs(dx) + Math.abs(dy) + Math.abs(dz);
+                    if ((connectivity == 6 && distance > 1) || (connectivity == 18 && distance > 2)) {
+                        continue;
+                    }
+                    offsets.add(new int[]{dx, dy, dz});
+                }
+            }
+        }
+        backwardOffsets = offsets.toArray(new int[offsets.size()][]);
+    }
+
+    /**
+     * Labels the stack.
+     *
+     * @param stack 8, 16 or 32-bit stack, 0 is background
+     * @return the number of components
+     */
+    public int run(final ImageStack stack) {
+        width = stack.getWidth();
+        height = stack.getHeight();
+        depth = stack.getSize();
+        pixels = new Object[depth];
+        labels = new int[depth][];
+        for (int z = 0; z < depth; ++z) {
+            pixels[z] = stack.getPixels(z + 1);
+            labels[z] = new int[width * height];
+        }
+
+        // Label slabs independently with provisional labels local to the slab.
+        final int nSlabs = Parallel.getNRanges(depth);
+        final int[][] slabParents = new int[nSlabs][];
+        final int[] slabCounts = new int[nSlabs];
+        final int[] slabStarts = new int[nSlabs];
+        Parallel.forRanges(depth, new Parallel.RangeTask() {
+            @Override
+            public void run(final int chunk, final int start, final int end) {
+                slabStarts[chunk] = start;
+                final UnionFind unionFind = new UnionFind(1024);
+                labelSlab(start, end, unionFind);
+                slabParents[chunk] = unionFind.parent;
+                slabCounts[chunk] = unionFind.count;
+            }
+        });
+
+        // Make provisional labels unique and merge the equivalence tables.
+        final int[] slabOffsets = new int[nSlabs];
+        long total = 0;
+        for (int s = 0; s < nSlabs; ++s) {
+            slabOffsets[s] = (int) total;
+            total += slabCounts[s];
+        }
+        if (total >= Integer.MAX_VALUE) {
+            throw new IllegalStateException("Too many provisional labels.");
+        }
+        final UnionFind unionFind = new UnionFind((int) total + 1);
+        for (int s = 0; s < nSlabs; ++s) {
+            for (int i = 1; i <= slabCounts[s]; ++i) {
+                unionFind.parent[slabOffsets[s] + i] = slabOffsets[s] + slabParents[s][i];
+            }
+            slabParents[s] = null;
+        }
+        unionFind.count = (int) total;
+        Parallel.forRanges(nSlabs, new Parallel.RangeTask() {
+            @Override
+            public void run(final int chunk, final int start, final int end) {
+                for (int s = start; s < end; ++s) {
+                    final int zEnd = s + 1 < slabStarts.length ? slabStarts[s + 1] : depth;
+                    addOffset(slabStarts[s], zEnd, slabOffsets[s]);
+                }
+            }
+        });
+
+        // Resolve equivalences across slab borders.
+        for (int s = 1; s < nSlabs; ++s) {
+            mergeAcross(slabStarts[s], unionFind);
+        }
+
+        // Assign final labels. Roots are the smallest label of their set, so
+        // one ascending pass flattens all sets.
+        final int[] parent = unionFind.parent;
+        nLabels = 0;
+        for (int i = 1; i <= total; ++i) {
+            if (parent[i] == i) {
+                parent[i] = -(++nLabels);
+            } else {
+                parent[i] = parent[parent[i]];
+            }
+        }
+        for (int i = 1; i <= total; ++i) {
+            parent[i] = -parent[i];
+        }
+        Parallel.forRanges(depth, new Parallel.RangeTask() {
+            @Override
+            public void run(final int chunk, final int start, final int end) {
+                for (int z = start; z < end; ++z) {
+                    final int[] slice = labels[z];
+                    for (int i = 0; i < slice.length; ++i) {
+                        slice[i] = parent[slice[i]];
+                    }
+                }
+            }
+        });
+        pixels = null;
+        return nLabels;
+    }
+
+    public int getNLabels() {
+        return nLabels;
+    }
+
+    /**
+     * Returns the labels of the last run, one array per slice, indexed by
+     * y * width + x.
+     */
+    public int[][] getLabels() {
+        return labels;
+    }
+
+    /**
+     * Returns the labels of the last run as 16-bit stack if there are at most
+     * 65535 components, as 32-bit stack otherwise. Note that 32-bit images
+     * represent integers exactly only up to 2^24.
+     */
+    public ImagePlus getLabelImage(final String title) {
+        final ImageStack stack = new ImageStack(width, height);
+        for (int z = 0; z < depth; ++z) {
+            final int[] slice = labels[z];
+            final ImageProcessor ip;
+            if (nLabels <= 65535) {
+                final short[] out = new short[slice.length];
+                for (int i = 0; i < slice.length; ++i) {
+                    out[i] = (short) slice[i];
+                }
+                ip = new ShortProcessor(width, height, out, null);
+            } else {
+                final float[] out = new float[slice.length];
+                for (int i = 0; i < slice.length; ++i) {
+                    out[i] = slice[i];
+                }
+                ip = new FloatProcessor(width, height, out, null);
+            }
+            stack.addSlice("", ip);
+        }
+        final ImagePlus imp = new ImagePlus(title, stack);
+        imp.getProcessor().resetMinAndMax();
+        return imp;
+    }
+
+    /**
+     * Returns the voxel positions of each component of the last run, z is
+     * the 1-based slice index as in {@link ImageStack#getProcessor(int)}.
+     */
+    public Map<Integer, List<Point3i>> getRegionMap() {
+        final int[] sizes = new int[nLabels + 1];
+        for (final int[] slice : labels) {
+            for (final int label : slice) {
+                sizes[label]++;
+            }
+        }
+        final List<List<Point3i>> regions = new ArrayList<List<Point3i>>(nLabels + 1);
+        final Map<Integer, List<Point3i>> map = new HashMap<Integer, List<Point3i>>();
+        regions.add(null);
+        for (int label = 1; label <= nLabels; ++label) {
+            final List<Point3i> points = new ArrayList<Point3i>(sizes[label]);
+            regions.add(points);
+            map.put(label, points);
+        }
+        for (int z = 0; z < depth; ++z) {
+            final int[] slice = labels[z];
+            for (int i = 0; i < slice.length; ++i) {
+                if (slice[i] != 0) {
+                    regions.get(slice[i]).add(new Point3i(i % width, i / width, z + 1));
+                }
+            }
+        }
+        return map;
+    }
+
+    private void labelSlab(final int zStart, final int zEnd, final UnionFind unionFind) {
+        for (int z = zStart; z < zEnd; ++z) {
+            final Object slicePixels = pixels[z];
+            final int[] slice = labels[z];
+            for (int y = 0; y < height; ++y) {
+                for (int x = 0; x < width; ++x) {
+                    final int i = y * width + x;
+                    final float value = getValue(slicePixels, i);
+                    if (value == 0) {
+                        continue;
+                    }
+                    int label = 0;
+                    for (final int[] offset : backwardOffsets) {
+                        final int nz = z + offset[2];
+                        final int ny = y + offset[1];
+                        final int nx = x + offset[0];
+                        if (nz < zStart || ny < 0 || ny >= height || nx < 0 || nx >= width) {
+                            continue;
+                        }
+                        final int j = ny * width + nx;
+                        final int neighborLabel = labels[nz][j];
+                        if (neighborLabel == 0 || (byValue && getValue(pixels[nz], j) != value)) {
+                            continue;
+                        }
+                        label = label == 0 ? neighborLabel : unionFind.union(label, neighborLabel);
+                    }
+                    slice[i] = label == 0 ? unionFind.add() : label;
+                }
+            }
+        }
+    }
+
+    private void addOffset(final int zStart, final int zEnd, final int offset) {
+        for (int z = zStart; z < zEnd; ++z) {
+            final int[] slice = labels[z];
+            for (int i = 0; i < slice.length; ++i) {
+                if (slice[i] != 0) {
+                    slice[i] += offset;
+                }
+            }
+        }
+    }
+
+    private void mergeAcross(final int z, final UnionFind unionFind) {
+        final int[] slice = labels[z];
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                final int i = y * width + x;
+                if (slice[i] == 0) {
+                    continue;
+                }
+                final float value = getValue(pixels[z], i);
+                for (final int[] offset : backwardOffsets) {
+                    if (offset[2] == 0) {
+                        continue;
+                    }
+                    final int ny = y + offset[1];
+                    final int nx = x + offset[0];
+                    if (ny < 0 || ny >= height || nx < 0 || nx >= width) {
+                        continue;
+                    }
+                    final int j = ny * width + nx;
+                    final int neighborLabel = labels[z - 1][j];
+                    if (neighborLabel == 0 || (byValue && getValue(pixels[z - 1], j) != value)) {
+                        continue;
+                    }
+                    unionFind.union(slice[i], neighborLabel);
+                }
+            }
+        }
+    }
+
+    private static float getValue(final Object pixels, final int i) {
+        if (pixels instanceof byte[]) {
+            return ((byte[]) pixels)[i] & 0xff;
+        } else if (pixels instanceof short[]) {
+            return ((short[]) pixels)[i] & 0xffff;
+        } else if (pixels instanceof float[]) {
+            return ((float[]) pixels)[i];
+        }
+        throw new IllegalArgumentException("Only 8, 16 and 32-bit stacks are supported.");
+    }
+
+    // Union-find over labels 1..count, roots are the smallest label of a set.
+    private static class UnionFind {
+
+        int[] parent;
+        int count = 0;
+
+        UnionFind(final int capacity) {
+            parent = new int[Math.max(capacity, 2)];
+        }
+
+        int add() {
+            if (++count == parent.length) {
+                parent = Arrays.copyOf(parent, 2 * parent.length);
+            }
+            parent[count] = count;
+            return count;
+        }
+
+        int find(int i) {
+            while (parent[i] != i) {
+                parent[i] = parent[parent[i]];
+                i = parent[i];
+            }
+            return i;
+        }
+
+        int union(final int a, final int b) {
+            final int rootA = find(a);
+            final int rootB = find(b);
+            if (rootA < rootB) {
+                parent[rootB] = rootA;
+                return rootA;
+            }
+            parent[rootA] = rootB;
+            return rootB;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package de.uni_heidelberg.cos.agw.ij.util;
+
+/**
+ * Clips lines and circles to an axis-aligned box analytically, e.g. to find
+ * the part of a row of a map that falls inside the volume it is sampled from
+ * without transforming every position.
+ */
+public class CurveClipper {
+
+    /**
+     * Maximum number of arcs of a circle inside a box; a plane cuts a box
+     * in at most a hexagon, plus one arc may be split at phi = 0.
+     */
+    public static final int maxArcs = 8;
+    private static final double TWO_PI = 2 * Math.PI;
+
+    private CurveClipper() {
+    }
+
+    /**
+     * Clips the line a + t * b to the box lower to upper (inclusive).
+     *
+     * @param range receives {first t, last t} inside the box
+     * @return false if the line misses the box
+     */
+    public static boolean clipLine(final double[] a, final double[] b, final double[] lower, final double[] upper,
+                                   final double[] range) {
+        double first = Double.NEGATIVE_INFINITY;
+        double last = Double.POSITIVE_INFINITY;
+        for (int d = 0; d < a.length; ++d) {
+            if (b[d] == 0) {
+                if (a[d] < lower[d] || a[d] > upper[d]) {
+                    return false;
+                }
+                continue;
+            }
+            final double t0 = (lower[d] - a[d]) / b[d];
+            final double t1 = (upper[d] - a[d]) / b[d];
+            first = Math.max(first, Math.min(t0, t1));
+            last = Math.min(last, Math.max(t0, t1));
+        }
+        if (first > last) {
+            return false;
+        }
+        range[0] = first;
+        range[1] = last;
+        return true;
+    }
+
+    /**
+     * Clips the circle a + cos(phi) * b + sin(phi) * c, phi in [0, 2 PI), to
+     * the box lower to upper (inclusive).
+     *
+     * @param arcs receives up to {@link #maxArcs} {first phi, last phi} pairs
+     *             inside the box, sorted and within [0, 2 PI], so of length
+     *             2 * maxArcs
+     * @return the number of arcs
+     */
+    public static int clipCircle(final double[] a, final double[] b, final double[] c, final double[] lower,
+                                 final double[] upper, final double[] arcs) {
+        // Start with the full circle and intersect with the arcs allowed
+        // along each dimension.
+        int n = 1;
+        arcs[0] = 0;
+        arcs[1] = TWO_PI;
+        final double[] allowed = new double[6];
+        final double[] result = new double[2 * maxArcs * 4];
+        for (int d = 0; d < a.length && n > 0; ++d) {
+            final int nAllowed = getAllowedArcs(a[d], b[d], c[d], lower[d], upper[d], allowed);
+            if (nAllowed < 0) {
+                continue;
+            }
+            int nResult = 0;
+            for (int i = 0; i < n; ++i) {
+                for (int j = 0; j < nAllowed; ++j) {
+                    final double first = Math.max(arcs[2 * i], allowed[2 * j]);
+                    final double last = Math.min(arcs[2 * i + 1], allowed[2 * j + 1]);
+                    if (first <= last) {
+                        result[2 * nResult] = first;
+                        result[2 * nResult + 1] = last;
+                        ++nResult;
+                    }
+                }
+            }
+            n = merge(result, nResult, arcs);
+        }
+        return n;
+    }
+
+    // Arcs of phi in [0, 2 PI] where lower <= a + b cos(phi) + c sin(phi) <=
+    // upper, at most three. Returns -1 if all phi are allowed.
+    private static int getAllowedArcs(final double a, final double b, final double c, final double lower,
+                                      final double upper, final double[] arcs) {
+        final double amplitude = Math.sqrt(b * b + c * c);
+        if (a - amplitude >= lower && a + amplitude <= upper) {
+            return -1;
+        }
+        if (a + amplitude < lower || a - amplitude > upper) {
+            return 0;
+        }
+        // a + amplitude cos(phi - phase); the allowed psi = phi - phase are
+        // the intersection of [-high, high] and [low, 2 PI - low].
+        final double phase = Math.atan2(c, b);
+        final double high = Math.acos(Math.max(-1, Math.min(1, (lower - a) / amplitude)));
+        final double low = Math.acos(Math.max(-1, Math.min(1, (upper - a) / amplitude)));
+        // In psi in [-PI, PI] the allowed set is [-high, -low] and [low, high].
+        final double[] unwrapped = {-high + phase, -low + phase, low + phase, high + phase};
+        int n = 0;
+        final double[] pieces = new double[8];
+        for (int i = 0; i < 2; ++i) {
+            double first = unwrapped[2 * i];
+            double last = unwrapped[2 * i + 1];
+            final double shift = Math.floor(first / TWO_PI) * TWO_PI;
+            first -= shift;
+            last -= shift;
+            if (last <= TWO_PI) {
+                pieces[2 * n] = first;
+                pieces[2 * n + 1] = last;
+                ++n;
+            } else {
+                pieces[2 * n] = first;
+                pieces[2 * n + 1] = TWO_PI;
+                ++n;
+                pieces[2 * n] = 0;
+                pieces[2 * n + 1] = last - TWO_PI;
+                ++n;
+            }
+        }
+        return merge(pieces, n, arcs);
+    }
+
+    // Sorts and merges overlapping intervals into target.
+    private static int merge(final double[] intervals, final int n, final double[] target) {
+        // Insertion sort by start.
+        for (int i = 1; i < n; ++i) {
+            final double first = intervals[2 * i];
+            final double last = intervals[2 * i + 1];
+            int j = i - 1;
+            while (j >= 0 && intervals[2 * j] > first) {
+                intervals[2 * j + 2] = intervals[2 * j];
+                intervals[2 * j + 3] = intervals[2 * j + 1];
+                --j;
+            }
+            intervals[2 * j + 2] = first;
+            intervals[2 * j + 3] = last;
+        }
+        int nMerged = 0;
+        for (int i = 0; i < n; ++i) {
+            if (nMerged > 0 && intervals[2 * i] <= target[2 * nMerged - 1]) {
+                target[2 * nMerged - 1] = Math.max(target[2 * nMerged - 1], intervals[2 * i + 1]);
+            } else {
+                target[2 * nMerged] = intervals[2 * i];
+                target[2 * nMerged + 1] = intervals[2 * i + 1];
+                ++nMerged;
+            }
+        }
+        return nMerged;
+    }
+}
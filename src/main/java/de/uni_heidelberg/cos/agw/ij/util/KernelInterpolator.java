@@ -0,0 +1,331 @@
+package de.uni_heidelberg.cos.agw.ij.util;
+
+import ij.ImageStack;
+
+import java.util.Arrays;
+
+/**
+ * Separable convolution interpolation of a volume, 0 outside, reading the
+ * pixel arrays of an {@link ImageStack} directly.
+ * <p>
+ * Instead of evaluating the kernel for every neighbor of every sample, the
+ * weights of all neighbors along an axis are precomputed for
+ * {@link #nBins} fractional offsets, and the offset of a sample is rounded to
+ * the nearest bin, i.e. positions are quantized to 1/1024 voxel.
+ * <p>
+ * 8 and 16 bit volumes are read without conversion. For the B-spline kernel,
+ * the volume is prefiltered once, in parallel, into float coefficients of
+ * its zero extension, which reach beyond the volume by the kernel radius.
+ * Sampling does not change any state and can be done concurrently.
+ */
+public class KernelInterpolator {
+
+    public enum Kernel {
+        /**
+         * Windowed sinc with 3 lobes, with the weights normalized to unit
+         * sum.
+         */
+        LANCZOS3(3),
+        /**
+         * Cubic convolution with a = -0.5, interpolating.
+         */
+        CATMULL_ROM(2),
+        /**
+         * Cubic B-spline, made interpolating by prefiltering.
+         */
+        B_SPLINE(2);
+
+        private final int radius;
+
+        private Kernel(final int radius) {
+            this.radius = radius;
+        }
+
+        /**
+         * Returns the distance from a sample beyond which the kernel is 0.
+         */
+        public int getRadius() {
+            return radius;
+        }
+
+        public double evaluate(final double x) {
+            final double a = Math.abs(x);
+            if (a >= radius) {
+                return 0;
+            }
+            switch (this) {
+                case LANCZOS3:
+                    if (a < 1e-12) {
+                        return 1;
+                    }
+                    final double px = Math.PI * a;
+                    return radius * Math.sin(px) * Math.sin(px / radius) / (px * px);
+                case CATMULL_ROM:
+                    if (a < 1) {
+                        return (1.5 * a - 2.5) * a * a + 1;
+                    }
+                    return ((-0.5 * a + 2.5) * a - 4) * a + 2;
+                default:
+                    if (a < 1) {
+                        return (0.5 * a - 1) * a * a + 2.0 / 3;
+                    }
+                    final double b = 2 - a;
+                    return b * b * b / 6;
+            }
+        }
+    }
+
+    /**
+     * Number of fractional offsets weights are precomputed for.
+     */
+    public static final int nBins = 1024;
+    // Pole of the cubic B-spline prefilter, and the number of zeros lines
+    // are padded with for its response to decay below float precision.
+    private static final double splinePole = Math.sqrt(3) - 2;
+    private static final int splinePadding = 12;
+
+    private final Kernel kernel;
+    // Dimensions of the stored slices, which start pad voxels before the
+    // volume.
+    private final int width, height, depth;
+    private final int pad;
+    private final int nTaps;
+    // Weights of the taps x0 - radius + 1 to x0 + radius for the fractional
+    // offset of bin b, at b * nTaps.
+    private final double[] weights;
+    // One of them holds the slices.
+    private final byte[][] byteSlices;
+    private final short[][] shortSlices;
+    private final float[][] floatSlices;
+
+    /**
+     * @param stack volume of any type, RGB is converted to its luminance
+     */
+    public KernelInterpolator(final ImageStack stack, final Kernel kernel) {
+        this.kernel = kernel;
+        pad = kernel == Kernel.B_SPLINE ? kernel.getRadius() : 0;
+        width = stack.getWidth() + 2 * pad;
+        height = stack.getHeight() + 2 * pad;
+        depth = stack.getSize() + 2 * pad;
+        nTaps = 2 * kernel.getRadius();
+        weights = createWeights(kernel);
+
+        final Object pixels = stack.getPixels(1);
+        if (kernel == Kernel.B_SPLINE) {
+            byteSlices = null;
+            shortSlices = null;
+            floatSlices = prefilter(stack, pad);
+        } else if (pixels instanceof byte[]) {
+            byteSlices = new byte[depth][];
+            shortSlices = null;
+            floatSlices = null;
+            for (int z = 0; z < depth; ++z) {
+                byteSlices[z] = (byte[]) stack.getPixels(z + 1);
+            }
+        } else if (pixels instanceof short[]) {
+            byteSlices = null;
+            shortSlices = new short[depth][];
+            floatSlices = null;
+            for (int z = 0; z < depth; ++z) {
+                shortSlices[z] = (short[]) stack.getPixels(z + 1);
+            }
+        } else {
+            byteSlices = null;
+            shortSlices = null;
+            floatSlices = toFloat(stack);
+        }
+    }
+
+    public Kernel getKernel() {
+        return kernel;
+    }
+
+    /**
+     * Returns the interpolated value at a position in voxel coordinates, 0
+     * outside the volume by more than the kernel radius.
+     */
+    public double get(double x, double y, double z) {
+        x += pad;
+        y += pad;
+        z += pad;
+        final int radius = kernel.getRadius();
+        if (!(x > -radius && x < width + radius - 1 && y > -radius && y < height + radius - 1
+                && z > -radius && z < depth + radius - 1)) {
+            return 0;
+        }
+        final int x0 = (int) Math.floor(x);
+        final int y0 = (int) Math.floor(y);
+        final int z0 = (int) Math.floor(z);
+        final int wx = getBin(x - x0) * nTaps;
+        final int wy = getBin(y - y0) * nTaps;
+        final int wz = getBin(z - z0) * nTaps;
+
+        // First voxel of the taps along each axis, and the taps inside.
+        final int xStart = x0 - radius + 1;
+        final int yStart = y0 - radius + 1;
+        final int zStart = z0 - radius + 1;
+        final int iStart = Math.max(0, -xStart);
+        final int iEnd = Math.min(nTaps, width - xStart);
+        final int jStart = Math.max(0, -yStart);
+        final int jEnd = Math.min(nTaps, height - yStart);
+        final int kStart = Math.max(0, -zStart);
+        final int kEnd = Math.min(nTaps, depth - zStart);
+
+        double sum = 0;
+        for (int k = kStart; k < kEnd; ++k) {
+            final int slice = zStart + k;
+            double sliceSum = 0;
+            for (int j = jStart; j < jEnd; ++j) {
+                final int offset = (yStart + j) * width + xStart;
+                sliceSum += weights[wy + j] * sumRow(slice, offset, wx, iStart, iEnd);
+            }
+            sum += weights[wz + k] * sliceSum;
+        }
+        return sum;
+    }
+
+    private double sumRow(final int slice, final int offset, final int w, final int iStart, final int iEnd) {
+        double sum = 0;
+        if (byteSlices != null) {
+            final byte[] pixels = byteSlices[slice];
+            for (int i = iStart; i < iEnd; ++i) {
+                sum += weights[w + i] * (pixels[offset + i] & 0xff);
+            }
+        } else if (shortSlices != null) {
+            final short[] pixels = shortSlices[slice];
+            for (int i = iStart; i < iEnd; ++i) {
+                sum += weights[w + i] * (pixels[offset + i] & 0xffff);
+            }
+        } else {
+            final float[] pixels = floatSlices[slice];
+            for (int i = iStart; i < iEnd; ++i) {
+                sum += weights[w + i] * pixels[offset + i];
+            }
+        }
+        return sum;
+    }
+
+    private static int getBin(final double fraction) {
+        return (int) (fraction * nBins + 0.5);
+    }
+
+    private static double[] createWeights(final Kernel kernel) {
+        final int radius = kernel.getRadius();
+        final int nTaps = 2 * radius;
+        final double[] weights = new double[(nBins + 1) * nTaps];
+        for (int b = 0; b <= nBins; ++b) {
+            final double fraction = (double) b / nBins;
+            double sum = 0;
+            for (int t = 0; t < nTaps; ++t) {
+                final double weight = kernel.evaluate(fraction - (t - radius + 1));
+                weights[b * nTaps + t] = weight;
+                sum += weight;
+            }
+            if (kernel == Kernel.LANCZOS3) {
+                for (int t = 0; t < nTaps; ++t) {
+                    weights[b * nTaps + t] /= sum;
+                }
+            }
+        }
+        return weights;
+    }
+
+    private static float[][] toFloat(final ImageStack stack) {
+        final float[][] slices = new float[stack.getSize()][];
+        for (int z = 0; z < slices.length; ++z) {
+            slices[z] = (float[]) stack.getProcessor(z + 1).convertToFloat().getPixels();
+        }
+        return slices;
+    }
+
+    // Converts the volume to cubic B-spline coefficients, filtering along x
+    // and y per slice, then along z per row. The slices are padded by pad
+    // along each axis.
+    private static float[][] prefilter(final ImageStack stack, final int pad) {
+        final int sourceWidth = stack.getWidth();
+        final int sourceHeight = stack.getHeight();
+        final int sourceDepth = stack.getSize();
+        final int width = sourceWidth + 2 * pad;
+        final int height = sourceHeight + 2 * pad;
+        final int depth = sourceDepth + 2 * pad;
+        final float[][] slices = new float[depth][];
+        for (int z = 0; z < pad; ++z) {
+            slices[z] = new float[width * height];
+            slices[depth - 1 - z] = new float[width * height];
+        }
+        Parallel.forRanges(sourceDepth, new Parallel.RangeTask() {
+            @Override
+            public void run(final int chunk, final int start, final int end) {
+                final double[] line = new double[Math.max(width, height) + 2 * splinePadding];
+                for (int z = start; z < end; ++z) {
+                    final float[] source = (float[]) stack.getProcessor(z + 1).convertToFloat().getPixels();
+                    final float[] slice = new float[width * height];
+                    for (int y = 0; y < sourceHeight; ++y) {
+                        System.arraycopy(source, y * sourceWidth, slice, (y + pad) * width + pad, sourceWidth);
+                    }
+                    for (int y = pad; y < pad + sourceHeight; ++y) {
+                        filterLine(slice, y * width, 1, sourceWidth, pad, line);
+                    }
+                    for (int x = 0; x < width; ++x) {
+                        filterLine(slice, x, width, sourceHeight, pad, line);
+                    }
+                    slices[z + pad] = slice;
+                }
+            }
+        });
+        Parallel.forRanges(height, new Parallel.RangeTask() {
+            @Override
+            public void run(final int chunk, final int start, final int end) {
+                final double[] line = new double[depth + 2 * splinePadding];
+                final float[] column = new float[depth];
+                for (int y = start; y < end; ++y) {
+                    for (int x = 0; x < width; ++x) {
+                        final int i = y * width + x;
+                        for (int z = 0; z < depth; ++z) {
+                            column[z] = slices[z][i];
+                        }
+                        filterLine(column, 0, 1, sourceDepth, pad, line);
+                        for (int z = 0; z < depth; ++z) {
+                            slices[z][i] = column[z];
+                        }
+                    }
+                }
+            }
+        });
+        return slices;
+    }
+
+    // Filters the n samples of a line starting pad steps after start, which
+    // are zero beyond, and stores the coefficients from start to pad steps
+    // after the samples.
+    private static void filterLine(final float[] data, final int start, final int step, final int n, final int pad,
+                                   final double[] line) {
+        final int length = n + 2 * splinePadding;
+        Arrays.fill(line, 0, length, 0);
+        for (int i = 0; i < n; ++i) {
+            line[splinePadding + i] = data[start + (pad + i) * step];
+        }
+        filterLine(line, length);
+        for (int i = -pad; i < n + pad; ++i) {
+            data[start + (pad + i) * step] = (float) line[splinePadding + i];
+        }
+    }
+
+    // Recursive cubic B-spline prefilter, see Unser, IEEE Signal Processing
+    // Magazine 16(6), 1999. The line must start and end with enough zeros
+    // for the borders not to matter.
+    private static void filterLine(final double[] line, final int n) {
+        final double z = splinePole;
+        final double gain = (1 - z) * (1 - 1 / z);
+        for (int i = 0; i < n; ++i) {
+            line[i] *= gain;
+        }
+        for (int i = 1; i < n; ++i) {
+            line[i] += z * line[i - 1];
+        }
+        line[n - 1] = z / (z * z - 1) * (z * line[n - 2] + line[n - 1]);
+        for (int i = n - 2; i >= 0; --i) {
+            line[i] = z * (line[i + 1] - line[i]);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package de.uni_heidelberg.cos.agw.ij.util;
+
+/**
+ * N-dimensional integer line iterator (Bresenham's algorithm generalized to N
+ * dimensions). Visits one grid position per step along the axis with the
+ * largest distance, the positions along the other axes are those of the
+ * straight line rounded to the grid. Stepping uses integer error terms only
+ * and allocates nothing, arrays are only reallocated by
+ * {@link #set(int[], int[], boolean)} if the number of dimensions changes.
+ * <p>
+ * Usage:
+ * <pre>
+ * cursor.set(start, end, true);
+ * while (cursor.hasNext()) {
+ *     cursor.fwd();
+ *     ... cursor.getIntPosition(d) ...
+ * }
+ * </pre>
+ */
+public class LineCursor {
+
+    private int[] position = new int[0];
+    private int[] direction = new int[0];
+    private int[] distance = new int[0];
+    private long[] error = new long[0];
+    private long nSteps2;
+    private int nRemaining;
+    private boolean isBeforeStart;
+
+    /**
+     * @param start        first position of the line
+     * @param end          last position of the line, always visited
+     * @param includeFirst whether start is visited
+     */
+    public void set(final int[] start, final int[] end, final boolean includeFirst) {
+        if (start.length == 0 || start.length != end.length) {
+            throw new IllegalArgumentException("Arrays must not be empty or differ in length.");
+        }
+        if (position.length != start.length) {
+            position = new int[start.length];
+            direction = new int[start.length];
+            distance = new int[start.length];
+            error = new long[start.length];
+        }
+        int nSteps = 0;
+        for (int d = 0; d < start.length; ++d) {
+            position[d] = start[d];
+            direction[d] = end[d] > start[d] ? 1 : (end[d] < start[d] ? -1 : 0);
+            distance[d] = Math.abs(end[d] - start[d]);
+            nSteps = Math.max(nSteps, distance[d]);
+        }
+        // Error terms are scaled by 2 * nSteps and start at half a step, so
+        // that positions are rounded instead of truncated.
+        nSteps2 = 2L * nSteps;
+        for (int d = 0; d < start.length; ++d) {
+            error[d] = nSteps;
+        }
+        isBeforeStart = includeFirst;
+        nRemaining = includeFirst ? nSteps + 1 : nSteps;
+    }
+
+    public int numDimensions() {
+        return position.length;
+    }
+
+    public boolean hasNext() {
+        return nRemaining > 0;
+    }
+
+    /**
+     * Returns the number of positions still to be visited.
+     */
+    public int nRemainingSteps() {
+        return nRemaining;
+    }
+
+    /**
+     * Moves to the next position on the line.
+     */
+    public void fwd() {
+        nRemaining--;
+        if (isBeforeStart) {
+            isBeforeStart = false;
+            return;
+        }
+        for (int d = 0; d < position.length; ++d) {
+            error[d] += 2L * distance[d];
+            if (error[d] >= nSteps2) {
+                error[d] -= nSteps2;
+                position[d] += direction[d];
+            }
+        }
+    }
+
+    public int getIntPosition(final int d) {
+        return position[d];
+    }
+
+    public void localize(final int[] position) {
+        System.arraycopy(this.position, 0, position, 0, this.position.length);
+    }
+
+    /**
+     * Returns the current position. The array is updated in place by
+     * {@link #fwd()} and must not be modified.
+     */
+    int[] getPositionArray() {
+        return position;
+    }
+}
@@ -3,6 +3,13 @@ package de.uni_heidelberg.cos.agw.ij.util;
 import javax.vecmath.Point3i;
 import java.util.Iterator;
 
+/**
+ * Iterates a 3D line like {@link LineCursor}, returning a new point on each
+ * call to next().
+ *
+ * @deprecated Allocates a point per step, use {@link LineCursor}.
+ */
+@Deprecated
 public class LineIterator3i implements Iterable<Point3i> {
 
     private final MutableLinearIterator linearIterator;
@@ -2,6 +2,13 @@ package de.uni_heidelberg.cos.agw.ij.util;
 
 import java.util.Iterator;
 
+/**
+ * Iterates a line like {@link LineCursor}, returning a copy of the position
+ * on each call to next().
+ *
+ * @deprecated Allocates an array per step, use {@link LineCursor}.
+ */
+@Deprecated
 public class LinearIterator implements Iterable<int[]> {
 
     private final MutableLinearIterator linearIterator;
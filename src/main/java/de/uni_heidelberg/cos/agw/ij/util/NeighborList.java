@@ -0,0 +1,106 @@
+package de.uni_heidelberg.cos.agw.ij.util;
+
+/**
+ * The k nearest candidates seen so far during a search, kept in a max-heap
+ * by square distance and sorted in ascending order when done.
+ */
+class NeighborList {
+
+    private int[] indices = new int[0];
+    private double[] squareDistances = new double[0];
+    private int k;
+    private int n;
+
+    void reset(final int k) {
+        if (indices.length < k) {
+            indices = new int[k];
+            squareDistances = new double[k];
+        }
+        this.k = k;
+        n = 0;
+    }
+
+    boolean isFull() {
+        return n >= k;
+    }
+
+    /**
+     * Returns the square distance of the farthest candidate, only valid when
+     * there is at least one.
+     */
+    double getMaxSquareDistance() {
+        return squareDistances[0];
+    }
+
+    void consider(final int i, final double squareDistance) {
+        if (n < k) {
+            // Add and sift up.
+            int child = n++;
+            indices[child] = i;
+            squareDistances[child] = squareDistance;
+            while (child > 0) {
+                final int parent = (child - 1) >>> 1;
+                if (squareDistances[parent] >= squareDistances[child]) {
+                    break;
+                }
+                swap(parent, child);
+                child = parent;
+            }
+        } else if (k > 0 && squareDistance < squareDistances[0]) {
+            // Replace the farthest and sift down.
+            indices[0] = i;
+            squareDistances[0] = squareDistance;
+            siftDown(0, n);
+        }
+    }
+
+    /**
+     * Sorts the candidates by distance, after which no more may be added.
+     */
+    void sort() {
+        for (int i = n - 1; i > 0; --i) {
+            swap(0, i);
+            siftDown(0, i);
+        }
+    }
+
+    int getN() {
+        return n;
+    }
+
+    int getIndex(final int i) {
+        return indices[i];
+    }
+
+    double getSquareDistance(final int i) {
+        return squareDistances[i];
+    }
+
+    private void siftDown(int parent, final int heapSize) {
+        while (true) {
+            int largest = parent;
+            final int left = 2 * parent + 1;
+            final int right = left + 1;
+            if (left < heapSize && squareDistances[left] > squareDistances[largest]) {
+                largest = left;
+            }
+            if (right < heapSize && squareDistances[right] > squareDistances[largest]) {
+                largest = right;
+            }
+            if (largest == parent) {
+                return;
+            }
+            swap(parent, largest);
+            parent = largest;
+        }
+    }
+
+    private void swap(final int i, final int j) {
+        final int index = indices[i];
+        indices[i] = indices[j];
+        indices[j] = index;
+        final double squareDistance = squareDistances[i];
+        squareDistances[i] = squareDistances[j];
+        squareDistances[j] = squareDistance;
+    }
+}
@@ -0,0 +1,580 @@
+package de.uni_heidelberg.cos.agw.ij.util;
+
+import ij.ImageStack;
+import ij.process.FloatProcessor;
+import net.imglib2.realtransform.RealTransform;
+
+import java.util.Arrays;
+
+/**
+ * Projects a volume along an arbitrary direction. The view is given by three
+ * orthonormal vectors in calibrated space: u and v span the output plane, w
+ * is the projection direction. The output covers the projection of the whole
+ * volume, with the pixel size of the volume's voxel width, and is divided into
+ * planes of that thickness along w.
+ * <p>
+ * Each output pixel casts one ray, which is clipped to the volume before
+ * sampling. Samples are read directly from the pixel arrays of the stack with
+ * nearest neighbor or trilinear interpolation. Rows of the output are
+ * processed in parallel.
+ * <p>
+ * Besides maximum, sum and mean, rays can be alpha composited front to back
+ * along w, with the opacity of a sample given by its intensity relative to an
+ * opaque value. Samples are one output pixel apart along every ray, so
+ * neither sums nor opacities depend on the orientation.
+ * <p>
+ * Optionally, empty space is skipped using a precomputation of the volume
+ * that is shared by copies of the projector: rays are clipped to the bounding
+ * box of the non-zero voxels, and maximum projections skip blocks of 8^3
+ * voxels that cannot raise the maximum of the ray and stop at the maximum of
+ * the volume. Sums skip blocks that are all zero, alpha compositing skips
+ * blocks without positive values and stops at full opacity. Results are the
+ * same as without skipping.
+ */
+public class ObliqueProjector {
+
+    public enum Reduction {
+        MAX, SUM, MEAN, ALPHA
+    }
+
+    private final Object[] slices;
+    private final int width, height, depth;
+    private final double[] voxelSize;
+    private final double[] u = new double[3];
+    private final double[] v = new double[3];
+    private final double[] w = new double[3];
+    private final double[] min = new double[3];
+    private final int[] outputSize = new int[3];
+    private boolean isLinear = false;
+    private Reduction reduction = Reduction.MAX;
+    private double opaqueValue = 1;
+    private boolean isParallel = true;
+    private Occupancy occupancy = null;
+
+    /**
+     * @param stack     8, 16 or 32-bit volume
+     * @param voxelSize voxel size {x, y, z}
+     */
+    public ObliqueProjector(final ImageStack stack, final double[] voxelSize) {
+        width = stack.getWidth();
+        height = stack.getHeight();
+        depth = stack.getSize();
+        slices = new Object[depth];
+        for (int z = 0; z < depth; ++z) {
+            slices[z] = stack.getPixels(z + 1);
+            if (!(slices[z] instanceof byte[] || slices[z] instanceof short[] || slices[z] instanceof float[])) {
+                throw new IllegalArgumentException("Only 8, 16 and 32-bit stacks are supported.");
+            }
+        }
+        this.voxelSize = voxelSize.clone();
+        setDirection(new double[]{1, 0, 0}, new double[]{0, 1, 0}, new double[]{0, 0, 1});
+    }
+
+    /**
+     * Creates a projector of the same volume with the same settings, e.g. for
+     * rendering several views concurrently. The precomputation for skipping
+     * empty space is shared.
+     */
+    public ObliqueProjector(final ObliqueProjector other) {
+        slices = other.slices;
+        width = other.width;
+        height = other.height;
+        depth = other.depth;
+        voxelSize = other.voxelSize;
+        System.arraycopy(other.u, 0, u, 0, 3);
+        System.arraycopy(other.v, 0, v, 0, 3);
+        System.arraycopy(other.w, 0, w, 0, 3);
+        System.arraycopy(other.min, 0, min, 0, 3);
+        System.arraycopy(other.outputSize, 0, outputSize, 0, 3);
+        isLinear = other.isLinear;
+        reduction = other.reduction;
+        opaqueValue = other.opaqueValue;
+        isParallel = other.isParallel;
+        occupancy = other.occupancy;
+    }
+
+    public void setInterpolation(final boolean isLinear) {
+        this.isLinear = isLinear;
+    }
+
+    public void setReduction(final Reduction reduction) {
+        this.reduction = reduction;
+    }
+
+    /**
+     * Sets the intensity at which a sample is opaque for
+     * {@link Reduction#ALPHA}. The opacity of a sample is its intensity
+     * divided by this value, clamped to [0, 1].
+     */
+    public void setOpaqueValue(final double opaqueValue) {
+        if (!(opaqueValue > 0)) {
+            throw new IllegalArgumentException("Opaque value must be positive.");
+        }
+        this.opaqueValue = opaqueValue;
+    }
+
+    /**
+     * Sets whether rows are processed in parallel, true by default. Disable
+     * when rendering several views in parallel.
+     */
+    public void setParallel(final boolean isParallel) {
+        this.isParallel = isParallel;
+    }
+
+    /**
+     * Sets whether to skip empty space, see {@link ObliqueProjector}. The
+     * volume is analyzed on first use.
+     */
+    public void setSkipEmptySpace(final boolean isSkipping) {
+        if (!isSkipping) {
+            occupancy = null;
+        } else if (occupancy == null) {
+            occupancy = new Occupancy();
+        }
+    }
+
+    /**
+     * Sets the view, see {@link ObliqueProjector}.
+     */
+    public void setDirection(final double[] u, final double[] v, final double[] w) {
+        System.arraycopy(u, 0, this.u, 0, 3);
+        System.arraycopy(v, 0, this.v, 0, 3);
+        System.arraycopy(w, 0, this.w, 0, 3);
+
+        // Extent of the volume in view coordinates, from its corners.
+        final double[][] axes = {this.u, this.v, this.w};
+        for (int a = 0; a < 3; ++a) {
+            double lower = Double.MAX_VALUE;
+            double upper = -Double.MAX_VALUE;
+            for (int corner = 0; corner < 8; ++corner) {
+                final double x = ((corner & 1) == 0 ? 0 : width - 1) * voxelSize[0];
+                final double y = ((corner & 2) == 0 ? 0 : height - 1) * voxelSize[1];
+                final double z = ((corner & 4) == 0 ? 0 : depth - 1) * voxelSize[2];
+                final double p = x * axes[a][0] + y * axes[a][1] + z * axes[a][2];
+                lower = Math.min(lower, p);
+                upper = Math.max(upper, p);
+            }
+            min[a] = lower;
+            outputSize[a] = (int) Math.floor((upper - lower) / voxelSize[0] + 1e-9) + 1;
+        }
+    }
+
+    /**
+     * Sets the view from the orientation of a camera, a transform from camera
+     * to image coordinates in calibrated units, e.g. a
+     * {@link de.uni_heidelberg.cos.agw.imglib2.realtransform.PositionableRealTransform}
+     * of an identity transform. u, v and w are the camera's x, y and z axes.
+     * The camera is expected to be affine; its position is ignored, the output
+     * covers the volume as for {@link #setDirection(double[], double[], double[])}.
+     */
+    public void setView(final RealTransform camera) {
+        final double[] origin = new double[3];
+        camera.apply(new double[3], origin);
+        final double[][] axes = new double[3][3];
+        for (int a = 0; a < 3; ++a) {
+            final double[] unit = new double[3];
+            unit[a] = 1;
+            camera.apply(unit, axes[a]);
+            double length = 0;
+            for (int d = 0; d < 3; ++d) {
+                axes[a][d] -= origin[d];
+                length += axes[a][d] * axes[a][d];
+            }
+            length = Math.sqrt(length);
+            if (length < 1e-9) {
+                throw new IllegalArgumentException("Camera must not be degenerate.");
+            }
+            for (int d = 0; d < 3; ++d) {
+                axes[a][d] /= length;
+            }
+        }
+        setDirection(axes[0], axes[1], axes[2]);
+    }
+
+    /**
+     * Sets the view by rotating the volume, first around x, then around y.
+     * Angles of 0 project along z.
+     */
+    public void setAngles(final double radiansX, final double radiansY) {
+        final double cx = Math.cos(radiansX), sx = Math.sin(radiansX);
+        final double cy = Math.cos(radiansY), sy = Math.sin(radiansY);
+        // Columns of Ry * Rx.
+        setDirection(new double[]{cy, 0, -sy},
+                new double[]{sy * sx, cx, cy * sx},
+                new double[]{sy * cx, -sx, cy * cx});
+    }
+
+    /**
+     * Sets the view by rotating the volume around one axis. For x and y see
+     * {@link #setAngles(double, double)}; around z, the volume is seen from
+     * the side with z pointing down and an angle of 0 projecting along -y.
+     *
+     * @param axis 0, 1 or 2 for x, y or z
+     */
+    public void setRotation(final int axis, final double radians) {
+        if (axis == 0) {
+            setAngles(radians, 0);
+        } else if (axis == 1) {
+            setAngles(0, radians);
+        } else {
+            final double c = Math.cos(radians), s = Math.sin(radians);
+            setDirection(new double[]{c, s, 0}, new double[]{0, 0, 1}, new double[]{s, -c, 0});
+        }
+    }
+
+    /**
+     * Sets the size of the output, centered on the center of the volume,
+     * instead of the extent of the volume in the current view. Is reset by
+     * setting the view.
+     *
+     * @param size {width, height, number of planes}
+     */
+    public void setOutputSize(final int[] size) {
+        final double[] center = {
+                (width - 1) * voxelSize[0] / 2, (height - 1) * voxelSize[1] / 2, (depth - 1) * voxelSize[2] / 2};
+        final double[][] axes = {u, v, w};
+        for (int a = 0; a < 3; ++a) {
+            final double p = center[0] * axes[a][0] + center[1] * axes[a][1] + center[2] * axes[a][2];
+            min[a] = p - (size[a] - 1) * voxelSize[0] / 2;
+            outputSize[a] = size[a];
+        }
+    }
+
+    /**
+     * @return {width, height, number of planes} of the output
+     */
+    public int[] getOutputSize() {
+        return outputSize.clone();
+    }
+
+    /**
+     * Projects planes startPlane to endPlane (1-based, inclusive).
+     */
+    public FloatProcessor project(final int startPlane, final int endPlane) {
+        final int outputWidth = outputSize[0];
+        final int outputHeight = outputSize[1];
+        final float[] output = new float[outputWidth * outputHeight];
+
+        // Ray geometry in voxel coordinates: position of the first sample of
+        // the first ray, and steps per output pixel along u, v and per sample.
+        final double step = voxelSize[0];
+        final double[] origin = new double[3];
+        final double[] du = new double[3];
+        final double[] dv = new double[3];
+        final double[] dw = new double[3];
+        for (int d = 0; d < 3; ++d) {
+            origin[d] = (min[0] * u[d] + min[1] * v[d] + (min[2] + (startPlane - 1) * step) * w[d]) / voxelSize[d];
+            du[d] = step * u[d] / voxelSize[d];
+            dv[d] = step * v[d] / voxelSize[d];
+            dw[d] = step * w[d] / voxelSize[d];
+        }
+        final int nSamples = endPlane - startPlane + 1;
+        final double[] max = {width - 1, height - 1, depth - 1};
+
+        // The mean depends on the number of samples in the volume, so it is
+        // never clipped to the non-zero voxels.
+        final Occupancy occupancy = this.occupancy == null || reduction == Reduction.MEAN
+                ? null : this.occupancy.get();
+        final double[] lower = {0, 0, 0};
+        final double[] upper = max.clone();
+        if (occupancy != null) {
+            for (int d = 0; d < 3; ++d) {
+                // Samples beyond one voxel of the non-zero voxels are zero,
+                // for both interpolations.
+                lower[d] = Math.max(0, occupancy.lower[d] - 1);
+                upper[d] = Math.min(max[d], occupancy.upper[d] + 1);
+            }
+        }
+
+        final Parallel.RangeTask task = new Parallel.RangeTask() {
+            @Override
+            public void run(final int chunk, final int start, final int end) {
+                final double[] p = new double[3];
+                for (int y = start; y < end; ++y) {
+                    for (int x = 0; x < outputWidth; ++x) {
+                        for (int d = 0; d < 3; ++d) {
+                            p[d] = origin[d] + x * du[d] + y * dv[d];
+                        }
+                        final int[] range = clip(p, dw, nSamples, lower, upper);
+                        if (occupancy == null) {
+                            output[y * outputWidth + x] = range == null ? 0
+                                    : reduce(p, dw, range[0], range[1], max);
+                        } else if (occupancy.isEmpty) {
+                            output[y * outputWidth + x] = 0;
+                        } else {
+                            float value = range == null ? 0
+                                    : reduceSkipping(p, dw, range[0], range[1], max, occupancy);
+                            if (reduction == Reduction.MAX && value < 0
+                                    && isClipped(range, clip(p, dw, nSamples, new double[3], max))) {
+                                // Clipped samples are zero.
+                                value = 0;
+                            }
+                            output[y * outputWidth + x] = value;
+                        }
+                    }
+                }
+            }
+        };
+        if (isParallel) {
+            Parallel.forRanges(outputHeight, task);
+        } else {
+            task.run(0, 0, outputHeight);
+        }
+        return new FloatProcessor(outputWidth, outputHeight, output, null);
+    }
+
+    // Clips the samples 0..nSamples-1 of the ray p + k * dw to the box
+    // lower..upper (slab method). Returns {first, last} or null if the ray
+    // misses the box.
+    private static int[] clip(final double[] p, final double[] dw, final int nSamples, final double[] lower,
+                              final double[] upper) {
+        int first = 0;
+        int last = nSamples - 1;
+        for (int d = 0; d < 3 && first <= last; ++d) {
+            if (Math.abs(dw[d]) < 1e-12) {
+                if (p[d] < lower[d] - 1e-9 || p[d] > upper[d] + 1e-9) {
+                    last = -1;
+                }
+                continue;
+            }
+            final double k0 = (lower[d] - p[d]) / dw[d];
+            final double k1 = (upper[d] - p[d]) / dw[d];
+            first = Math.max(first, (int) Math.ceil(Math.min(k0, k1) - 1e-9));
+            last = Math.min(last, (int) Math.floor(Math.max(k0, k1) + 1e-9));
+        }
+        return first > last ? null : new int[]{first, last};
+    }
+
+    private static boolean isClipped(final int[] range, final int[] volumeRange) {
+        return volumeRange != null && (range == null || range[0] > volumeRange[0] || range[1] < volumeRange[1]);
+    }
+
+    private float reduce(final double[] p, final double[] dw, final int first, final int last, final double[] max) {
+        float result = reduction == Reduction.MAX ? -Float.MAX_VALUE : 0;
+        double alpha = 0;
+        for (int k = first; k <= last; ++k) {
+            final float value = sample(p, dw, k, max);
+            if (reduction == Reduction.MAX) {
+                if (value > result) {
+                    result = value;
+                }
+            } else if (reduction == Reduction.ALPHA) {
+                // Front-to-back emission-absorption compositing.
+                final double sampleAlpha = Math.max(0, Math.min(1, value / opaqueValue));
+                result += (1 - alpha) * sampleAlpha * value;
+                alpha += (1 - alpha) * sampleAlpha;
+                if (alpha >= 1) {
+                    break;
+                }
+            } else {
+                result += value;
+            }
+        }
+        if (reduction == Reduction.MEAN) {
+            result /= last - first + 1;
+        }
+        return result;
+    }
+
+    // Like reduce for MAX, SUM and ALPHA, skipping blocks that cannot change
+    // the result: for MAX those with a maximum not above the current result,
+    // for SUM those that are all zero, for ALPHA those without positive
+    // values, which are transparent.
+    private float reduceSkipping(final double[] p, final double[] dw, final int first, final int last,
+                                 final double[] max, final Occupancy occupancy) {
+        final boolean isMax = reduction == Reduction.MAX;
+        final boolean isAlpha = reduction == Reduction.ALPHA;
+        float result = isMax ? -Float.MAX_VALUE : 0;
+        double alpha = 0;
+        int k = first;
+        while (k <= last) {
+            final double x = Math.max(0, Math.min(max[0], p[0] + k * dw[0]));
+            final double y = Math.max(0, Math.min(max[1], p[1] + k * dw[1]));
+            final double z = Math.max(0, Math.min(max[2], p[2] + k * dw[2]));
+            final int bx = (int) x >> Occupancy.BLOCK_BITS;
+            final int by = (int) y >> Occupancy.BLOCK_BITS;
+            final int bz = (int) z >> Occupancy.BLOCK_BITS;
+            final int block = (bz * occupancy.nBlocks[1] + by) * occupancy.nBlocks[0] + bx;
+            final boolean isSkipped = isMax ? occupancy.blockMax[block] <= result
+                    : isAlpha ? occupancy.blockMax[block] <= 0
+                    : occupancy.blockMax[block] == 0 && occupancy.blockMin[block] == 0;
+            if (isSkipped) {
+                k = Math.max(k + 1, getBlockExit(p, dw, bx, by, bz));
+                continue;
+            }
+            final float value = isLinear ? getLinear(x, y, z)
+                    : get(slices[(int) (z + 0.5)], (int) (y + 0.5) * width + (int) (x + 0.5));
+            if (isMax) {
+                if (value > result) {
+                    result = value;
+                    if (result >= occupancy.max) {
+                        break;
+                    }
+                }
+            } else if (isAlpha) {
+                final double sampleAlpha = Math.max(0, Math.min(1, value / opaqueValue));
+                result += (1 - alpha) * sampleAlpha * value;
+                alpha += (1 - alpha) * sampleAlpha;
+                if (alpha >= 1) {
+                    break;
+                }
+            } else {
+                result += value;
+            }
+            ++k;
+        }
+        return result;
+    }
+
+    // Returns the first sample of the ray that is certainly outside of the
+    // block, erring towards earlier samples.
+    private static int getBlockExit(final double[] p, final double[] dw, final int bx, final int by,
+                                    final int bz) {
+        final int[] b = {bx, by, bz};
+        int exit = Integer.MAX_VALUE;
+        for (int d = 0; d < 3; ++d) {
+            if (dw[d] > 1e-12) {
+                final double boundary = (b[d] + 1) << Occupancy.BLOCK_BITS;
+                exit = Math.min(exit, (int) Math.ceil((boundary - p[d]) / dw[d] - 1e-6));
+            } else if (dw[d] < -1e-12) {
+                final double boundary = b[d] << Occupancy.BLOCK_BITS;
+                exit = Math.min(exit, (int) Math.floor((boundary - p[d]) / dw[d] - 1e-6) + 1);
+            }
+        }
+        return exit;
+    }
+
+    private float sample(final double[] p, final double[] dw, final int k, final double[] max) {
+        // Clamp, the clipping tolerates tiny rounding errors.
+        final double x = Math.max(0, Math.min(max[0], p[0] + k * dw[0]));
+        final double y = Math.max(0, Math.min(max[1], p[1] + k * dw[1]));
+        final double z = Math.max(0, Math.min(max[2], p[2] + k * dw[2]));
+        return isLinear ? getLinear(x, y, z)
+                : get(slices[(int) (z + 0.5)], (int) (y + 0.5) * width + (int) (x + 0.5));
+    }
+
+    private float getLinear(final double x, final double y, final double z) {
+        final int x0 = Math.min((int) x, width - 2 < 0 ? 0 : width - 2);
+        final int y0 = Math.min((int) y, height - 2 < 0 ? 0 : height - 2);
+        final int z0 = Math.min((int) z, depth - 2 < 0 ? 0 : depth - 2);
+        final int x1 = Math.min(x0 + 1, width - 1);
+        final int y1 = Math.min(y0 + 1, height - 1);
+        final int z1 = Math.min(z0 + 1, depth - 1);
+        final double fx = x - x0, fy = y - y0, fz = z - z0;
+        final Object s0 = slices[z0], s1 = slices[z1];
+        final double c00 = get(s0, y0 * width + x0) * (1 - fx) + get(s0, y0 * width + x1) * fx;
+        final double c10 = get(s0, y1 * width + x0) * (1 - fx) + get(s0, y1 * width + x1) * fx;
+        final double c01 = get(s1, y0 * width + x0) * (1 - fx) + get(s1, y0 * width + x1) * fx;
+        final double c11 = get(s1, y1 * width + x0) * (1 - fx) + get(s1, y1 * width + x1) * fx;
+        final double c0 = c00 * (1 - fy) + c10 * fy;
+        final double c1 = c01 * (1 - fy) + c11 * fy;
+        return (float) (c0 * (1 - fz) + c1 * fz);
+    }
+
+    private static float get(final Object pixels, final int i) {
+        if (pixels instanceof byte[]) {
+            return ((byte[]) pixels)[i] & 0xff;
+        } else if (pixels instanceof short[]) {
+            return ((short[]) pixels)[i] & 0xffff;
+        }
+        return ((float[]) pixels)[i];
+    }
+
+    // Precomputation for skipping empty space: bounding box of the non-zero
+    // voxels and the extrema of blocks of 8^3 voxels. Block b along an axis
+    // covers voxels 8b to 8b + 8 inclusive, i.e. all voxels any sample in
+    // [8b, 8b + 8) reads with either interpolation. Computed once, on first
+    // use, by whichever copy of the projector needs it first.
+    private class Occupancy {
+
+        static final int BLOCK_BITS = 3;
+        final int[] lower = {Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE};
+        final int[] upper = {-1, -1, -1};
+        final int[] nBlocks = new int[3];
+        float[] blockMax, blockMin;
+        float max = -Float.MAX_VALUE;
+        boolean isEmpty = true;
+        private boolean isComputed = false;
+
+        synchronized Occupancy get() {
+            if (!isComputed) {
+                compute();
+                isComputed = true;
+            }
+            return this;
+        }
+
+        private void compute() {
+            nBlocks[0] = ((width - 1) >> BLOCK_BITS) + 1;
+            nBlocks[1] = ((height - 1) >> BLOCK_BITS) + 1;
+            nBlocks[2] = ((depth - 1) >> BLOCK_BITS) + 1;
+            blockMax = new float[nBlocks[0] * nBlocks[1] * nBlocks[2]];
+            blockMin = new float[blockMax.length];
+            Arrays.fill(blockMax, -Float.MAX_VALUE);
+            Arrays.fill(blockMin, Float.MAX_VALUE);
+            final int blockSize = 1 << BLOCK_BITS;
+            // Each slab of blocks is written by one thread only.
+            final int[][] bounds = new int[Parallel.getNRanges(nBlocks[2])][];
+            final float[] maxima = new float[bounds.length];
+            Parallel.forRanges(nBlocks[2], new Parallel.RangeTask() {
+                @Override
+                public void run(final int chunk, final int start, final int end) {
+                    final int[] b = {Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, -1, -1, -1};
+                    float chunkMax = -Float.MAX_VALUE;
+                    for (int z = start * blockSize; z < Math.min(depth, end * blockSize + 1); ++z) {
+                        final Object pixels = slices[z];
+                        // Voxels on a block boundary belong to both blocks.
+                        final int bz1 = Math.min(z >> BLOCK_BITS, nBlocks[2] - 1);
+                        final int bz0 = (z & (blockSize - 1)) == 0 && z > 0 ? bz1 - 1 : bz1;
+                        for (int y = 0; y < height; ++y) {
+                            final int by1 = Math.min(y >> BLOCK_BITS, nBlocks[1] - 1);
+                            final int by0 = (y & (blockSize - 1)) == 0 && y > 0 ? by1 - 1 : by1;
+                            for (int x = 0; x < width; ++x) {
+                                final float value = ObliqueProjector.get(pixels, y * width + x);
+                                final boolean isOwn = z >> BLOCK_BITS >= start && z >> BLOCK_BITS < end;
+                                if (isOwn) {
+                                    if (value > chunkMax) {
+                                        chunkMax = value;
+                                    }
+                                    if (value != 0) {
+                                        b[0] = Math.min(b[0], x);
+                                        b[1] = Math.min(b[1], y);
+                                        b[2] = Math.min(b[2], z);
+                                        b[3] = Math.max(b[3], x);
+                                        b[4] = Math.max(b[4], y);
+                                        b[5] = Math.max(b[5], z);
+                                    }
+                                }
+                                final int bx1 = Math.min(x >> BLOCK_BITS, nBlocks[0] - 1);
+                                final int bx0 = (x & (blockSize - 1)) == 0 && x > 0 ? bx1 - 1 : bx1;
+                                for (int bz = Math.max(bz0, start); bz <= Math.min(bz1, end - 1); ++bz) {
+                                    for (int by = by0; by <= by1; ++by) {
+                                        for (int bx = bx0; bx <= bx1; ++bx) {
+                                            final int block = (bz * nBlocks[1] + by) * nBlocks[0] + bx;
+                                            if (value > blockMax[block]) {
+                                                blockMax[block] = value;
+                                            }
+                                            if (value < blockMin[block]) {
+                                                blockMin[block] = value;
+                                            }
+                                        }
+                                    }
+                                }
+                            }
+                        }
+                    }
+                    bounds[chunk] = b;
+                    maxima[chunk] = chunkMax;
+                }
+            });
+            for (int i = 0; i < bounds.length; ++i) {
+                max = Math.max(max, maxima[i]);
+                for (int d = 0; d < 3; ++d) {
+                    lower[d] = Math.min(lower[d], bounds[i][d]);
+                    upper[d] = Math.max(upper[d], bounds[i][d + 3]);
+                }
+            }
+            isEmpty = upper[0] < 0;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package de.uni_heidelberg.cos.agw.ij.util;
+
+import ij.Prefs;
+
+/**
+ * Minimal helper to process index ranges, e.g. z-slabs of a stack, on the
+ * number of threads configured in ImageJ (Edit > Options > Memory & Threads).
+ */
+public class Parallel {
+
+    public interface RangeTask {
+
+        /**
+         * Processes indices start (inclusive) to end (exclusive).
+         *
+         * @param chunk the index of the range, 0 to the number of ranges - 1
+         */
+        public void run(int chunk, int start, int end);
+    }
+
+    public static int getNThreads() {
+        return Math.max(1, Prefs.getThreads());
+    }
+
+    /**
+     * Returns the number of ranges {@link #forRanges(int, RangeTask)} will
+     * divide n indices into.
+     */
+    public static int getNRanges(final int n) {
+        return Math.max(1, Math.min(n, getNThreads()));
+    }
+
+    /**
+     * Divides the indices 0..n-1 into {@link #getNRanges(int)} contiguous
+     * ranges and processes each in its own thread. Returns when all ranges
+     * are done; an exception thrown by any of them is rethrown.
+     */
+    public static void forRanges(final int n, final RangeTask task) {
+        final int nRanges = getNRanges(n);
+        if (nRanges == 1) {
+            task.run(0, 0, n);
+            return;
+        }
+        final Thread[] threads = new Thread[nRanges];
+        final Throwable[] errors = new Throwable[nRanges];
+        for (int i = 0; i < nRanges; ++i) {
+            final int chunk = i;
+            final int start = (int) ((long) n * i / nRanges);
+            final int end = (int) ((long) n * (i + 1) / nRanges);
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        task.run(chunk, start, end);
+                    } catch (Throwable ex) {
+                        errors[chunk] = ex;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        try {
+            for (final Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException ex) {
+            for (final Thread thread : threads) {
+                thread.interrupt();
+            }
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        }
+        for (final Throwable error : errors) {
+            if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            } else if (error instanceof Error) {
+                throw (Error) error;
+            } else if (error != null) {
+                throw new RuntimeException(error);
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package de.uni_heidelberg.cos.agw.ij.util;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of points with one value each, stored as one float array per
+ * dimension plus a float array of values instead of one object per point.
+ */
+public class PointCloud {
+
+    private final int nDimensions;
+    private float[][] coordinates;
+    private float[] values;
+    private int size = 0;
+
+    public PointCloud(final int nDimensions) {
+        this(nDimensions, 1024);
+    }
+
+    /**
+     * @param capacity number of points to allocate space for, grows as needed
+     */
+    public PointCloud(final int nDimensions, final int capacity) {
+        this.nDimensions = nDimensions;
+        coordinates = new float[nDimensions][Math.max(1, capacity)];
+        values = new float[Math.max(1, capacity)];
+    }
+
+    public void add(final double[] position, final double value) {
+        if (size == values.length) {
+            grow(size + 1);
+        }
+        for (int d = 0; d < nDimensions; ++d) {
+            coordinates[d][size] = (float) position[d];
+        }
+        values[size] = (float) value;
+        ++size;
+    }
+
+    /**
+     * Appends all points of another cloud, e.g. one filled by another thread.
+     */
+    public void addAll(final PointCloud other) {
+        if (size + other.size > values.length) {
+            grow(size + other.size);
+        }
+        for (int d = 0; d < nDimensions; ++d) {
+            System.arraycopy(other.coordinates[d], 0, coordinates[d], size, other.size);
+        }
+        System.arraycopy(other.values, 0, values, size, other.size);
+        size += other.size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int numDimensions() {
+        return nDimensions;
+    }
+
+    public float getCoordinate(final int i, final int d) {
+        return coordinates[d][i];
+    }
+
+    public float getValue(final int i) {
+        return values[i];
+    }
+
+    public void realMin(final double[] min) {
+        Arrays.fill(min, Double.MAX_VALUE);
+        for (int d = 0; d < nDimensions; ++d) {
+            for (int i = 0; i < size; ++i) {
+                min[d] = Math.min(min[d], coordinates[d][i]);
+            }
+        }
+    }
+
+    public void realMax(final double[] max) {
+        Arrays.fill(max, -Double.MAX_VALUE);
+        for (int d = 0; d < nDimensions; ++d) {
+            for (int i = 0; i < size; ++i) {
+                max[d] = Math.max(max[d], coordinates[d][i]);
+            }
+        }
+    }
+
+    private void grow(final int minCapacity) {
+        final int capacity = Math.max(minCapacity, 2 * values.length);
+        for (int d = 0; d < nDimensions; ++d) {
+            coordinates[d] = Arrays.copyOf(coordinates[d], capacity);
+        }
+        values = Arrays.copyOf(values, capacity);
+    }
+}
@@ -0,0 +1,276 @@
+package de.uni_heidelberg.cos.agw.ij.util;
+
+/**
+ * Uniform grid over a 2D or 3D {@link PointCloud}, for k-nearest neighbor
+ * searches in near-constant time when the points are spread evenly, e.g. the
+ * dense coordinate maps of {@link de.uni_heidelberg.cos.agw.ij.ReorderPoints}.
+ * <p>
+ * The bounding box of the points is divided into cubic cells. Each cell is
+ * mapped to a bucket, directly if there are not many more cells than points,
+ * else by hashing its cell coordinates, and the points are sorted by bucket.
+ * A search visits rings of cells around the position until the k-th nearest
+ * point found is closer than any unvisited cell.
+ * <p>
+ * The grid is immutable and can be searched concurrently, with one
+ * {@link Searcher} per thread.
+ *
+ * @see PointKDTree
+ */
+public class PointGrid implements PointIndex {
+
+    // Average number of points per cell for automatic cell sizes.
+    private static final double pointsPerCell = 2;
+    private static final int maxCellsAlong = 1 << 20;
+
+    private final int nDimensions;
+    private final int size;
+    private final double cellSize;
+    private final double[] origin = new double[3];
+    // Highest cell coordinate, 0 along the third axis for 2D points.
+    private final int[] maxCell = new int[3];
+    private final boolean isHashed;
+    private final int bucketMask;
+    // Points of bucket b are bucketStarts[b] to bucketStarts[b + 1] - 1.
+    private final int[] bucketStarts;
+    private final float[][] coordinates;
+    private final float[] values;
+
+    /**
+     * Creates a grid with an automatic cell size, see
+     * {@link #getAutoCellSize(PointCloud)}.
+     */
+    public PointGrid(final PointCloud points) {
+        this(points, getAutoCellSize(points));
+    }
+
+    /**
+     * @param cellSize edge length of the cells, in units of the coordinates
+     */
+    public PointGrid(final PointCloud points, final double cellSize) {
+        nDimensions = points.numDimensions();
+        if (nDimensions < 2 || nDimensions > 3) {
+            throw new IllegalArgumentException("Only 2D and 3D points are supported.");
+        }
+        if (!(cellSize > 0)) {
+            throw new IllegalArgumentException("Cell size must be positive.");
+        }
+        size = points.size();
+        this.cellSize = cellSize;
+
+        final double[] min = new double[nDimensions];
+        final double[] max = new double[nDimensions];
+        points.realMin(min);
+        points.realMax(max);
+        long nCells = 1;
+        for (int d = 0; d < nDimensions; ++d) {
+            origin[d] = size == 0 ? 0 : min[d];
+            final double nCellsAlong = size == 0 ? 1 : Math.floor((max[d] - min[d]) / cellSize) + 1;
+            if (nCellsAlong > maxCellsAlong) {
+                throw new IllegalArgumentException("Cell size is too small for the extent of the points.");
+            }
+            maxCell[d] = (int) nCellsAlong - 1;
+            nCells = multiplySaturated(nCells, maxCell[d] + 1L);
+        }
+        final int nBuckets = Integer.highestOneBit(Math.max(1, size)) * 2;
+        isHashed = nCells > nBuckets;
+        bucketMask = nBuckets - 1;
+
+        // Counting sort by bucket.
+        final int[] buckets = new int[size];
+        bucketStarts = new int[(isHashed ? nBuckets : (int) nCells) + 1];
+        final int[] cell = new int[3];
+        for (int i = 0; i < size; ++i) {
+            for (int d = 0; d < nDimensions; ++d) {
+                cell[d] = getCell(points.getCoordinate(i, d), d);
+            }
+            buckets[i] = getBucket(cell[0], cell[1], cell[2]);
+            ++bucketStarts[buckets[i] + 1];
+        }
+        for (int b = 1; b < bucketStarts.length; ++b) {
+            bucketStarts[b] += bucketStarts[b - 1];
+        }
+        final int[] next = new int[bucketStarts.length - 1];
+        System.arraycopy(bucketStarts, 0, next, 0, next.length);
+        coordinates = new float[nDimensions][size];
+        values = new float[size];
+        for (int i = 0; i < size; ++i) {
+            final int j = next[buckets[i]]++;
+            for (int d = 0; d < nDimensions; ++d) {
+                coordinates[d][j] = points.getCoordinate(i, d);
+            }
+            values[j] = points.getValue(i);
+        }
+    }
+
+    /**
+     * Returns the cell size for which a cell of the bounding box holds about
+     * two points on average.
+     */
+    public static double getAutoCellSize(final PointCloud points) {
+        final int nDimensions = points.numDimensions();
+        final double[] min = new double[nDimensions];
+        final double[] max = new double[nDimensions];
+        points.realMin(min);
+        points.realMax(max);
+        double volume = 1;
+        double largestExtent = 0;
+        for (int d = 0; d < nDimensions; ++d) {
+            // Flat point clouds still span one unit.
+            final double extent = Math.max(1, max[d] - min[d]);
+            volume *= extent;
+            largestExtent = Math.max(largestExtent, extent);
+        }
+        final double cellSize = Math.pow(volume * pointsPerCell / Math.max(1, points.size()), 1.0 / nDimensions);
+        return Math.min(cellSize, largestExtent);
+    }
+
+    public double getCellSize() {
+        return cellSize;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int numDimensions() {
+        return nDimensions;
+    }
+
+    @Override
+    public float getValue(final int i) {
+        return values[i];
+    }
+
+    @Override
+    public float getCoordinate(final int i, final int d) {
+        return coordinates[d][i];
+    }
+
+    @Override
+    public Searcher searcher() {
+        return new Searcher();
+    }
+
+    // Cell coordinate, -1 or maxCell + 1 for positions outside the bounding
+    // box, which keeps the search distances valid.
+    private int getCell(final double coordinate, final int d) {
+        final double cell = Math.floor((coordinate - origin[d]) / cellSize);
+        return (int) Math.max(-1, Math.min(maxCell[d] + 1, cell));
+    }
+
+    private int getBucket(final int x, final int y, final int z) {
+        if (!isHashed) {
+            return (z * (maxCell[1] + 1) + y) * (maxCell[0] + 1) + x;
+        }
+        return (x * 73856093 ^ y * 19349663 ^ z * 83492791) & bucketMask;
+    }
+
+    private static long multiplySaturated(final long a, final long b) {
+        return a > Long.MAX_VALUE / b ? Long.MAX_VALUE : a * b;
+    }
+
+    public class Searcher implements PointIndex.Searcher {
+
+        private final double[] position = new double[3];
+        private final int[] center = new int[3];
+        private final NeighborList neighbors = new NeighborList();
+
+        @Override
+        public void search(final double[] position, final int k) {
+            neighbors.reset(k);
+            if (k > 0 && size > 0) {
+                search(position);
+            }
+            neighbors.sort();
+        }
+
+        @Override
+        public int getN() {
+            return neighbors.getN();
+        }
+
+        @Override
+        public int getIndex(final int i) {
+            return neighbors.getIndex(i);
+        }
+
+        @Override
+        public double getSquareDistance(final int i) {
+            return neighbors.getSquareDistance(i);
+        }
+
+        private void search(final double[] position) {
+            // Distance from the position to the border of its cell, and the
+            // number of rings around it that reach every cell.
+            double margin = Double.MAX_VALUE;
+            int firstRing = 0;
+            int lastRing = 0;
+            for (int d = 0; d < nDimensions; ++d) {
+                this.position[d] = position[d];
+                center[d] = getCell(position[d], d);
+                final double lower = position[d] - (origin[d] + center[d] * cellSize);
+                margin = Math.min(margin, Math.min(lower, cellSize - lower));
+                firstRing = Math.max(firstRing, Math.max(center[d] - maxCell[d], -center[d]));
+                lastRing = Math.max(lastRing, Math.max(center[d], maxCell[d] - center[d]));
+            }
+            margin = Math.max(0, margin);
+
+            for (int ring = firstRing; ring <= lastRing; ++ring) {
+                searchRing(ring);
+                // Points in unvisited cells are farther than this.
+                final double reached = ring * cellSize + margin;
+                if (neighbors.isFull() && neighbors.getMaxSquareDistance() <= reached * reached) {
+                    return;
+                }
+            }
+        }
+
+        // Visits the cells of the grid whose largest cell coordinate
+        // difference to the center is ring.
+        private void searchRing(final int ring) {
+            final int z0 = Math.max(0, center[2] - ring);
+            final int z1 = Math.min(maxCell[2], center[2] + ring);
+            final int y0 = Math.max(0, center[1] - ring);
+            final int y1 = Math.min(maxCell[1], center[1] + ring);
+            final int x0 = Math.max(0, center[0] - ring);
+            final int x1 = Math.min(maxCell[0], center[0] + ring);
+            for (int z = z0; z <= z1; ++z) {
+                final boolean isZOnRing = Math.abs(z - center[2]) == ring;
+                for (int y = y0; y <= y1; ++y) {
+                    if (isZOnRing || Math.abs(y - center[1]) == ring) {
+                        for (int x = x0; x <= x1; ++x) {
+                            searchCell(x, y, z);
+                        }
+                    } else {
+                        if (center[0] - ring >= 0) {
+                            searchCell(center[0] - ring, y, z);
+                        }
+                        if (ring > 0 && center[0] + ring <= maxCell[0]) {
+                            searchCell(center[0] + ring, y, z);
+                        }
+                    }
+                }
+            }
+        }
+
+        private void searchCell(final int x, final int y, final int z) {
+            final int bucket = getBucket(x, y, z);
+            final int end = bucketStarts[bucket + 1];
+            for (int i = bucketStarts[bucket]; i < end; ++i) {
+                // Hashed buckets are shared by several cells.
+                if (isHashed && (getCell(coordinates[0][i], 0) != x || getCell(coordinates[1][i], 1) != y
+                        || (nDimensions > 2 && getCell(coordinates[2][i], 2) != z))) {
+                    continue;
+                }
+                double squareDistance = 0;
+                for (int d = 0; d < nDimensions; ++d) {
+                    final double difference = position[d] - coordinates[d][i];
+                    squareDistance += difference * difference;
+                }
+                neighbors.consider(i, squareDistance);
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package de.uni_heidelberg.cos.agw.ij.util;
+
+/**
+ * Spatial index over a {@link PointCloud} for k-nearest neighbor searches,
+ * see {@link PointKDTree} and {@link PointGrid}. Points may be stored in a
+ * different order than in the cloud; indices refer to the index's order.
+ */
+public interface PointIndex {
+
+    public int size();
+
+    public int numDimensions();
+
+    /**
+     * @param i index in the order of this index, e.g. from
+     *          {@link Searcher#getIndex(int)}
+     */
+    public float getValue(int i);
+
+    public float getCoordinate(int i, int d);
+
+    public Searcher searcher();
+
+    /**
+     * Finds the k nearest neighbors of a position. Not thread-safe, use one
+     * searcher per thread.
+     */
+    public interface Searcher {
+
+        /**
+         * Searches the k nearest points, or all points if there are fewer.
+         */
+        public void search(double[] position, int k);
+
+        /**
+         * Returns the number of neighbors found.
+         */
+        public int getN();
+
+        /**
+         * Returns the index of the i-th nearest neighbor.
+         */
+        public int getIndex(int i);
+
+        public double getSquareDistance(int i);
+    }
+}
@@ -0,0 +1,250 @@
+package de.uni_heidelberg.cos.agw.ij.util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * KD-tree over a {@link PointCloud}, for k-nearest neighbor searches.
+ * <p>
+ * The tree is implicit: the points are reordered so that the median of each
+ * range is in its middle, with smaller coordinates along the split dimension
+ * before and larger ones after it. Ranges are split along the dimension of
+ * largest extent until they hold at most a few points. Subtrees are built in
+ * parallel with fork/join. Only the coordinates, values and one split
+ * dimension per node are stored, in flat arrays in tree order.
+ * <p>
+ * The tree is immutable and can be searched concurrently, with one
+ * {@link Searcher} per thread.
+ *
+ * @see PointGrid
+ */
+public class PointKDTree implements PointIndex {
+
+    private static final int leafSize = 8;
+    // Ranges larger than this are split in parallel.
+    private static final int parallelSize = 1 << 14;
+
+    private final int nDimensions;
+    private final int size;
+    private final float[][] coordinates;
+    private final float[] values;
+    private final byte[] splitDimensions;
+
+    public PointKDTree(final PointCloud points) {
+        nDimensions = points.numDimensions();
+        size = points.size();
+        final float[][] source = new float[nDimensions][size];
+        for (int d = 0; d < nDimensions; ++d) {
+            for (int i = 0; i < size; ++i) {
+                source[d][i] = points.getCoordinate(i, d);
+            }
+        }
+        final int[] order = new int[size];
+        for (int i = 0; i < size; ++i) {
+            order[i] = i;
+        }
+        splitDimensions = new byte[size];
+        final ForkJoinPool pool = new ForkJoinPool(Parallel.getNThreads());
+        try {
+            pool.invoke(new Build(source, order, 0, size));
+        } finally {
+            pool.shutdown();
+        }
+
+        // Store in tree order, so that searches read contiguous memory.
+        coordinates = new float[nDimensions][size];
+        values = new float[size];
+        for (int i = 0; i < size; ++i) {
+            for (int d = 0; d < nDimensions; ++d) {
+                coordinates[d][i] = source[d][order[i]];
+            }
+            values[i] = points.getValue(order[i]);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int numDimensions() {
+        return nDimensions;
+    }
+
+    @Override
+    public float getValue(final int i) {
+        return values[i];
+    }
+
+    @Override
+    public float getCoordinate(final int i, final int d) {
+        return coordinates[d][i];
+    }
+
+    @Override
+    public Searcher searcher() {
+        return new Searcher();
+    }
+
+    private class Build extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+        private final float[][] source;
+        private final int[] order;
+        private final int start, end;
+
+        Build(final float[][] source, final int[] order, final int start, final int end) {
+            this.source = source;
+            this.order = order;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= leafSize) {
+                return;
+            }
+            // Split along the dimension of largest extent.
+            int dimension = 0;
+            float largestExtent = -1;
+            for (int d = 0; d < nDimensions; ++d) {
+                float min = Float.MAX_VALUE;
+                float max = -Float.MAX_VALUE;
+                for (int i = start; i < end; ++i) {
+                    final float value = source[d][order[i]];
+                    min = Math.min(min, value);
+                    max = Math.max(max, value);
+                }
+                if (max - min > largestExtent) {
+                    largestExtent = max - min;
+                    dimension = d;
+                }
+            }
+            final int median = (start + end) >>> 1;
+            select(source[dimension], order, start, end - 1, median);
+            splitDimensions[median] = (byte) dimension;
+
+            final Build lower = new Build(source, order, start, median);
+            final Build upper = new Build(source, order, median + 1, end);
+            if (end - start > parallelSize) {
+                invokeAll(lower, upper);
+            } else {
+                lower.compute();
+                upper.compute();
+            }
+        }
+    }
+
+    // Reorders order[left..right] such that order[k] is the k-th smallest by
+    // value, with smaller or equal values before and larger or equal after.
+    private static void select(final float[] values, final int[] order, int left, int right, final int k) {
+        while (right > left) {
+            // Median of three as pivot.
+            final int middle = (left + right) >>> 1;
+            if (values[order[middle]] < values[order[left]]) {
+                swap(order, middle, left);
+            }
+            if (values[order[right]] < values[order[left]]) {
+                swap(order, right, left);
+            }
+            if (values[order[right]] < values[order[middle]]) {
+                swap(order, right, middle);
+            }
+            final float pivot = values[order[middle]];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (values[order[i]] < pivot) {
+                    ++i;
+                }
+                while (values[order[j]] > pivot) {
+                    --j;
+                }
+                if (i <= j) {
+                    swap(order, i, j);
+                    ++i;
+                    --j;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private static void swap(final int[] order, final int i, final int j) {
+        final int temp = order[i];
+        order[i] = order[j];
+        order[j] = temp;
+    }
+
+    public class Searcher implements PointIndex.Searcher {
+
+        private final double[] position = new double[nDimensions];
+        private final NeighborList neighbors = new NeighborList();
+
+        @Override
+        public void search(final double[] position, final int k) {
+            System.arraycopy(position, 0, this.position, 0, nDimensions);
+            neighbors.reset(k);
+            if (k > 0) {
+                search(0, size);
+            }
+            neighbors.sort();
+        }
+
+        @Override
+        public int getN() {
+            return neighbors.getN();
+        }
+
+        @Override
+        public int getIndex(final int i) {
+            return neighbors.getIndex(i);
+        }
+
+        @Override
+        public double getSquareDistance(final int i) {
+            return neighbors.getSquareDistance(i);
+        }
+
+        private void search(final int start, final int end) {
+            if (end - start <= leafSize) {
+                for (int i = start; i < end; ++i) {
+                    consider(i);
+                }
+                return;
+            }
+            final int median = (start + end) >>> 1;
+            consider(median);
+            final int dimension = splitDimensions[median];
+            final double difference = position[dimension] - coordinates[dimension][median];
+            if (difference < 0) {
+                search(start, median);
+                if (!neighbors.isFull() || difference * difference < neighbors.getMaxSquareDistance()) {
+                    search(median + 1, end);
+                }
+            } else {
+                search(median + 1, end);
+                if (!neighbors.isFull() || difference * difference < neighbors.getMaxSquareDistance()) {
+                    search(start, median);
+                }
+            }
+        }
+
+        private void consider(final int i) {
+            double squareDistance = 0;
+            for (int d = 0; d < nDimensions; ++d) {
+                final double difference = position[d] - coordinates[d][i];
+                squareDistance += difference * difference;
+            }
+            neighbors.consider(i, squareDistance);
+        }
+    }
+}
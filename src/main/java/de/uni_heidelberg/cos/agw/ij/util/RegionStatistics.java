@@ -0,0 +1,371 @@
+package de.uni_heidelberg.cos.agw.ij.util;
+
+import ij.ImageStack;
+import ij.measure.Calibration;
+import ij.measure.ResultsTable;
+
+import javax.vecmath.Point3d;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-region statistics of a label image, optionally measuring the
+ * intensities of a second image within each region: voxel count, bounding
+ * box, centroid, intensity-weighted centroid (center of mass), sum, mean,
+ * minimum and maximum intensity, and the covariance of the voxel positions.
+ * <p>
+ * All values are accumulated in primitive arrays indexed by label in a single
+ * pass over the stacks. z-slabs are measured in parallel, each thread with its
+ * own accumulators, which are added up afterwards.
+ * <p>
+ * Positions are pixel grid positions; z is the 1-based slice index as in
+ * {@link ImageStack#getProcessor(int)}, like in the maps of
+ * {@link de.uni_heidelberg.cos.agw.ij.FindIntensityCenters}.
+ */
+public class RegionStatistics {
+
+    // Interleaved per label: n, sumX, sumY, sumZ, sumXX, sumYY, sumZZ, sumXY, sumXZ, sumYZ
+    private static final int nMoments = 10;
+    // Interleaved per label: minX, minY, minZ, maxX, maxY, maxZ
+    private static final int nBounds = 6;
+    // Interleaved per label: sumI, sumIX, sumIY, sumIZ, minI, maxI
+    private static final int nIntensities = 6;
+
+    private long[] moments = new long[0];
+    private int[] bounds = new int[0];
+    private double[] intensities = new double[0];
+    private int capacity = 0;
+    private boolean hasIntensities = false;
+
+    /**
+     * Measures all regions of the label stack.
+     *
+     * @param labels      8 or 16-bit label stack, 0 is background
+     * @param intensities stack of the same size to measure intensities in,
+     *                    or null to only measure the geometry of the regions
+     * @return statistics of all labels present in the stack
+     */
+    public static RegionStatistics measure(final ImageStack labels, final ImageStack intensities) {
+        return measure(labels, intensities, true);
+    }
+
+    /**
+     * @param parallel whether to measure z-slabs in parallel, callers that
+     *                 already measure several stacks in parallel may not want
+     *                 to
+     * @see #measure(ImageStack, ImageStack)
+     */
+    public static RegionStatistics measure(final ImageStack labels, final ImageStack intensities,
+                                           final boolean parallel) {
+        if (intensities != null && (intensities.getWidth() != labels.getWidth()
+                || intensities.getHeight() != labels.getHeight() || intensities.getSize() != labels.getSize())) {
+            throw new IllegalArgumentException("Label and intensity images must have identical dimensions.");
+        }
+        final int depth = labels.getSize();
+        if (!parallel) {
+            final RegionStatistics statistics = new RegionStatistics();
+            statistics.add(labels, intensities, 1, depth + 1);
+            return statistics;
+        }
+        final RegionStatistics[] partials = new RegionStatistics[Parallel.getNRanges(depth)];
+        Parallel.forRanges(depth, new Parallel.RangeTask() {
+            @Override
+            public void run(final int chunk, final int start, final int end) {
+                final RegionStatistics partial = new RegionStatistics();
+                partial.add(labels, intensities, start + 1, end + 1);
+                partials[chunk] = partial;
+            }
+        });
+        final RegionStatistics statistics = partials[0];
+        for (int chunk = 1; chunk < partials.length; ++chunk) {
+            statistics.add(partials[chunk]);
+        }
+        return statistics;
+    }
+
+    /**
+     * Returns the labels present, in ascending order.
+     */
+    public int[] getLabels() {
+        int n = 0;
+        for (int label = 1; label < capacity; ++label) {
+            if (getCount(label) > 0) {
+                n++;
+            }
+        }
+        final int[] labels = new int[n];
+        for (int label = 1, i = 0; label < capacity; ++label) {
+            if (getCount(label) > 0) {
+                labels[i++] = label;
+            }
+        }
+        return labels;
+    }
+
+    public boolean hasIntensities() {
+        return hasIntensities;
+    }
+
+    public long getCount(final int label) {
+        return label < capacity ? moments[nMoments * label] : 0;
+    }
+
+    /**
+     * @return {minX, minY, minZ, maxX, maxY, maxZ}, inclusive
+     */
+    public int[] getBoundingBox(final int label) {
+        final int[] box = Arrays.copyOfRange(bounds, nBounds * label, nBounds * (label + 1));
+        box[2]++;
+        box[5]++;
+        return box;
+    }
+
+    public Point3d getCentroid(final int label) {
+        final int offset = nMoments * label;
+        final double n = moments[offset];
+        return new Point3d(moments[offset + 1] / n, moments[offset + 2] / n, moments[offset + 3] / n + 1);
+    }
+
+    /**
+     * Returns the intensity-weighted centroid, or the centroid if no
+     * intensities were measured or they sum up to 0.
+     */
+    public Point3d getWeightedCentroid(final int label) {
+        final int offset = nIntensities * label;
+        final double sum = intensities[offset];
+        if (!hasIntensities || sum == 0) {
+            return getCentroid(label);
+        }
+        return new Point3d(intensities[offset + 1] / sum, intensities[offset + 2] / sum,
+                intensities[offset + 3] / sum + 1);
+    }
+
+    public double getSum(final int label) {
+        return intensities[nIntensities * label];
+    }
+
+    public double getMean(final int label) {
+        return getSum(label) / getCount(label);
+    }
+
+    public double getMin(final int label) {
+        return intensities[nIntensities * label + 4];
+    }
+
+    public double getMax(final int label) {
+        return intensities[nIntensities * label + 5];
+    }
+
+    /**
+     * Returns the covariance of the voxel positions of the region, in pixels
+     * squared. Its eigenvectors are the principal axes of the region.
+     *
+     * @return {xx, yy, zz, xy, xz, yz}
+     */
+    public double[] getCovariance(final int label) {
+        final int offset = nMoments * label;
+        final double n = moments[offset];
+        final double meanX = moments[offset + 1] / n;
+        final double meanY = moments[offset + 2] / n;
+        final double meanZ = moments[offset + 3] / n;
+        return new double[]{
+                moments[offset + 4] / n - meanX * meanX,
+                moments[offset + 5] / n - meanY * meanY,
+                moments[offset + 6] / n - meanZ * meanZ,
+                moments[offset + 7] / n - meanX * meanY,
+                moments[offset + 8] / n - meanX * meanZ,
+                moments[offset + 9] / n - meanY * meanZ};
+    }
+
+    /**
+     * Returns a value, centroid map of all regions.
+     *
+     * @param weighted whether to return intensity-weighted centroids
+     */
+    public Map<Integer, Point3d> getCentroidMap(final boolean weighted) {
+        final Map<Integer, Point3d> map = new HashMap<Integer, Point3d>();
+        for (final int label : getLabels()) {
+            map.put(label, weighted ? getWeightedCentroid(label) : getCentroid(label));
+        }
+        return map;
+    }
+
+    /**
+     * Returns a table with one row per region. Positions in the table are
+     * 0-based in all dimensions.
+     *
+     * @param calibration calibration to scale positions with, or null for
+     *                    pixel grid positions
+     */
+    public ResultsTable getResultsTable(final Calibration calibration) {
+        final double[] scale = calibration == null ? new double[]{1, 1, 1}
+                : new double[]{calibration.pixelWidth, calibration.pixelHeight, calibration.pixelDepth};
+        final ResultsTable table = new ResultsTable();
+        table.setPrecision(2);
+        for (final int label : getLabels()) {
+            table.incrementCounter();
+            addRow(table, label, scale);
+        }
+        return table;
+    }
+
+    /**
+     * Adds the columns of one region to the current row of the table.
+     *
+     * @param scale size of a voxel {x, y, z}
+     */
+    public void addRow(final ResultsTable table, final int label, final double[] scale) {
+        final Point3d centroid = getCentroid(label);
+        final int[] box = getBoundingBox(label);
+        final double[] covariance = getCovariance(label);
+        table.addValue("Value", label);
+        table.addValue("Count", getCount(label));
+        table.addValue("x", centroid.x * scale[0]);
+        table.addValue("y", centroid.y * scale[1]);
+        table.addValue("z", (centroid.z - 1) * scale[2]);
+        if (hasIntensities) {
+            final Point3d weighted = getWeightedCentroid(label);
+            table.addValue("xm", weighted.x * scale[0]);
+            table.addValue("ym", weighted.y * scale[1]);
+            table.addValue("zm", (weighted.z - 1) * scale[2]);
+            table.addValue("Sum", getSum(label));
+            table.addValue("Mean", getMean(label));
+            table.addValue("Min", getMin(label));
+            table.addValue("Max", getMax(label));
+        }
+        table.addValue("Min x", box[0] * scale[0]);
+        table.addValue("Min y", box[1] * scale[1]);
+        table.addValue("Min z", (box[2] - 1) * scale[2]);
+        table.addValue("Max x", box[3] * scale[0]);
+        table.addValue("Max y", box[4] * scale[1]);
+        table.addValue("Max z", (box[5] - 1) * scale[2]);
+        table.addValue("Cxx", covariance[0] * scale[0] * scale[0]);
+        table.addValue("Cyy", covariance[1] * scale[1] * scale[1]);
+        table.addValue("Czz", covariance[2] * scale[2] * scale[2]);
+        table.addValue("Cxy", covariance[3] * scale[0] * scale[1]);
+        table.addValue("Cxz", covariance[4] * scale[0] * scale[2]);
+        table.addValue("Cyz", covariance[5] * scale[1] * scale[2]);
+    }
+
+    // Measures slices zStart (inclusive) to zEnd (exclusive), 1-based.
+    private void add(final ImageStack labels, final ImageStack intensityStack, final int zStart, final int zEnd) {
+        hasIntensities = intensityStack != null;
+        final int width = labels.getWidth();
+        final int height = labels.getHeight();
+        for (int z = zStart; z < zEnd; ++z) {
+            final Object labelPixels = labels.getPixels(z);
+            final Object intensityPixels = hasIntensities ? intensityStack.getPixels(z) : null;
+            final byte[] bytes = labelPixels instanceof byte[] ? (byte[]) labelPixels : null;
+            final short[] shorts = labelPixels instanceof short[] ? (short[]) labelPixels : null;
+            if (bytes == null && shorts == null) {
+                throw new IllegalArgumentException("Only 8 and 16-bit label images are supported.");
+            }
+            for (int y = 0, i = 0; y < height; ++y) {
+                for (int x = 0; x < width; ++x, ++i) {
+                    final int label = bytes != null ? bytes[i] & 0xff : shorts[i] & 0xffff;
+                    if (label == 0) {
+                        continue;
+                    }
+                    if (label >= capacity) {
+                        grow(label + 1);
+                    }
+                    add(label, x, y, z - 1);
+                    if (hasIntensities) {
+                        addIntensity(label, x, y, z - 1, getValue(intensityPixels, i));
+                    }
+                }
+            }
+        }
+    }
+
+    private void add(final int label, final int x, final int y, final int z) {
+        final int m = nMoments * label;
+        final int b = nBounds * label;
+        if (moments[m] == 0) {
+            bounds[b] = bounds[b + 3] = x;
+            bounds[b + 1] = bounds[b + 4] = y;
+            bounds[b + 2] = bounds[b + 5] = z;
+        } else {
+            bounds[b] = Math.min(bounds[b], x);
+            bounds[b + 1] = Math.min(bounds[b + 1], y);
+            bounds[b + 2] = Math.min(bounds[b + 2], z);
+            bounds[b + 3] = Math.max(bounds[b + 3], x);
+            bounds[b + 4] = Math.max(bounds[b + 4], y);
+            bounds[b + 5] = Math.max(bounds[b + 5], z);
+        }
+        moments[m]++;
+        moments[m + 1] += x;
+        moments[m + 2] += y;
+        moments[m + 3] += z;
+        moments[m + 4] += (long) x * x;
+        moments[m + 5] += (long) y * y;
+        moments[m + 6] += (long) z * z;
+        moments[m + 7] += (long) x * y;
+        moments[m + 8] += (long) x * z;
+        moments[m + 9] += (long) y * z;
+    }
+
+    // Called after add(label, ...), so a count of 1 marks the first voxel.
+    private void addIntensity(final int label, final int x, final int y, final int z, final double value) {
+        final int offset = nIntensities * label;
+        intensities[offset] += value;
+        intensities[offset + 1] += value * x;
+        intensities[offset + 2] += value * y;
+        intensities[offset + 3] += value * z;
+        if (moments[nMoments * label] == 1) {
+            intensities[offset + 4] = intensities[offset + 5] = value;
+        } else {
+            intensities[offset + 4] = Math.min(intensities[offset + 4], value);
+            intensities[offset + 5] = Math.max(intensities[offset + 5], value);
+        }
+    }
+
+    private void add(final RegionStatistics other) {
+        if (other.capacity > capacity) {
+            grow(other.capacity);
+        }
+        hasIntensities |= other.hasIntensities;
+        for (int label = 1; label < other.capacity; ++label) {
+            final int m = nMoments * label;
+            if (other.moments[m] == 0) {
+                continue;
+            }
+            final boolean isNew = moments[m] == 0;
+            for (int i = 0; i < nMoments; ++i) {
+                moments[m + i] += other.moments[m + i];
+            }
+            final int b = nBounds * label;
+            final int o = nIntensities * label;
+            for (int i = 0; i < 3; ++i) {
+                bounds[b + i] = isNew ? other.bounds[b + i] : Math.min(bounds[b + i], other.bounds[b + i]);
+                bounds[b + 3 + i] = isNew ? other.bounds[b + 3 + i] : Math.max(bounds[b + 3 + i], other.bounds[b + 3 + i]);
+            }
+            for (int i = 0; i < 4; ++i) {
+                intensities[o + i] += other.intensities[o + i];
+            }
+            intensities[o + 4] = isNew ? other.intensities[o + 4] : Math.min(intensities[o + 4], other.intensities[o + 4]);
+            intensities[o + 5] = isNew ? other.intensities[o + 5] : Math.max(intensities[o + 5], other.intensities[o + 5]);
+        }
+    }
+
+    private void grow(final int minCapacity) {
+        final int newCapacity = Math.max(minCapacity, Math.min(2 * capacity, 65536));
+        moments = Arrays.copyOf(moments, nMoments * newCapacity);
+        bounds = Arrays.copyOf(bounds, nBounds * newCapacity);
+        intensities = Arrays.copyOf(intensities, nIntensities * newCapacity);
+        capacity = newCapacity;
+    }
+
+    private static double getValue(final Object pixels, final int i) {
+        if (pixels instanceof byte[]) {
+            return ((byte[]) pixels)[i] & 0xff;
+        } else if (pixels instanceof short[]) {
+            return ((short[]) pixels)[i] & 0xffff;
+        } else if (pixels instanceof float[]) {
+            return ((float[]) pixels)[i];
+        }
+        final int c = ((int[]) pixels)[i];
+        return (((c >> 16) & 0xff) + ((c >> 8) & 0xff) + (c & 0xff)) / 3.0;
+    }
+}
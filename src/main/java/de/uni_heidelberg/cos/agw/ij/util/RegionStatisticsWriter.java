@@ -0,0 +1,83 @@
+package de.uni_heidelberg.cos.agw.ij.util;
+
+import javax.vecmath.Point3d;
+import java.io.*;
+
+/**
+ * Streams region centers of a time-lapse to a file, one row per region:
+ * frame, channel, value, x, y, z, count. Frame, channel and position are
+ * 0-based. Rows are written as comma separated text with a header line, or
+ * as binary records of int frame, int channel, int value, double x, double y,
+ * double z, long count in big-endian byte order (as read by
+ * {@link DataInputStream}).
+ */
+public class RegionStatisticsWriter implements Closeable {
+
+    private final DataOutputStream binary;
+    private final PrintWriter text;
+
+    public RegionStatisticsWriter(final File file, final boolean isBinary) throws IOException {
+        final OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+        if (isBinary) {
+            binary = new DataOutputStream(out);
+            text = null;
+        } else {
+            binary = null;
+            text = new PrintWriter(new OutputStreamWriter(out, "UTF-8"));
+            text.println("Frame,Channel,Value,x,y,z,Count");
+        }
+    }
+
+    /**
+     * Writes all regions of one frame.
+     *
+     * @param weighted whether to write intensity-weighted centroids
+     * @param scale    size of a voxel {x, y, z}
+     */
+    public void write(final int frame, final int channel, final RegionStatistics statistics,
+                      final boolean weighted, final double[] scale) throws IOException {
+        for (final int label : statistics.getLabels()) {
+            final Point3d center = weighted ? statistics.getWeightedCentroid(label)
+                    : statistics.getCentroid(label);
+            final double x = center.x * scale[0];
+            final double y = center.y * scale[1];
+            final double z = (center.z - 1) * scale[2];
+            final long count = statistics.getCount(label);
+            if (binary != null) {
+                binary.writeInt(frame);
+                binary.writeInt(channel);
+                binary.writeInt(label);
+                binary.writeDouble(x);
+                binary.writeDouble(y);
+                binary.writeDouble(z);
+                binary.writeLong(count);
+            } else {
+                text.print(frame);
+                text.print(',');
+                text.print(channel);
+                text.print(',');
+                text.print(label);
+                text.print(',');
+                text.print(x);
+                text.print(',');
+                text.print(y);
+                text.print(',');
+                text.print(z);
+                text.print(',');
+                text.println(count);
+            }
+        }
+        if (text != null && text.checkError()) {
+            throw new IOException("Could not write region statistics.");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (binary != null) {
+            binary.close();
+        } else {
+            text.close();
+        }
+    }
+}
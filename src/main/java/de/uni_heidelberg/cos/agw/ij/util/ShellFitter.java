@@ -0,0 +1,586 @@
+package de.uni_heidelberg.cos.agw.ij.util;
+
+import ij.ImageStack;
+import org.apache.commons.math3.fitting.leastsquares.LeastSquaresBuilder;
+import org.apache.commons.math3.fitting.leastsquares.LevenbergMarquardtOptimizer;
+import org.apache.commons.math3.fitting.leastsquares.MultivariateJacobianFunction;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.ArrayRealVector;
+import org.apache.commons.math3.linear.DecompositionSolver;
+import org.apache.commons.math3.linear.EigenDecomposition;
+import org.apache.commons.math3.linear.LUDecomposition;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+import org.apache.commons.math3.util.Pair;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Estimates the spherical or cylindrical shell occupied by the foreground of
+ * a volume, e.g. to seed the parameters of
+ * {@link de.uni_heidelberg.cos.agw.ij.MapTransform}.
+ * <p>
+ * The volume is thresholded on a grid subsampled by a step along each axis,
+ * in parallel z-slabs. Foreground samples without foreground neighbors on the
+ * grid are ignored as noise, those with a background neighbor are surface
+ * points. A sphere is fitted to the surface points with
+ * RANSAC and refined by geometric least squares on the inliers; a cylinder is
+ * initialized from the principal axis of the surface points and refined by
+ * least squares, discarding outliers. The inner and outer radius (and the
+ * height of a cylinder) enclose a given fraction of the foreground samples.
+ * <p>
+ * All positions are in voxels, z is 0-based.
+ */
+public class ShellFitter {
+
+    private static final int nRansacIterations = 500;
+    private static final int maxScoredPoints = 10000;
+    private static final int maxFittedPoints = 50000;
+    private static final long seed = 42;
+    private static final int[][] neighbors = {{-1, 0, 0}, {1, 0, 0}, {0, -1, 0}, {0, 1, 0}, {0, 0, -1}, {0, 0, 1}};
+
+    private final int step;
+    private final double diagonal;
+    private int[] foreground = new int[0];
+    private int nForeground = 0;
+    private int[] surface = new int[0];
+    private int nSurface = 0;
+    private double coverage = 0.98;
+    private double[] center;
+    private double[] axis;
+    private double radius, innerRadius, outerRadius, height;
+
+    /**
+     * @param stack     8, 16 or 32-bit volume
+     * @param threshold voxels above are foreground
+     * @param step      subsampling of the volume along each axis, at least 1
+     */
+    public ShellFitter(final ImageStack stack, final double threshold, final int step) {
+        this.step = Math.max(1, step);
+        final int width = stack.getWidth();
+        final int height = stack.getHeight();
+        final int depth = stack.getSize();
+        diagonal = Math.sqrt((double) width * width + (double) height * height + (double) depth * depth);
+        final int nx = (width - 1) / this.step + 1;
+        final int ny = (height - 1) / this.step + 1;
+        final int nz = (depth - 1) / this.step + 1;
+        final int gridStep = this.step;
+
+        // Sample z-slabs of the grid in parallel, concatenate in z order.
+        final ShellFitter[] partials = new ShellFitter[Parallel.getNRanges(nz)];
+        Parallel.forRanges(nz, new Parallel.RangeTask() {
+            @Override
+            public void run(final int chunk, final int start, final int end) {
+                final ShellFitter partial = new ShellFitter(gridStep);
+                for (int gz = start; gz < end; ++gz) {
+                    final Object pixels = stack.getPixels(gz * gridStep + 1);
+                    for (int gy = 0; gy < ny; ++gy) {
+                        for (int gx = 0; gx < nx; ++gx) {
+                            if (!isForeground(stack, threshold, pixels, gx, gy, gz, gridStep, nx, ny, nz)) {
+                                continue;
+                            }
+                            int nNeighbors = 0;
+                            for (int i = 0; i < 6; ++i) {
+                                if (isForeground(stack, threshold, null, gx + neighbors[i][0], gy + neighbors[i][1],
+                                        gz + neighbors[i][2], gridStep, nx, ny, nz)) {
+                                    ++nNeighbors;
+                                }
+                            }
+                            // Isolated samples are noise.
+                            if (nNeighbors == 0) {
+                                continue;
+                            }
+                            final boolean isSurface = nNeighbors < 6;
+                            partial.add(gx, gy, gz, isSurface);
+                        }
+                    }
+                }
+                partials[chunk] = partial;
+            }
+        });
+        for (final ShellFitter partial : partials) {
+            for (int i = 0; i < partial.nForeground; ++i) {
+                addForeground(partial.foreground, i);
+            }
+            for (int i = 0; i < partial.nSurface; ++i) {
+                addSurface(partial.surface, i);
+            }
+        }
+    }
+
+    private ShellFitter(final int step) {
+        this.step = step;
+        diagonal = 0;
+    }
+
+    /**
+     * Sets the fraction of foreground samples between the inner and outer
+     * radius, 0.98 by default.
+     */
+    public void setCoverage(final double coverage) {
+        this.coverage = coverage;
+    }
+
+    public int getNForeground() {
+        return nForeground;
+    }
+
+    public int getNSurface() {
+        return nSurface;
+    }
+
+    /**
+     * Fits a sphere.
+     *
+     * @throws IllegalStateException if there are too few surface points or no
+     *                               sphere fits
+     */
+    public void fitSphere() {
+        if (nSurface < 4) {
+            throw new IllegalStateException("Too few surface points.");
+        }
+        final double[][] points = getSurfacePoints(nSurface);
+        final double tolerance = 2 * step;
+        final double[] sphere = ransacSphere(points, tolerance);
+        if (sphere == null) {
+            throw new IllegalStateException("No sphere fits the surface points.");
+        }
+
+        // Refine with the geometric distance on the inliers.
+        int nInliers = 0;
+        final double[][] inliers = new double[points.length][];
+        for (final double[] point : points) {
+            if (Math.abs(distance(point, sphere) - sphere[3]) < tolerance) {
+                inliers[nInliers++] = point;
+            }
+        }
+        final double[][] fitted = subsample(Arrays.copyOf(inliers, nInliers), maxFittedPoints);
+        final double[] refined = optimize(new MultivariateJacobianFunction() {
+            @Override
+            public Pair<RealVector, RealMatrix> value(final RealVector parameters) {
+                final double[] p = parameters.toArray();
+                final double[] residuals = new double[fitted.length];
+                final double[][] jacobian = new double[fitted.length][4];
+                for (int i = 0; i < fitted.length; ++i) {
+                    final double r = Math.max(1e-12, distance(fitted[i], p));
+                    residuals[i] = r - p[3];
+                    for (int d = 0; d < 3; ++d) {
+                        jacobian[i][d] = (p[d] - fitted[i][d]) / r;
+                    }
+                    jacobian[i][3] = -1;
+                }
+                return new Pair<RealVector, RealMatrix>(new ArrayRealVector(residuals, false),
+                        new Array2DRowRealMatrix(jacobian, false));
+            }
+        }, sphere, fitted.length);
+
+        center = new double[]{refined[0], refined[1], refined[2]};
+        axis = null;
+        radius = Math.abs(refined[3]);
+        final double[] distances = new double[nForeground];
+        final double[] point = new double[3];
+        for (int i = 0; i < nForeground; ++i) {
+            getForeground(i, point);
+            distances[i] = distance(point, center);
+        }
+        final double[] range = getRange(distances);
+        innerRadius = range[0];
+        outerRadius = range[1];
+        height = 0;
+    }
+
+    /**
+     * Fits a cylinder.
+     *
+     * @throws IllegalStateException if there are too few surface points
+     */
+    public void fitCylinder() {
+        if (nSurface < 6) {
+            throw new IllegalStateException("Too few surface points.");
+        }
+        double[][] fitted = getSurfacePoints(maxFittedPoints);
+
+        // Initial axis: principal axis of the surface points.
+        final double[] mean = new double[3];
+        for (final double[] point : fitted) {
+            for (int d = 0; d < 3; ++d) {
+                mean[d] += point[d] / fitted.length;
+            }
+        }
+        final double[][] covariance = new double[3][3];
+        for (final double[] point : fitted) {
+            for (int i = 0; i < 3; ++i) {
+                for (int j = 0; j < 3; ++j) {
+                    covariance[i][j] += (point[i] - mean[i]) * (point[j] - mean[j]) / fitted.length;
+                }
+            }
+        }
+        final EigenDecomposition eigen = new EigenDecomposition(new Array2DRowRealMatrix(covariance, false));
+        int principal = 0;
+        for (int i = 1; i < 3; ++i) {
+            if (eigen.getRealEigenvalue(i) > eigen.getRealEigenvalue(principal)) {
+                principal = i;
+            }
+        }
+        final double[] axis0 = eigen.getEigenvector(principal).toArray();
+        normalize(axis0);
+        // Parameters: axis direction as offsets along e1, e2, axis point as
+        // offsets from the mean along e1, e2, radius.
+        final double[] e1 = getOrthogonal(axis0);
+        final double[] e2 = cross(axis0, e1);
+        double[] parameters = {0, 0, 0, 0, 0};
+        parameters[4] = getCylinderRadius(fitted, toCylinder(parameters, mean, axis0, e1, e2));
+
+        // Fit, discard outliers and fit again.
+        for (int round = 0; round < 3; ++round) {
+            parameters = fitCylinder(fitted, parameters, mean, axis0, e1, e2);
+            final double[][] cylinder = toCylinder(parameters, mean, axis0, e1, e2);
+            final double[] residuals = new double[fitted.length];
+            for (int i = 0; i < fitted.length; ++i) {
+                residuals[i] = Math.abs(distanceToAxis(fitted[i], cylinder[0], cylinder[1]) - parameters[4]);
+            }
+            final double[] sorted = residuals.clone();
+            Arrays.sort(sorted);
+            final double limit = Math.max(step, 3 * 1.4826 * sorted[sorted.length / 2]);
+            int nInliers = 0;
+            final double[][] inliers = new double[fitted.length][];
+            for (int i = 0; i < fitted.length; ++i) {
+                if (residuals[i] <= limit) {
+                    inliers[nInliers++] = fitted[i];
+                }
+            }
+            if (nInliers == fitted.length || nInliers < 6) {
+                break;
+            }
+            fitted = Arrays.copyOf(inliers, nInliers);
+        }
+
+        final double[][] cylinder = toCylinder(parameters, mean, axis0, e1, e2);
+        axis = cylinder[1];
+        radius = Math.abs(parameters[4]);
+        final double[] distances = new double[nForeground];
+        final double[] positions = new double[nForeground];
+        final double[] point = new double[3];
+        for (int i = 0; i < nForeground; ++i) {
+            getForeground(i, point);
+            distances[i] = distanceToAxis(point, cylinder[0], axis);
+            positions[i] = dot(point, axis) - dot(cylinder[0], axis);
+        }
+        final double[] radii = getRange(distances);
+        innerRadius = radii[0];
+        outerRadius = radii[1];
+        // Center on the middle of the foreground along the axis.
+        final double[] extent = getRange(positions);
+        height = extent[1] - extent[0];
+        center = new double[3];
+        for (int d = 0; d < 3; ++d) {
+            center[d] = cylinder[0][d] + 0.5 * (extent[0] + extent[1]) * axis[d];
+        }
+    }
+
+    /**
+     * @return {x, y, z} of the center of the fitted shape
+     */
+    public double[] getCenter() {
+        return center == null ? null : center.clone();
+    }
+
+    /**
+     * @return unit direction of the axis of a fitted cylinder, with a
+     * non-negative z component, or null for a sphere
+     */
+    public double[] getAxis() {
+        return axis == null ? null : axis.clone();
+    }
+
+    /**
+     * Returns the radius of the fitted surface.
+     */
+    public double getRadius() {
+        return radius;
+    }
+
+    public double getInnerRadius() {
+        return innerRadius;
+    }
+
+    public double getOuterRadius() {
+        return outerRadius;
+    }
+
+    /**
+     * Returns the extent of the foreground along the axis of a fitted
+     * cylinder, 0 for a sphere.
+     */
+    public double getHeight() {
+        return height;
+    }
+
+    // Returns whether grid position gx, gy, gz is foreground, false outside.
+    // Reads from slice if given, else from the stack.
+    private static boolean isForeground(final ImageStack stack, final double threshold, final Object slice,
+                                        final int gx, final int gy, final int gz, final int step,
+                                        final int nx, final int ny, final int nz) {
+        if (gx < 0 || gy < 0 || gz < 0 || gx >= nx || gy >= ny || gz >= nz) {
+            return false;
+        }
+        final Object pixels = slice != null ? slice : stack.getPixels(gz * step + 1);
+        final int i = gy * step * stack.getWidth() + gx * step;
+        final double value;
+        if (pixels instanceof byte[]) {
+            value = ((byte[]) pixels)[i] & 0xff;
+        } else if (pixels instanceof short[]) {
+            value = ((short[]) pixels)[i] & 0xffff;
+        } else {
+            value = ((float[]) pixels)[i];
+        }
+        return value > threshold;
+    }
+
+    private void add(final int gx, final int gy, final int gz, final boolean isSurface) {
+        addForeground(new int[]{gx, gy, gz}, 0);
+        if (isSurface) {
+            addSurface(new int[]{gx, gy, gz}, 0);
+        }
+    }
+
+    private void addForeground(final int[] points, final int i) {
+        if (3 * (nForeground + 1) > foreground.length) {
+            foreground = Arrays.copyOf(foreground, Math.max(3 * 1024, 2 * foreground.length));
+        }
+        System.arraycopy(points, 3 * i, foreground, 3 * nForeground, 3);
+        ++nForeground;
+    }
+
+    private void addSurface(final int[] points, final int i) {
+        if (3 * (nSurface + 1) > surface.length) {
+            surface = Arrays.copyOf(surface, Math.max(3 * 1024, 2 * surface.length));
+        }
+        System.arraycopy(points, 3 * i, surface, 3 * nSurface, 3);
+        ++nSurface;
+    }
+
+    private void getForeground(final int i, final double[] point) {
+        for (int d = 0; d < 3; ++d) {
+            point[d] = (double) foreground[3 * i + d] * step;
+        }
+    }
+
+    // Returns at most maxPoints evenly spaced surface points in voxels.
+    private double[][] getSurfacePoints(final int maxPoints) {
+        final int n = Math.min(nSurface, maxPoints);
+        final double[][] points = new double[n][3];
+        for (int i = 0; i < n; ++i) {
+            final int j = (int) ((long) i * nSurface / n);
+            for (int d = 0; d < 3; ++d) {
+                points[i][d] = (double) surface[3 * j + d] * step;
+            }
+        }
+        return points;
+    }
+
+    // Returns {x, y, z, r} of the sphere with the most surface points within
+    // tolerance, among spheres through random quadruples of points. Each
+    // iteration has its own seed, so the result does not depend on the
+    // number of threads.
+    private double[] ransacSphere(final double[][] points, final double tolerance) {
+        final double[][] scored = subsample(points, maxScoredPoints);
+        final int nRanges = Parallel.getNRanges(nRansacIterations);
+        final double[][] best = new double[nRanges][];
+        final int[] bestScores = new int[nRanges];
+        Parallel.forRanges(nRansacIterations, new Parallel.RangeTask() {
+            @Override
+            public void run(final int chunk, final int start, final int end) {
+                bestScores[chunk] = -1;
+                for (int iteration = start; iteration < end; ++iteration) {
+                    final Random random = new Random(seed + iteration);
+                    final double[][] sample = new double[4][];
+                    for (int i = 0; i < 4; ++i) {
+                        sample[i] = points[random.nextInt(points.length)];
+                    }
+                    final double[] sphere = getSphere(sample);
+                    if (sphere == null || sphere[3] > diagonal) {
+                        continue;
+                    }
+                    int score = 0;
+                    for (final double[] point : scored) {
+                        if (Math.abs(distance(point, sphere) - sphere[3]) < tolerance) {
+                            ++score;
+                        }
+                    }
+                    if (score > bestScores[chunk]) {
+                        bestScores[chunk] = score;
+                        best[chunk] = sphere;
+                    }
+                }
+            }
+        });
+        int bestChunk = 0;
+        for (int chunk = 1; chunk < nRanges; ++chunk) {
+            if (bestScores[chunk] > bestScores[bestChunk]) {
+                bestChunk = chunk;
+            }
+        }
+        return best[bestChunk];
+    }
+
+    // Returns {x, y, z, r} of the sphere through four points, or null if
+    // they are (nearly) coplanar.
+    private static double[] getSphere(final double[][] points) {
+        // x^2 + y^2 + z^2 + a x + b y + c z + e = 0
+        final double[][] a = new double[4][4];
+        final double[] b = new double[4];
+        for (int i = 0; i < 4; ++i) {
+            a[i][0] = points[i][0];
+            a[i][1] = points[i][1];
+            a[i][2] = points[i][2];
+            a[i][3] = 1;
+            b[i] = -dot(points[i], points[i]);
+        }
+        final DecompositionSolver solver = new LUDecomposition(new Array2DRowRealMatrix(a, false), 1e-9).getSolver();
+        if (!solver.isNonSingular()) {
+            return null;
+        }
+        final double[] x = solver.solve(new ArrayRealVector(b, false)).toArray();
+        final double[] sphere = {-x[0] / 2, -x[1] / 2, -x[2] / 2, 0};
+        final double r2 = dot(sphere, sphere) - x[3];
+        if (r2 <= 0) {
+            return null;
+        }
+        sphere[3] = Math.sqrt(r2);
+        return sphere;
+    }
+
+    private double[] fitCylinder(final double[][] points, final double[] start, final double[] mean,
+                                 final double[] axis0, final double[] e1, final double[] e2) {
+        return optimize(new MultivariateJacobianFunction() {
+            @Override
+            public Pair<RealVector, RealMatrix> value(final RealVector parameters) {
+                final double[] p = parameters.toArray();
+                final double[] residuals = getCylinderResiduals(points, p, mean, axis0, e1, e2);
+                // Forward differences.
+                final double[][] jacobian = new double[points.length][p.length];
+                for (int j = 0; j < p.length; ++j) {
+                    final double h = 1e-6 * Math.max(1, Math.abs(p[j]));
+                    final double[] q = p.clone();
+                    q[j] += h;
+                    final double[] shifted = getCylinderResiduals(points, q, mean, axis0, e1, e2);
+                    for (int i = 0; i < points.length; ++i) {
+                        jacobian[i][j] = (shifted[i] - residuals[i]) / h;
+                    }
+                }
+                return new Pair<RealVector, RealMatrix>(new ArrayRealVector(residuals, false),
+                        new Array2DRowRealMatrix(jacobian, false));
+            }
+        }, start, points.length);
+    }
+
+    private static double[] getCylinderResiduals(final double[][] points, final double[] parameters,
+                                                 final double[] mean, final double[] axis0, final double[] e1,
+                                                 final double[] e2) {
+        final double[][] cylinder = toCylinder(parameters, mean, axis0, e1, e2);
+        final double[] residuals = new double[points.length];
+        for (int i = 0; i < points.length; ++i) {
+            residuals[i] = distanceToAxis(points[i], cylinder[0], cylinder[1]) - parameters[4];
+        }
+        return residuals;
+    }
+
+    // Returns {point on axis, unit axis with z >= 0} of the parameters.
+    private static double[][] toCylinder(final double[] parameters, final double[] mean, final double[] axis0,
+                                         final double[] e1, final double[] e2) {
+        final double[] point = new double[3];
+        final double[] direction = new double[3];
+        for (int d = 0; d < 3; ++d) {
+            direction[d] = axis0[d] + parameters[0] * e1[d] + parameters[1] * e2[d];
+            point[d] = mean[d] + parameters[2] * e1[d] + parameters[3] * e2[d];
+        }
+        normalize(direction);
+        if (direction[2] < 0) {
+            for (int d = 0; d < 3; ++d) {
+                direction[d] = -direction[d];
+            }
+        }
+        return new double[][]{point, direction};
+    }
+
+    private static double getCylinderRadius(final double[][] points, final double[][] cylinder) {
+        double sum = 0;
+        for (final double[] point : points) {
+            sum += distanceToAxis(point, cylinder[0], cylinder[1]);
+        }
+        return sum / points.length;
+    }
+
+    private static double[] optimize(final MultivariateJacobianFunction model, final double[] start,
+                                     final int nResiduals) {
+        return new LevenbergMarquardtOptimizer().optimize(new LeastSquaresBuilder()
+                .model(model)
+                .start(start)
+                .target(new double[nResiduals])
+                .maxEvaluations(1000)
+                .maxIterations(1000)
+                .build()).getPoint().toArray();
+    }
+
+    // Returns the values enclosing the central coverage fraction.
+    private double[] getRange(final double[] values) {
+        final double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        final double tail = (1 - coverage) / 2;
+        final int lower = (int) Math.floor(tail * (sorted.length - 1));
+        final int upper = (int) Math.ceil((1 - tail) * (sorted.length - 1));
+        return new double[]{sorted[lower], sorted[upper]};
+    }
+
+    private static double[][] subsample(final double[][] points, final int maxPoints) {
+        if (points.length <= maxPoints) {
+            return points;
+        }
+        final double[][] subsampled = new double[maxPoints][];
+        for (int i = 0; i < maxPoints; ++i) {
+            subsampled[i] = points[(int) ((long) i * points.length / maxPoints)];
+        }
+        return subsampled;
+    }
+
+    private static double distance(final double[] point, final double[] center) {
+        final double dx = point[0] - center[0];
+        final double dy = point[1] - center[1];
+        final double dz = point[2] - center[2];
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    private static double distanceToAxis(final double[] point, final double[] origin, final double[] axis) {
+        final double[] offset = {point[0] - origin[0], point[1] - origin[1], point[2] - origin[2]};
+        final double t = dot(offset, axis);
+        for (int d = 0; d < 3; ++d) {
+            offset[d] -= t * axis[d];
+        }
+        return Math.sqrt(dot(offset, offset));
+    }
+
+    private static double dot(final double[] a, final double[] b) {
+        return a[0] * b[0] + a[1] * b[1] + a[2] * b[2];
+    }
+
+    private static double[] cross(final double[] a, final double[] b) {
+        return new double[]{a[1] * b[2] - a[2] * b[1], a[2] * b[0] - a[0] * b[2], a[0] * b[1] - a[1] * b[0]};
+    }
+
+    private static void normalize(final double[] vector) {
+        final double length = Math.sqrt(dot(vector, vector));
+        for (int d = 0; d < 3; ++d) {
+            vector[d] /= length;
+        }
+    }
+
+    // Returns a unit vector orthogonal to a unit vector.
+    private static double[] getOrthogonal(final double[] vector) {
+        final double[] other = Math.abs(vector[0]) < 0.9 ? new double[]{1, 0, 0} : new double[]{0, 1, 0};
+        final double[] orthogonal = cross(vector, other);
+        normalize(orthogonal);
+        return orthogonal;
+    }
+}
@@ -0,0 +1,133 @@
+package de.uni_heidelberg.cos.agw.ij.util;
+
+import ij.ImageStack;
+
+/**
+ * Downsampled copies of a volume, for fast approximate rendering. Level l is
+ * downsampled by a factor of 2^(l+1) along each axis by averaging blocks of
+ * the previous level, so the levels are 2x, 4x, 8x ... smaller. Levels are
+ * stored as float slices and built once, in parallel, on construction.
+ */
+public class VolumePyramid {
+
+    private final float[][][] levels;
+    private final int[][] dimensions;
+
+    /**
+     * @param stack   volume of any type, RGB is converted to its luminance
+     * @param nLevels number of levels
+     */
+    public VolumePyramid(final ImageStack stack, final int nLevels) {
+        levels = new float[nLevels][][];
+        dimensions = new int[nLevels][];
+        final int depth = stack.getSize();
+        float[][] source = new float[depth][];
+        for (int z = 0; z < depth; ++z) {
+            source[z] = (float[]) stack.getProcessor(z + 1).convertToFloat().getPixels();
+        }
+        int[] sourceDimensions = {stack.getWidth(), stack.getHeight(), depth};
+        for (int l = 0; l < nLevels; ++l) {
+            dimensions[l] = new int[3];
+            for (int d = 0; d < 3; ++d) {
+                dimensions[l][d] = (sourceDimensions[d] + 1) / 2;
+            }
+            levels[l] = downsample(source, sourceDimensions, dimensions[l]);
+            source = levels[l];
+            sourceDimensions = dimensions[l];
+        }
+    }
+
+    public int getNLevels() {
+        return levels.length;
+    }
+
+    /**
+     * Returns the downsampling factor of a level, 2^(level+1).
+     */
+    public int getFactor(final int level) {
+        return 2 << level;
+    }
+
+    /**
+     * @return {width, height, depth} of a level
+     */
+    public int[] getDimensions(final int level) {
+        return dimensions[level].clone();
+    }
+
+    /**
+     * Returns the value of a level at a position in voxel coordinates of the
+     * full resolution volume, linearly interpolated, 0 outside.
+     */
+    public float getLinear(final int level, final double x, final double y, final double z) {
+        // Voxel i of a level is the average of voxels f*i to f*i + f - 1.
+        final double factor = getFactor(level);
+        final double offset = (factor - 1) / 2;
+        final double lx = (x - offset) / factor;
+        final double ly = (y - offset) / factor;
+        final double lz = (z - offset) / factor;
+        final int x0 = (int) Math.floor(lx);
+        final int y0 = (int) Math.floor(ly);
+        final int z0 = (int) Math.floor(lz);
+        final double fx = lx - x0, fy = ly - y0, fz = lz - z0;
+        final float[][] slices = levels[level];
+        final int[] size = dimensions[level];
+        double result = 0;
+        for (int k = 0; k < 2; ++k) {
+            final int zk = z0 + k;
+            if (zk < 0 || zk >= size[2]) {
+                continue;
+            }
+            final double wz = k == 0 ? 1 - fz : fz;
+            for (int j = 0; j < 2; ++j) {
+                final int yj = y0 + j;
+                if (yj < 0 || yj >= size[1]) {
+                    continue;
+                }
+                final double wy = j == 0 ? 1 - fy : fy;
+                for (int i = 0; i < 2; ++i) {
+                    final int xi = x0 + i;
+                    if (xi < 0 || xi >= size[0]) {
+                        continue;
+                    }
+                    final double wx = i == 0 ? 1 - fx : fx;
+                    result += wz * wy * wx * slices[zk][yj * size[0] + xi];
+                }
+            }
+        }
+        return (float) result;
+    }
+
+    // Averages blocks of 2^3 voxels, or fewer at odd edges.
+    private static float[][] downsample(final float[][] source, final int[] sourceSize, final int[] size) {
+        final float[][] target = new float[size[2]][];
+        Parallel.forRanges(size[2], new Parallel.RangeTask() {
+            @Override
+            public void run(final int chunk, final int start, final int end) {
+                for (int z = start; z < end; ++z) {
+                    final float[] slice = new float[size[0] * size[1]];
+                    final int zEnd = Math.min(2 * z + 2, sourceSize[2]);
+                    for (int y = 0; y < size[1]; ++y) {
+                        final int yEnd = Math.min(2 * y + 2, sourceSize[1]);
+                        for (int x = 0; x < size[0]; ++x) {
+                            final int xEnd = Math.min(2 * x + 2, sourceSize[0]);
+                            double sum = 0;
+                            int n = 0;
+                            for (int sz = 2 * z; sz < zEnd; ++sz) {
+                                for (int sy = 2 * y; sy < yEnd; ++sy) {
+                                    for (int sx = 2 * x; sx < xEnd; ++sx) {
+                                        sum += source[sz][sy * sourceSize[0] + sx];
+                                        ++n;
+                                    }
+                                }
+                            }
+                            slice[y * size[0] + x] = (float) (sum / n);
+                        }
+                    }
+                    target[z] = slice;
+                }
+            }
+        });
+        return target;
+    }
+}
@@ -0,0 +1,269 @@
+package de.uni_heidelberg.cos.agw.ij.util;
+
+import ij.ImageStack;
+
+import java.util.Arrays;
+
+/**
+ * 3D watershed segmentation of a binary mask on its Euclidean distance map.
+ * <p>
+ * The distance map is flooded from its maxima downwards with 26-connectivity.
+ * Where two basins meet, the one with the lower peak is merged into the other
+ * unless its peak rises more than the tolerance above the meeting point, which
+ * suppresses splits caused by small irregularities of the surface. Unlike
+ * ImageJ's binary watershed, no separating lines are drawn; every foreground
+ * voxel receives the label of a basin.
+ */
+public class Watershed3D {
+
+    private final double tolerance;
+    private final double[] voxelSize;
+    private int nLabels = 0;
+
+    /**
+     * @param tolerance minimal height of a maximum of the distance map above
+     *                  the saddle to its neighbor to form a separate region,
+     *                  in units of voxelSize
+     * @param voxelSize voxel size {x, y, z}
+     */
+    public Watershed3D(final double tolerance, final double[] voxelSize) {
+        this.tolerance = tolerance;
+        this.voxelSize = voxelSize.clone();
+    }
+
+    /**
+     * Returns the number of regions found by the last call to
+     * {@link #run(ImageStack)}.
+     */
+    public int getNLabels() {
+        return nLabels;
+    }
+
+    /**
+     * Segments all non-zero voxels of the stack.
+     *
+     * @param mask binary image, any non-zero value is foreground
+     * @return labels 1..{@link #getNLabels()} for foreground voxels, 0 for
+     * background, indexed by (z * height + y) * width + x with 0-based z
+     */
+    public int[] run(final ImageStack mask) {
+        final int width = mask.getWidth();
+        final int height = mask.getHeight();
+        final int depth = mask.getSize();
+        final float[] distance = getDistanceMap(mask);
+        return flood(distance, width, height, depth);
+    }
+
+    /**
+     * Returns the Euclidean distance of each foreground voxel to the nearest
+     * background voxel, with voxels outside the stack counting as background.
+     * Uses the separable algorithm of Felzenszwalb and Huttenlocher.
+     */
+    public float[] getDistanceMap(final ImageStack mask) {
+        final int width = mask.getWidth();
+        final int height = mask.getHeight();
+        final int depth = mask.getSize();
+        final int sliceSize = width * height;
+        final float[] distance = new float[sliceSize * depth];
+        final float infinity = Float.MAX_VALUE / 4;
+        for (int z = 0; z < depth; ++z) {
+            final Object pixels = mask.getPixels(z + 1);
+            for (int i = 0; i < sliceSize; ++i) {
+                distance[z * sliceSize + i] = isForeground(pixels, i) ? infinity : 0;
+            }
+        }
+
+        final int maxLength = Math.max(width, Math.max(height, depth));
+        final float[] f = new float[maxLength + 2];
+        final float[] d = new float[maxLength + 2];
+        final int[] v = new int[maxLength + 2];
+        final float[] boundaries = new float[maxLength + 3];
+        for (int z = 0; z < depth; ++z) {
+            for (int y = 0; y < height; ++y) {
+                transformLine(distance, z * sliceSize + y * width, 1, width, voxelSize[0], f, d, v, boundaries);
+            }
+        }
+        for (int z = 0; z < depth; ++z) {
+            for (int x = 0; x < width; ++x) {
+                transformLine(distance, z * sliceSize + x, width, height, voxelSize[1], f, d, v, boundaries);
+            }
+        }
+        for (int i = 0; i < sliceSize; ++i) {
+            transformLine(distance, i, sliceSize, depth, voxelSize[2], f, d, v, boundaries);
+        }
+        for (int i = 0; i < distance.length; ++i) {
+            distance[i] = (float) Math.sqrt(distance[i]);
+        }
+        return distance;
+    }
+
+    private static boolean isForeground(final Object pixels, final int i) {
+        if (pixels instanceof byte[]) {
+            return ((byte[]) pixels)[i] != 0;
+        } else if (pixels instanceof short[]) {
+            return ((short[]) pixels)[i] != 0;
+        } else if (pixels instanceof float[]) {
+            return ((float[]) pixels)[i] != 0;
+        }
+        return ((int[]) pixels)[i] != 0;
+    }
+
+    // 1D squared distance transform of one line of the volume, in place.
+    // The line is padded with one background sample at either end, so that
+    // the volume border counts as background.
+    private static void transformLine(final float[] data, final int offset, final int stride, final int n,
+                                      final double spacing, final float[] f, final float[] d, final int[] v,
+                                      final float[] boundaries) {
+        final int length = n + 2;
+        f[0] = 0;
+        f[length - 1] = 0;
+        boolean hasForeground = false;
+        for (int i = 0; i < n; ++i) {
+            f[i + 1] = data[offset + i * stride];
+            hasForeground |= f[i + 1] != 0;
+        }
+        if (!hasForeground) {
+            return;
+        }
+
+        final double spacing2 = spacing * spacing;
+        int k = 0;
+        v[0] = 0;
+        boundaries[0] = -Float.MAX_VALUE;
+        boundaries[1] = Float.MAX_VALUE;
+        for (int q = 1; q < length; ++q) {
+            double s;
+            while (true) {
+                final int p = v[k];
+                s = ((f[q] + spacing2 * q * q) - (f[p] + spacing2 * p * p)) / (2 * spacing2 * (q - p));
+                if (s > boundaries[k]) {
+                    break;
+                }
+                k--;
+            }
+            k++;
+            v[k] = q;
+            boundaries[k] = (float) s;
+            boundaries[k + 1] = Float.MAX_VALUE;
+        }
+        k = 0;
+        for (int q = 0; q < length; ++q) {
+            while (boundaries[k + 1] < q) {
+                k++;
+            }
+            final double dq = spacing * (q - v[k]);
+            d[q] = (float) (dq * dq + f[v[k]]);
+        }
+        for (int i = 0; i < n; ++i) {
+            data[offset + i * stride] = d[i + 1];
+        }
+    }
+
+    private int[] flood(final float[] distance, final int width, final int height, final int depth) {
+        final int sliceSize = width * height;
+
+        // Sort foreground voxels by decreasing distance. Positive floats
+        // compare like their bit patterns, so distance and index are packed
+        // into one primitive key.
+        int nForeground = 0;
+        for (final float value : distance) {
+            if (value > 0) {
+                nForeground++;
+            }
+        }
+        final long[] order = new long[nForeground];
+        for (int i = 0, j = 0; i < distance.length; ++i) {
+            if (distance[i] > 0) {
+                order[j++] = ((long) Float.floatToIntBits(distance[i]) << 32) | i;
+            }
+        }
+        Arrays.sort(order);
+
+        // Union-find over basins, indexed by the voxel that started the basin.
+        final int[] basin = new int[distance.length];
+        Arrays.fill(basin, -1);
+        final int[] parent = new int[distance.length];
+        final int[] roots = new int[26];
+        for (int o = order.length - 1; o >= 0; --o) {
+            final int i = (int) order[o];
+            final int x = i % width;
+            final int y = (i / width) % height;
+            final int z = i / sliceSize;
+            int nRoots = 0;
+            for (int dz = -1; dz <= 1; ++dz) {
+                if (z + dz < 0 || z + dz >= depth) {
+                    continue;
+                }
+                for (int dy = -1; dy <= 1; ++dy) {
+                    if (y + dy < 0 || y + dy >= height) {
+                        continue;
+                    }
+                    for (int dx = -1; dx <= 1; ++dx) {
+                        if (x + dx < 0 || x + dx >= width) {
+                            continue;
+                        }
+                        final int j = i + dz * sliceSize + dy * width + dx;
+                        if (basin[j] < 0) {
+                            continue;
+                        }
+                        final int root = find(parent, basin[j]);
+                        boolean isNew = true;
+                        for (int r = 0; r < nRoots; ++r) {
+                            if (roots[r] == root) {
+                                isNew = false;
+                                break;
+                            }
+                        }
+                        if (isNew) {
+                            roots[nRoots++] = root;
+                        }
+                    }
+                }
+            }
+
+            if (nRoots == 0) {
+                parent[i] = i;
+                basin[i] = i;
+                continue;
+            }
+
+            // The basin with the highest peak takes the voxel, lower basins
+            // that do not rise high enough above this voxel are merged into it.
+            int highest = roots[0];
+            for (int r = 1; r < nRoots; ++r) {
+                if (distance[roots[r]] > distance[highest]) {
+                    highest = roots[r];
+                }
+            }
+            for (int r = 0; r < nRoots; ++r) {
+                if (roots[r] != highest && distance[roots[r]] - distance[i] < tolerance) {
+                    parent[roots[r]] = highest;
+                }
+            }
+            basin[i] = highest;
+        }
+
+        final int[] labels = new int[distance.length];
+        final int[] rootLabels = new int[distance.length];
+        nLabels = 0;
+        for (int i = 0; i < distance.length; ++i) {
+            if (basin[i] < 0) {
+                continue;
+            }
+            final int root = find(parent, basin[i]);
+            if (rootLabels[root] == 0) {
+                rootLabels[root] = ++nLabels;
+            }
+            labels[i] = rootLabels[root];
+        }
+        return labels;
+    }
+
+    private static int find(final int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+}
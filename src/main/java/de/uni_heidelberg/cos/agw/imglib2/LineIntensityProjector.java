@@ -1,6 +1,7 @@
 package de.uni_heidelberg.cos.agw.imglib2;
 
 import net.imglib2.Localizable;
+import net.imglib2.RandomAccessible;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.RealLocalizable;
 import net.imglib2.RealRandomAccess;
@@ -9,19 +10,33 @@ import net.imglib2.ops.operation.BinaryOperation;
 import net.imglib2.type.numeric.NumericType;
 import net.imglib2.view.Views;
 
+/**
+ * Reduces the intensities sampled along a line through an image to a single
+ * value, e.g. its maximum. The line is sampled in steps of at most one pixel
+ * along each dimension. Before sampling, the line is clipped to the interval
+ * of the image (slab method), so only samples within the image are visited.
+ */
 public class LineIntensityProjector<T extends NumericType<T>> {
 
     private final RealRandomAccess<T> ra;
     private final int nDimensions;
-    private final double[] m_start, m_end, m_step;
-    private int nSteps;
+    private final double[] m_start, m_end, m_step, m_min, m_max;
+    private int nSteps, nSamples;
+    private T value = null;
 
-    public LineIntensityProjector(RandomAccessibleInterval<T> img, InterpolatorFactory interpolation) {
+    public LineIntensityProjector(RandomAccessibleInterval<T> img,
+                                  InterpolatorFactory<T, RandomAccessible<T>> interpolation) {
         ra = Views.interpolate(Views.extendZero(img), interpolation).realRandomAccess();
         nDimensions = img.numDimensions();
         m_start = new double[nDimensions];
         m_end = new double[nDimensions];
         m_step = new double[nDimensions];
+        m_min = new double[nDimensions];
+        m_max = new double[nDimensions];
+        for (int d = 0; d < nDimensions; ++d) {
+            m_min[d] = img.min(d);
+            m_max[d] = img.max(d);
+        }
     }
 
     public void set(final double[] start, final double[] end) {
@@ -59,6 +74,10 @@ public class LineIntensityProjector<T extends NumericType<T>> {
                 maxValue = nextValue;
             }
         }
+        if (maxValue == 0) {
+            nSteps = 0;
+            return;
+        }
         for (int i = 0; i < nDimensions; ++i) {
             m_step[i] /= maxValue;
         }
@@ -85,32 +104,73 @@ public class LineIntensityProjector<T extends NumericType<T>> {
         return nSteps;
     }
 
-    // This method returns null if no point of the line is within the volume.
+    /**
+     * Returns the number of samples within the image reduced by the last call
+     * to compute.
+     */
+    public int getNSamples() {
+        return nSamples;
+    }
+
+    /**
+     * Reduces the samples of the line within the image, starting with the
+     * first one: value = op(sample, value).
+     *
+     * @return the result, or null if no point of the line is within the
+     * image. The returned instance is reused by the next call.
+     */
     public T compute(final BinaryOperation<T, T, T> op) {
-        T value = null;
-        int currentStep = 0;
-        ra.setPosition(m_start);
+        return compute(op, null);
+    }
 
-        // Find first point within volume, get its value as initial value.
-        do {
-            try {
-                value = ra.get().copy();
-            } catch (ArrayIndexOutOfBoundsException ex) {
-                ra.move(m_step);
-                currentStep++;
-            }
-        } while (value == null && currentStep < nSteps);
+    /**
+     * Reduces the samples of the line within the image, starting with the
+     * given initial value: value = op(sample, value).
+     *
+     * @param initial initial value, or null to start with the first sample
+     * @return the result, or null if no point of the line is within the
+     * image. The returned instance is reused by the next call.
+     */
+    public T compute(final BinaryOperation<T, T, T> op, final T initial) {
+        nSamples = 0;
 
-        // Handle subsequent points within volume, break when reaching boundary.
-        while (currentStep < nSteps) {
-            try {
-                currentStep++;
-                ra.move(m_step);
-                T next = ra.get();
-                op.compute(next, value, value);
-            } catch (ArrayIndexOutOfBoundsException ex) {
-                break;
+        // Clip the steps 0..nSteps to those within [min, max] along each
+        // dimension.
+        int first = 0;
+        int last = nSteps;
+        for (int d = 0; d < nDimensions && first <= last; ++d) {
+            if (m_step[d] == 0) {
+                if (m_start[d] < m_min[d] || m_start[d] > m_max[d]) {
+                    return null;
+                }
+                continue;
             }
+            final double k0 = (m_min[d] - m_start[d]) / m_step[d];
+            final double k1 = (m_max[d] - m_start[d]) / m_step[d];
+            // Tolerate rounding errors of start + k * step at the boundary.
+            first = Math.max(first, (int) Math.ceil(Math.min(k0, k1) - 1e-9));
+            last = Math.min(last, (int) Math.floor(Math.max(k0, k1) + 1e-9));
+        }
+        if (first > last) {
+            return null;
+        }
+
+        for (int d = 0; d < nDimensions; ++d) {
+            ra.setPosition(m_start[d] + first * m_step[d], d);
+        }
+        if (value == null) {
+            value = ra.get().createVariable();
+        }
+        nSamples = last - first + 1;
+        if (initial != null) {
+            value.set(initial);
+            op.compute(ra.get(), value, value);
+        } else {
+            value.set(ra.get());
+        }
+        for (int k = first + 1; k <= last; ++k) {
+            ra.move(m_step);
+            op.compute(ra.get(), value, value);
         }
         return value;
     }
@@ -0,0 +1,32 @@
+package de.uni_heidelberg.cos.agw.imglib2.realtransform;
+
+/**
+ * Holds the settings of a {@link TrigTransform}. Transforms without
+ * trigonometric functions of their own keep the precision for the parts
+ * that subclasses add.
+ */
+public abstract class AbstractTrigTransform implements TrigTransform {
+
+    protected TrigPrecision precision = TrigPrecision.EXACT;
+    protected boolean isFastFloat = false;
+
+    @Override
+    public void setPrecision(final TrigPrecision precision) {
+        this.precision = precision;
+    }
+
+    @Override
+    public TrigPrecision getPrecision() {
+        return precision;
+    }
+
+    @Override
+    public void setFastFloat(final boolean isFastFloat) {
+        this.isFastFloat = isFastFloat;
+    }
+
+    @Override
+    public boolean isFastFloat() {
+        return isFastFloat;
+    }
+}
@@ -8,14 +8,32 @@ public class AzimuthalEquidistantToCartesianTransform extends AzimuthalEquidista
 
     private final double[] temp0 = new double[3];
     private final double[] temp1 = new double[3];
+    private final float[] tempFloat = new float[3];
     private final SphericalToCartesianTransform sphericalToCartesianTransform = new SphericalToCartesianTransform();
 
     public AzimuthalEquidistantToCartesianTransform(final double innerRadius, final double outerRadius, final double standardRadiusOffset, final double scale) {
         super(innerRadius, outerRadius, standardRadiusOffset, scale);
     }
 
+    @Override
+    public void setFastFloat(final boolean isFastFloat) {
+        super.setFastFloat(isFastFloat);
+        sphericalToCartesianTransform.setFastFloat(isFastFloat);
+    }
+
+    @Override
+    public void setPrecision(final TrigPrecision precision) {
+        super.setPrecision(precision);
+        sphericalToCartesianTransform.setPrecision(precision);
+    }
+
     @Override
     public void apply(final float[] source, final float[] target) {
+        if (isFastFloat()) {
+            super.apply(source, tempFloat);
+            sphericalToCartesianTransform.apply(tempFloat, target);
+            return;
+        }
         for (int d = 0; d < temp0.length; ++d) {
             temp0[d] = source[d];
         }
@@ -6,12 +6,14 @@ import net.imglib2.RealLocalizable;
 import net.imglib2.RealPositionable;
 import net.imglib2.realtransform.RealTransform;
 
-public class AzimuthalEquidistantToSphericalTransform implements RealTransform, Interval {
+public class AzimuthalEquidistantToSphericalTransform extends AbstractTrigTransform implements RealTransform, Interval {
 
     private final double outerRadius, radiusInverval, maxPlanarRadius;
     private final double[] temp = new double[3];
     private final double[] planarCartesian = new double[2];
     private final double[] planarPolar = new double[2];
+    private final float[] planarCartesianFloat = new float[2];
+    private final float[] planarPolarFloat = new float[2];
     private final long[] azimuthalEquidistantDimensions = new long[3];
     private final PolarToCartesianTransform polarToCartesianTransform;
 
@@ -30,6 +32,33 @@ public class AzimuthalEquidistantToSphericalTransform implements RealTransform,
         maxPlanarRadius = planarPolar[0];
     }
 
+    @Override
+    public void setFastFloat(final boolean isFastFloat) {
+        super.setFastFloat(isFastFloat);
+        polarToCartesianTransform.setFastFloat(isFastFloat);
+    }
+
+    double getOuterRadius() {
+        return outerRadius;
+    }
+
+    double getRadiusInterval() {
+        return radiusInverval;
+    }
+
+    double getMaxPlanarRadius() {
+        return maxPlanarRadius;
+    }
+
+    /**
+     * Also sets the precision of the planar polar coordinates.
+     */
+    @Override
+    public void setPrecision(final TrigPrecision precision) {
+        super.setPrecision(precision);
+        polarToCartesianTransform.setPrecision(precision);
+    }
+
     @Override
     public void apply(final double[] source, final double[] target) {
         azimuthalEquidistantToSpherical(source[0], source[1], source[2], target);
@@ -37,6 +66,10 @@ public class AzimuthalEquidistantToSphericalTransform implements RealTransform,
 
     @Override
     public void apply(final float[] source, final float[] target) {
+        if (isFastFloat) {
+            azimuthalEquidistantToSpherical(source[0], source[1], source[2], target);
+            return;
+        }
         azimuthalEquidistantToSpherical(source[0], source[1], source[2], temp);
         for (int d = 0; d < temp.length; ++d) {
             target[d] = (float) temp[d];
@@ -59,6 +92,15 @@ public class AzimuthalEquidistantToSphericalTransform implements RealTransform,
         target[2] = planarPolar[1] + Math.PI;
     }
 
+    private void azimuthalEquidistantToSpherical(final float x, final float y, final float z, final float[] target) {
+        target[0] = (float) (outerRadius - z * radiusInverval / azimuthalEquidistantDimensions[2]);
+        planarCartesianFloat[0] = x - 0.5f * azimuthalEquidistantDimensions[0];
+        planarCartesianFloat[1] = y - 0.5f * azimuthalEquidistantDimensions[1];
+        polarToCartesianTransform.applyInverse(planarPolarFloat, planarCartesianFloat);
+        target[1] = planarPolarFloat[0] * (float) (Math.PI / maxPlanarRadius) + (float) Math.PI;
+        target[2] = planarPolarFloat[1] + (float) Math.PI;
+    }
+
     @Override
     public int numSourceDimensions() {
         return 3;
@@ -6,12 +6,14 @@ import net.imglib2.RealLocalizable;
 import net.imglib2.RealPositionable;
 import net.imglib2.realtransform.RealTransform;
 
-public class CartesianIntervalToCylindricalTransform implements RealTransform, Interval {
+public class CartesianIntervalToCylindricalTransform extends AbstractTrigTransform implements RealTransform, Interval {
 
     private final double outerRadius, radiusInterval, scale;
     private final double TWO_PI = 2d * Math.PI;
     private final double[] temp = new double[3];
     private final long[] cylindricalDimensions = new long[3];
+    // Radius and azimuth per voxel along z and y, for the float path.
+    private final float radiusPerZ, azimuthPerY;
 
     public CartesianIntervalToCylindricalTransform(final double cylinderHeight, final double innerRadius, final double outerRadius, final double stdRadiusOffset, final double scale) {
         this.outerRadius = outerRadius;
@@ -21,6 +23,20 @@ public class CartesianIntervalToCylindricalTransform implements RealTransform, I
         cylindricalDimensions[0] = Math.round(this.scale * cylinderHeight);
         cylindricalDimensions[1] = Math.round(this.scale * stdRadius * TWO_PI);
         cylindricalDimensions[2] = Math.round(this.scale * radiusInterval);
+        radiusPerZ = (float) (radiusInterval / cylindricalDimensions[2]);
+        azimuthPerY = (float) (TWO_PI / cylindricalDimensions[1]);
+    }
+
+    double getOuterRadius() {
+        return outerRadius;
+    }
+
+    double getRadiusInterval() {
+        return radiusInterval;
+    }
+
+    double getScale() {
+        return scale;
     }
 
     @Override
@@ -30,6 +46,15 @@ public class CartesianIntervalToCylindricalTransform implements RealTransform, I
 
     @Override
     public void apply(final float[] source, final float[] target) {
+        if (isFastFloat) {
+            final float x = source[0];
+            final float y = source[1];
+            final float z = source[2];
+            target[0] = (float) outerRadius - z * radiusPerZ;
+            target[1] = y * azimuthPerY;
+            target[2] = (x - 0.5f * cylindricalDimensions[0]) * (float) (1 / scale);
+            return;
+        }
         cartesianIntervalToCylindrical(source[0], source[1], source[2], temp);
         for (int d = 0; d < temp.length; ++d) {
             target[d] = (float) temp[d];
@@ -8,12 +8,25 @@ public class CylindricalToCartesianIntervalTransform extends CartesianIntervalTo
 
     private final double[] temp0 = new double[3];
     private final double[] temp1 = new double[3];
+    private final float[] tempFloat = new float[3];
     private final CylindricalToCartesianTransform cylindricalToCartesianTransform = new CylindricalToCartesianTransform();
 
     public CylindricalToCartesianIntervalTransform(final double cylinderHeight, final double innerRadius, final double outerRadius, final double stdRadiusOffset, final double scale) {
         super(cylinderHeight, innerRadius, outerRadius, stdRadiusOffset, scale);
     }
 
+    @Override
+    public void setFastFloat(final boolean isFastFloat) {
+        super.setFastFloat(isFastFloat);
+        cylindricalToCartesianTransform.setFastFloat(isFastFloat);
+    }
+
+    @Override
+    public void setPrecision(final TrigPrecision precision) {
+        super.setPrecision(precision);
+        cylindricalToCartesianTransform.setPrecision(precision);
+    }
+
     @Override
     public void apply(final double[] source, final double[] target) {
         super.apply(source, temp0);
@@ -22,6 +35,11 @@ public class CylindricalToCartesianIntervalTransform extends CartesianIntervalTo
 
     @Override
     public void apply(final float[] source, final float[] target) {
+        if (isFastFloat()) {
+            super.apply(source, tempFloat);
+            cylindricalToCartesianTransform.apply(tempFloat, target);
+            return;
+        }
         for (int d = 0; d < temp0.length; ++d) {
             temp0[d] = source[d];
         }
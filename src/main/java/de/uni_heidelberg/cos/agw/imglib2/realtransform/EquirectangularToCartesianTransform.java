@@ -8,6 +8,7 @@ public class EquirectangularToCartesianTransform extends EquirectangularToSpheri
 
     private final double[] temp0 = new double[3];
     private final double[] temp1 = new double[3];
+    private final float[] tempFloat = new float[3];
     private final SphericalToCartesianTransform sphericalToCartesianTransform;
 
     public EquirectangularToCartesianTransform(final double innerRadius, final double outerRadius, final double standardRadiusOffset, final double scale) {
@@ -15,6 +16,18 @@ public class EquirectangularToCartesianTransform extends EquirectangularToSpheri
         sphericalToCartesianTransform = new SphericalToCartesianTransform();
     }
 
+    @Override
+    public void setFastFloat(final boolean isFastFloat) {
+        super.setFastFloat(isFastFloat);
+        sphericalToCartesianTransform.setFastFloat(isFastFloat);
+    }
+
+    @Override
+    public void setPrecision(final TrigPrecision precision) {
+        super.setPrecision(precision);
+        sphericalToCartesianTransform.setPrecision(precision);
+    }
+
     @Override
     public void apply(final double[] source, final double[] target) {
         super.apply(source, temp0);
@@ -23,6 +36,11 @@ public class EquirectangularToCartesianTransform extends EquirectangularToSpheri
 
     @Override
     public void apply(final float[] source, final float[] target) {
+        if (isFastFloat()) {
+            super.apply(source, tempFloat);
+            sphericalToCartesianTransform.apply(tempFloat, target);
+            return;
+        }
         for (int d = 0; d < temp0.length; ++d) {
             temp0[d] = source[d];
         }
@@ -6,12 +6,15 @@ import net.imglib2.RealLocalizable;
 import net.imglib2.RealPositionable;
 import net.imglib2.realtransform.RealTransform;
 
-public class EquirectangularToSphericalTransform implements RealTransform, Interval {
+public class EquirectangularToSphericalTransform extends AbstractTrigTransform implements RealTransform, Interval {
 
     private final double outerRadius, radiusInverval;
     private final double TWO_PI = 2d * Math.PI;
     private final long[] equirectangularDimensions = new long[3];
     private final double[] temp = new double[3];
+    // Radius, polar and azimuth per voxel along z, y and x, for the float
+    // path.
+    private final float radiusPerZ, polarPerY, azimuthPerX;
 
     public EquirectangularToSphericalTransform(final double innerRadius, final double outerRadius, final double standardRadiusOffset, final double scale) {
         this.outerRadius = outerRadius;
@@ -20,6 +23,17 @@ public class EquirectangularToSphericalTransform implements RealTransform, Inter
         equirectangularDimensions[0] = Math.round(scale * stdRadius * TWO_PI); // 0-2PI, excl. 2PI
         equirectangularDimensions[1] = Math.round(scale * stdRadius * Math.PI) + 1; // 0-PI, incl. PI
         equirectangularDimensions[2] = Math.round(scale * radiusInverval);
+        radiusPerZ = (float) (radiusInverval / equirectangularDimensions[2]);
+        polarPerY = (float) (Math.PI / (equirectangularDimensions[1] - 1));
+        azimuthPerX = (float) (TWO_PI / equirectangularDimensions[0]);
+    }
+
+    double getOuterRadius() {
+        return outerRadius;
+    }
+
+    double getRadiusInterval() {
+        return radiusInverval;
     }
 
     @Override
@@ -29,6 +43,15 @@ public class EquirectangularToSphericalTransform implements RealTransform, Inter
 
     @Override
     public void apply(final float[] source, final float[] target) {
+        if (isFastFloat) {
+            final float x = source[0];
+            final float y = source[1];
+            final float z = source[2];
+            target[0] = (float) outerRadius - z * radiusPerZ;
+            target[1] = y * polarPerY;
+            target[2] = x * azimuthPerX;
+            return;
+        }
         equirectangularToSpherical(source[0], source[1], source[2], temp);
         for (int d = 0; d < temp.length; ++d) {
             target[d] = (float) temp[d];
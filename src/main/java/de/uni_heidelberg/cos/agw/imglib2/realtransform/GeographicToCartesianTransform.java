@@ -9,6 +9,7 @@ public class GeographicToCartesianTransform extends SphericalToCartesianTransfor
 
     private final double[] temp0 = new double[3];
     private final double[] temp1 = new double[3];
+    private final float[] tempFloat = new float[3];
     private final GeographicToSphericalTransform geographicToSpherical;
     private final InverseRealTransform inverse;
 
@@ -17,6 +18,12 @@ public class GeographicToCartesianTransform extends SphericalToCartesianTransfor
         inverse = new InverseRealTransform(this);
     }
 
+    @Override
+    public void setFastFloat(final boolean isFastFloat) {
+        super.setFastFloat(isFastFloat);
+        geographicToSpherical.setFastFloat(isFastFloat);
+    }
+
     @Override
     public void apply(final double[] source, final double[] target) {
         geographicToSpherical.apply(source, temp0);
@@ -25,6 +32,11 @@ public class GeographicToCartesianTransform extends SphericalToCartesianTransfor
 
     @Override
     public void apply(final float[] source, final float[] target) {
+        if (isFastFloat()) {
+            geographicToSpherical.apply(source, tempFloat);
+            super.apply(tempFloat, target);
+            return;
+        }
         for (int i = 0; i < temp0.length; ++i) {
             temp0[i] = source[i];
         }
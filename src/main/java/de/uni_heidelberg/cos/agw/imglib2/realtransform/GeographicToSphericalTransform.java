@@ -5,7 +5,7 @@ import net.imglib2.RealPositionable;
 import net.imglib2.realtransform.InverseRealTransform;
 import net.imglib2.realtransform.InvertibleRealTransform;
 
-public class GeographicToSphericalTransform implements InvertibleRealTransform {
+public class GeographicToSphericalTransform extends AbstractTrigTransform implements InvertibleRealTransform {
 
     private final double HALF_PI = 0.5d * Math.PI;
     private final double TWO_PI = 2d * Math.PI;
@@ -23,6 +23,10 @@ public class GeographicToSphericalTransform implements InvertibleRealTransform {
 
     @Override
     public void apply(final float[] source, final float[] target) {
+        if (isFastFloat) {
+            geographicToSpherical(source[0], source[1], source[2], target);
+            return;
+        }
         geographicToSpherical(source[0], source[1], source[2], temp);
         for (int i = 0; i < temp.length; ++i) {
             target[i] = (float) temp[i];
@@ -42,6 +46,10 @@ public class GeographicToSphericalTransform implements InvertibleRealTransform {
 
     @Override
     public void applyInverse(final float[] source, final float[] target) {
+        if (isFastFloat) {
+            sphericalToGeographic(target[0], target[1], target[2], source);
+            return;
+        }
         sphericalToGeographic(target[0], target[1], target[2], temp);
         for (int i = 0; i < temp.length; ++i) {
             source[i] = (float) temp[i];
@@ -88,6 +96,40 @@ public class GeographicToSphericalTransform implements InvertibleRealTransform {
         target[2] = Math.PI - azimuth;
     }
 
+    private void geographicToSpherical(final float radius, final float latitude, final float longitude, final float[] target) {
+        target[0] = radius;
+
+        target[1] = (float) HALF_PI - latitude;
+        while (target[1] < 0) {
+            if (target[1] > -(float) Math.PI) {
+                target[1] = -target[1];
+                break;
+            }
+            target[1] += (float) TWO_PI;
+        }
+        while (target[1] > (float) Math.PI) {
+            if (target[1] < (float) TWO_PI) {
+                target[1] = (float) Math.PI - (target[1] - (float) Math.PI);
+                break;
+            }
+            target[1] -= (float) TWO_PI;
+        }
+
+        target[2] = (float) Math.PI - longitude;
+        while (target[2] < 0) {
+            target[2] += (float) TWO_PI;
+        }
+        while (target[2] >= (float) TWO_PI) {
+            target[2] -= (float) TWO_PI;
+        }
+    }
+
+    private void sphericalToGeographic(final float radius, final float polar, final float azimuth, final float[] target) {
+        target[0] = radius;
+        target[1] = (float) HALF_PI - polar;
+        target[2] = (float) Math.PI - azimuth;
+    }
+
     @Override
     public int numSourceDimensions() {
         return 3;
@@ -5,7 +5,7 @@ import net.imglib2.RealPositionable;
 import net.imglib2.realtransform.InverseRealTransform;
 import net.imglib2.realtransform.InvertibleRealTransform;
 
-public class PolarToCartesianTransform implements InvertibleRealTransform {
+public class PolarToCartesianTransform extends AbstractTrigTransform implements InvertibleRealTransform {
 
     private final double TWO_PI = 2 * Math.PI;
     private final double[] temp = new double[2];
@@ -22,6 +22,10 @@ public class PolarToCartesianTransform implements InvertibleRealTransform {
 
     @Override
     public void apply(final float[] source, final float[] target) {
+        if (isFastFloat) {
+            polarToCartesian(source[0], source[1], target);
+            return;
+        }
         polarToCartesian(source[0], source[1], temp);
         for (int d = 0; d < temp.length; ++d) {
             target[d] = (float) temp[d];
@@ -45,6 +49,10 @@ public class PolarToCartesianTransform implements InvertibleRealTransform {
 
     @Override
     public void applyInverse(final float[] source, final float[] target) {
+        if (isFastFloat) {
+            cartesianToPolar(target[0], target[1], source);
+            return;
+        }
         cartesianToPolar(target[0], target[1], temp);
         for (int d = 0; d < temp.length; ++d) {
             source[d] = (float) temp[d];
@@ -62,8 +70,8 @@ public class PolarToCartesianTransform implements InvertibleRealTransform {
     }
 
     private void polarToCartesian(final double radius, final double azimuth, final double[] target) {
-        target[0] = radius * Math.cos(azimuth);
-        target[1] = radius * Math.sin(azimuth);
+        target[0] = radius * precision.cos(azimuth);
+        target[1] = radius * precision.sin(azimuth);
     }
 
     private void cartesianToPolar(final double x, final double y, final double[] target) {
@@ -71,9 +79,9 @@ public class PolarToCartesianTransform implements InvertibleRealTransform {
         if (x == 0 && y == 0) {
             target[1] = 0;
         } else if (x >= 0) {
-            target[1] = Math.asin(y / target[0]);
+            target[1] = precision.asin(y / target[0]);
         } else { // (x < 0)
-            target[1] = -Math.asin(y / target[0]) + Math.PI;
+            target[1] = -precision.asin(y / target[0]) + Math.PI;
         }
 
         if (target[1] < 0) {
@@ -81,6 +89,25 @@ public class PolarToCartesianTransform implements InvertibleRealTransform {
         }
     }
 
+    private void polarToCartesian(final float radius, final float azimuth, final float[] target) {
+        target[0] = radius * precision.cos(azimuth);
+        target[1] = radius * precision.sin(azimuth);
+    }
+
+    // Same angles as the double version, but from atan2, because asin of
+    // y / radius near +-1 magnifies its rounding error in float.
+    private void cartesianToPolar(final float x, final float y, final float[] target) {
+        target[0] = (float) Math.sqrt(x * x + y * y);
+        if (x == 0 && y == 0) {
+            target[1] = 0;
+            return;
+        }
+        target[1] = precision.atan2(y, x);
+        if (target[1] < 0) {
+            target[1] += (float) TWO_PI;
+        }
+    }
+
     @Override
     public int numSourceDimensions() {
         return 2;
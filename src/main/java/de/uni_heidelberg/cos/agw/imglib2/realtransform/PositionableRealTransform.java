@@ -24,6 +24,13 @@ public class PositionableRealTransform implements RealPositionable, RealTransfor
         tempTransform = new double[numTargetDimensions];
     }
 
+    /**
+     * Returns the transform that is rotated and translated.
+     */
+    public RealTransform getTransform() {
+        return transform;
+    }
+
     @Override
     public void apply(final double[] source, final double[] target) {
         transform.apply(source, target);
@@ -149,7 +156,7 @@ public class PositionableRealTransform implements RealPositionable, RealTransfor
 
     @Override
     public void setPosition(final double[] position) {
-        System.arraycopy(translation, 0, position, 0, numDimensions());
+        System.arraycopy(position, 0, translation, 0, numDimensions());
     }
 
     @Override
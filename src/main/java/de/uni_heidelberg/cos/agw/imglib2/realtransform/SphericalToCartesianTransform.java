@@ -5,7 +5,7 @@ import net.imglib2.RealPositionable;
 import net.imglib2.realtransform.InverseRealTransform;
 import net.imglib2.realtransform.InvertibleRealTransform;
 
-public class SphericalToCartesianTransform implements InvertibleRealTransform {
+public class SphericalToCartesianTransform extends AbstractTrigTransform implements InvertibleRealTransform {
 
     private final double[] temp = new double[3];
     private final InverseRealTransform inverse;
@@ -16,6 +16,10 @@ public class SphericalToCartesianTransform implements InvertibleRealTransform {
 
     @Override
     public void apply(final float[] source, final float[] target) {
+        if (isFastFloat) {
+            sphericalToCartesian(source[0], source[1], source[2], target);
+            return;
+        }
         sphericalToCartesian(source[0], source[1], source[2], temp);
         for (int i = 0; i < temp.length; ++i) {
             target[i] = (float) temp[i];
@@ -35,6 +39,10 @@ public class SphericalToCartesianTransform implements InvertibleRealTransform {
 
     @Override
     public void applyInverse(final float[] source, final float[] target) {
+        if (isFastFloat) {
+            cartesianToSpherical(target[0], target[1], target[2], source);
+            return;
+        }
         cartesianToSpherical(target[0], target[1], target[2], temp);
         for (int i = 0; i < temp.length; ++i) {
             source[i] = (float) temp[i];
@@ -53,10 +61,10 @@ public class SphericalToCartesianTransform implements InvertibleRealTransform {
     }
 
     private void sphericalToCartesian(final double radius, final double polar, final double azimuth, final double[] target) {
-        final double radiusSinPolar = radius * Math.sin(polar);
-        target[0] = radiusSinPolar * Math.cos(azimuth);
-        target[1] = radiusSinPolar * Math.sin(azimuth);
-        target[2] = radius * Math.cos(polar);
+        final double radiusSinPolar = radius * precision.sin(polar);
+        target[0] = radiusSinPolar * precision.cos(azimuth);
+        target[1] = radiusSinPolar * precision.sin(azimuth);
+        target[2] = radius * precision.cos(polar);
     }
 
     // TODO: Resulting spherical coordinates should be unique and all positive.
@@ -67,8 +75,27 @@ public class SphericalToCartesianTransform implements InvertibleRealTransform {
             target[2] = 0; // This is needed to avoid division by 0 below.
             return;
         }
-        target[1] = Math.atan2(y, x);
-        target[2] = Math.acos(z / target[0]);
+        target[1] = precision.atan2(y, x);
+        target[2] = precision.acos(z / target[0]);
+    }
+
+    private void sphericalToCartesian(final float radius, final float polar, final float azimuth, final float[] target) {
+        final float radiusSinPolar = radius * precision.sin(polar);
+        target[0] = radiusSinPolar * precision.cos(azimuth);
+        target[1] = radiusSinPolar * precision.sin(azimuth);
+        target[2] = radius * precision.cos(polar);
+    }
+
+    private void cartesianToSpherical(final float x, final float y, final float z, final float[] target) {
+        target[0] = (float) Math.sqrt(x * x + y * y + z * z);
+        if (target[0] == 0) {
+            target[1] = 0;
+            target[2] = 0;
+            return;
+        }
+        target[1] = precision.atan2(y, x);
+        // Rounding may push the ratio slightly beyond 1.
+        target[2] = precision.acos(Math.max(-1, Math.min(1, z / target[0])));
     }
 
     @Override
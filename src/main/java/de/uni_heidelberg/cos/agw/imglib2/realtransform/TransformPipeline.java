@@ -0,0 +1,541 @@
+package de.uni_heidelberg.cos.agw.imglib2.realtransform;
+
+import net.imglib2.RealLocalizable;
+import net.imglib2.RealPositionable;
+import net.imglib2.realtransform.RealTransform;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Chain of transforms applied one after the other, which {@link #fuse()}s
+ * into a single transform.
+ * <p>
+ * The map transforms of this package and {@link PositionableRealTransform}
+ * are split into their steps. A map projection followed by its transform to
+ * Cartesian coordinates and any rotations and translations is then computed
+ * in one method, without intermediate arrays, and with terms such as
+ * radius * sin(polar) computed only once. These chains are recognized:
+ * <ul>
+ * <li>equirectangular, azimuthal equidistant or geographic to spherical to
+ * Cartesian</li>
+ * <li>Cartesian interval to cylindrical to Cartesian</li>
+ * </ul>
+ * For azimuthal equidistant maps, the angle of the planar position is never
+ * computed, as only its sine and cosine are needed. Consecutive rotations and
+ * translations become one affine step, and other transforms are applied as
+ * they are.
+ * <p>
+ * The fused transform keeps the parameters the steps have when it is
+ * created, including positions, rotations and the settings of
+ * {@link TrigTransform}. A fused map projection computes its float[] methods
+ * in single precision if both of its steps are set to fast float, and in
+ * double precision rounded to float otherwise.
+ */
+public class TransformPipeline {
+
+    private enum Kind {
+        EQUIRECTANGULAR, AZIMUTHAL_EQUIDISTANT, GEOGRAPHIC, CYLINDRICAL_INTERVAL, SPHERICAL, CYLINDRICAL, AFFINE, OTHER
+    }
+
+    // A transform, or a part of a composite one.
+    private static class Step {
+
+        final Kind kind;
+        final RealTransform transform;
+        final TrigPrecision precision;
+        final boolean isFastFloat;
+        // Row-major 3 x 4 matrix of an affine step.
+        final double[] affine;
+
+        Step(final Kind kind, final RealTransform transform, final TrigTransform settings, final double[] affine) {
+            this.kind = kind;
+            this.transform = transform;
+            precision = settings == null ? null : settings.getPrecision();
+            isFastFloat = settings != null && settings.isFastFloat();
+            this.affine = affine;
+        }
+
+        // Kind of the transform to Cartesian coordinates that completes a
+        // map projection, or null.
+        Kind getCartesianKind() {
+            switch (kind) {
+                case EQUIRECTANGULAR:
+                case AZIMUTHAL_EQUIDISTANT:
+                case GEOGRAPHIC:
+                    return Kind.SPHERICAL;
+                case CYLINDRICAL_INTERVAL:
+                    return Kind.CYLINDRICAL;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    private final List<RealTransform> transforms = new ArrayList<RealTransform>();
+
+    /**
+     * Appends a transform, which is applied to the result of the previous
+     * ones.
+     *
+     * @return this pipeline
+     */
+    public TransformPipeline then(final RealTransform transform) {
+        transforms.add(transform);
+        return this;
+    }
+
+    /**
+     * Returns one transform that applies the transforms of this pipeline in
+     * order.
+     */
+    public RealTransform fuse() {
+        if (transforms.isEmpty()) {
+            throw new IllegalStateException("The pipeline is empty.");
+        }
+        final List<Step> steps = new ArrayList<Step>();
+        for (final RealTransform transform : transforms) {
+            addSteps(transform, steps);
+        }
+
+        final List<RealTransform> fused = new ArrayList<RealTransform>();
+        int i = 0;
+        while (i < steps.size()) {
+            final Step step = steps.get(i);
+            final Kind cartesianKind = step.getCartesianKind();
+            if (cartesianKind != null && i + 1 < steps.size() && steps.get(i + 1).kind == cartesianKind) {
+                final Step cartesian = steps.get(i + 1);
+                i += 2;
+                double[] affine = createIdentity();
+                while (i < steps.size() && steps.get(i).kind == Kind.AFFINE) {
+                    affine = concatenate(steps.get(i).affine, affine);
+                    ++i;
+                }
+                fused.add(new FusedMapTransform(step, cartesian.precision,
+                        step.isFastFloat && cartesian.isFastFloat, affine));
+            } else if (step.kind == Kind.AFFINE) {
+                double[] affine = step.affine;
+                ++i;
+                while (i < steps.size() && steps.get(i).kind == Kind.AFFINE) {
+                    affine = concatenate(steps.get(i).affine, affine);
+                    ++i;
+                }
+                fused.add(new Affine(affine));
+            } else {
+                fused.add(step.transform);
+                ++i;
+            }
+        }
+        if (fused.size() == 1) {
+            return fused.get(0);
+        }
+        return new Chain(fused.toArray(new RealTransform[fused.size()]));
+    }
+
+    // Splits a transform into steps. Subclasses are tested before their
+    // superclasses.
+    private static void addSteps(final RealTransform transform, final List<Step> steps) {
+        if (transform instanceof PositionableRealTransform) {
+            final PositionableRealTransform positionable = (PositionableRealTransform) transform;
+            addSteps(positionable.getTransform(), steps);
+            steps.add(new Step(Kind.AFFINE, null, null, getAffine(positionable)));
+            return;
+        }
+        final TrigTransform settings = transform instanceof TrigTransform ? (TrigTransform) transform : null;
+        if (transform instanceof EquirectangularToCartesianTransform) {
+            steps.add(new Step(Kind.EQUIRECTANGULAR, transform, settings, null));
+            steps.add(new Step(Kind.SPHERICAL, null, settings, null));
+        } else if (transform instanceof EquirectangularToSphericalTransform) {
+            steps.add(new Step(Kind.EQUIRECTANGULAR, transform, settings, null));
+        } else if (transform instanceof AzimuthalEquidistantToCartesianTransform) {
+            steps.add(new Step(Kind.AZIMUTHAL_EQUIDISTANT, transform, settings, null));
+            steps.add(new Step(Kind.SPHERICAL, null, settings, null));
+        } else if (transform instanceof AzimuthalEquidistantToSphericalTransform) {
+            steps.add(new Step(Kind.AZIMUTHAL_EQUIDISTANT, transform, settings, null));
+        } else if (transform instanceof CylindricalToCartesianIntervalTransform) {
+            steps.add(new Step(Kind.CYLINDRICAL_INTERVAL, transform, settings, null));
+            steps.add(new Step(Kind.CYLINDRICAL, null, settings, null));
+        } else if (transform instanceof CartesianIntervalToCylindricalTransform) {
+            steps.add(new Step(Kind.CYLINDRICAL_INTERVAL, transform, settings, null));
+        } else if (transform instanceof GeographicToCartesianTransform) {
+            steps.add(new Step(Kind.GEOGRAPHIC, transform, settings, null));
+            steps.add(new Step(Kind.SPHERICAL, null, settings, null));
+        } else if (transform instanceof GeographicToSphericalTransform) {
+            steps.add(new Step(Kind.GEOGRAPHIC, transform, settings, null));
+        } else if (transform instanceof SphericalToCartesianTransform) {
+            steps.add(new Step(Kind.SPHERICAL, transform, settings, null));
+        } else if (transform instanceof CylindricalToCartesianTransform) {
+            steps.add(new Step(Kind.CYLINDRICAL, transform, settings, null));
+        } else {
+            steps.add(new Step(Kind.OTHER, transform, null, null));
+        }
+    }
+
+    // Rotation and translation of a positionable transform, from the images
+    // of the origin and the unit vectors.
+    private static double[] getAffine(final PositionableRealTransform positionable) {
+        final double[] affine = new double[12];
+        final double[] origin = rotate(positionable, new double[3]);
+        for (int c = 0; c < 3; ++c) {
+            final double[] unit = new double[3];
+            unit[c] = 1;
+            final double[] column = rotate(positionable, unit);
+            for (int r = 0; r < 3; ++r) {
+                affine[4 * r + c] = column[r] - origin[r];
+            }
+        }
+        for (int r = 0; r < 3; ++r) {
+            affine[4 * r + 3] = origin[r] + positionable.translation[r];
+        }
+        return affine;
+    }
+
+    // Same order as PositionableRealTransform.
+    private static double[] rotate(final PositionableRealTransform positionable, final double[] position) {
+        final double[] temp = new double[3];
+        positionable.rotZ.apply(position, temp);
+        positionable.rotY.apply(temp, position);
+        positionable.rotX.apply(position, temp);
+        return temp;
+    }
+
+    private static double[] createIdentity() {
+        return new double[]{1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0};
+    }
+
+    // Affine that applies first, then second.
+    private static double[] concatenate(final double[] second, final double[] first) {
+        final double[] result = new double[12];
+        for (int r = 0; r < 3; ++r) {
+            for (int c = 0; c < 4; ++c) {
+                double sum = c == 3 ? second[4 * r + 3] : 0;
+                for (int k = 0; k < 3; ++k) {
+                    sum += second[4 * r + k] * first[4 * k + c];
+                }
+                result[4 * r + c] = sum;
+            }
+        }
+        return result;
+    }
+
+    // Base of the fused 3D transforms, which only need to map one position.
+    private static abstract class Fused3D implements RealTransform {
+
+        private final double[] temp = new double[3];
+
+        // Must not write target before reading all of x, y and z.
+        abstract void apply(double x, double y, double z, double[] target);
+
+        @Override
+        public void apply(final double[] source, final double[] target) {
+            apply(source[0], source[1], source[2], target);
+        }
+
+        @Override
+        public void apply(final float[] source, final float[] target) {
+            apply(source[0], source[1], source[2], temp);
+            for (int d = 0; d < temp.length; ++d) {
+                target[d] = (float) temp[d];
+            }
+        }
+
+        @Override
+        public void apply(final RealLocalizable source, final RealPositionable target) {
+            apply(source.getDoublePosition(0), source.getDoublePosition(1), source.getDoublePosition(2), temp);
+            target.setPosition(temp);
+        }
+
+        @Override
+        public int numSourceDimensions() {
+            return 3;
+        }
+
+        @Override
+        public int numTargetDimensions() {
+            return 3;
+        }
+    }
+
+    private static class Affine extends Fused3D {
+
+        private final double[] affine;
+
+        Affine(final double[] affine) {
+            this.affine = affine;
+        }
+
+        @Override
+        void apply(final double x, final double y, final double z, final double[] target) {
+            final double[] m = affine;
+            target[0] = m[0] * x + m[1] * y + m[2] * z + m[3];
+            target[1] = m[4] * x + m[5] * y + m[6] * z + m[7];
+            target[2] = m[8] * x + m[9] * y + m[10] * z + m[11];
+        }
+
+        @Override
+        public RealTransform copy() {
+            return new Affine(affine);
+        }
+    }
+
+    /**
+     * A map projection, its transform to Cartesian coordinates and an affine
+     * transform in one.
+     */
+    private static class FusedMapTransform extends Fused3D {
+
+        private final Kind kind;
+        private final TrigPrecision precision;
+        private final boolean isFastFloat;
+        private final double[] affine;
+        private final float[] affineFloat = new float[12];
+        // Radius is outerRadius - z * radiusPerZ; the angles are linear in
+        // x and y with anglePerX and anglePerY, except for azimuthal
+        // equidistant maps, where anglePerX is the polar angle per planar
+        // radius. center is the center of the planar or cylinder axis
+        // coordinates, axisPerX the height per x of cylinders.
+        private final double outerRadius, radiusPerZ, anglePerX, anglePerY, centerX, centerY, axisPerX;
+
+        FusedMapTransform(final Step map, final TrigPrecision precision, final boolean isFastFloat,
+                          final double[] affine) {
+            kind = map.kind;
+            this.precision = precision;
+            this.isFastFloat = isFastFloat;
+            this.affine = affine;
+            for (int i = 0; i < affine.length; ++i) {
+                affineFloat[i] = (float) affine[i];
+            }
+            switch (kind) {
+                case EQUIRECTANGULAR: {
+                    final EquirectangularToSphericalTransform t = (EquirectangularToSphericalTransform) map.transform;
+                    outerRadius = t.getOuterRadius();
+                    radiusPerZ = t.getRadiusInterval() / t.dimension(2);
+                    anglePerX = 2 * Math.PI / t.dimension(0);
+                    anglePerY = Math.PI / (t.dimension(1) - 1);
+                    centerX = centerY = axisPerX = 0;
+                    break;
+                }
+                case AZIMUTHAL_EQUIDISTANT: {
+                    final AzimuthalEquidistantToSphericalTransform t = (AzimuthalEquidistantToSphericalTransform) map.transform;
+                    outerRadius = t.getOuterRadius();
+                    radiusPerZ = t.getRadiusInterval() / t.dimension(2);
+                    anglePerX = Math.PI / t.getMaxPlanarRadius();
+                    anglePerY = axisPerX = 0;
+                    centerX = 0.5 * t.dimension(0);
+                    centerY = 0.5 * t.dimension(1);
+                    break;
+                }
+                case CYLINDRICAL_INTERVAL: {
+                    final CartesianIntervalToCylindricalTransform t = (CartesianIntervalToCylindricalTransform) map.transform;
+                    outerRadius = t.getOuterRadius();
+                    radiusPerZ = t.getRadiusInterval() / t.dimension(2);
+                    anglePerY = 2 * Math.PI / t.dimension(1);
+                    centerX = 0.5 * t.dimension(0);
+                    axisPerX = 1 / t.getScale();
+                    anglePerX = centerY = 0;
+                    break;
+                }
+                default:
+                    outerRadius = radiusPerZ = anglePerX = anglePerY = centerX = centerY = axisPerX = 0;
+                    break;
+            }
+        }
+
+        private FusedMapTransform(final FusedMapTransform other) {
+            kind = other.kind;
+            precision = other.precision;
+            isFastFloat = other.isFastFloat;
+            affine = other.affine;
+            System.arraycopy(other.affineFloat, 0, affineFloat, 0, affineFloat.length);
+            outerRadius = other.outerRadius;
+            radiusPerZ = other.radiusPerZ;
+            anglePerX = other.anglePerX;
+            anglePerY = other.anglePerY;
+            centerX = other.centerX;
+            centerY = other.centerY;
+            axisPerX = other.axisPerX;
+        }
+
+        @Override
+        void apply(final double x, final double y, final double z, final double[] target) {
+            final double cx, cy, cz;
+            switch (kind) {
+                case EQUIRECTANGULAR: {
+                    final double radius = outerRadius - z * radiusPerZ;
+                    final double polar = y * anglePerY;
+                    final double azimuth = x * anglePerX;
+                    final double radiusSinPolar = radius * precision.sin(polar);
+                    cx = radiusSinPolar * precision.cos(azimuth);
+                    cy = radiusSinPolar * precision.sin(azimuth);
+                    cz = radius * precision.cos(polar);
+                    break;
+                }
+                case AZIMUTHAL_EQUIDISTANT: {
+                    // Polar is PI + angle, azimuth PI + the planar angle,
+                    // whose cosine and sine are px / planarRadius and
+                    // py / planarRadius; the signs from PI cancel.
+                    final double radius = outerRadius - z * radiusPerZ;
+                    final double px = x - centerX;
+                    final double py = y - centerY;
+                    final double planarRadius = Math.sqrt(px * px + py * py);
+                    final double angle = planarRadius * anglePerX;
+                    final double scale = planarRadius == 0 ? 0 : radius * precision.sin(angle) / planarRadius;
+                    cx = scale * px;
+                    cy = scale * py;
+                    cz = -radius * precision.cos(angle);
+                    break;
+                }
+                case GEOGRAPHIC: {
+                    // Radius, latitude and longitude; polar is PI / 2 -
+                    // latitude reflected into [0, PI], azimuth PI - longitude.
+                    final double radiusSinPolar = x * Math.abs(precision.cos(y));
+                    cx = -radiusSinPolar * precision.cos(z);
+                    cy = radiusSinPolar * precision.sin(z);
+                    cz = x * precision.sin(y);
+                    break;
+                }
+                default: {
+                    final double radius = outerRadius - z * radiusPerZ;
+                    final double azimuth = y * anglePerY;
+                    cx = radius * precision.cos(azimuth);
+                    cy = radius * precision.sin(azimuth);
+                    cz = (x - centerX) * axisPerX;
+                    break;
+                }
+            }
+            final double[] m = affine;
+            target[0] = m[0] * cx + m[1] * cy + m[2] * cz + m[3];
+            target[1] = m[4] * cx + m[5] * cy + m[6] * cz + m[7];
+            target[2] = m[8] * cx + m[9] * cy + m[10] * cz + m[11];
+        }
+
+        @Override
+        public void apply(final float[] source, final float[] target) {
+            if (!isFastFloat) {
+                super.apply(source, target);
+                return;
+            }
+            // Same as the double version, in float arithmetic.
+            final float x = source[0];
+            final float y = source[1];
+            final float z = source[2];
+            final float cx, cy, cz;
+            switch (kind) {
+                case EQUIRECTANGULAR: {
+                    final float radius = (float) outerRadius - z * (float) radiusPerZ;
+                    final float polar = y * (float) anglePerY;
+                    final float azimuth = x * (float) anglePerX;
+                    final float radiusSinPolar = radius * precision.sin(polar);
+                    cx = radiusSinPolar * precision.cos(azimuth);
+                    cy = radiusSinPolar * precision.sin(azimuth);
+                    cz = radius * precision.cos(polar);
+                    break;
+                }
+                case AZIMUTHAL_EQUIDISTANT: {
+                    final float radius = (float) outerRadius - z * (float) radiusPerZ;
+                    final float px = x - (float) centerX;
+                    final float py = y - (float) centerY;
+                    final float planarRadius = (float) Math.sqrt(px * px + py * py);
+                    final float angle = planarRadius * (float) anglePerX;
+                    final float scale = planarRadius == 0 ? 0 : radius * precision.sin(angle) / planarRadius;
+                    cx = scale * px;
+                    cy = scale * py;
+                    cz = -radius * precision.cos(angle);
+                    break;
+                }
+                case GEOGRAPHIC: {
+                    final float radiusSinPolar = x * Math.abs(precision.cos(y));
+                    cx = -radiusSinPolar * precision.cos(z);
+                    cy = radiusSinPolar * precision.sin(z);
+                    cz = x * precision.sin(y);
+                    break;
+                }
+                default: {
+                    final float radius = (float) outerRadius - z * (float) radiusPerZ;
+                    final float azimuth = y * (float) anglePerY;
+                    cx = radius * precision.cos(azimuth);
+                    cy = radius * precision.sin(azimuth);
+                    cz = (x - (float) centerX) * (float) axisPerX;
+                    break;
+                }
+            }
+            final float[] m = affineFloat;
+            target[0] = m[0] * cx + m[1] * cy + m[2] * cz + m[3];
+            target[1] = m[4] * cx + m[5] * cy + m[6] * cz + m[7];
+            target[2] = m[8] * cx + m[9] * cy + m[10] * cz + m[11];
+        }
+
+        @Override
+        public RealTransform copy() {
+            return new FusedMapTransform(this);
+        }
+    }
+
+    // Transforms that were not fused, applied in order with preallocated
+    // intermediate arrays.
+    private static class Chain implements RealTransform {
+
+        private final RealTransform[] transforms;
+        private final double[][] temps;
+        private final float[][] tempFloats;
+        private final double[] tempSource, tempTarget;
+
+        Chain(final RealTransform[] transforms) {
+            this.transforms = transforms;
+            temps = new double[transforms.length - 1][];
+            tempFloats = new float[transforms.length - 1][];
+            for (int i = 0; i < temps.length; ++i) {
+                temps[i] = new double[transforms[i].numTargetDimensions()];
+                tempFloats[i] = new float[transforms[i].numTargetDimensions()];
+            }
+            tempSource = new double[numSourceDimensions()];
+            tempTarget = new double[numTargetDimensions()];
+        }
+
+        @Override
+        public void apply(final double[] source, final double[] target) {
+            double[] current = source;
+            for (int i = 0; i < temps.length; ++i) {
+                transforms[i].apply(current, temps[i]);
+                current = temps[i];
+            }
+            transforms[temps.length].apply(current, target);
+        }
+
+        @Override
+        public void apply(final float[] source, final float[] target) {
+            float[] current = source;
+            for (int i = 0; i < tempFloats.length; ++i) {
+                transforms[i].apply(current, tempFloats[i]);
+                current = tempFloats[i];
+            }
+            transforms[tempFloats.length].apply(current, target);
+        }
+
+        @Override
+        public void apply(final RealLocalizable source, final RealPositionable target) {
+            source.localize(tempSource);
+            apply(tempSource, tempTarget);
+            target.setPosition(tempTarget);
+        }
+
+        @Override
+        public int numSourceDimensions() {
+            return transforms[0].numSourceDimensions();
+        }
+
+        @Override
+        public int numTargetDimensions() {
+            return transforms[transforms.length - 1].numTargetDimensions();
+        }
+
+        @Override
+        public RealTransform copy() {
+            final RealTransform[] copies = new RealTransform[transforms.length];
+            for (int i = 0; i < copies.length; ++i) {
+                copies[i] = transforms[i].copy();
+            }
+            return new Chain(copies);
+        }
+    }
+}
@@ -0,0 +1,393 @@
+package de.uni_heidelberg.cos.agw.imglib2.realtransform;
+
+/**
+ * Accuracy of the trigonometric functions of the transforms, see e.g.
+ * {@link SphericalToCartesianTransform#setPrecision(TrigPrecision)}.
+ * <p>
+ * Besides {@link #EXACT}, which uses {@link Math}, the functions are
+ * computed by range reduction and polynomials, interpolated at Chebyshev
+ * nodes on the reduced ranges: sin and cos on [-PI / 4, PI / 4], atan on
+ * [0, tan(PI / 8)] and asin on [0, 0.5], with acos and asin beyond 0.5 from
+ * half angles. The maximum absolute errors over the full domains are checked
+ * by TrigPrecisionTest.
+ * <p>
+ * The gain is in atan2, asin and acos, which make inverse transforms several
+ * times faster; on HotSpot, Math.sin and Math.cos are intrinsics and at least
+ * as fast as the approximations.
+ * <p>
+ * The float methods, used by the fast float paths of the transforms, stay in
+ * float arithmetic down to the range reduction, with parts of PI / 2 exact in
+ * float and polynomials from the Cephes library. Their errors are a few units
+ * in the last place of a float: 2e-7 for sin and cos with |x| up to 8192,
+ * beyond which they fall back to {@link Math}, and 4e-7 radians for atan2,
+ * asin and acos. That is the limit of float arithmetic, which the double
+ * error of {@link #LOW} is already below, so {@link #HIGH} and {@link #LOW}
+ * share them; {@link #EXACT} rounds {@link Math} to float.
+ */
+public enum TrigPrecision {
+
+    /**
+     * {@link Math}, within 1 ulp.
+     */
+    EXACT(null, null, null, null) {
+        @Override
+        public double sin(final double x) {
+            return Math.sin(x);
+        }
+
+        @Override
+        public double cos(final double x) {
+            return Math.cos(x);
+        }
+
+        @Override
+        public double atan2(final double y, final double x) {
+            return Math.atan2(y, x);
+        }
+
+        @Override
+        public double asin(final double x) {
+            return Math.asin(x);
+        }
+
+        @Override
+        public double acos(final double x) {
+            return Math.acos(x);
+        }
+
+        @Override
+        public float sin(final float x) {
+            return (float) Math.sin(x);
+        }
+
+        @Override
+        public float cos(final float x) {
+            return (float) Math.cos(x);
+        }
+
+        @Override
+        public float atan2(final float y, final float x) {
+            return (float) Math.atan2(y, x);
+        }
+
+        @Override
+        public float asin(final float x) {
+            return (float) Math.asin(x);
+        }
+
+        @Override
+        public float acos(final float x) {
+            return (float) Math.acos(x);
+        }
+    },
+
+    /**
+     * Maximum absolute error 1e-15, a few ulps.
+     */
+    HIGH(new double[]{-0.16666666666666669, 0.008333333333336738, -1.984126984440962E-4, 2.7557319602169218E-6,
+            -2.505179357537253E-8, 1.5962263610581456E-10},
+            new double[]{0.04166666666666667, -0.0013888888888900592, 2.4801587314848886E-5, -2.755732443476161E-7,
+                    2.087749661907999E-9, -1.147312559316797E-11},
+            new double[]{-0.333333333333332, 0.19999999999875398, -0.14285714262954546, 0.11111109461690166,
+                    -0.09090847511701015, 0.07690971073195421, -0.06648774908242638, 0.05731402636687826,
+                    -0.044676321785638996, 0.022541801966871926},
+            new double[]{0.16666666666666635, 0.07500000000022473, 0.04464285710422944, 0.030381947177370233,
+                    0.02237205714019789, 0.01735503347784591, 0.013932714908150956, 0.011850261129438879,
+                    0.007932310303052264, 0.01563223203023275, -0.010048548380533855, 0.02764892578125}),
+
+    /**
+     * Maximum absolute error 1e-7, 1e-4 voxels at a radius of 1000 voxels.
+     */
+    LOW(new double[]{-0.16666664662314373, 0.008332748270629516, -1.9587890880387116E-4},
+            new double[]{0.04166666465950221, -0.0013888303035895413, 2.454794208514979E-5},
+            new double[]{-0.33333286563942743, 0.19991237743030965, -0.1402414284187703, 0.08520492035927889},
+            new double[]{0.16666672414795294, 0.07498855072601472, 0.045001380069810186, 0.02655454220667934,
+                    0.03808502356023383});
+
+    private static final double HALF_PI = 0.5 * Math.PI;
+    private static final double QUARTER_PI = 0.25 * Math.PI;
+    private static final double TWO_OVER_PI = 2 / Math.PI;
+    private static final double TAN_PI_8 = Math.tan(0.125 * Math.PI);
+    // PI / 2 split into parts of 33 bits, so that multiples of the first two
+    // up to maxReducible are exact, from fdlibm.
+    private static final double HALF_PI_1 = 1.57079632673412561417e+00;
+    private static final double HALF_PI_2 = 6.07710050630396597660e-11;
+    private static final double HALF_PI_3 = 2.02226624871116645580e-21;
+    private static final double maxReducible = 1 << 19;
+    private static final float PI_FLOAT = (float) Math.PI;
+    private static final float HALF_PI_FLOAT = (float) (0.5 * Math.PI);
+    private static final float QUARTER_PI_FLOAT = (float) (0.25 * Math.PI);
+    private static final float TWO_OVER_PI_FLOAT = (float) (2 / Math.PI);
+    private static final float TAN_PI_8_FLOAT = 0.414213562373095f;
+    // PI / 2 split into parts exact in float, for the float range reduction.
+    private static final float HALF_PI_1_FLOAT = 1.5703125f;
+    private static final float HALF_PI_2_FLOAT = 4.837512969970703125e-4f;
+    private static final float HALF_PI_3_FLOAT = 7.54978995489188216e-8f;
+    private static final float maxReducibleFloat = 8192;
+
+    // Coefficients of polynomials in z = x^2 for (sin(x) - x) / x^3,
+    // (cos(x) - 1 + x^2 / 2) / x^4, (atan(x) - x) / x^3 and
+    // (asin(x) - x) / x^3.
+    private final double[] sinCoefficients, cosCoefficients, atanCoefficients, asinCoefficients;
+
+    private TrigPrecision(final double[] sinCoefficients, final double[] cosCoefficients,
+                          final double[] atanCoefficients, final double[] asinCoefficients) {
+        this.sinCoefficients = sinCoefficients;
+        this.cosCoefficients = cosCoefficients;
+        this.atanCoefficients = atanCoefficients;
+        this.asinCoefficients = asinCoefficients;
+    }
+
+    public double sin(final double x) {
+        if (!(Math.abs(x) <= maxReducible)) {
+            return Math.sin(x);
+        }
+        final long quadrant = Math.round(x * TWO_OVER_PI);
+        final double r = reduce(x, quadrant);
+        switch ((int) (quadrant & 3)) {
+            case 0:
+                return sinReduced(r);
+            case 1:
+                return cosReduced(r);
+            case 2:
+                return -sinReduced(r);
+            default:
+                return -cosReduced(r);
+        }
+    }
+
+    public double cos(final double x) {
+        if (!(Math.abs(x) <= maxReducible)) {
+            return Math.cos(x);
+        }
+        final long quadrant = Math.round(x * TWO_OVER_PI);
+        final double r = reduce(x, quadrant);
+        switch ((int) (quadrant & 3)) {
+            case 0:
+                return cosReduced(r);
+            case 1:
+                return -sinReduced(r);
+            case 2:
+                return -cosReduced(r);
+            default:
+                return sinReduced(r);
+        }
+    }
+
+    /**
+     * Returns the angle of (x, y) in [-PI, PI], like {@link Math#atan2}.
+     */
+    public double atan2(final double y, final double x) {
+        final double ax = Math.abs(x);
+        final double ay = Math.abs(y);
+        if (ax == 0 && ay == 0 || Double.isNaN(x) || Double.isNaN(y) || Double.isInfinite(ax)
+                || Double.isInfinite(ay)) {
+            return Math.atan2(y, x);
+        }
+        // Angle in [0, PI / 4] of the ratio of the smaller to the larger.
+        final boolean isSteep = ay > ax;
+        double t = isSteep ? ax / ay : ay / ax;
+        double offset = 0;
+        if (t > TAN_PI_8) {
+            t = (t - 1) / (t + 1);
+            offset = QUARTER_PI;
+        }
+        final double z = t * t;
+        double angle = offset + (t + t * z * evaluate(atanCoefficients, z));
+        if (isSteep) {
+            angle = HALF_PI - angle;
+        }
+        if (x < 0) {
+            angle = Math.PI - angle;
+        }
+        return Math.copySign(angle, y);
+    }
+
+    /**
+     * Returns the arc sine in [-PI / 2, PI / 2], NaN for |x| > 1.
+     */
+    public double asin(final double x) {
+        final double a = Math.abs(x);
+        if (!(a <= 1)) {
+            return Double.NaN;
+        }
+        final double result;
+        if (a > 0.5) {
+            result = HALF_PI - 2 * asinSmall(Math.sqrt(0.5 * (1 - a)));
+        } else {
+            result = asinSmall(a);
+        }
+        return Math.copySign(result, x);
+    }
+
+    /**
+     * Returns the arc cosine in [0, PI], NaN for |x| > 1.
+     */
+    public double acos(final double x) {
+        if (!(Math.abs(x) <= 1)) {
+            return Double.NaN;
+        }
+        if (x > 0.5) {
+            return 2 * asinSmall(Math.sqrt(0.5 * (1 - x)));
+        }
+        if (x < -0.5) {
+            return Math.PI - 2 * asinSmall(Math.sqrt(0.5 * (1 + x)));
+        }
+        return HALF_PI - asin(x);
+    }
+
+    public float sin(final float x) {
+        if (!(Math.abs(x) <= maxReducibleFloat)) {
+            return (float) Math.sin(x);
+        }
+        final int quadrant = Math.round(x * TWO_OVER_PI_FLOAT);
+        final float r = reduce(x, quadrant);
+        switch (quadrant & 3) {
+            case 0:
+                return sinReduced(r);
+            case 1:
+                return cosReduced(r);
+            case 2:
+                return -sinReduced(r);
+            default:
+                return -cosReduced(r);
+        }
+    }
+
+    public float cos(final float x) {
+        if (!(Math.abs(x) <= maxReducibleFloat)) {
+            return (float) Math.cos(x);
+        }
+        final int quadrant = Math.round(x * TWO_OVER_PI_FLOAT);
+        final float r = reduce(x, quadrant);
+        switch (quadrant & 3) {
+            case 0:
+                return cosReduced(r);
+            case 1:
+                return -sinReduced(r);
+            case 2:
+                return -cosReduced(r);
+            default:
+                return sinReduced(r);
+        }
+    }
+
+    /**
+     * Returns the angle of (x, y) in [-PI, PI], like {@link Math#atan2}, 0
+     * for (0, 0).
+     */
+    public float atan2(final float y, final float x) {
+        final float ax = Math.abs(x);
+        final float ay = Math.abs(y);
+        if (ax == 0 && ay == 0) {
+            return x < 0 || 1 / x < 0 ? Math.copySign(PI_FLOAT, y) : Math.copySign(0f, y);
+        }
+        final boolean isSteep = ay > ax;
+        float t = isSteep ? ax / ay : ay / ax;
+        float offset = 0;
+        if (t > TAN_PI_8_FLOAT) {
+            t = (t - 1) / (t + 1);
+            offset = QUARTER_PI_FLOAT;
+        }
+        float angle = offset + atanReduced(t);
+        if (isSteep) {
+            angle = HALF_PI_FLOAT - angle;
+        }
+        if (x < 0) {
+            angle = PI_FLOAT - angle;
+        }
+        return Math.copySign(angle, y);
+    }
+
+    /**
+     * Returns the arc sine in [-PI / 2, PI / 2], NaN for |x| > 1.
+     */
+    public float asin(final float x) {
+        final float a = Math.abs(x);
+        if (!(a <= 1)) {
+            return Float.NaN;
+        }
+        final float result;
+        if (a > 0.5f) {
+            final float z = 0.5f * (1 - a);
+            final float s = (float) Math.sqrt(z);
+            result = HALF_PI_FLOAT - 2 * (s + s * z * asinPolynomial(z));
+        } else {
+            final float z = a * a;
+            result = a + a * z * asinPolynomial(z);
+        }
+        return Math.copySign(result, x);
+    }
+
+    /**
+     * Returns the arc cosine in [0, PI], NaN for |x| > 1.
+     */
+    public float acos(final float x) {
+        if (x > 0.5f) {
+            return 2 * asin((float) Math.sqrt(0.5f * (1 - x)));
+        }
+        if (x < -0.5f) {
+            return PI_FLOAT - 2 * asin((float) Math.sqrt(0.5f * (1 + x)));
+        }
+        return HALF_PI_FLOAT - asin(x);
+    }
+
+    // x - quadrant * PI / 2 in [-PI / 4, PI / 4].
+    private static double reduce(final double x, final long quadrant) {
+        return ((x - quadrant * HALF_PI_1) - quadrant * HALF_PI_2) - quadrant * HALF_PI_3;
+    }
+
+    private double sinReduced(final double r) {
+        final double z = r * r;
+        return r + r * z * evaluate(sinCoefficients, z);
+    }
+
+    private double cosReduced(final double r) {
+        final double z = r * r;
+        return 1 - 0.5 * z + z * z * evaluate(cosCoefficients, z);
+    }
+
+    // asin(x) for 0 <= x <= 0.5.
+    private double asinSmall(final double x) {
+        final double z = x * x;
+        return x + x * z * evaluate(asinCoefficients, z);
+    }
+
+    private static double evaluate(final double[] coefficients, final double z) {
+        double result = coefficients[coefficients.length - 1];
+        for (int i = coefficients.length - 2; i >= 0; --i) {
+            result = result * z + coefficients[i];
+        }
+        return result;
+    }
+
+    // Float versions, see the class comment.
+
+    private static float reduce(final float x, final int quadrant) {
+        return ((x - quadrant * HALF_PI_1_FLOAT) - quadrant * HALF_PI_2_FLOAT) - quadrant * HALF_PI_3_FLOAT;
+    }
+
+    private static float sinReduced(final float r) {
+        final float z = r * r;
+        return r + r * z * ((-1.9515295891e-4f * z + 8.3321608736e-3f) * z - 1.6666654611e-1f);
+    }
+
+    private static float cosReduced(final float r) {
+        final float z = r * r;
+        return 1 - 0.5f * z + z * z * ((2.443315711809948e-5f * z - 1.388731625493765e-3f) * z
+                + 4.166664568298827e-2f);
+    }
+
+    // atan(t) for |t| <= tan(PI / 8).
+    private static float atanReduced(final float t) {
+        final float z = t * t;
+        return t + t * z * (((8.05374449538e-2f * z - 1.38776856032e-1f) * z + 1.99777106478e-1f) * z
+                - 3.33329491539e-1f);
+    }
+
+    // (asin(sqrt(z)) - sqrt(z)) / z^1.5 for z <= 0.25.
+    private static float asinPolynomial(final float z) {
+        return (((4.2163199048e-2f * z + 2.4181311049e-2f) * z + 4.5470025998e-2f) * z + 7.4953002686e-2f) * z
+                + 1.6666752422e-1f;
+    }
+}
@@ -0,0 +1,27 @@
+package de.uni_heidelberg.cos.agw.imglib2.realtransform;
+
+/**
+ * Transform whose trigonometric functions and float[] arithmetic can be
+ * chosen. The map transforms of this package implement it through
+ * {@link AbstractTrigTransform}; composite transforms pass the settings on
+ * to their parts, and {@link TransformPipeline} to the fused transform.
+ */
+public interface TrigTransform {
+
+    /**
+     * Selects the accuracy of the trigonometric functions,
+     * {@link TrigPrecision#EXACT} by default.
+     */
+    void setPrecision(TrigPrecision precision);
+
+    TrigPrecision getPrecision();
+
+    /**
+     * Selects whether the float[] methods compute in single precision, with
+     * the float methods of the {@link TrigPrecision}, instead of in double
+     * precision rounded to float, the default.
+     */
+    void setFastFloat(boolean isFastFloat);
+
+    boolean isFastFloat();
+}
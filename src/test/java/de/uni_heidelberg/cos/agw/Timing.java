@@ -0,0 +1,62 @@
+/**
+ * This file is part of the COS AGW ImageJ plugin bundle.
+ * https://github.com/bhoeckendorf/cos-agw_ij
+ *
+ * Copyright 2012, 2013  B. Hoeckendorf <b.hoeckendorf at web dot de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uni_heidelberg.cos.agw;
+
+import java.util.Arrays;
+
+/**
+ * Timing harness of the benchmarks among the tests. Benchmarks are not run
+ * by JUnit, but by their main methods, with the test runtime classpath, e.g.
+ * from the output of the Gradle test task.
+ * <p>
+ * Each task is run a few times to warm up the JIT, then timed several times,
+ * and the median is reported. The numbers depend on the machine and JVM and
+ * are only meaningful relative to each other.
+ */
+public final class Timing {
+
+    private static final int nWarmups = 5;
+    private static final int nRuns = 11;
+    // Results of the tasks, so that their work cannot be eliminated.
+    public static volatile double sink;
+
+    private Timing() {
+    }
+
+    /**
+     * Prints and returns the median time of task in nanoseconds per item,
+     * for a task that processes nItems items per run.
+     */
+    public static double time(final String name, final Runnable task, final long nItems) {
+        for (int i = 0; i < nWarmups; ++i) {
+            task.run();
+        }
+        final long[] times = new long[nRuns];
+        for (int i = 0; i < nRuns; ++i) {
+            final long start = System.nanoTime();
+            task.run();
+            times[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        final long median = times[nRuns / 2];
+        final double perItem = (double) median / nItems;
+        System.out.println(String.format("%s: %.1f ms, %.1f ns per item", name, median * 1e-6, perItem));
+        return perItem;
+    }
+}
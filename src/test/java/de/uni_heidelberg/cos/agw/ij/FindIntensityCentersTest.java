@@ -0,0 +1,278 @@
+/**
+ * This file is part of the COS AGW ImageJ plugin bundle.
+ * https://github.com/bhoeckendorf/cos-agw_ij
+ *
+ * Copyright 2012, 2013  B. Hoeckendorf <b.hoeckendorf at web dot de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uni_heidelberg.cos.agw.ij;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.Prefs;
+import ij.gui.Overlay;
+import ij.measure.Calibration;
+import ij.measure.ResultsTable;
+import ij.process.ByteProcessor;
+import ij.process.ShortProcessor;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.vecmath.Point3d;
+import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
+
+public class FindIntensityCentersTest {
+
+    protected final double PREC_DOUBLE = 0.000001;
+    private int nThreads;
+
+    @Before
+    public void setUp() {
+        nThreads = Prefs.getThreads();
+    }
+
+    @After
+    public void tearDown() {
+        Prefs.setThreads(nThreads);
+    }
+
+    private void assertSums(final long[] expected, final long[] sums, final int value) {
+        final long[] actual = new long[FindIntensityCenters.nFields];
+        System.arraycopy(sums, FindIntensityCenters.nFields * value, actual, 0, actual.length);
+        Assert.assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void testGetCoordinateSums() {
+        System.out.println("getCoordinateSums(ImageStack, int)");
+        final ImageStack stack = new ImageStack(4, 3);
+        for (int z = 0; z < 5; ++z) {
+            stack.addSlice(new ByteProcessor(4, 3));
+        }
+        // Label 1 in slices 1 and 3, label 7 in slice 5 and label 255 in
+        // slices 2 to 4, so that each thread sees a different part.
+        stack.getProcessor(1).set(0, 0, 1);
+        stack.getProcessor(1).set(2, 1, 1);
+        stack.getProcessor(3).set(1, 2, 1);
+        stack.getProcessor(5).set(3, 2, 7);
+        for (int z = 2; z <= 4; ++z) {
+            stack.getProcessor(z).set(3, 0, 255);
+        }
+        for (final int threads : new int[]{1, 2, 5}) {
+            Prefs.setThreads(threads);
+            final long[] sums = FindIntensityCenters.getCoordinateSums(stack, 8);
+            Assert.assertEquals(FindIntensityCenters.nFields * 256, sums.length);
+            assertSums(new long[]{3, 3, 5, 3}, sums, 1);
+            assertSums(new long[]{3, 2, 5, 1}, sums, 7);
+            assertSums(new long[]{9, 0, 9, 3}, sums, 255);
+            assertSums(new long[]{0, 0, 0, 0}, sums, 2);
+        }
+
+        // Centers in pixels, z 0-based.
+        Prefs.setThreads(2);
+        final ResultsTable table = new FindIntensityCenters().getResultsTable(new ImagePlus("", stack), false);
+        Assert.assertEquals(3, table.getCounter());
+        final double[][] expected = {{1, 1, 1, 5.0 / 3 - 1}, {7, 3, 2, 4}, {255, 3, 0, 2}};
+        for (int row = 0; row < 3; ++row) {
+            Assert.assertEquals(expected[row][0], table.getValue("Value", row), PREC_DOUBLE);
+            Assert.assertEquals(expected[row][1], table.getValue("x", row), PREC_DOUBLE);
+            Assert.assertEquals(expected[row][2], table.getValue("y", row), PREC_DOUBLE);
+            Assert.assertEquals(expected[row][3], table.getValue("z", row), PREC_DOUBLE);
+        }
+    }
+
+    @Test
+    public void testGetCoordinateSumsLarge() {
+        System.out.println("getCoordinateSums(ImageStack, int), sums beyond int");
+        // A label filling 70000 x 1 x 4 voxels, the sum of x is 4 * 70000 *
+        // 69999 / 2, more than 2^31.
+        final int width = 70000;
+        final ImageStack stack = new ImageStack(width, 1);
+        for (int z = 0; z < 4; ++z) {
+            final ShortProcessor ip = new ShortProcessor(width, 1);
+            ip.set(300);
+            stack.addSlice(ip);
+        }
+        Prefs.setThreads(3);
+        final long sumX = 4L * width * (width - 1) / 2;
+        Assert.assertTrue(sumX > Integer.MAX_VALUE);
+        assertSums(new long[]{sumX, 0, 10L * width, 4L * width},
+                FindIntensityCenters.getCoordinateSums(stack, 16), 300);
+
+        final ResultsTable table = new FindIntensityCenters().getResultsTable(new ImagePlus("", stack), false);
+        Assert.assertEquals(1, table.getCounter());
+        Assert.assertEquals((width - 1) / 2.0, table.getValue("x", 0), PREC_DOUBLE);
+        Assert.assertEquals(1.5, table.getValue("z", 0), PREC_DOUBLE);
+    }
+
+    // Rows expected for createTimeLapse: frame, channel, value, x, y, z,
+    // count.
+    private final double[][] timeLapseRows = {
+            {0, 0, 1, 1, 0.5, 0, 2},
+            {0, 0, 4, 2.5, 1.5, 2, 1},
+            {1, 0, 1, 1, 1.25, 1, 4},
+            {1, 0, 2, 0, 0, 2, 1}};
+
+    // Two frames of 6 x 4 x 2 voxels of 0.5 x 0.5 x 2.
+    private ImagePlus createTimeLapse() {
+        final ImageStack stack = new ImageStack(6, 4);
+        for (int i = 0; i < 4; ++i) {
+            stack.addSlice(new ByteProcessor(6, 4));
+        }
+        // Frame 1, slices 1 and 2.
+        stack.getProcessor(1).set(1, 1, 1);
+        stack.getProcessor(1).set(3, 1, 1);
+        stack.getProcessor(2).set(5, 3, 4);
+        // Frame 2, slices 3 and 4. Label 1 is listed before label 2.
+        stack.getProcessor(4).set(0, 0, 2);
+        for (int z = 3; z <= 4; ++z) {
+            stack.getProcessor(z).set(2, 2, 1);
+            stack.getProcessor(z).set(2, 3, 1);
+        }
+        final ImagePlus imp = new ImagePlus("", stack);
+        imp.setDimensions(1, 2, 2);
+        imp.setOpenAsHyperStack(true);
+        final Calibration calibration = imp.getCalibration();
+        calibration.pixelWidth = 0.5;
+        calibration.pixelHeight = 0.5;
+        calibration.pixelDepth = 2;
+        return imp;
+    }
+
+    @Test
+    public void testWriteTimeLapse() throws IOException {
+        System.out.println("writeTimeLapse(ImagePlus, ImagePlus, File, boolean, boolean)");
+        final ImagePlus imp = createTimeLapse();
+        final File file = File.createTempFile("centers-", ".csv");
+        file.deleteOnExit();
+        // Frames measured one after the other and in parallel.
+        for (final int threads : new int[]{1, 2}) {
+            Prefs.setThreads(threads);
+            new FindIntensityCenters().writeTimeLapse(imp, null, file, false, true);
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            try {
+                Assert.assertEquals("Frame,Channel,Value,x,y,z,Count", reader.readLine());
+                for (final double[] row : timeLapseRows) {
+                    final String[] fields = reader.readLine().split(",");
+                    Assert.assertEquals(row.length, fields.length);
+                    for (int i = 0; i < row.length; ++i) {
+                        Assert.assertEquals(row[i], Double.parseDouble(fields[i]), PREC_DOUBLE);
+                    }
+                }
+                Assert.assertNull(reader.readLine());
+            } finally {
+                reader.close();
+            }
+        }
+        file.delete();
+    }
+
+    @Test
+    public void testWriteTimeLapseBinary() throws IOException {
+        System.out.println("writeTimeLapse(ImagePlus, ImagePlus, File, boolean, boolean), binary");
+        final ImagePlus imp = createTimeLapse();
+        final File file = File.createTempFile("centers-", ".bin");
+        file.deleteOnExit();
+        for (final int threads : new int[]{1, 2}) {
+            Prefs.setThreads(threads);
+            new FindIntensityCenters().writeTimeLapse(imp, null, file, true, true);
+            Assert.assertEquals(timeLapseRows.length * (3 * 4 + 4 * 8), file.length());
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                for (final double[] row : timeLapseRows) {
+                    Assert.assertEquals((int) row[0], in.readInt());
+                    Assert.assertEquals((int) row[1], in.readInt());
+                    Assert.assertEquals((int) row[2], in.readInt());
+                    Assert.assertEquals(row[3], in.readDouble(), PREC_DOUBLE);
+                    Assert.assertEquals(row[4], in.readDouble(), PREC_DOUBLE);
+                    Assert.assertEquals(row[5], in.readDouble(), PREC_DOUBLE);
+                    Assert.assertEquals((long) row[6], in.readLong());
+                }
+            } finally {
+                in.close();
+            }
+        }
+        file.delete();
+    }
+
+    // 21 x 21 x 11 voxels of 1 x 1 x 2 with single voxel labels.
+    private ImagePlus createCenters(final int[][] centers) {
+        final ImageStack stack = new ImageStack(21, 21);
+        for (int z = 0; z < 11; ++z) {
+            stack.addSlice(new ByteProcessor(21, 21));
+        }
+        for (final int[] center : centers) {
+            stack.getProcessor(center[2]).set(center[0], center[1], center[3]);
+        }
+        final ImagePlus imp = new ImagePlus("centers", stack);
+        imp.getCalibration().pixelDepth = 2;
+        return imp;
+    }
+
+    private int countVoxels(final ImageStack stack, final int value) {
+        int n = 0;
+        for (int z = 1; z <= stack.getSize(); ++z) {
+            final byte[] pixels = (byte[]) stack.getPixels(z);
+            for (final byte pixel : pixels) {
+                if ((pixel & 0xff) == value) {
+                    ++n;
+                }
+            }
+        }
+        return n;
+    }
+
+    @Test
+    public void testGetPlot() {
+        System.out.println("getPlot(ImagePlus, int)");
+        // With a radius of 4 along x and y and 2 along z, the sphere holds
+        // the voxels with dx^2 + dy^2 + 4 dz^2 <= 16: 49 in the center plane,
+        // 37 in each plane next to it and 1 at each pole. At the first slice
+        // only the upper half is drawn.
+        final ImagePlus plot = new FindIntensityCenters().getPlot(
+                createCenters(new int[][]{{10, 10, 6, 5}, {10, 10, 1, 9}}), 4);
+        Assert.assertEquals(11, plot.getStackSize());
+        Assert.assertEquals(49 + 2 * 37 + 2, countVoxels(plot.getImageStack(), 5));
+        Assert.assertEquals(49 + 37 + 1, countVoxels(plot.getImageStack(), 9));
+        // The poles are 2 slices from the centers.
+        Assert.assertEquals(9, plot.getImageStack().getProcessor(3).get(10, 10));
+        Assert.assertEquals(5, plot.getImageStack().getProcessor(4).get(10, 10));
+        Assert.assertEquals(5, plot.getImageStack().getProcessor(8).get(10, 10));
+        Assert.assertEquals(0, plot.getImageStack().getProcessor(9).get(10, 10));
+    }
+
+    @Test
+    public void testGetOverlay() {
+        System.out.println("getOverlay(Map, int, Calibration, int)");
+        final Map<Integer, Point3d> centers = new HashMap<Integer, Point3d>();
+        centers.put(1, new Point3d(0, 0, 1));
+        centers.put(2, new Point3d(20, 20, 11));
+        centers.put(3, new Point3d(10, 10, 6));
+        final Calibration calibration = new Calibration();
+        calibration.pixelDepth = 2;
+        final Overlay overlay = new FindIntensityCenters().getOverlay(centers, 4, calibration, 11);
+        // Circles of the spheres at the first and last slice are cut off.
+        final int[] nRois = new int[4];
+        for (int i = 0; i < overlay.size(); ++i) {
+            final int position = overlay.get(i).getPosition();
+            Assert.assertTrue(position >= 1 && position <= 11);
+            ++nRois[Integer.parseInt(overlay.get(i).getName())];
+        }
+        Assert.assertArrayEquals(new int[]{0, 3, 3, 5}, nRois);
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * This file is part of the COS AGW ImageJ plugin bundle.
+ * https://github.com/bhoeckendorf/cos-agw_ij
+ *
+ * Copyright 2012, 2013  B. Hoeckendorf <b.hoeckendorf at web dot de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uni_heidelberg.cos.agw.ij;
+
+import de.uni_heidelberg.cos.agw.imglib2.realtransform.AzimuthalEquidistantToCartesianTransform;
+import de.uni_heidelberg.cos.agw.imglib2.realtransform.CylindricalToCartesianIntervalTransform;
+import de.uni_heidelberg.cos.agw.imglib2.realtransform.EquirectangularToCartesianTransform;
+import de.uni_heidelberg.cos.agw.imglib2.realtransform.PositionableRealTransform;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import net.imglib2.realtransform.RealTransform;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class InverseMapTransformTest {
+
+    protected final double PREC_DOUBLE = 0.000001;
+    private final double[] center = {60, 55, 50};
+    private final double[] rotation = {0.3, -0.5, 0.7};
+    private final double innerRadius = 20;
+    private final double outerRadius = 40;
+    private final double stdRadiusOffset = 0.7;
+    private final double scale = 1.3;
+    private final double cylinderHeight = 50;
+
+    @Test
+    public void testToMap() {
+        System.out.println("ShellInverse.toMap(double[], double[])");
+        for (int transformation = 0; transformation < 3; ++transformation) {
+            final InverseMapTransform.ShellInverse inverse = createInverse(transformation);
+            final PositionableRealTransform forward = createForward(transformation);
+            final int[] mapDimensions = inverse.getMapDimensions();
+            final Random random = new Random(1);
+            final double[] cartesian = new double[3];
+            final double[] map = new double[3];
+            for (int i = 0; i < 1000; ++i) {
+                final double[] truth = new double[3];
+                for (int d = 0; d < 3; ++d) {
+                    truth[d] = random.nextDouble() * (mapDimensions[d] - 1);
+                }
+                if (transformation == 0 && (truth[1] < 1 || truth[1] > mapDimensions[1] - 2)) {
+                    // The azimuth is undefined at the poles.
+                    continue;
+                }
+                if (transformation == 1 && Math.hypot(truth[0] - 0.5 * mapDimensions[0], truth[1] - 0.5 * mapDimensions[1]) > 0.45 * mapDimensions[0]) {
+                    // The outer ring of the azimuthal map all maps to one pole.
+                    continue;
+                }
+                forward.apply(truth, cartesian);
+                Assert.assertTrue(inverse.toMap(cartesian, map));
+                Assert.assertArrayEquals(truth, map, PREC_DOUBLE);
+            }
+        }
+    }
+
+    @Test
+    public void testCompute() {
+        System.out.println("compute(ImageStack, ShellInverse, int[], boolean)");
+        final int[] dimensions = {120, 110, 100};
+        for (int transformation = 0; transformation < 3; ++transformation) {
+            final InverseMapTransform.ShellInverse inverse = createInverse(transformation);
+            final int[] mapDimensions = inverse.getMapDimensions();
+            // Labels of 10 x 10 tiles, constant along z.
+            final ImageStack map = new ImageStack(mapDimensions[0], mapDimensions[1]);
+            for (int z = 0; z < mapDimensions[2]; ++z) {
+                final ShortProcessor slice = new ShortProcessor(mapDimensions[0], mapDimensions[1]);
+                for (int y = 0; y < mapDimensions[1]; ++y) {
+                    for (int x = 0; x < mapDimensions[0]; ++x) {
+                        slice.set(x, y, getLabel(x, y));
+                    }
+                }
+                map.addSlice(slice);
+            }
+            final ImagePlus output = InverseMapTransform.compute(map, inverse, dimensions, false);
+            Assert.assertEquals(16, output.getBitDepth());
+
+            final double[] cartesian = new double[3];
+            final double[] position = new double[3];
+            int nInside = 0;
+            for (int z = 0; z < dimensions[2]; ++z) {
+                final ImageProcessor slice = output.getImageStack().getProcessor(z + 1);
+                cartesian[2] = z;
+                for (int y = 0; y < dimensions[1]; ++y) {
+                    cartesian[1] = y;
+                    for (int x = 0; x < dimensions[0]; ++x) {
+                        cartesian[0] = x;
+                        int expected = 0;
+                        if (inverse.toMap(cartesian, position)) {
+                            ++nInside;
+                            expected = getLabel((int) Math.round(position[0]) % mapDimensions[0],
+                                    (int) Math.round(position[1]) % mapDimensions[1]);
+                        }
+                        Assert.assertEquals(expected, slice.get(x, y));
+                    }
+                }
+            }
+            Assert.assertTrue(nInside > 0);
+        }
+    }
+
+    private static int getLabel(final int x, final int y) {
+        return 1 + x / 10 + 100 * (y / 10);
+    }
+
+    private InverseMapTransform.ShellInverse createInverse(final int transformation) {
+        return new InverseMapTransform.ShellInverse(transformation, center, rotation, innerRadius, outerRadius,
+                stdRadiusOffset, scale, cylinderHeight);
+    }
+
+    // As in MapTransform.
+    private PositionableRealTransform createForward(final int transformation) {
+        final RealTransform transform;
+        switch (transformation) {
+            case 1:
+                transform = new AzimuthalEquidistantToCartesianTransform(innerRadius, outerRadius, stdRadiusOffset, scale);
+                break;
+            case 2:
+                transform = new CylindricalToCartesianIntervalTransform(cylinderHeight, innerRadius, outerRadius, stdRadiusOffset, scale);
+                break;
+            default:
+                transform = new EquirectangularToCartesianTransform(innerRadius, outerRadius, stdRadiusOffset, scale);
+                break;
+        }
+        final PositionableRealTransform positionable = new PositionableRealTransform(transform);
+        for (int d = 0; d < 3; ++d) {
+            positionable.setPosition(center[d], d);
+            positionable.rotate(d, rotation[d]);
+        }
+        return positionable;
+    }
+}
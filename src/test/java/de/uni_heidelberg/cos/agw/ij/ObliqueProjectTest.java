@@ -0,0 +1,121 @@
+/**
+ * This file is part of the COS AGW ImageJ plugin bundle.
+ * https://github.com/bhoeckendorf/cos-agw_ij
+ *
+ * Copyright 2012, 2013  B. Hoeckendorf <b.hoeckendorf at web dot de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uni_heidelberg.cos.agw.ij;
+
+import de.uni_heidelberg.cos.agw.ij.util.ObliqueProjector;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ObliqueProjectTest {
+
+    protected final float PREC_FLOAT = 1E-4f;
+    private final int width = 7, height = 5, depth = 6, nChannels = 2, nFrames = 2;
+
+    // Value of each voxel is (x + 2 * y + 3 * z + 5 * c + 7 * t) % 23.
+    private ImagePlus createImage() {
+        final ImageStack stack = new ImageStack(width, height);
+        for (int t = 0; t < nFrames; ++t) {
+            for (int z = 0; z < depth; ++z) {
+                for (int c = 0; c < nChannels; ++c) {
+                    final ByteProcessor ip = new ByteProcessor(width, height);
+                    for (int y = 0; y < height; ++y) {
+                        for (int x = 0; x < width; ++x) {
+                            ip.set(x, y, getValue(x, y, z, c, t));
+                        }
+                    }
+                    stack.addSlice(ip);
+                }
+            }
+        }
+        final ImagePlus imp = new ImagePlus("hyperstack", stack);
+        imp.setDimensions(nChannels, depth, nFrames);
+        return imp;
+    }
+
+    private int getValue(final int x, final int y, final int z, final int c, final int t) {
+        return (x + 2 * y + 3 * z + 5 * c + 7 * t) % 23;
+    }
+
+    @Test
+    public void testRunAngles() {
+        System.out.println("run(ImagePlus, double[][], double, double, boolean, Reduction, int, int)");
+        final ImagePlus imp = createImage();
+        // Angles of 0 project along z, planes 2 to 4.
+        final ImagePlus max = new ObliqueProject().run(imp, null, 0, 0, false, ObliqueProjector.Reduction.MAX, 2, 4);
+        final ImagePlus sum = new ObliqueProject().run(imp, null, 0, 0, false, ObliqueProjector.Reduction.SUM, 2, 4);
+        Assert.assertEquals(8, max.getBitDepth());
+        Assert.assertEquals(32, sum.getBitDepth());
+        for (final ImagePlus output : new ImagePlus[]{max, sum}) {
+            Assert.assertEquals(nChannels, output.getNChannels());
+            Assert.assertEquals(1, output.getNSlices());
+            Assert.assertEquals(nFrames, output.getNFrames());
+            Assert.assertEquals(width, output.getWidth());
+            Assert.assertEquals(height, output.getHeight());
+        }
+        for (int t = 0; t < nFrames; ++t) {
+            for (int c = 0; c < nChannels; ++c) {
+                final int index = max.getStackIndex(c + 1, 1, t + 1);
+                for (int y = 0; y < height; ++y) {
+                    for (int x = 0; x < width; ++x) {
+                        int expectedMax = 0;
+                        int expectedSum = 0;
+                        for (int z = 1; z <= 3; ++z) {
+                            expectedMax = Math.max(expectedMax, getValue(x, y, z, c, t));
+                            expectedSum += getValue(x, y, z, c, t);
+                        }
+                        Assert.assertEquals(expectedMax, max.getImageStack().getProcessor(index).get(x, y));
+                        Assert.assertEquals(expectedSum, sum.getImageStack().getProcessor(index).getf(x, y),
+                                PREC_FLOAT);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRunView() {
+        System.out.println("run(ImagePlus, double[][], double, double, boolean, Reduction, int, int), view");
+        final ImagePlus imp = createImage();
+        // Along x, y and z of the volume are x and y of the output.
+        final double[][] view = {{0, 1, 0}, {0, 0, 1}, {1, 0, 0}};
+        final ImagePlus mean = new ObliqueProject().run(imp, view, 0, 0, false, ObliqueProjector.Reduction.MEAN, 1,
+                0);
+        Assert.assertEquals(height, mean.getWidth());
+        Assert.assertEquals(depth, mean.getHeight());
+        for (int t = 0; t < nFrames; ++t) {
+            for (int c = 0; c < nChannels; ++c) {
+                final int index = mean.getStackIndex(c + 1, 1, t + 1);
+                for (int z = 0; z < depth; ++z) {
+                    for (int y = 0; y < height; ++y) {
+                        float expected = 0;
+                        for (int x = 0; x < width; ++x) {
+                            expected += getValue(x, y, z, c, t);
+                        }
+                        expected /= width;
+                        Assert.assertEquals(expected, mean.getImageStack().getProcessor(index).getf(y, z),
+                                PREC_FLOAT);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * This file is part of the COS AGW ImageJ plugin bundle.
+ * https://github.com/bhoeckendorf/cos-agw_ij
+ *
+ * Copyright 2012, 2013  B. Hoeckendorf <b.hoeckendorf at web dot de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uni_heidelberg.cos.agw.ij;
+
+import de.uni_heidelberg.cos.agw.Timing;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.DoubleType;
+
+/**
+ * Cost of collecting the points of Reorder Points per source voxel, see
+ * {@link Timing}. The mask covers every voxel, so all variants collect the
+ * same points: without a mask, with a mask iterated in lockstep with the
+ * other images, and with a cell image mask, whose voxels are read by
+ * position. Rasterizing the points, which all variants share, is timed once
+ * for comparison.
+ */
+public class ReorderPointsBenchmark {
+
+    private static final long width = 160, height = 160, depth = 48;
+
+    public static void main(final String[] args) {
+        final Img<DoubleType> source = ArrayImgs.doubles(width, height, depth);
+        final RandomAccessibleInterval<DoubleType>[] coordinates = createCoordinates();
+        double i = 0;
+        for (final DoubleType value : source) {
+            value.set(i++);
+        }
+        final Img<UnsignedByteType> arrayMask = ArrayImgs.unsignedBytes(width, height, depth);
+        final Img<UnsignedByteType> cellMask = new CellImgFactory<UnsignedByteType>(32)
+                .create(new long[]{width, height, depth}, new UnsignedByteType());
+        for (final UnsignedByteType value : arrayMask) {
+            value.set(1);
+        }
+        for (final UnsignedByteType value : cellMask) {
+            value.set(1);
+        }
+
+        final ReorderPoints<DoubleType, DoubleType, UnsignedByteType> reorderPoints
+                = new ReorderPoints<DoubleType, DoubleType, UnsignedByteType>();
+        final long nVoxels = width * height * depth;
+        System.out.println(String.format("%d x %d x %d voxels", width, height, depth));
+        Timing.time("  points, unmasked", new Runnable() {
+            @Override
+            public void run() {
+                Timing.sink = reorderPoints.getPoints(null, source, null, coordinates).size();
+            }
+        }, nVoxels);
+        Timing.time("  points, masked, lockstep", createMaskedTask(reorderPoints, arrayMask, source, coordinates),
+                nVoxels);
+        Timing.time("  points, masked, by position", createMaskedTask(reorderPoints, cellMask, source, coordinates),
+                nVoxels);
+        Timing.time("  compute, unmasked, nearest neighbor", new Runnable() {
+            @Override
+            public void run() {
+                Timing.sink = reorderPoints.compute(source, coordinates,
+                        ReorderPoints.Interpolation.NEAREST_NEIGHBOR, 1).randomAccess().get().get();
+            }
+        }, nVoxels);
+    }
+
+    private static Runnable createMaskedTask(
+            final ReorderPoints<DoubleType, DoubleType, UnsignedByteType> reorderPoints,
+            final Img<UnsignedByteType> mask, final Img<DoubleType> source,
+            final RandomAccessibleInterval<DoubleType>[] coordinates) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                Timing.sink = reorderPoints.getPoints(mask, source, source, coordinates).size();
+            }
+        };
+    }
+
+    // A slightly rotated and sheared copy of the voxel grid, dense and nearly
+    // regular like the maps of Map Transform.
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static RandomAccessibleInterval<DoubleType>[] createCoordinates() {
+        final Img<DoubleType> x = ArrayImgs.doubles(width, height, depth);
+        final Img<DoubleType> y = ArrayImgs.doubles(width, height, depth);
+        final Img<DoubleType> z = ArrayImgs.doubles(width, height, depth);
+        final Cursor<DoubleType> xCur = x.localizingCursor();
+        final Cursor<DoubleType> yCur = y.cursor();
+        final Cursor<DoubleType> zCur = z.cursor();
+        final double c = Math.cos(0.1), s = Math.sin(0.1);
+        while (xCur.hasNext()) {
+            xCur.fwd();
+            yCur.fwd();
+            zCur.fwd();
+            final double px = xCur.getDoublePosition(0);
+            final double py = xCur.getDoublePosition(1);
+            final double pz = xCur.getDoublePosition(2);
+            xCur.get().set(1 + c * px - s * py);
+            yCur.get().set(1 + s * px + c * py + 0.1 * pz);
+            zCur.get().set(1 + pz);
+        }
+        return new RandomAccessibleInterval[]{x, y, z};
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * This file is part of the COS AGW ImageJ plugin bundle.
+ * https://github.com/bhoeckendorf/cos-agw_ij
+ *
+ * Copyright 2012, 2013  B. Hoeckendorf <b.hoeckendorf at web dot de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uni_heidelberg.cos.agw.ij;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.DoubleType;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ReorderPointsTest {
+
+    protected final double PREC_DOUBLE = 0.000001;
+    private final long width = 7;
+    private final long height = 5;
+
+    @Test
+    public void testComputeMasked() {
+        System.out.println("compute(IterableInterval, RandomAccessibleInterval, RandomAccessibleInterval[], Interpolation, int)");
+        testComputeMasked(ArrayImgs.unsignedBytes(width, height));
+        // Iterated in a different order than the source, read by position.
+        testComputeMasked(new CellImgFactory<UnsignedByteType>(2).create(new long[]{width, height}, new UnsignedByteType()));
+    }
+
+    @Test
+    public void testCompute() {
+        System.out.println("compute(IterableInterval, RandomAccessibleInterval[], Interpolation, int)");
+        final Img<DoubleType> source = createSource();
+        final RandomAccessibleInterval<DoubleType>[] coordinates = createCoordinates();
+        // Points with coordinates (0, 0) are skipped without a mask.
+        final RandomAccessibleInterval<DoubleType> output = new ReorderPoints<DoubleType, DoubleType, UnsignedByteType>()
+                .compute(source, coordinates, ReorderPoints.Interpolation.NEAREST_NEIGHBOR, 1);
+        assertMirrored(output, source, 0, height - 1, true);
+    }
+
+    @Test
+    public void testComputeGrid() {
+        System.out.println("compute(IterableInterval, RandomAccessibleInterval[], Interpolation, int), grid index");
+        final Img<DoubleType> source = createSource();
+        final ReorderPoints<DoubleType, DoubleType, UnsignedByteType> reorderPoints = new ReorderPoints<DoubleType, DoubleType, UnsignedByteType>();
+        reorderPoints.setSpatialIndex(ReorderPoints.SpatialIndex.GRID, 0);
+        final RandomAccessibleInterval<DoubleType> output = reorderPoints
+                .compute(source, createCoordinates(), ReorderPoints.Interpolation.NEAREST_NEIGHBOR, 1);
+        assertMirrored(output, source, 0, height - 1, true);
+    }
+
+    @Test
+    public void testComputeSplatting() {
+        System.out.println("compute(IterableInterval, RandomAccessibleInterval[], Interpolation, int), splatting");
+        final Img<DoubleType> source = ArrayImgs.doubles(width, height);
+        for (final DoubleType value : source) {
+            value.set(5);
+        }
+        final RandomAccessibleInterval<DoubleType> output = new ReorderPoints<DoubleType, DoubleType, UnsignedByteType>()
+                .compute(source, createCoordinates(), ReorderPoints.Interpolation.SPLATTING, 0);
+        // The normalized sum of a constant is the constant.
+        final RandomAccess<DoubleType> outputRa = output.randomAccess();
+        for (long y = output.min(1); y <= output.max(1); ++y) {
+            for (long x = output.min(0); x <= output.max(0); ++x) {
+                outputRa.setPosition(new long[]{x, y});
+                Assert.assertEquals(5, outputRa.get().get(), PREC_DOUBLE);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testComputeTooLarge() {
+        System.out.println("compute(IterableInterval, RandomAccessibleInterval[], Interpolation, int), too large");
+        final RandomAccessibleInterval<DoubleType>[] coordinates = createCoordinates();
+        // 65536 x 65536 voxels, more than an array image holds.
+        final RandomAccess<DoubleType> xRa = coordinates[0].randomAccess();
+        final RandomAccess<DoubleType> yRa = coordinates[1].randomAccess();
+        xRa.setPosition(new long[]{1, 1});
+        xRa.get().set(65535);
+        yRa.setPosition(new long[]{1, 1});
+        yRa.get().set(65535);
+        new ReorderPoints<DoubleType, DoubleType, UnsignedByteType>()
+                .compute(createSource(), coordinates, ReorderPoints.Interpolation.NEAREST_NEIGHBOR, 1);
+    }
+
+    private void testComputeMasked(final Img<UnsignedByteType> mask) {
+        final Img<DoubleType> source = createSource();
+        final RandomAccessibleInterval<DoubleType>[] coordinates = createCoordinates();
+        // Mask rows 1 to 3, including the point mapped to (0, 0).
+        final Cursor<UnsignedByteType> cursor = mask.localizingCursor();
+        while (cursor.hasNext()) {
+            cursor.fwd();
+            final long y = cursor.getLongPosition(1);
+            cursor.get().set(y >= 1 && y <= 3 ? 255 : 0);
+        }
+        final RandomAccessibleInterval<DoubleType> output = new ReorderPoints<DoubleType, DoubleType, UnsignedByteType>()
+                .compute(mask, source, coordinates, ReorderPoints.Interpolation.NEAREST_NEIGHBOR, 1);
+        assertMirrored(output, source, 1, 3, false);
+    }
+
+    // Source value at (x, y) is 1 + x + width * y.
+    private Img<DoubleType> createSource() {
+        final Img<DoubleType> source = ArrayImgs.doubles(width, height);
+        final Cursor<DoubleType> cursor = source.localizingCursor();
+        while (cursor.hasNext()) {
+            cursor.fwd();
+            cursor.get().set(1 + cursor.getLongPosition(0) + width * cursor.getLongPosition(1));
+        }
+        return source;
+    }
+
+    // Maps (x, y) to (width - 1 - x, y).
+    private RandomAccessibleInterval<DoubleType>[] createCoordinates() {
+        final Img<DoubleType> xs = ArrayImgs.doubles(width, height);
+        final Img<DoubleType> ys = ArrayImgs.doubles(width, height);
+        final Cursor<DoubleType> xCursor = xs.localizingCursor();
+        final Cursor<DoubleType> yCursor = ys.localizingCursor();
+        while (xCursor.hasNext()) {
+            xCursor.fwd();
+            yCursor.fwd();
+            xCursor.get().set(width - 1 - xCursor.getLongPosition(0));
+            yCursor.get().set(yCursor.getLongPosition(1));
+        }
+        return new RandomAccessibleInterval[]{xs, ys};
+    }
+
+    private void assertMirrored(final RandomAccessibleInterval<DoubleType> output, final Img<DoubleType> source, final long minY, final long maxY, final boolean isOriginSkipped) {
+        Assert.assertEquals(0, output.min(0));
+        Assert.assertEquals(width - 1, output.max(0));
+        Assert.assertEquals(minY, output.min(1));
+        Assert.assertEquals(maxY, output.max(1));
+        final RandomAccess<DoubleType> outputRa = output.randomAccess();
+        final RandomAccess<DoubleType> sourceRa = source.randomAccess();
+        for (long y = minY; y <= maxY; ++y) {
+            for (long x = 0; x < width; ++x) {
+                outputRa.setPosition(new long[]{width - 1 - x, y});
+                sourceRa.setPosition(new long[]{x, y});
+                if (isOriginSkipped && x == width - 1 && y == 0) {
+                    Assert.assertNotEquals(sourceRa.get().get(), outputRa.get().get(), PREC_DOUBLE);
+                    continue;
+                }
+                Assert.assertEquals(sourceRa.get().get(), outputRa.get().get(), PREC_DOUBLE);
+            }
+        }
+    }
+}
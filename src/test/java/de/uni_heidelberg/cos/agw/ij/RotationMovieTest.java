@@ -0,0 +1,85 @@
+/**
+ * This file is part of the COS AGW ImageJ plugin bundle.
+ * https://github.com/bhoeckendorf/cos-agw_ij
+ *
+ * Copyright 2012, 2013  B. Hoeckendorf <b.hoeckendorf at web dot de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uni_heidelberg.cos.agw.ij;
+
+import de.uni_heidelberg.cos.agw.ij.util.ObliqueProjector;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+
+public class RotationMovieTest {
+
+    protected final int nAngles = 8;
+    private final int width = 30, height = 20, depth = 16;
+
+    // Boxes of different values in different corners of the volume.
+    private ImagePlus createImage() {
+        final ImageStack stack = new ImageStack(width, height);
+        for (int z = 0; z < depth; ++z) {
+            final ByteProcessor ip = new ByteProcessor(width, height);
+            for (int y = 2; y < 8; ++y) {
+                for (int x = 3; x < 9; ++x) {
+                    ip.set(x, y, z < 6 ? 100 : 0);
+                    ip.set(x + 15, y + 8, z > 8 ? 200 : 0);
+                }
+            }
+            stack.addSlice(ip);
+        }
+        return new ImagePlus("volume", stack);
+    }
+
+    @Test
+    public void testRun() throws IOException {
+        System.out.println("run(ImagePlus, int, int, double, boolean, File)");
+        final ImagePlus imp = createImage();
+        final ImagePlus movie = new RotationMovie().run(imp, 1, nAngles, 2 * Math.PI, false, null);
+        Assert.assertEquals(nAngles, movie.getStackSize());
+        Assert.assertEquals(8, movie.getBitDepth());
+
+        // Every frame is the projection at its angle, centered on the volume.
+        final ObliqueProjector projector = new ObliqueProjector(imp.getImageStack(), new double[]{1, 1, 1});
+        final int[] size = {movie.getWidth(), movie.getHeight(), 0};
+        for (int i = 0; i < nAngles; ++i) {
+            projector.setRotation(1, 2 * Math.PI * i / nAngles);
+            size[2] = Math.max(size[2], projector.getOutputSize()[2]);
+        }
+        for (int i = 0; i < nAngles; ++i) {
+            projector.setRotation(1, 2 * Math.PI * i / nAngles);
+            projector.setOutputSize(size);
+            final ImageProcessor expected = projector.project(1, size[2]).convertToByte(false);
+            Assert.assertArrayEquals((byte[]) expected.getPixels(),
+                    (byte[]) movie.getImageStack().getPixels(i + 1));
+        }
+
+        // Half a turn around y mirrors x.
+        final ImageProcessor first = movie.getImageStack().getProcessor(1);
+        final ImageProcessor half = movie.getImageStack().getProcessor(nAngles / 2 + 1);
+        Assert.assertEquals(200, first.getStatistics().max, 0);
+        for (int y = 0; y < movie.getHeight(); ++y) {
+            for (int x = 0; x < movie.getWidth(); ++x) {
+                Assert.assertEquals(first.get(x, y), half.get(movie.getWidth() - 1 - x, y));
+            }
+        }
+    }
+}
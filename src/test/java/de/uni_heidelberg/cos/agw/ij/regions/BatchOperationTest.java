@@ -0,0 +1,178 @@
+/**
+ * This file is part of the COS AGW ImageJ plugin bundle.
+ * https://github.com/bhoeckendorf/cos-agw_ij
+ *
+ * Copyright 2012, 2013  B. Hoeckendorf <b.hoeckendorf at web dot de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uni_heidelberg.cos.agw.ij.regions;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.ResultsTable;
+import ij.process.ByteProcessor;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+public class BatchOperationTest {
+
+    private final int width = 48, height = 32, depth = 32;
+    private final int radius = 8;
+    private final int[][] centers = {{16, 16, 16}, {31, 16, 16}};
+
+    // Boxes 1, 2, 3, 4 and 6 in the first slices and two touching spheres 5.
+    private ImagePlus createImage() {
+        final ImageStack stack = new ImageStack(width, height);
+        for (int z = 0; z < depth; ++z) {
+            stack.addSlice(new ByteProcessor(width, height));
+        }
+        final int[] boxValues = {1, 2, 3, 4, 6};
+        for (int i = 0; i < boxValues.length; ++i) {
+            for (int z = 1; z <= 2; ++z) {
+                for (int y = 0; y < 3; ++y) {
+                    for (int x = 5 * i; x < 5 * i + 3; ++x) {
+                        stack.getProcessor(z).putPixel(x, y, boxValues[i]);
+                    }
+                }
+            }
+        }
+        for (int z = 0; z < depth; ++z) {
+            for (int y = 0; y < height; ++y) {
+                for (int x = 0; x < width; ++x) {
+                    if (isInSphere(x, y, z)) {
+                        stack.getProcessor(z + 1).putPixel(x, y, 5);
+                    }
+                }
+            }
+        }
+        return new ImagePlus("labels", stack);
+    }
+
+    private boolean isInSphere(final int x, final int y, final int z) {
+        for (final int[] center : centers) {
+            final int dx = x - center[0], dy = y - center[1], dz = z - center[2];
+            if (dx * dx + dy * dy + dz * dz <= radius * radius) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int getBoxValue(final ImagePlus imp, final int i) {
+        return imp.getStack().getProcessor(1).getPixel(5 * i + 1, 1);
+    }
+
+    private ResultsTable createTable() {
+        final ResultsTable table = new ResultsTable();
+        addRow(table, "Merge", 2, 1);
+        // 2 is 1 by now, so 3 ends up in 1 as well.
+        addRow(table, "Merge", 3, 2);
+        addRow(table, "Remove", 4, 0);
+        // The target is gone, skipped.
+        addRow(table, "Merge", 6, 4);
+        addRow(table, "Split", 5, 0);
+        addRow(table, "Rename", 6, 0);
+        return table;
+    }
+
+    private void addRow(final ResultsTable table, final String operation, final int value, final int target) {
+        table.incrementCounter();
+        table.addValue(BatchOperation.OPERATION_COLUMN, operation);
+        table.addValue(BatchOperation.VALUE_COLUMN, value);
+        table.addValue(BatchOperation.TARGET_COLUMN, target);
+    }
+
+    private void assertBatchApplied(final ImagePlus imp) {
+        Assert.assertEquals(1, getBoxValue(imp, 0));
+        Assert.assertEquals(1, getBoxValue(imp, 1));
+        Assert.assertEquals(1, getBoxValue(imp, 2));
+        Assert.assertEquals(0, getBoxValue(imp, 3));
+        Assert.assertEquals(6, getBoxValue(imp, 4));
+
+        final ImageStack stack = imp.getStack();
+        final int first = stack.getProcessor(centers[0][2] + 1).getPixel(centers[0][0], centers[0][1]);
+        final int second = stack.getProcessor(centers[1][2] + 1).getPixel(centers[1][0], centers[1][1]);
+        Assert.assertNotEquals(first, second);
+        final Set<Integer> sphereValues = new HashSet<Integer>();
+        for (int z = 0; z < depth; ++z) {
+            for (int y = 0; y < height; ++y) {
+                for (int x = 0; x < width; ++x) {
+                    if (isInSphere(x, y, z)) {
+                        sphereValues.add(stack.getProcessor(z + 1).getPixel(x, y));
+                    }
+                }
+            }
+        }
+        Assert.assertEquals(2, sphereValues.size());
+        Assert.assertTrue(sphereValues.contains(first));
+        Assert.assertTrue(sphereValues.contains(second));
+        Assert.assertFalse(sphereValues.contains(0));
+        Assert.assertFalse(sphereValues.contains(1));
+        Assert.assertFalse(sphereValues.contains(5));
+        Assert.assertFalse(sphereValues.contains(6));
+    }
+
+    private byte[][] getPixels(final ImagePlus imp) {
+        final byte[][] pixels = new byte[depth][];
+        for (int z = 0; z < depth; ++z) {
+            pixels[z] = ((byte[]) imp.getStack().getPixels(z + 1)).clone();
+        }
+        return pixels;
+    }
+
+    @Test
+    public void testRun() {
+        System.out.println("run()");
+        final ImagePlus imp = createImage();
+        final byte[][] before = getPixels(imp);
+        final BatchOperation batch = new BatchOperation(imp);
+        batch.merge(2, 1);
+        batch.merge(3, 2);
+        batch.remove(4);
+        batch.merge(6, 4);
+        batch.split(5);
+        batch.run();
+        assertBatchApplied(imp);
+
+        // The whole batch is one undo step.
+        new UndoOperation(imp).run();
+        final byte[][] after = getPixels(imp);
+        for (int z = 0; z < depth; ++z) {
+            Assert.assertArrayEquals(before[z], after[z]);
+        }
+        AbstractMapBasedOperation.clearIntensityMap();
+    }
+
+    @Test
+    public void testAddTable() {
+        System.out.println("add(ResultsTable)");
+        final ImagePlus imp = createImage();
+        // The unknown operation is skipped.
+        Assert.assertEquals(5, new EditRegionsBatch().run(imp, createTable()));
+        assertBatchApplied(imp);
+        AbstractMapBasedOperation.clearIntensityMap();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddTableWithoutColumns() {
+        System.out.println("add(ResultsTable), missing columns");
+        final ResultsTable table = new ResultsTable();
+        table.incrementCounter();
+        table.addValue(BatchOperation.VALUE_COLUMN, 1);
+        new BatchOperation(createImage()).add(table);
+    }
+}
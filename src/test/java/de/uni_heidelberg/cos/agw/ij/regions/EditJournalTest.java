@@ -0,0 +1,229 @@
+/**
+ * This file is part of the COS AGW ImageJ plugin bundle.
+ * https://github.com/bhoeckendorf/cos-agw_ij
+ *
+ * Copyright 2012, 2013  B. Hoeckendorf <b.hoeckendorf at web dot de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uni_heidelberg.cos.agw.ij.regions;
+
+import ij.ImageStack;
+import ij.process.ShortProcessor;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.vecmath.Point3i;
+import java.io.IOException;
+import java.util.*;
+
+public class EditJournalTest {
+
+    private final int width = 5, height = 4, depth = 3;
+
+    private ImageStack createStack() {
+        final ImageStack stack = new ImageStack(width, height);
+        for (int z = 0; z < depth; ++z) {
+            stack.addSlice(new ShortProcessor(width, height));
+        }
+        // A region 3 in the first row of the first slice.
+        for (int x = 0; x < width; ++x) {
+            stack.getProcessor(1).putPixel(x, 0, 3);
+        }
+        return stack;
+    }
+
+    // Value, voxel positions map of a stack, as EditRegions creates it.
+    private Map<Integer, List<Point3i>> createIntensityMap(final ImageStack stack) {
+        final Map<Integer, List<Point3i>> map = new HashMap<Integer, List<Point3i>>();
+        for (int z = 1; z <= stack.getSize(); ++z) {
+            for (int y = 0; y < height; ++y) {
+                for (int x = 0; x < width; ++x) {
+                    final int value = stack.getProcessor(z).getPixel(x, y);
+                    if (value == 0) {
+                        continue;
+                    }
+                    List<Point3i> points = map.get(value);
+                    if (points == null) {
+                        points = new ArrayList<Point3i>();
+                        map.put(value, points);
+                    }
+                    points.add(new Point3i(x, y, z));
+                }
+            }
+        }
+        return map;
+    }
+
+    private int[] getPixels(final ImageStack stack) {
+        final int[] pixels = new int[width * height * stack.getSize()];
+        for (int z = 1; z <= stack.getSize(); ++z) {
+            for (int i = 0; i < width * height; ++i) {
+                pixels[(z - 1) * width * height + i] = stack.getProcessor(z).get(i);
+            }
+        }
+        return pixels;
+    }
+
+    // Compares the maps ignoring the order of the points.
+    private void assertMapsEqual(final Map<Integer, List<Point3i>> expected, final Map<Integer, List<Point3i>> actual) {
+        Assert.assertEquals(expected.keySet(), actual.keySet());
+        for (final int value : expected.keySet()) {
+            Assert.assertEquals(new HashSet<Point3i>(expected.get(value)), new HashSet<Point3i>(actual.get(value)));
+            Assert.assertEquals(expected.get(value).size(), actual.get(value).size());
+        }
+    }
+
+    // Sets a voxel and records the change in the journal.
+    private void set(final EditJournal journal, final ImageStack stack, final int x, final int y, final int z,
+                     final int value) {
+        journal.record(x, y, z, stack.getProcessor(z).getPixel(x, y), value);
+        stack.getProcessor(z).putPixel(x, y, value);
+    }
+
+    @Test
+    public void testRecordCompactApply() {
+        System.out.println("Edit.record(...), compact(), apply(...)");
+        final ImageStack stack = createStack();
+        final int[] before = getPixels(stack);
+        final Map<Integer, List<Point3i>> beforeMap = createIntensityMap(stack);
+
+        final Edit edit = new Edit("test", width, height);
+        // Changed twice, keeps 3 -> 7.
+        edit.record(1, 0, 1, 3, 5);
+        edit.record(1, 0, 1, 5, 7);
+        // Changed back, dropped.
+        edit.record(2, 0, 1, 3, 4);
+        edit.record(2, 0, 1, 4, 3);
+        // A run across a row border and a change in another slice.
+        edit.record(4, 1, 2, 0, 9);
+        edit.record(0, 2, 2, 0, 9);
+        edit.record(2, 3, 3, 0, 3);
+        edit.compact();
+        Assert.assertFalse(edit.isEmpty());
+
+        final ImageStack after = createStack();
+        after.getProcessor(1).putPixel(1, 0, 7);
+        after.getProcessor(2).putPixel(4, 1, 9);
+        after.getProcessor(2).putPixel(0, 2, 9);
+        after.getProcessor(3).putPixel(2, 3, 3);
+
+        final Map<Integer, List<Point3i>> map = createIntensityMap(stack);
+        edit.apply(stack, map, false);
+        Assert.assertArrayEquals(getPixels(after), getPixels(stack));
+        assertMapsEqual(createIntensityMap(after), map);
+
+        edit.apply(stack, map, true);
+        Assert.assertArrayEquals(before, getPixels(stack));
+        assertMapsEqual(beforeMap, map);
+
+        edit.apply(stack, map, false);
+        Assert.assertArrayEquals(getPixels(after), getPixels(stack));
+        assertMapsEqual(createIntensityMap(after), map);
+    }
+
+    @Test
+    public void testCompactNoOp() {
+        System.out.println("Edit.compact(), no-op changes");
+        final Edit edit = new Edit("test", width, height);
+        edit.record(0, 0, 1, 3, 4);
+        edit.record(0, 0, 1, 4, 3);
+        edit.record(1, 1, 2, 0, 0);
+        edit.compact();
+        Assert.assertTrue(edit.isEmpty());
+    }
+
+    @Test
+    public void testUndoRedoSpill() throws IOException {
+        System.out.println("EditJournal.undo(...), redo(...), spilled");
+        for (final long budget : new long[]{Long.MAX_VALUE, 0}) {
+            final EditJournal journal = new EditJournal(budget);
+            final ImageStack stack = createStack();
+            final List<int[]> states = new ArrayList<int[]>();
+            states.add(getPixels(stack));
+            for (int e = 0; e < 4; ++e) {
+                journal.begin("edit " + e, width, height);
+                // Nested begin and end belong to the same edit.
+                journal.begin("inner", width, height);
+                set(journal, stack, e, 1, 1 + e % depth, 10 + e);
+                journal.end();
+                set(journal, stack, e, 0, 1, 20 + e);
+                journal.end();
+                states.add(getPixels(stack));
+            }
+            // The operations keep the map up to date themselves.
+            final Map<Integer, List<Point3i>> map = createIntensityMap(stack);
+            final Map<Integer, List<Point3i>> editedMap = createIntensityMap(stack);
+            if (budget == 0) {
+                // All but the most recent edit are on disk.
+                Assert.assertEquals(3, journal.getSpilledCount());
+            } else {
+                Assert.assertEquals(0, journal.getSpilledCount());
+            }
+
+            for (int e = 3; e >= 0; --e) {
+                Assert.assertEquals("edit " + e, journal.undo(stack, map));
+                Assert.assertArrayEquals(states.get(e), getPixels(stack));
+            }
+            Assert.assertFalse(journal.canUndo());
+            Assert.assertNull(journal.undo(stack, map));
+            assertMapsEqual(createIntensityMap(stack), map);
+            Assert.assertEquals(0, journal.getSpilledCount());
+            Assert.assertEquals(0, journal.getSpillLength());
+
+            for (int e = 0; e < 4; ++e) {
+                Assert.assertEquals("edit " + e, journal.redo(stack, map));
+                Assert.assertArrayEquals(states.get(e + 1), getPixels(stack));
+            }
+            Assert.assertFalse(journal.canRedo());
+            assertMapsEqual(editedMap, map);
+
+            // A new edit after an undo discards the redo history.
+            journal.undo(stack, map);
+            journal.begin("new", width, height);
+            set(journal, stack, 4, 3, 3, 30);
+            journal.end();
+            Assert.assertFalse(journal.canRedo());
+            journal.clear();
+        }
+    }
+
+    @Test
+    public void testSpillReuse() throws IOException {
+        System.out.println("EditJournal.undo(...), redo(...), spill file size");
+        final EditJournal journal = new EditJournal(0);
+        final ImageStack stack = createStack();
+        for (int e = 0; e < 4; ++e) {
+            journal.begin("edit " + e, width, height);
+            set(journal, stack, e, 2, 1, 10 + e);
+            journal.end();
+        }
+        final Map<Integer, List<Point3i>> map = createIntensityMap(stack);
+        final long length = journal.getSpillLength();
+        Assert.assertTrue(length > 0);
+        for (int i = 0; i < 10; ++i) {
+            journal.undo(stack, map);
+            journal.undo(stack, map);
+            journal.redo(stack, map);
+            journal.redo(stack, map);
+            Assert.assertEquals(3, journal.getSpilledCount());
+            Assert.assertTrue(journal.getSpillLength() <= length);
+        }
+        // Reading back every edit empties the file.
+        while (journal.canUndo()) {
+            journal.undo(stack, map);
+        }
+        Assert.assertEquals(0, journal.getSpillLength());
+        journal.clear();
+    }
+}
@@ -0,0 +1,47 @@
+package de.uni_heidelberg.cos.agw.ij.regions;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.vecmath.Point3i;
+import java.util.*;
+
+public class PointListTest {
+
+    @Test
+    public void testRemovePoint() {
+        System.out.println("removePoint(Point3i)");
+        final Set<Point3i> expected = new HashSet<Point3i>();
+        final PointList points = new PointList();
+        for (int i = 0; i < 10; ++i) {
+            points.add(new Point3i(i, 2 * i, 1));
+            expected.add(new Point3i(i, 2 * i, 1));
+        }
+        Assert.assertTrue(points.removePoint(new Point3i(3, 6, 1)));
+        Assert.assertFalse(points.removePoint(new Point3i(3, 6, 1)));
+        expected.remove(new Point3i(3, 6, 1));
+        // Points appended after the index was built are found, too.
+        points.add(new Point3i(0, 0, 2));
+        Assert.assertTrue(points.removePoint(new Point3i(0, 0, 2)));
+        Assert.assertTrue(points.removePoint(new Point3i(9, 18, 1)));
+        expected.remove(new Point3i(9, 18, 1));
+        // Removing by slot drops the index, which is rebuilt.
+        expected.remove(points.remove(0));
+        Assert.assertTrue(points.removePoint(new Point3i(5, 10, 1)));
+        expected.remove(new Point3i(5, 10, 1));
+        Assert.assertEquals(expected.size(), points.size());
+        Assert.assertEquals(expected, new HashSet<Point3i>(points));
+    }
+
+    @Test
+    public void testGet() {
+        System.out.println("get(Map, int)");
+        final Map<Integer, List<Point3i>> map = new HashMap<Integer, List<Point3i>>();
+        map.put(1, new ArrayList<Point3i>(Arrays.asList(new Point3i(1, 2, 3), new Point3i(4, 5, 6))));
+        final PointList points = PointList.get(map, 1);
+        Assert.assertSame(points, map.get(1));
+        Assert.assertEquals(Arrays.asList(new Point3i(1, 2, 3), new Point3i(4, 5, 6)), points);
+        Assert.assertSame(points, PointList.get(map, 1));
+        Assert.assertNull(PointList.get(map, 2));
+    }
+}
@@ -0,0 +1,241 @@
+/**
+ * This file is part of the COS AGW ImageJ plugin bundle.
+ * https://github.com/bhoeckendorf/cos-agw_ij
+ *
+ * Copyright 2012, 2013  B. Hoeckendorf <b.hoeckendorf at web dot de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uni_heidelberg.cos.agw.ij.util;
+
+import ij.ImageStack;
+import ij.Prefs;
+import ij.process.ByteProcessor;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+
+public class ConnectedComponentsTest {
+
+    // Thread counts, and so slab counts, with borders at different slices.
+    protected final int[] threadCounts = {1, 2, 3, 5, 16};
+    protected final int[] connectivities = {6, 18, 26};
+    private final int width = 16, height = 12, depth = 16;
+    private int nThreads;
+
+    @Before
+    public void setUp() {
+        nThreads = Prefs.getThreads();
+    }
+
+    @After
+    public void tearDown() {
+        Prefs.setThreads(nThreads);
+    }
+
+    private ImageStack createStack() {
+        final ImageStack stack = new ImageStack(width, height);
+        for (int z = 0; z < depth; ++z) {
+            stack.addSlice(new ByteProcessor(width, height));
+        }
+        return stack;
+    }
+
+    private void set(final ImageStack stack, final int x, final int y, final int z, final int value) {
+        stack.getProcessor(z + 1).putPixel(x, y, value);
+    }
+
+    private int[][] run(final ImageStack stack, final int connectivity, final boolean byValue,
+                        final int threads) {
+        Prefs.setThreads(threads);
+        final ConnectedComponents components = new ConnectedComponents(connectivity, byValue);
+        final int n = components.run(stack);
+        Assert.assertEquals(n, components.getNLabels());
+        return components.getLabels();
+    }
+
+    // Labels by flood fill, numbered in raster order of the first voxel.
+    private int[][] floodFill(final ImageStack stack, final int connectivity, final boolean byValue) {
+        final int[][] labels = new int[depth][width * height];
+        final Deque<int[]> queue = new ArrayDeque<int[]>();
+        int nLabels = 0;
+        for (int z = 0; z < depth; ++z) {
+            for (int y = 0; y < height; ++y) {
+                for (int x = 0; x < width; ++x) {
+                    final int value = stack.getProcessor(z + 1).getPixel(x, y);
+                    if (value == 0 || labels[z][y * width + x] != 0) {
+                        continue;
+                    }
+                    labels[z][y * width + x] = ++nLabels;
+                    queue.add(new int[]{x, y, z});
+                    while (!queue.isEmpty()) {
+                        final int[] p = queue.poll();
+                        final int pValue = stack.getProcessor(p[2] + 1).getPixel(p[0], p[1]);
+                        for (int dz = -1; dz <= 1; ++dz) {
+                            for (int dy = -1; dy <= 1; ++dy) {
+                                for (int dx = -1; dx <= 1; ++dx) {
+                                    final int distance = Math.abs(dx) + Math.abs(dy) + Math.abs(dz);
+                                    if (distance == 0 || (connectivity == 6 && distance > 1)
+                                            || (connectivity == 18 && distance > 2)) {
+                                        continue;
+                                    }
+                                    final int nx = p[0] + dx, ny = p[1] + dy, nz = p[2] + dz;
+                                    if (nx < 0 || nx >= width || ny < 0 || ny >= height || nz < 0
+                                            || nz >= depth || labels[nz][ny * width + nx] != 0) {
+                                        continue;
+                                    }
+                                    final int nValue = stack.getProcessor(nz + 1).getPixel(nx, ny);
+                                    if (nValue == 0 || (byValue && nValue != pValue)) {
+                                        continue;
+                                    }
+                                    labels[nz][ny * width + nx] = nLabels;
+                                    queue.add(new int[]{nx, ny, nz});
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return labels;
+    }
+
+    private int getNLabels(final int[][] labels) {
+        int n = 0;
+        for (final int[] slice : labels) {
+            for (final int label : slice) {
+                n = Math.max(n, label);
+            }
+        }
+        return n;
+    }
+
+    private void assertLabelsEqual(final int[][] expected, final int[][] actual) {
+        Assert.assertEquals(expected.length, actual.length);
+        for (int z = 0; z < expected.length; ++z) {
+            Assert.assertArrayEquals(expected[z], actual[z]);
+        }
+    }
+
+    // Compares with the flood fill reference for all thread counts.
+    private void assertLabels(final ImageStack stack, final int connectivity, final boolean byValue,
+                              final int nExpected) {
+        final int[][] expected = floodFill(stack, connectivity, byValue);
+        if (nExpected >= 0) {
+            Assert.assertEquals(nExpected, getNLabels(expected));
+        }
+        for (final int threads : threadCounts) {
+            assertLabelsEqual(expected, run(stack, connectivity, byValue, threads));
+        }
+    }
+
+    @Test
+    public void testU() {
+        System.out.println("run(ImageStack), U shapes across slabs");
+        // Two pillars through all slices, joined only in the last one, and
+        // two more joined only in the first one.
+        final ImageStack stack = createStack();
+        for (int z = 0; z < depth; ++z) {
+            set(stack, 1, 2, z, 255);
+            set(stack, 6, 2, z, 255);
+            set(stack, 9, 8, z, 255);
+            set(stack, 14, 8, z, 255);
+        }
+        for (int x = 1; x <= 6; ++x) {
+            set(stack, x, 2, depth - 1, 255);
+        }
+        for (int x = 9; x <= 14; ++x) {
+            set(stack, x, 8, 0, 255);
+        }
+        for (final int connectivity : connectivities) {
+            assertLabels(stack, connectivity, false, 2);
+        }
+    }
+
+    @Test
+    public void testSpiral() {
+        System.out.println("run(ImageStack), spiral across slabs");
+        // A rectangular spiral in the x-z plane with turns 2 voxels apart, it
+        // crosses every slab border several times.
+        final ImageStack stack = createStack();
+        final int[][] directions = {{1, 0}, {0, 1}, {-1, 0}, {0, -1}};
+        int x = 0, z = 0;
+        set(stack, x, 5, z, 255);
+        for (int segment = 0; ; ++segment) {
+            final int length = segment % 2 == 0 ? width - 1 - 2 * Math.max(0, segment / 2 - 1)
+                    : depth - segment;
+            if (length <= 0) {
+                break;
+            }
+            final int[] direction = directions[segment % 4];
+            for (int i = 0; i < length; ++i) {
+                x += direction[0];
+                z += direction[1];
+                set(stack, x, 5, z, 255);
+            }
+        }
+        // 6-connected, so it is one component for all connectivities.
+        for (final int connectivity : connectivities) {
+            assertLabels(stack, connectivity, false, 1);
+        }
+    }
+
+    @Test
+    public void testDiagonal() {
+        System.out.println("run(ImageStack), diagonal across slabs");
+        // Zigzags from slice to slice, one connected via edges, the other
+        // via corners only.
+        final ImageStack stack = createStack();
+        for (int z = 0; z < depth; ++z) {
+            final int t = z % 6 < 3 ? z % 6 : 6 - z % 6;
+            set(stack, t, 3, z, 255);
+            set(stack, 8 + t, 6 + t, z, 255);
+        }
+        assertLabels(stack, 6, false, 2 * depth);
+        assertLabels(stack, 18, false, 1 + depth);
+        assertLabels(stack, 26, false, 2);
+    }
+
+    @Test
+    public void testRandom() {
+        System.out.println("run(ImageStack), random");
+        final Random random = new Random(42);
+        for (final double density : new double[]{0.2, 0.4}) {
+            final ImageStack stack = createStack();
+            for (int z = 0; z < depth; ++z) {
+                for (int y = 0; y < height; ++y) {
+                    for (int x = 0; x < width; ++x) {
+                        if (random.nextDouble() < density) {
+                            set(stack, x, y, z, 1 + random.nextInt(3));
+                        }
+                    }
+                }
+            }
+            for (final int connectivity : connectivities) {
+                assertLabels(stack, connectivity, false, -1);
+                assertLabels(stack, connectivity, true, -1);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConnectivity() {
+        System.out.println("ConnectedComponents(int, boolean), invalid connectivity");
+        new ConnectedComponents(8, false);
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * This file is part of the COS AGW ImageJ plugin bundle.
+ * https://github.com/bhoeckendorf/cos-agw_ij
+ *
+ * Copyright 2012, 2013  B. Hoeckendorf <b.hoeckendorf at web dot de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uni_heidelberg.cos.agw.ij.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class CurveClipperTest {
+
+    protected final double PREC_DOUBLE = 0.000001;
+    private final double[] lower = {0, 0, 0};
+    private final double[] upper = {99, 79, 59};
+
+    @Test
+    public void testClipLine() {
+        System.out.println("clipLine(double[], double[], double[], double[], double[])");
+        final Random random = new Random(1);
+        final double[] range = new double[2];
+        for (int i = 0; i < 1000; ++i) {
+            final double[] a = randomVector(random, 120);
+            final double[] b = randomVector(random, 2);
+            if (i % 10 == 0) {
+                b[i / 10 % 3] = 0;
+            }
+            final boolean isInside = CurveClipper.clipLine(a, b, lower, upper, range);
+            final double[] p = new double[3];
+            for (double t = -300; t <= 300; t += 0.5) {
+                for (int d = 0; d < 3; ++d) {
+                    p[d] = a[d] + t * b[d];
+                }
+                if (isStrictlyInside(p)) {
+                    Assert.assertTrue(isInside);
+                    Assert.assertTrue(t >= range[0] && t <= range[1]);
+                } else if (isStrictlyOutside(p) && isInside) {
+                    Assert.assertFalse(t > range[0] && t < range[1]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testClipCircle() {
+        System.out.println("clipCircle(double[], double[], double[], double[], double[], double[])");
+        final Random random = new Random(2);
+        final double[] arcs = new double[2 * CurveClipper.maxArcs];
+        final double[] p = new double[3];
+        for (int i = 0; i < 1000; ++i) {
+            final double[] a = randomVector(random, 120);
+            final double[] b = randomVector(random, 80);
+            final double[] c = randomVector(random, 80);
+            final int n = CurveClipper.clipCircle(a, b, c, lower, upper, arcs);
+            for (int arc = 0; arc < n; ++arc) {
+                Assert.assertTrue(arcs[2 * arc] <= arcs[2 * arc + 1]);
+                if (arc > 0) {
+                    Assert.assertTrue(arcs[2 * arc - 1] <= arcs[2 * arc]);
+                }
+            }
+            for (double phi = 0; phi < 2 * Math.PI; phi += 0.003) {
+                for (int d = 0; d < 3; ++d) {
+                    p[d] = a[d] + Math.cos(phi) * b[d] + Math.sin(phi) * c[d];
+                }
+                boolean isInArc = false;
+                for (int arc = 0; arc < n; ++arc) {
+                    isInArc |= phi >= arcs[2 * arc] - PREC_DOUBLE && phi <= arcs[2 * arc + 1] + PREC_DOUBLE;
+                }
+                if (isStrictlyInside(p)) {
+                    Assert.assertTrue(isInArc);
+                } else if (isStrictlyOutside(p)) {
+                    Assert.assertFalse(isInArc);
+                }
+            }
+        }
+    }
+
+    private static double[] randomVector(final Random random, final double range) {
+        final double[] v = new double[3];
+        for (int d = 0; d < 3; ++d) {
+            v[d] = (random.nextDouble() - 0.25) * range;
+        }
+        return v;
+    }
+
+    // With a margin, so that rounding at the border does not matter.
+    private boolean isStrictlyInside(final double[] p) {
+        for (int d = 0; d < 3; ++d) {
+            if (p[d] < lower[d] + 0.01 || p[d] > upper[d] - 0.01) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isStrictlyOutside(final double[] p) {
+        for (int d = 0; d < 3; ++d) {
+            if (p[d] < lower[d] - 0.01 || p[d] > upper[d] + 0.01) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
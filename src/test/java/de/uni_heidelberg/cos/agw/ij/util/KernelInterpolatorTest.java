@@ -0,0 +1,205 @@
+/**
+ * This file is part of the COS AGW ImageJ plugin bundle.
+ * https://github.com/bhoeckendorf/cos-agw_ij
+ *
+ * Copyright 2012, 2013  B. Hoeckendorf <b.hoeckendorf at web dot de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uni_heidelberg.cos.agw.ij.util;
+
+import ij.ImageStack;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class KernelInterpolatorTest {
+
+    protected final double PREC_DOUBLE = 0.000001;
+    // B-spline coefficients are stored as floats.
+    protected final double PREC_FLOAT = 0.0001;
+    private final int width = 9, height = 8, depth = 7;
+
+    @Test
+    public void testGetAtVoxels() {
+        System.out.println("get(double, double, double), at voxels");
+        final ImageStack stack = createRandomStack();
+        for (final KernelInterpolator.Kernel kernel : KernelInterpolator.Kernel.values()) {
+            final KernelInterpolator interpolator = new KernelInterpolator(stack, kernel);
+            for (int z = 0; z < depth; ++z) {
+                final float[] pixels = (float[]) stack.getPixels(z + 1);
+                for (int y = 0; y < height; ++y) {
+                    for (int x = 0; x < width; ++x) {
+                        Assert.assertEquals(kernel.toString(), pixels[y * width + x],
+                                interpolator.get(x, y, z), PREC_FLOAT);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testGetRamp() {
+        System.out.println("get(double, double, double), linear ramp");
+        // The B-spline prefilter spreads the zero extension into the volume,
+        // decaying by about 4x per voxel, so only the center is compared.
+        final int size = 24;
+        final ImageStack stack = new ImageStack(size, size);
+        for (int z = 0; z < size; ++z) {
+            final float[] pixels = new float[size * size];
+            for (int y = 0; y < size; ++y) {
+                for (int x = 0; x < size; ++x) {
+                    pixels[y * size + x] = 2 * x + 3 * y + 5 * z;
+                }
+            }
+            stack.addSlice("", pixels);
+        }
+        // Positions are quantized to 1 / nBins.
+        final double precision = 10.0 / KernelInterpolator.nBins + PREC_FLOAT;
+        final KernelInterpolator.Kernel[] kernels = {KernelInterpolator.Kernel.CATMULL_ROM,
+                KernelInterpolator.Kernel.B_SPLINE};
+        final Random random = new Random(1);
+        for (final KernelInterpolator.Kernel kernel : kernels) {
+            final KernelInterpolator interpolator = new KernelInterpolator(stack, kernel);
+            for (int i = 0; i < 200; ++i) {
+                final double x = 10 + random.nextDouble() * 4;
+                final double y = 10 + random.nextDouble() * 4;
+                final double z = 10 + random.nextDouble() * 4;
+                Assert.assertEquals(kernel.toString(), 2 * x + 3 * y + 5 * z, interpolator.get(x, y, z),
+                        precision);
+            }
+        }
+    }
+
+    @Test
+    public void testGetTable() {
+        System.out.println("get(double, double, double), weight tables");
+        final ImageStack stack = createRandomStack();
+        final Random random = new Random(2);
+        final int nBins = KernelInterpolator.nBins;
+        for (final KernelInterpolator.Kernel kernel : KernelInterpolator.Kernel.values()) {
+            if (kernel == KernelInterpolator.Kernel.B_SPLINE) {
+                continue;
+            }
+            final KernelInterpolator interpolator = new KernelInterpolator(stack, kernel);
+            for (int i = 0; i < 200; ++i) {
+                // Positions on bins, including outside the volume.
+                final double x = (random.nextInt((width + 4) * nBins) - 2.0 * nBins) / nBins;
+                final double y = (random.nextInt((height + 4) * nBins) - 2.0 * nBins) / nBins;
+                final double z = (random.nextInt((depth + 4) * nBins) - 2.0 * nBins) / nBins;
+                Assert.assertEquals(kernel.toString(), convolve(stack, kernel, x, y, z),
+                        interpolator.get(x, y, z), PREC_DOUBLE);
+            }
+        }
+    }
+
+    @Test
+    public void testGetTypes() {
+        System.out.println("get(double, double, double), 8, 16 and 32 bit");
+        final ImageStack byteStack = new ImageStack(width, height);
+        final ImageStack shortStack = new ImageStack(width, height);
+        final ImageStack floatStack = new ImageStack(width, height);
+        final Random random = new Random(3);
+        for (int z = 0; z < depth; ++z) {
+            final byte[] bytes = new byte[width * height];
+            final short[] shorts = new short[width * height];
+            final float[] floats = new float[width * height];
+            for (int i = 0; i < floats.length; ++i) {
+                final int value = random.nextInt(256);
+                bytes[i] = (byte) value;
+                shorts[i] = (short) (value * 200);
+                floats[i] = value;
+            }
+            byteStack.addSlice("", bytes);
+            shortStack.addSlice("", shorts);
+            floatStack.addSlice("", floats);
+        }
+        for (final KernelInterpolator.Kernel kernel : KernelInterpolator.Kernel.values()) {
+            final KernelInterpolator byteInterpolator = new KernelInterpolator(byteStack, kernel);
+            final KernelInterpolator shortInterpolator = new KernelInterpolator(shortStack, kernel);
+            final KernelInterpolator floatInterpolator = new KernelInterpolator(floatStack, kernel);
+            for (int i = 0; i < 100; ++i) {
+                final double x = random.nextDouble() * width;
+                final double y = random.nextDouble() * height;
+                final double z = random.nextDouble() * depth;
+                final double expected = floatInterpolator.get(x, y, z);
+                Assert.assertEquals(kernel.toString(), expected, byteInterpolator.get(x, y, z), PREC_FLOAT);
+                Assert.assertEquals(kernel.toString(), 200 * expected, shortInterpolator.get(x, y, z),
+                        200 * PREC_FLOAT);
+            }
+        }
+    }
+
+    @Test
+    public void testGetOutside() {
+        System.out.println("get(double, double, double), outside");
+        final ImageStack stack = createRandomStack();
+        for (final KernelInterpolator.Kernel kernel : KernelInterpolator.Kernel.values()) {
+            final KernelInterpolator interpolator = new KernelInterpolator(stack, kernel);
+            Assert.assertEquals(0, interpolator.get(-5, 3, 3), PREC_DOUBLE);
+            Assert.assertEquals(0, interpolator.get(3, height + 4, 3), PREC_DOUBLE);
+            Assert.assertEquals(0, interpolator.get(3, 3, 1e12), PREC_DOUBLE);
+            Assert.assertEquals(0, interpolator.get(Double.NaN, 3, 3), PREC_DOUBLE);
+        }
+    }
+
+    private ImageStack createRandomStack() {
+        final Random random = new Random(1);
+        final ImageStack stack = new ImageStack(width, height);
+        for (int z = 0; z < depth; ++z) {
+            final float[] pixels = new float[width * height];
+            for (int i = 0; i < pixels.length; ++i) {
+                pixels[i] = random.nextFloat() * 100;
+            }
+            stack.addSlice("", pixels);
+        }
+        return stack;
+    }
+
+    // Direct evaluation of the kernel, with normalized weights.
+    private double convolve(final ImageStack stack, final KernelInterpolator.Kernel kernel, final double x,
+                            final double y, final double z) {
+        final int radius = kernel.getRadius();
+        final double[] position = {x, y, z};
+        final int[] size = {width, height, depth};
+        final double[][] weights = new double[3][2 * radius];
+        final int[] starts = new int[3];
+        for (int d = 0; d < 3; ++d) {
+            final int origin = (int) Math.floor(position[d]);
+            starts[d] = origin - radius + 1;
+            double sum = 0;
+            for (int t = 0; t < 2 * radius; ++t) {
+                weights[d][t] = kernel.evaluate(position[d] - (starts[d] + t));
+                sum += weights[d][t];
+            }
+            for (int t = 0; t < 2 * radius; ++t) {
+                weights[d][t] /= sum;
+            }
+        }
+        double result = 0;
+        for (int k = 0; k < 2 * radius; ++k) {
+            for (int j = 0; j < 2 * radius; ++j) {
+                for (int i = 0; i < 2 * radius; ++i) {
+                    final int xi = starts[0] + i, yj = starts[1] + j, zk = starts[2] + k;
+                    if (xi < 0 || xi >= size[0] || yj < 0 || yj >= size[1] || zk < 0 || zk >= size[2]) {
+                        continue;
+                    }
+                    final float[] pixels = (float[]) stack.getPixels(zk + 1);
+                    result += weights[0][i] * weights[1][j] * weights[2][k] * pixels[yj * width + xi];
+                }
+            }
+        }
+        return result;
+    }
+}
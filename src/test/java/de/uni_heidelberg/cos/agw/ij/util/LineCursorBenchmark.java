@@ -0,0 +1,116 @@
+/**
+ * This file is part of the COS AGW ImageJ plugin bundle.
+ * https://github.com/bhoeckendorf/cos-agw_ij
+ *
+ * Copyright 2012, 2013  B. Hoeckendorf <b.hoeckendorf at web dot de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uni_heidelberg.cos.agw.ij.util;
+
+import de.uni_heidelberg.cos.agw.Timing;
+
+import javax.vecmath.Point3i;
+import java.util.Random;
+
+/**
+ * Cost per visited position of walking 3D lines with {@link LineCursor}
+ * against the iterators built on it, see {@link Timing}:
+ * {@link MutableLinearIterator} reuses its array, the deprecated
+ * {@link LinearIterator} and {@link LineIterator3i} allocate one array or
+ * point per step.
+ */
+@SuppressWarnings("deprecation")
+public class LineCursorBenchmark {
+
+    private static final int nLines = 20000;
+
+    public static void main(final String[] args) {
+        final Random random = new Random(42);
+        final int[][] starts = new int[nLines][3];
+        final int[][] ends = new int[nLines][3];
+        long nPositions = 0;
+        for (int i = 0; i < nLines; ++i) {
+            int length = 0;
+            for (int d = 0; d < 3; ++d) {
+                starts[i][d] = random.nextInt(256);
+                ends[i][d] = random.nextInt(256);
+                length = Math.max(length, Math.abs(ends[i][d] - starts[i][d]));
+            }
+            nPositions += length + 1;
+        }
+        System.out.println(String.format("%d lines, %d positions", nLines, nPositions));
+
+        Timing.time("  LineCursor", new Runnable() {
+            private final LineCursor cursor = new LineCursor();
+
+            @Override
+            public void run() {
+                long sum = 0;
+                for (int i = 0; i < nLines; ++i) {
+                    cursor.set(starts[i], ends[i], true);
+                    while (cursor.hasNext()) {
+                        cursor.fwd();
+                        sum += cursor.getIntPosition(0) + cursor.getIntPosition(1) + cursor.getIntPosition(2);
+                    }
+                }
+                Timing.sink = sum;
+            }
+        }, nPositions);
+        Timing.time("  MutableLinearIterator", new Runnable() {
+            private final MutableLinearIterator iterator = new MutableLinearIterator();
+
+            @Override
+            public void run() {
+                long sum = 0;
+                for (int i = 0; i < nLines; ++i) {
+                    iterator.set(starts[i], ends[i], true);
+                    for (final int[] position : iterator) {
+                        sum += position[0] + position[1] + position[2];
+                    }
+                }
+                Timing.sink = sum;
+            }
+        }, nPositions);
+        Timing.time("  LinearIterator", new Runnable() {
+            private final LinearIterator iterator = new LinearIterator();
+
+            @Override
+            public void run() {
+                long sum = 0;
+                for (int i = 0; i < nLines; ++i) {
+                    iterator.set(starts[i], ends[i], true);
+                    for (final int[] position : iterator) {
+                        sum += position[0] + position[1] + position[2];
+                    }
+                }
+                Timing.sink = sum;
+            }
+        }, nPositions);
+        Timing.time("  LineIterator3i", new Runnable() {
+            private final LineIterator3i iterator = new LineIterator3i();
+
+            @Override
+            public void run() {
+                long sum = 0;
+                for (int i = 0; i < nLines; ++i) {
+                    iterator.set(new Point3i(starts[i]), new Point3i(ends[i]), true);
+                    for (final Point3i position : iterator) {
+                        sum += position.x + position.y + position.z;
+                    }
+                }
+                Timing.sink = sum;
+            }
+        }, nPositions);
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * This file is part of the COS AGW ImageJ plugin bundle.
+ * https://github.com/bhoeckendorf/cos-agw_ij
+ *
+ * Copyright 2012, 2013  B. Hoeckendorf <b.hoeckendorf at web dot de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uni_heidelberg.cos.agw.ij.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LineCursorTest {
+
+    // start, end
+    protected final int[][] cases = new int[][]{
+            {0, 0, 0}, {0, 0, 0},
+            {0, 0, 0}, {10, 0, 0},
+            {0, 0, 0}, {0, -7, 0},
+            {3, -2, 5}, {-4, 9, 1},
+            {-5, 5, 5}, {5, -5, -5},
+            {1, 2, 3}, {2, 100, -30},
+            {7, 7, 7}, {-20, 11, 6}
+    };
+
+    @Test
+    public void testFwd() {
+        System.out.println("fwd()");
+        final LineCursor cursor = new LineCursor();
+        for (int i = 0; i < cases.length; i += 2) {
+            final int[] start = cases[i];
+            final int[] end = cases[i + 1];
+            int nSteps = 0;
+            for (int d = 0; d < start.length; ++d) {
+                nSteps = Math.max(nSteps, Math.abs(end[d] - start[d]));
+            }
+            cursor.set(start, end, true);
+            for (int k = 0; k <= nSteps; ++k) {
+                Assert.assertTrue(cursor.hasNext());
+                cursor.fwd();
+                for (int d = 0; d < start.length; ++d) {
+                    // Rounding half up, as Bresenham's algorithm does.
+                    final double expected = start[d] + (nSteps == 0 ? 0 : (double) k * (end[d] - start[d]) / nSteps);
+                    final int dir = end[d] >= start[d] ? 1 : -1;
+                    Assert.assertEquals(start[d] + dir * (int) Math.floor(dir * (expected - start[d]) + 0.5),
+                            cursor.getIntPosition(d));
+                }
+            }
+            Assert.assertFalse(cursor.hasNext());
+            for (int d = 0; d < start.length; ++d) {
+                Assert.assertEquals(end[d], cursor.getIntPosition(d));
+            }
+        }
+    }
+
+    @Test
+    public void testNRemainingSteps() {
+        System.out.println("nRemainingSteps()");
+        final LineCursor cursor = new LineCursor();
+        cursor.set(new int[]{0, 0, 0}, new int[]{2, 9, -4}, true);
+        Assert.assertEquals(10, cursor.nRemainingSteps());
+        cursor.fwd();
+        Assert.assertEquals(9, cursor.nRemainingSteps());
+        cursor.set(new int[]{0, 0, 0}, new int[]{2, 9, -4}, false);
+        Assert.assertEquals(9, cursor.nRemainingSteps());
+
+        // Previously only the first axis was considered.
+        final MutableLinearIterator iterator = new MutableLinearIterator();
+        iterator.set(new int[]{0, 0}, new int[]{0, 5}, false);
+        Assert.assertEquals(5, iterator.nRemainingSteps());
+        int n = 0;
+        for (final int[] position : iterator) {
+            n++;
+        }
+        Assert.assertEquals(5, n);
+    }
+}
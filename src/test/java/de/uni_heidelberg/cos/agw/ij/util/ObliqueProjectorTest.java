@@ -0,0 +1,204 @@
+/**
+ * This file is part of the COS AGW ImageJ plugin bundle.
+ * https://github.com/bhoeckendorf/cos-agw_ij
+ *
+ * Copyright 2012, 2013  B. Hoeckendorf <b.hoeckendorf at web dot de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uni_heidelberg.cos.agw.ij.util;
+
+import de.uni_heidelberg.cos.agw.imglib2.realtransform.PositionableRealTransform;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import org.junit.Assert;
+import net.imglib2.realtransform.AffineTransform3D;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class ObliqueProjectorTest {
+
+    protected final float PREC_FLOAT = 1E-4f;
+    protected final int nAngles = 24;
+    private final int width = 40, height = 36, depth = 28;
+
+    // Mostly empty volume with a few blobs and single voxels. The 32-bit
+    // volume has negative values, which the maximum of a ray skipping empty
+    // space must still see.
+    private ImageStack createVolume(final boolean isFloat) {
+        final ImageStack stack = new ImageStack(width, height);
+        for (int z = 0; z < depth; ++z) {
+            stack.addSlice(isFloat ? new FloatProcessor(width, height) : new ByteProcessor(width, height));
+        }
+        final double[][] blobs = {{10, 12, 8, 5, 200}, {28, 20, 18, 7, 120}, {20, 30, 22, 3, 250}};
+        for (int z = 0; z < depth; ++z) {
+            for (int y = 0; y < height; ++y) {
+                for (int x = 0; x < width; ++x) {
+                    for (final double[] blob : blobs) {
+                        final double dx = x - blob[0], dy = y - blob[1], dz = z - blob[2];
+                        final double r2 = dx * dx + dy * dy + dz * dz;
+                        if (r2 <= blob[3] * blob[3]) {
+                            final double value = blob[4] * (1 - r2 / (2 * blob[3] * blob[3]));
+                            stack.getProcessor(z + 1).putPixelValue(x, y, isFloat && dx < 0 ? -value : value);
+                        }
+                    }
+                }
+            }
+        }
+        final Random random = new Random(42);
+        for (int i = 0; i < 20; ++i) {
+            stack.getProcessor(1 + random.nextInt(depth)).putPixelValue(random.nextInt(width),
+                    random.nextInt(height), 1 + random.nextInt(254));
+        }
+        return stack;
+    }
+
+    private float[] project(final ObliqueProjector projector) {
+        final int[] size = projector.getOutputSize();
+        return (float[]) projector.project(1, size[2]).getPixels();
+    }
+
+    @Test
+    public void testProject() {
+        System.out.println("project(int, int)");
+        final ImageStack stack = createVolume(true);
+        final ObliqueProjector projector = new ObliqueProjector(stack, new double[]{1, 1, 1});
+        Assert.assertArrayEquals(new int[]{width, height, depth}, projector.getOutputSize());
+        projector.setReduction(ObliqueProjector.Reduction.MAX);
+        final float[] max = project(projector);
+        projector.setReduction(ObliqueProjector.Reduction.SUM);
+        final float[] sum = project(projector);
+        projector.setReduction(ObliqueProjector.Reduction.MEAN);
+        final float[] mean = project(projector);
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                float expectedMax = -Float.MAX_VALUE;
+                float expectedSum = 0;
+                for (int z = 1; z <= depth; ++z) {
+                    final float value = stack.getProcessor(z).getf(x, y);
+                    expectedMax = Math.max(expectedMax, value);
+                    expectedSum += value;
+                }
+                final int i = y * width + x;
+                Assert.assertEquals(expectedMax, max[i], PREC_FLOAT);
+                Assert.assertEquals(expectedSum, sum[i], PREC_FLOAT);
+                Assert.assertEquals(expectedSum / depth, mean[i], PREC_FLOAT);
+            }
+        }
+    }
+
+    @Test
+    public void testSkipEmptySpace() {
+        System.out.println("setSkipEmptySpace(boolean)");
+        final ObliqueProjector.Reduction[] reductions = {ObliqueProjector.Reduction.MAX,
+                ObliqueProjector.Reduction.SUM, ObliqueProjector.Reduction.ALPHA};
+        for (final boolean isFloat : new boolean[]{false, true}) {
+            final ObliqueProjector projector = new ObliqueProjector(createVolume(isFloat), new double[]{1, 1, 1.5});
+            projector.setOpaqueValue(400);
+            // The volume is analyzed once, for all views.
+            final ObliqueProjector skipping = new ObliqueProjector(projector);
+            skipping.setSkipEmptySpace(true);
+            for (final boolean isLinear : new boolean[]{false, true}) {
+                projector.setInterpolation(isLinear);
+                skipping.setInterpolation(isLinear);
+                for (final ObliqueProjector.Reduction reduction : reductions) {
+                    projector.setReduction(reduction);
+                    skipping.setReduction(reduction);
+                    for (int axis = 0; axis < 3; ++axis) {
+                        for (int i = 0; i < nAngles; ++i) {
+                            projector.setRotation(axis, 2 * Math.PI * i / nAngles);
+                            skipping.setRotation(axis, 2 * Math.PI * i / nAngles);
+                            final String message = String.format("%s-bit, %s, %s, axis %d, angle %d",
+                                    isFloat ? 32 : 8, isLinear ? "linear" : "nearest", reduction, axis, i);
+                            Assert.assertArrayEquals(message, project(projector), project(skipping), 0);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testAlpha() {
+        System.out.println("setReduction(Reduction), alpha");
+        // A uniform cube, 41 samples with opacity 0.01 along each ray, in any
+        // orientation.
+        final ImageStack stack = new ImageStack(64, 64);
+        for (int z = 0; z < 64; ++z) {
+            final FloatProcessor ip = new FloatProcessor(64, 64);
+            ip.set(1);
+            stack.addSlice(ip);
+        }
+        final ObliqueProjector projector = new ObliqueProjector(stack, new double[]{1, 1, 1});
+        projector.setReduction(ObliqueProjector.Reduction.ALPHA);
+        projector.setOpaqueValue(100);
+        final int[] size = {4, 4, 41};
+        for (final double radians : new double[]{0, Math.PI / 4, 1}) {
+            projector.setAngles(0, radians);
+            projector.setOutputSize(size);
+            final float[] alpha = (float[]) projector.project(1, size[2]).getPixels();
+            for (final float value : alpha) {
+                Assert.assertEquals(1 - Math.pow(0.99, 41), value, PREC_FLOAT);
+            }
+        }
+
+        // Opaque samples hide everything behind them.
+        final ImageStack layers = new ImageStack(4, 4);
+        for (final double value : new double[]{0, 50, 200, 100}) {
+            final FloatProcessor ip = new FloatProcessor(4, 4);
+            ip.set(value);
+            layers.addSlice(ip);
+        }
+        final ObliqueProjector layered = new ObliqueProjector(layers, new double[]{1, 1, 1});
+        layered.setReduction(ObliqueProjector.Reduction.ALPHA);
+        layered.setOpaqueValue(100);
+        Assert.assertEquals(0.5 * 50 + 0.5 * 200, layered.project(1, 4).getf(0, 0), PREC_FLOAT);
+        layered.setSkipEmptySpace(true);
+        Assert.assertEquals(0.5 * 50 + 0.5 * 200, layered.project(1, 4).getf(0, 0), PREC_FLOAT);
+    }
+
+    @Test
+    public void testSetView() {
+        System.out.println("setView(RealTransform)");
+        final ObliqueProjector projector = new ObliqueProjector(createVolume(true), new double[]{1, 1, 1.5});
+        final ObliqueProjector expected = new ObliqueProjector(projector);
+        final PositionableRealTransform camera = new PositionableRealTransform(new AffineTransform3D());
+        camera.setPosition(new double[]{19.5, 17.5, 20});
+        projector.setView(camera);
+        Assert.assertArrayEquals(project(expected), project(projector), 0);
+
+        // Rotated by 90 degrees around y, rays run along x.
+        camera.rotate(1, Math.PI / 2);
+        projector.setView(camera);
+        expected.setAngles(0, Math.PI / 2);
+        Assert.assertArrayEquals(expected.getOutputSize(), projector.getOutputSize());
+        Assert.assertArrayEquals(project(expected), project(projector), PREC_FLOAT);
+    }
+
+    @Test
+    public void testSkipEmptySpaceEmpty() {
+        System.out.println("setSkipEmptySpace(boolean), empty volume");
+        final ImageStack stack = new ImageStack(width, height);
+        for (int z = 0; z < depth; ++z) {
+            stack.addSlice(new ByteProcessor(width, height));
+        }
+        final ObliqueProjector projector = new ObliqueProjector(stack, new double[]{1, 1, 1});
+        projector.setSkipEmptySpace(true);
+        projector.setAngles(0.3, 0.7);
+        final ImageProcessor ip = projector.project(1, projector.getOutputSize()[2]);
+        Assert.assertEquals(0, ip.getStatistics().max, 0);
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * This file is part of the COS AGW ImageJ plugin bundle.
+ * https://github.com/bhoeckendorf/cos-agw_ij
+ *
+ * Copyright 2012, 2013  B. Hoeckendorf <b.hoeckendorf at web dot de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uni_heidelberg.cos.agw.ij.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class PointGridTest {
+
+    protected final double PREC_DOUBLE = 0.000001;
+
+    @Test
+    public void testSearch() {
+        System.out.println("search(double[], int)");
+        final PointCloud points = createPoints(3, 5000);
+        testSearch(points, new PointGrid(points));
+    }
+
+    @Test
+    public void testSearchHashed() {
+        System.out.println("search(double[], int), hashed cells");
+        // Many more cells than points.
+        final PointCloud points = createPoints(3, 2000);
+        testSearch(points, new PointGrid(points, 0.3));
+    }
+
+    @Test
+    public void testSearch2D() {
+        System.out.println("search(double[], int), 2D");
+        final PointCloud points = createPoints(2, 1000);
+        testSearch(points, new PointGrid(points, 1.7));
+    }
+
+    @Test
+    public void testSearchFewPoints() {
+        System.out.println("search(double[], int), fewer points than k");
+        final PointCloud points = new PointCloud(2);
+        points.add(new double[]{1, 1}, 10);
+        points.add(new double[]{3, 1}, 20);
+        final PointGrid.Searcher searcher = new PointGrid(points, 0.5).searcher();
+        searcher.search(new double[]{2.5, 1}, 5);
+        Assert.assertEquals(2, searcher.getN());
+        Assert.assertEquals(0.25, searcher.getSquareDistance(0), PREC_DOUBLE);
+        Assert.assertEquals(2.25, searcher.getSquareDistance(1), PREC_DOUBLE);
+        Assert.assertEquals(20, new PointGrid(points, 0.5).getValue(searcher.getIndex(0)), PREC_DOUBLE);
+    }
+
+    // Coarse coordinates, so that there are duplicates.
+    private static PointCloud createPoints(final int nDimensions, final int n) {
+        final Random random = new Random(1);
+        final PointCloud points = new PointCloud(nDimensions, 1);
+        final double[] position = new double[nDimensions];
+        for (int i = 0; i < n; ++i) {
+            for (int d = 0; d < nDimensions; ++d) {
+                position[d] = random.nextInt(40) * 0.5;
+            }
+            points.add(position, i);
+        }
+        return points;
+    }
+
+    private void testSearch(final PointCloud points, final PointGrid grid) {
+        Assert.assertEquals(points.size(), grid.size());
+        final int nDimensions = points.numDimensions();
+        final Random random = new Random(2);
+        final PointGrid.Searcher searcher = grid.searcher();
+        final double[] position = new double[nDimensions];
+        for (int query = 0; query < 200; ++query) {
+            // Including positions outside the bounding box.
+            for (int d = 0; d < nDimensions; ++d) {
+                position[d] = random.nextDouble() * 30 - 5;
+            }
+            final double[] expected = new double[points.size()];
+            for (int i = 0; i < points.size(); ++i) {
+                expected[i] = getSquareDistance(points, i, position);
+            }
+            Arrays.sort(expected);
+            for (final int k : new int[]{1, 5, 17}) {
+                searcher.search(position, k);
+                Assert.assertEquals(k, searcher.getN());
+                for (int i = 0; i < k; ++i) {
+                    Assert.assertEquals(expected[i], searcher.getSquareDistance(i), PREC_DOUBLE);
+                    // The value identifies the point, check that it moved along.
+                    final int original = (int) grid.getValue(searcher.getIndex(i));
+                    Assert.assertEquals(expected[i], getSquareDistance(points, original, position), PREC_DOUBLE);
+                }
+            }
+        }
+    }
+
+    private static double getSquareDistance(final PointCloud points, final int i, final double[] position) {
+        double squareDistance = 0;
+        for (int d = 0; d < points.numDimensions(); ++d) {
+            final double difference = position[d] - points.getCoordinate(i, d);
+            squareDistance += difference * difference;
+        }
+        return squareDistance;
+    }
+}
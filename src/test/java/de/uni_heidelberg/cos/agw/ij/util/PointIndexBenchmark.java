@@ -0,0 +1,95 @@
+/**
+ * This file is part of the COS AGW ImageJ plugin bundle.
+ * https://github.com/bhoeckendorf/cos-agw_ij
+ *
+ * Copyright 2012, 2013  B. Hoeckendorf <b.hoeckendorf at web dot de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uni_heidelberg.cos.agw.ij.util;
+
+import de.uni_heidelberg.cos.agw.Timing;
+
+import java.util.Random;
+
+/**
+ * Cost of the k-nearest neighbor searches of Reorder Points per query, with
+ * {@link PointGrid} and {@link PointKDTree}, see {@link Timing}. The points
+ * are a jittered grid, like a dense coordinate map, and the queries visit the
+ * integer positions row by row, so successive queries are close.
+ */
+public class PointIndexBenchmark {
+
+    private static final int size = 64;
+
+    public static void main(final String[] args) {
+        final PointCloud points = new PointCloud(3, size * size * size);
+        final Random random = new Random(42);
+        final double[] p = new double[3];
+        for (int z = 0; z < size; ++z) {
+            for (int y = 0; y < size; ++y) {
+                for (int x = 0; x < size; ++x) {
+                    p[0] = x + 0.4 * (random.nextDouble() - 0.5);
+                    p[1] = y + 0.4 * (random.nextDouble() - 0.5);
+                    p[2] = z + 0.4 * (random.nextDouble() - 0.5);
+                    points.add(p, x);
+                }
+            }
+        }
+
+        final long nPoints = points.size();
+        System.out.println(String.format("%d^3 jittered points", size));
+        Timing.time("  build, grid", new Runnable() {
+            @Override
+            public void run() {
+                Timing.sink = new PointGrid(points).size();
+            }
+        }, nPoints);
+        Timing.time("  build, KD-tree", new Runnable() {
+            @Override
+            public void run() {
+                Timing.sink = new PointKDTree(points).size();
+            }
+        }, nPoints);
+        final PointIndex grid = new PointGrid(points);
+        final PointIndex tree = new PointKDTree(points);
+        for (final int k : new int[]{1, 10}) {
+            Timing.time("  " + k + "-NN, grid", createSearchTask(grid, k), nPoints);
+            Timing.time("  " + k + "-NN, KD-tree", createSearchTask(tree, k), nPoints);
+        }
+    }
+
+    private static Runnable createSearchTask(final PointIndex index, final int k) {
+        return new Runnable() {
+            private final PointIndex.Searcher searcher = index.searcher();
+            private final double[] position = new double[3];
+
+            @Override
+            public void run() {
+                double sum = 0;
+                for (int z = 0; z < size; ++z) {
+                    position[2] = z;
+                    for (int y = 0; y < size; ++y) {
+                        position[1] = y;
+                        for (int x = 0; x < size; ++x) {
+                            position[0] = x;
+                            searcher.search(position, k);
+                            sum += searcher.getSquareDistance(searcher.getN() - 1);
+                        }
+                    }
+                }
+                Timing.sink = sum;
+            }
+        };
+    }
+}
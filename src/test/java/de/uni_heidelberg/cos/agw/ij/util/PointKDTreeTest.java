@@ -0,0 +1,97 @@
+/**
+ * This file is part of the COS AGW ImageJ plugin bundle.
+ * https://github.com/bhoeckendorf/cos-agw_ij
+ *
+ * Copyright 2012, 2013  B. Hoeckendorf <b.hoeckendorf at web dot de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uni_heidelberg.cos.agw.ij.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class PointKDTreeTest {
+
+    protected final double PREC_DOUBLE = 0.000001;
+
+    @Test
+    public void testSearch() {
+        System.out.println("search(double[], int)");
+        final Random random = new Random(1);
+        final PointCloud points = new PointCloud(3, 1);
+        final double[] position = new double[3];
+        for (int i = 0; i < 5000; ++i) {
+            for (int d = 0; d < 3; ++d) {
+                // Coarse coordinates, so that there are duplicates.
+                position[d] = random.nextInt(40) * 0.5;
+            }
+            points.add(position, i);
+        }
+        final PointKDTree tree = new PointKDTree(points);
+        Assert.assertEquals(points.size(), tree.size());
+        final PointKDTree.Searcher searcher = tree.searcher();
+        for (int query = 0; query < 200; ++query) {
+            for (int d = 0; d < 3; ++d) {
+                position[d] = random.nextDouble() * 24 - 2;
+            }
+            final double[] expected = new double[points.size()];
+            for (int i = 0; i < points.size(); ++i) {
+                expected[i] = getSquareDistance(points, i, position);
+            }
+            Arrays.sort(expected);
+            for (final int k : new int[]{1, 5, 17}) {
+                searcher.search(position, k);
+                Assert.assertEquals(k, searcher.getN());
+                for (int i = 0; i < k; ++i) {
+                    final int index = searcher.getIndex(i);
+                    Assert.assertEquals(expected[i], searcher.getSquareDistance(i), PREC_DOUBLE);
+                    double squareDistance = 0;
+                    for (int d = 0; d < 3; ++d) {
+                        final double difference = position[d] - tree.getCoordinate(index, d);
+                        squareDistance += difference * difference;
+                    }
+                    Assert.assertEquals(expected[i], squareDistance, PREC_DOUBLE);
+                    // The value identifies the point, check that it moved along.
+                    final int original = (int) tree.getValue(index);
+                    Assert.assertEquals(expected[i], getSquareDistance(points, original, position), PREC_DOUBLE);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSearchFewPoints() {
+        System.out.println("search(double[], int), fewer points than k");
+        final PointCloud points = new PointCloud(2);
+        points.add(new double[]{1, 1}, 10);
+        points.add(new double[]{3, 1}, 20);
+        final PointKDTree.Searcher searcher = new PointKDTree(points).searcher();
+        searcher.search(new double[]{2.5, 1}, 5);
+        Assert.assertEquals(2, searcher.getN());
+        Assert.assertEquals(0.25, searcher.getSquareDistance(0), PREC_DOUBLE);
+        Assert.assertEquals(2.25, searcher.getSquareDistance(1), PREC_DOUBLE);
+    }
+
+    private static double getSquareDistance(final PointCloud points, final int i, final double[] position) {
+        double squareDistance = 0;
+        for (int d = 0; d < points.numDimensions(); ++d) {
+            final double difference = position[d] - points.getCoordinate(i, d);
+            squareDistance += difference * difference;
+        }
+        return squareDistance;
+    }
+}
@@ -0,0 +1,182 @@
+/**
+ * This file is part of the COS AGW ImageJ plugin bundle.
+ * https://github.com/bhoeckendorf/cos-agw_ij
+ *
+ * Copyright 2012, 2013  B. Hoeckendorf <b.hoeckendorf at web dot de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uni_heidelberg.cos.agw.ij.util;
+
+import ij.ImageStack;
+import ij.Prefs;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.EigenDecomposition;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.vecmath.Point3d;
+import java.util.Arrays;
+
+public class RegionStatisticsTest {
+
+    protected final double PREC_DOUBLE = 0.000001;
+    // Relative tolerance of a voxelized ellipsoid against the continuous one.
+    protected final double PREC_VOXELIZED = 0.02;
+    private final int width = 48, height = 40, depth = 30;
+    // Box of label 3: x 2..9, y 3..7, slices 2..5.
+    private final int[] box = {2, 3, 2, 9, 7, 5};
+    // Ellipsoid of label 7: center, semi-axes and rotations around z and x.
+    private final double[] center = {30, 20, 15};
+    private final double[] semiAxes = {12, 7, 4};
+    private final double angleZ = Math.PI / 6, angleX = Math.PI / 9;
+    private int nThreads;
+
+    @Before
+    public void setUp() {
+        nThreads = Prefs.getThreads();
+    }
+
+    @After
+    public void tearDown() {
+        Prefs.setThreads(nThreads);
+    }
+
+    private ImageStack createLabels() {
+        final ImageStack stack = new ImageStack(width, height);
+        final double cz = Math.cos(angleZ), sz = Math.sin(angleZ);
+        final double cx = Math.cos(angleX), sx = Math.sin(angleX);
+        for (int z = 1; z <= depth; ++z) {
+            final ByteProcessor ip = new ByteProcessor(width, height);
+            for (int y = 0; y < height; ++y) {
+                for (int x = 0; x < width; ++x) {
+                    if (x >= box[0] && x <= box[3] && y >= box[1] && y <= box[4] && z >= box[2] && z <= box[5]) {
+                        ip.set(x, y, 3);
+                    }
+                    // Into the frame of the ellipsoid, inverse rotation around
+                    // x, then around z.
+                    final double px = x - center[0];
+                    final double py = y - center[1];
+                    final double pz = z - 1 - center[2];
+                    final double qy = cx * py + sx * pz;
+                    final double qz = -sx * py + cx * pz;
+                    final double rx = cz * px + sz * qy;
+                    final double ry = -sz * px + cz * qy;
+                    final double u = rx / semiAxes[0], v = ry / semiAxes[1], w = qz / semiAxes[2];
+                    if (u * u + v * v + w * w <= 1) {
+                        ip.set(x, y, 7);
+                    }
+                }
+            }
+            stack.addSlice(ip);
+        }
+        return stack;
+    }
+
+    // Intensity x at (x, y, z).
+    private ImageStack createIntensities() {
+        final ImageStack stack = new ImageStack(width, height);
+        for (int z = 1; z <= depth; ++z) {
+            final FloatProcessor ip = new FloatProcessor(width, height);
+            for (int y = 0; y < height; ++y) {
+                for (int x = 0; x < width; ++x) {
+                    ip.setf(x, y, x);
+                }
+            }
+            stack.addSlice(ip);
+        }
+        return stack;
+    }
+
+    @Test
+    public void testBox() {
+        System.out.println("measure(ImageStack, ImageStack), box");
+        final RegionStatistics statistics = RegionStatistics.measure(createLabels(), createIntensities());
+        Assert.assertArrayEquals(new int[]{3, 7}, statistics.getLabels());
+        Assert.assertTrue(statistics.hasIntensities());
+        Assert.assertEquals(8 * 5 * 4, statistics.getCount(3));
+        Assert.assertArrayEquals(box, statistics.getBoundingBox(3));
+
+        final Point3d centroid = statistics.getCentroid(3);
+        Assert.assertEquals(5.5, centroid.x, PREC_DOUBLE);
+        Assert.assertEquals(5, centroid.y, PREC_DOUBLE);
+        Assert.assertEquals(3.5, centroid.z, PREC_DOUBLE);
+
+        // Variance of n consecutive integers is (n^2 - 1) / 12.
+        final double[] covariance = statistics.getCovariance(3);
+        Assert.assertArrayEquals(new double[]{63 / 12.0, 24 / 12.0, 15 / 12.0, 0, 0, 0}, covariance, PREC_DOUBLE);
+
+        // Weighted by x: sum of x^2 over sum of x for x = 2..9.
+        final Point3d weighted = statistics.getWeightedCentroid(3);
+        Assert.assertEquals(284 / 44.0, weighted.x, PREC_DOUBLE);
+        Assert.assertEquals(5, weighted.y, PREC_DOUBLE);
+        Assert.assertEquals(3.5, weighted.z, PREC_DOUBLE);
+        Assert.assertEquals(44 * 5 * 4, statistics.getSum(3), PREC_DOUBLE);
+        Assert.assertEquals(5.5, statistics.getMean(3), PREC_DOUBLE);
+        Assert.assertEquals(2, statistics.getMin(3), PREC_DOUBLE);
+        Assert.assertEquals(9, statistics.getMax(3), PREC_DOUBLE);
+    }
+
+    @Test
+    public void testEllipsoid() {
+        System.out.println("measure(ImageStack, ImageStack), ellipsoid");
+        final RegionStatistics statistics = RegionStatistics.measure(createLabels(), null);
+        Assert.assertFalse(statistics.hasIntensities());
+        final double volume = 4 * Math.PI / 3 * semiAxes[0] * semiAxes[1] * semiAxes[2];
+        Assert.assertEquals(1, statistics.getCount(7) / volume, PREC_VOXELIZED);
+
+        // Symmetric about its center, which is on the grid.
+        final Point3d centroid = statistics.getCentroid(7);
+        Assert.assertEquals(center[0], centroid.x, PREC_DOUBLE);
+        Assert.assertEquals(center[1], centroid.y, PREC_DOUBLE);
+        Assert.assertEquals(center[2] + 1, centroid.z, PREC_DOUBLE);
+        Assert.assertEquals(centroid, statistics.getWeightedCentroid(7));
+
+        // The covariance of a solid ellipsoid has the eigenvalues a^2 / 5.
+        final double[] c = statistics.getCovariance(7);
+        final double[] eigenvalues = new EigenDecomposition(new Array2DRowRealMatrix(new double[][]{
+                {c[0], c[3], c[4]}, {c[3], c[1], c[5]}, {c[4], c[5], c[2]}})).getRealEigenvalues();
+        Arrays.sort(eigenvalues);
+        for (int d = 0; d < 3; ++d) {
+            final double expected = semiAxes[2 - d] * semiAxes[2 - d] / 5;
+            Assert.assertEquals(1, eigenvalues[d] / expected, 2 * PREC_VOXELIZED);
+        }
+    }
+
+    @Test
+    public void testParallel() {
+        System.out.println("measure(ImageStack, ImageStack, boolean)");
+        final ImageStack labels = createLabels();
+        final ImageStack intensities = createIntensities();
+        final RegionStatistics expected = RegionStatistics.measure(labels, intensities, false);
+        for (final int threads : new int[]{2, 3, 7}) {
+            Prefs.setThreads(threads);
+            final RegionStatistics statistics = RegionStatistics.measure(labels, intensities, true);
+            Assert.assertArrayEquals(expected.getLabels(), statistics.getLabels());
+            for (final int label : expected.getLabels()) {
+                Assert.assertEquals(expected.getCount(label), statistics.getCount(label));
+                Assert.assertArrayEquals(expected.getBoundingBox(label), statistics.getBoundingBox(label));
+                Assert.assertArrayEquals(expected.getCovariance(label), statistics.getCovariance(label),
+                        PREC_DOUBLE);
+                Assert.assertEquals(expected.getWeightedCentroid(label).x,
+                        statistics.getWeightedCentroid(label).x, PREC_DOUBLE);
+                Assert.assertEquals(expected.getMin(label), statistics.getMin(label), PREC_DOUBLE);
+                Assert.assertEquals(expected.getMax(label), statistics.getMax(label), PREC_DOUBLE);
+            }
+        }
+    }
+}
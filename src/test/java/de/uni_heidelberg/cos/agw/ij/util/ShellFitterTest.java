@@ -0,0 +1,93 @@
+/**
+ * This file is part of the COS AGW ImageJ plugin bundle.
+ * https://github.com/bhoeckendorf/cos-agw_ij
+ *
+ * Copyright 2012, 2013  B. Hoeckendorf <b.hoeckendorf at web dot de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uni_heidelberg.cos.agw.ij.util;
+
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ShellFitterTest {
+
+    // in voxels
+    protected final double TOLERANCE = 0.5;
+    protected final int width = 80, height = 70, depth = 60;
+
+    @Test
+    public void testFitSphere() {
+        System.out.println("fitSphere()");
+        final double[] center = {40.3, 35.2, 30.7};
+        final ImageStack stack = new ImageStack(width, height);
+        for (int z = 0; z < depth; ++z) {
+            final ByteProcessor ip = new ByteProcessor(width, height);
+            for (int y = 0; y < height; ++y) {
+                for (int x = 0; x < width; ++x) {
+                    final double r = Math.sqrt((x - center[0]) * (x - center[0])
+                            + (y - center[1]) * (y - center[1]) + (z - center[2]) * (z - center[2]));
+                    if (r > 15 && r < 20) {
+                        ip.set(x, y, 200);
+                    }
+                }
+            }
+            stack.addSlice("", ip);
+        }
+        final ShellFitter fitter = new ShellFitter(stack, 100, 1);
+        fitter.setCoverage(1);
+        fitter.fitSphere();
+        Assert.assertArrayEquals(center, fitter.getCenter(), TOLERANCE);
+        Assert.assertNull(fitter.getAxis());
+        Assert.assertEquals(15, fitter.getInnerRadius(), 2 * TOLERANCE);
+        Assert.assertEquals(20, fitter.getOuterRadius(), 2 * TOLERANCE);
+    }
+
+    @Test
+    public void testFitCylinder() {
+        System.out.println("fitCylinder()");
+        final double[] center = {38, 36, 29};
+        final double[] axis = {0.3, -0.2, 0.9};
+        final double length = Math.sqrt(axis[0] * axis[0] + axis[1] * axis[1] + axis[2] * axis[2]);
+        for (int d = 0; d < 3; ++d) {
+            axis[d] /= length;
+        }
+        final ImageStack stack = new ImageStack(width, height);
+        for (int z = 0; z < depth; ++z) {
+            final ByteProcessor ip = new ByteProcessor(width, height);
+            for (int y = 0; y < height; ++y) {
+                for (int x = 0; x < width; ++x) {
+                    final double[] offset = {x - center[0], y - center[1], z - center[2]};
+                    final double t = offset[0] * axis[0] + offset[1] * axis[1] + offset[2] * axis[2];
+                    final double r = Math.sqrt(offset[0] * offset[0] + offset[1] * offset[1]
+                            + offset[2] * offset[2] - t * t);
+                    if (r > 12 && r < 16 && Math.abs(t) < 20) {
+                        ip.set(x, y, 200);
+                    }
+                }
+            }
+            stack.addSlice("", ip);
+        }
+        final ShellFitter fitter = new ShellFitter(stack, 100, 1);
+        fitter.setCoverage(1);
+        fitter.fitCylinder();
+        Assert.assertArrayEquals(center, fitter.getCenter(), TOLERANCE);
+        Assert.assertArrayEquals(axis, fitter.getAxis(), 0.01);
+        Assert.assertEquals(12, fitter.getInnerRadius(), 2 * TOLERANCE);
+        Assert.assertEquals(16, fitter.getOuterRadius(), 2 * TOLERANCE);
+        Assert.assertEquals(40, fitter.getHeight(), 4 * TOLERANCE);
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * This file is part of the COS AGW ImageJ plugin bundle.
+ * https://github.com/bhoeckendorf/cos-agw_ij
+ *
+ * Copyright 2012, 2013  B. Hoeckendorf <b.hoeckendorf at web dot de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uni_heidelberg.cos.agw.ij.util;
+
+import ij.ImageStack;
+import ij.process.FloatProcessor;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class VolumePyramidTest {
+
+    protected final double PREC_FLOAT = 1E-4;
+
+    // 5 x 3 x 3 voxels with value x + 10 * y + 100 * z. The average of a
+    // block is the value at its center, and the last block along each axis
+    // has only one voxel.
+    private VolumePyramid createPyramid() {
+        final ImageStack stack = new ImageStack(5, 3);
+        for (int z = 0; z < 3; ++z) {
+            final FloatProcessor ip = new FloatProcessor(5, 3);
+            for (int y = 0; y < 3; ++y) {
+                for (int x = 0; x < 5; ++x) {
+                    ip.setf(x, y, x + 10 * y + 100 * z);
+                }
+            }
+            stack.addSlice(ip);
+        }
+        return new VolumePyramid(stack, 2);
+    }
+
+    @Test
+    public void testDimensions() {
+        System.out.println("getDimensions(int), getFactor(int)");
+        final VolumePyramid pyramid = createPyramid();
+        Assert.assertEquals(2, pyramid.getNLevels());
+        Assert.assertArrayEquals(new int[]{3, 2, 2}, pyramid.getDimensions(0));
+        Assert.assertArrayEquals(new int[]{2, 1, 1}, pyramid.getDimensions(1));
+        Assert.assertEquals(2, pyramid.getFactor(0));
+        Assert.assertEquals(4, pyramid.getFactor(1));
+    }
+
+    @Test
+    public void testGetLinear() {
+        System.out.println("getLinear(int, double, double, double)");
+        final VolumePyramid pyramid = createPyramid();
+        // Voxel i of level 0 is centered at 2i + 0.5 of the volume.
+        Assert.assertEquals(0.5 + 5 + 50, pyramid.getLinear(0, 0.5, 0.5, 0.5), PREC_FLOAT);
+        Assert.assertEquals(2.5 + 5 + 50, pyramid.getLinear(0, 2.5, 0.5, 0.5), PREC_FLOAT);
+        // Halfway between the centers of two voxels.
+        Assert.assertEquals(1.5 + 5 + 50, pyramid.getLinear(0, 1.5, 0.5, 0.5), PREC_FLOAT);
+        // Half a voxel of level 0 outside, halfway to 0.
+        Assert.assertEquals((0.5 + 5 + 50) / 2, pyramid.getLinear(0, -0.5, 0.5, 0.5), PREC_FLOAT);
+        Assert.assertEquals(0, pyramid.getLinear(0, -1.5, 0.5, 0.5), PREC_FLOAT);
+    }
+
+    @Test
+    public void testOddEdges() {
+        System.out.println("getLinear(int, double, double, double), odd edges");
+        final VolumePyramid pyramid = createPyramid();
+        // The edge voxels of level 0 average x = 4 and y, z = 2 only.
+        Assert.assertEquals(4 + 20 + 200, pyramid.getLinear(0, 4.5, 2.5, 2.5), PREC_FLOAT);
+        Assert.assertEquals(0.5 + 20 + 50, pyramid.getLinear(0, 0.5, 2.5, 0.5), PREC_FLOAT);
+        // Level 1 averages voxels of level 0, each with the same weight: the
+        // centers 0.5 and 2.5 along x, 0.5 and 2 along y and z.
+        Assert.assertEquals(1.5 + 12.5 + 125, pyramid.getLinear(1, 1.5, 1.5, 1.5), PREC_FLOAT);
+        // Voxel 1 of level 1 along x is voxel 2 of level 0 only.
+        Assert.assertEquals(4 + 12.5 + 125, pyramid.getLinear(1, 5.5, 1.5, 1.5), PREC_FLOAT);
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * This file is part of the COS AGW ImageJ plugin bundle.
+ * https://github.com/bhoeckendorf/cos-agw_ij
+ *
+ * Copyright 2012, 2013  B. Hoeckendorf <b.hoeckendorf at web dot de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uni_heidelberg.cos.agw.ij.util;
+
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class Watershed3DTest {
+
+    protected final double TOLERANCE = 0.5;
+    private final int width = 48, height = 32, depth = 32;
+    private final double radius = 8;
+
+    // Mask of the union of spheres of radius around the centers.
+    private ImageStack createSpheres(final double[][] centers) {
+        final ImageStack stack = new ImageStack(width, height);
+        for (int z = 0; z < depth; ++z) {
+            final ByteProcessor slice = new ByteProcessor(width, height);
+            for (int y = 0; y < height; ++y) {
+                for (int x = 0; x < width; ++x) {
+                    for (final double[] center : centers) {
+                        final double dx = x - center[0];
+                        final double dy = y - center[1];
+                        final double dz = z - center[2];
+                        if (dx * dx + dy * dy + dz * dz <= radius * radius) {
+                            slice.set(x, y, 255);
+                        }
+                    }
+                }
+            }
+            stack.addSlice(slice);
+        }
+        return stack;
+    }
+
+    private int getLabel(final int[] labels, final double[] position) {
+        return labels[((int) position[2] * height + (int) position[1]) * width + (int) position[0]];
+    }
+
+    // Every foreground voxel and only those are labeled.
+    private void assertLabelsForeground(final ImageStack mask, final int[] labels, final int nLabels) {
+        for (int z = 0; z < depth; ++z) {
+            for (int i = 0; i < width * height; ++i) {
+                final int label = labels[z * width * height + i];
+                Assert.assertEquals(mask.getProcessor(z + 1).get(i) != 0, label != 0);
+                Assert.assertTrue(label <= nLabels);
+            }
+        }
+    }
+
+    @Test
+    public void testTouchingSpheres() {
+        System.out.println("run(ImageStack), touching spheres");
+        final double[][] centers = {{16, 16, 16}, {31, 16, 16}};
+        final ImageStack mask = createSpheres(centers);
+        final Watershed3D watershed = new Watershed3D(TOLERANCE, new double[]{1, 1, 1});
+        final int[] labels = watershed.run(mask);
+        Assert.assertEquals(2, watershed.getNLabels());
+        assertLabelsForeground(mask, labels, 2);
+        final int first = getLabel(labels, centers[0]);
+        final int second = getLabel(labels, centers[1]);
+        Assert.assertTrue(first > 0 && second > 0);
+        Assert.assertNotEquals(first, second);
+        // Each sphere keeps its side of the neck.
+        Assert.assertEquals(first, getLabel(labels, new double[]{21, 16, 16}));
+        Assert.assertEquals(second, getLabel(labels, new double[]{26, 16, 16}));
+    }
+
+    @Test
+    public void testShallowSaddle() {
+        System.out.println("run(ImageStack), shallow saddle");
+        // The distance map peaks at about 8 at the centers and is about
+        // sqrt(8^2 - 2^2) = 7.75 between them, less than the tolerance lower.
+        final double[][] centers = {{22, 16, 16}, {26, 16, 16}};
+        final ImageStack mask = createSpheres(centers);
+        final Watershed3D watershed = new Watershed3D(TOLERANCE, new double[]{1, 1, 1});
+        final int[] labels = watershed.run(mask);
+        Assert.assertEquals(1, watershed.getNLabels());
+        assertLabelsForeground(mask, labels, 1);
+    }
+
+    @Test
+    public void testGetDistanceMap() {
+        System.out.println("getDistanceMap(ImageStack)");
+        final double[][] centers = {{16, 16, 16}};
+        final ImageStack mask = createSpheres(centers);
+        final float[] distance = new Watershed3D(TOLERANCE, new double[]{1, 1, 1}).getDistanceMap(mask);
+        // The nearest background voxels of the center are just beyond the radius.
+        final float center = distance[(16 * height + 16) * width + 16];
+        Assert.assertTrue(center > radius && center <= radius + 1);
+        Assert.assertEquals(0, distance[0], 0);
+    }
+}
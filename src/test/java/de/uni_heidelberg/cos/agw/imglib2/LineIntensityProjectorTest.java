@@ -0,0 +1,90 @@
+/**
+ * This file is part of the COS AGW ImageJ plugin bundle.
+ * https://github.com/bhoeckendorf/cos-agw_ij
+ *
+ * Copyright 2012, 2013  B. Hoeckendorf <b.hoeckendorf at web dot de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uni_heidelberg.cos.agw.imglib2;
+
+import net.imglib2.Cursor;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.interpolation.randomaccess.NearestNeighborInterpolatorFactory;
+import net.imglib2.ops.operation.BinaryOperation;
+import net.imglib2.type.numeric.real.FloatType;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LineIntensityProjectorTest {
+
+    protected final float PREC_FLOAT = 1E-5f;
+    protected Img<FloatType> img;
+    protected LineIntensityProjector<FloatType> projector;
+
+    protected final BinaryOperation<FloatType, FloatType, FloatType> sum
+            = new BinaryOperation<FloatType, FloatType, FloatType>() {
+        @Override
+        public FloatType compute(FloatType input1, FloatType input2, FloatType output) {
+            output.set(input1.get() + input2.get());
+            return output;
+        }
+
+        @Override
+        public BinaryOperation<FloatType, FloatType, FloatType> copy() {
+            return this;
+        }
+    };
+
+    @Before
+    public void setUp() {
+        // Value of each pixel is x + 10 * y + 100 * z.
+        img = ArrayImgs.floats(10, 10, 10);
+        final Cursor<FloatType> cursor = img.localizingCursor();
+        while (cursor.hasNext()) {
+            cursor.fwd();
+            cursor.get().set(cursor.getIntPosition(0) + 10 * cursor.getIntPosition(1)
+                    + 100 * cursor.getIntPosition(2));
+        }
+        projector = new LineIntensityProjector<FloatType>(img, new NearestNeighborInterpolatorFactory<FloatType>());
+    }
+
+    @Test
+    public void testCompute() {
+        System.out.println("compute(BinaryOperation)");
+
+        // Within the image.
+        projector.set(new double[]{0, 2, 3}, new double[]{9, 2, 3});
+        Assert.assertEquals(45 + 10 * 20 + 10 * 300, projector.compute(sum).get(), PREC_FLOAT);
+
+        // Starts and ends outside of the image, only x = 0..9 is summed.
+        projector.set(new double[]{-20, 2, 3}, new double[]{30, 2, 3});
+        Assert.assertEquals(45 + 10 * 20 + 10 * 300, projector.compute(sum).get(), PREC_FLOAT);
+
+        // Reversed and diagonal, outside in z beyond 9.
+        projector.set(new double[]{12, 12, 12}, new double[]{-3, -3, -3});
+        Assert.assertEquals(45 * 111, projector.compute(sum).get(), PREC_FLOAT);
+
+        // Single point.
+        projector.set(new double[]{4, 5, 6}, new double[]{4, 5, 6});
+        Assert.assertEquals(654, projector.compute(sum).get(), PREC_FLOAT);
+
+        // Misses the image.
+        projector.set(new double[]{-5, 2, 3}, new double[]{-1, 2, 3});
+        Assert.assertNull(projector.compute(sum));
+        projector.set(new double[]{0, 12, 3}, new double[]{9, 12, 3});
+        Assert.assertNull(projector.compute(sum));
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * This file is part of the COS AGW ImageJ plugin bundle.
+ * https://github.com/bhoeckendorf/cos-agw_ij
+ *
+ * Copyright 2012, 2013  B. Hoeckendorf <b.hoeckendorf at web dot de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uni_heidelberg.cos.agw.imglib2.realtransform;
+
+import net.imglib2.Interval;
+import net.imglib2.realtransform.RealTransform;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Compares the fast float paths of the map transforms with their double
+ * paths.
+ */
+public class FastFloatTest {
+
+    // In voxels, for shells of radius up to 500.
+    protected final double PREC_FLOAT = 1E-3;
+
+    @Test
+    public void testEquirectangular() {
+        System.out.println("EquirectangularToCartesianTransform.apply(float[], float[]), fast float");
+        final EquirectangularToCartesianTransform fast = new EquirectangularToCartesianTransform(400, 500, 0.5, 1);
+        fast.setFastFloat(true);
+        compare(fast, new EquirectangularToCartesianTransform(400, 500, 0.5, 1));
+    }
+
+    @Test
+    public void testAzimuthalEquidistant() {
+        System.out.println("AzimuthalEquidistantToCartesianTransform.apply(float[], float[]), fast float");
+        final AzimuthalEquidistantToCartesianTransform fast = new AzimuthalEquidistantToCartesianTransform(400, 500, 0.5, 1);
+        fast.setFastFloat(true);
+        compare(fast, new AzimuthalEquidistantToCartesianTransform(400, 500, 0.5, 1));
+    }
+
+    @Test
+    public void testCylindrical() {
+        System.out.println("CylindricalToCartesianIntervalTransform.apply(float[], float[]), fast float");
+        final CylindricalToCartesianIntervalTransform fast = new CylindricalToCartesianIntervalTransform(800, 400, 500, 0.5, 1);
+        fast.setFastFloat(true);
+        compare(fast, new CylindricalToCartesianIntervalTransform(800, 400, 500, 0.5, 1));
+    }
+
+    @Test
+    public void testGeographic() {
+        System.out.println("GeographicToCartesianTransform.apply(float[], float[]), fast float");
+        final GeographicToCartesianTransform fast = new GeographicToCartesianTransform();
+        fast.setFastFloat(true);
+        final GeographicToCartesianTransform exact = new GeographicToCartesianTransform();
+        final Random random = new Random(1);
+        final float[] source = new float[3];
+        final float[] target = new float[3];
+        final double[] exactTarget = new double[3];
+        for (int i = 0; i < 100000; ++i) {
+            source[0] = (float) (500 * random.nextDouble());
+            source[1] = (float) ((random.nextDouble() - 0.5) * Math.PI);
+            source[2] = (float) ((2 * random.nextDouble() - 1) * Math.PI);
+            fast.apply(source, target);
+            exact.apply(new double[]{source[0], source[1], source[2]}, exactTarget);
+            for (int d = 0; d < 3; ++d) {
+                Assert.assertEquals(exactTarget[d], target[d], PREC_FLOAT);
+            }
+        }
+    }
+
+    // Compares at random positions within the map.
+    private <T extends RealTransform & Interval> void compare(final T fast, final T exact) {
+        final Random random = new Random(1);
+        final float[] source = new float[3];
+        final float[] target = new float[3];
+        final double[] exactSource = new double[3];
+        final double[] exactTarget = new double[3];
+        for (int i = 0; i < 100000; ++i) {
+            for (int d = 0; d < 3; ++d) {
+                source[d] = (float) (random.nextDouble() * fast.max(d));
+                exactSource[d] = source[d];
+            }
+            fast.apply(source, target);
+            exact.apply(exactSource, exactTarget);
+            for (int d = 0; d < 3; ++d) {
+                Assert.assertEquals(exactTarget[d], target[d], PREC_FLOAT);
+            }
+        }
+    }
+}
@@ -147,6 +147,31 @@ public class GeographicToSphericalTransformTest {
         }
     }
 
+    @Test
+    public void testApply_floatArr_floatArr_fastFloat() {
+        System.out.println("apply(float[], float[]), fast float");
+        GeographicToSphericalTransform instance = new GeographicToSphericalTransform();
+        instance.setFastFloat(true);
+        final float[] source = new float[instance.numSourceDimensions()];
+        final float[] target = new float[instance.numTargetDimensions()];
+        final float[] truth = new float[instance.numTargetDimensions()];
+        for (int i = 0; i < geographicToSphericalCases.length; i += 2) {
+            for (int j = 0; j < instance.numSourceDimensions(); ++j) {
+                source[j] = (float) geographicToSphericalCases[i][j];
+                truth[j] = (float) geographicToSphericalCases[i + 1][j];
+            }
+            instance.apply(source, target);
+            if (isAround360(truth[2], PREC_FLOAT)) {
+                // This is needed to account for the wrapping around 360°.
+                Assert.assertEquals(truth[0], target[0], PREC_FLOAT);
+                Assert.assertEquals(truth[1], target[1], PREC_FLOAT);
+                Assert.assertTrue(isAround360(target[2], PREC_FLOAT));
+            } else {
+                Assert.assertArrayEquals(truth, target, PREC_FLOAT);
+            }
+        }
+    }
+
     @Test
     public void testApply_RealLocalizable_RealPositionable() {
         System.out.println("apply(RealLocalizable, RealPositionable)");
@@ -96,6 +96,24 @@ public class PolarToCartesianTransformTest {
         }
     }
 
+    @Test
+    public void testApply_floatArr_floatArr_fastFloat() {
+        System.out.println("apply(float[], float[]), fast float");
+        PolarToCartesianTransform instance = new PolarToCartesianTransform();
+        instance.setFastFloat(true);
+        final float[] source = new float[instance.numSourceDimensions()];
+        final float[] target = new float[instance.numTargetDimensions()];
+        final float[] truth = new float[instance.numTargetDimensions()];
+        for (int i = 0; i < polarToCartesianCases.length; i += 2) {
+            for (int j = 0; j < instance.numSourceDimensions(); ++j) {
+                source[j] = (float) polarToCartesianCases[i][j];
+                truth[j] = (float) polarToCartesianCases[i + 1][j];
+            }
+            instance.apply(source, target);
+            Assert.assertArrayEquals(truth, target, PREC_FLOAT);
+        }
+    }
+
     @Test
     public void testApply_doubleArr_doubleArr() {
         System.out.println("apply(double[], double[])");
@@ -139,6 +157,24 @@ public class PolarToCartesianTransformTest {
         }
     }
 
+    @Test
+    public void testApplyInverse_floatArr_floatArr_fastFloat() {
+        System.out.println("applyInverse(float[], float[]), fast float");
+        PolarToCartesianTransform instance = new PolarToCartesianTransform();
+        instance.setFastFloat(true);
+        final float[] source = new float[instance.numSourceDimensions()];
+        final float[] target = new float[instance.numTargetDimensions()];
+        final float[] truth = new float[instance.numSourceDimensions()];
+        for (int i = 0; i < cartesianToPolarCases.length; i += 2) {
+            for (int j = 0; j < instance.numSourceDimensions(); ++j) {
+                target[j] = (float) cartesianToPolarCases[i][j];
+                truth[j] = (float) cartesianToPolarCases[i + 1][j];
+            }
+            instance.applyInverse(source, target);
+            Assert.assertArrayEquals(truth, source, PREC_FLOAT);
+        }
+    }
+
     @Test
     public void testApplyInverse_doubleArr_doubleArr() {
         System.out.println("applyInverse(double[], double[])");
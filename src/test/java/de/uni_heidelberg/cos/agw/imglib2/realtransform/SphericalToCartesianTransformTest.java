@@ -98,6 +98,24 @@ public class SphericalToCartesianTransformTest {
         }
     }
 
+    @Test
+    public void testApply_floatArr_floatArr_fastFloat() {
+        System.out.println("apply(float[], float[]), fast float");
+        SphericalToCartesianTransform instance = new SphericalToCartesianTransform();
+        instance.setFastFloat(true);
+        final float[] source = new float[instance.numSourceDimensions()];
+        final float[] target = new float[instance.numTargetDimensions()];
+        final float[] truth = new float[instance.numTargetDimensions()];
+        for (int i = 0; i < sphericalToCartesianCases.length; i += 2) {
+            for (int j = 0; j < instance.numSourceDimensions(); ++j) {
+                source[j] = (float) sphericalToCartesianCases[i][j];
+                truth[j] = (float) sphericalToCartesianCases[i + 1][j];
+            }
+            instance.apply(source, target);
+            Assert.assertArrayEquals(truth, target, PREC_FLOAT);
+        }
+    }
+
     @Test
     public void testApply_doubleArr_doubleArr() {
         System.out.println("apply(double[], double[])");
@@ -147,6 +165,24 @@ public class SphericalToCartesianTransformTest {
         }
     }
 
+    @Test
+    public void testApplyInverse_floatArr_floatArr_fastFloat() {
+        System.out.println("applyInverse(float[], float[]), fast float");
+        SphericalToCartesianTransform instance = new SphericalToCartesianTransform();
+        instance.setFastFloat(true);
+        final float[] source = new float[instance.numSourceDimensions()];
+        final float[] target = new float[instance.numTargetDimensions()];
+        final float[] truth = new float[instance.numSourceDimensions()];
+        for (int i = 0; i < cartesianToSphericalCases.length; i += 2) {
+            for (int j = 0; j < instance.numSourceDimensions(); ++j) {
+                target[j] = (float) cartesianToSphericalCases[i][j];
+                truth[j] = (float) cartesianToSphericalCases[i + 1][j];
+            }
+            instance.applyInverse(source, target);
+            Assert.assertArrayEquals(truth, source, PREC_FLOAT);
+        }
+    }
+
     @Test
     public void testApplyInverse_doubleArr_doubleArr() {
         System.out.println("applyInverse(double[], double[])");
@@ -0,0 +1,101 @@
+/**
+ * This file is part of the COS AGW ImageJ plugin bundle.
+ * https://github.com/bhoeckendorf/cos-agw_ij
+ *
+ * Copyright 2012, 2013  B. Hoeckendorf <b.hoeckendorf at web dot de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uni_heidelberg.cos.agw.imglib2.realtransform;
+
+import de.uni_heidelberg.cos.agw.Timing;
+import net.imglib2.Interval;
+import net.imglib2.realtransform.RealTransform;
+
+/**
+ * Per point cost of the chained map transforms, as used by Map Transform by
+ * default, against the transform fused by {@link TransformPipeline}, in
+ * double and in fast float precision. Run with the test runtime classpath,
+ * which has the imglib2-realtransform the plugins run with, see
+ * {@link Timing}.
+ */
+public class TransformPipelineBenchmark {
+
+    public static void main(final String[] args) {
+        benchmark("Equirectangular", new EquirectangularToCartesianTransform(200, 425, 0.7, 0.2));
+        benchmark("Azimuthal equidistant", new AzimuthalEquidistantToCartesianTransform(200, 425, 0.7, 0.2));
+        benchmark("Cylindrical", new CylindricalToCartesianIntervalTransform(512, 200, 425, 0.7, 0.2));
+    }
+
+    private static <T extends AbstractTrigTransform & RealTransform & Interval> void benchmark(final String name,
+                                                                                              final T transform) {
+        final PositionableRealTransform chained = new PositionableRealTransform(transform);
+        final double[] translation = {600, 600, 425};
+        final double[] rotation = {0.3, -0.2, 0.1};
+        for (int d = 0; d < 3; ++d) {
+            chained.setPosition(translation[d], d);
+            chained.rotate(d, rotation[d]);
+        }
+        final RealTransform fused = new TransformPipeline().then(chained).fuse();
+        transform.setFastFloat(true);
+        final RealTransform fusedFloat = new TransformPipeline().then(chained).fuse();
+        transform.setFastFloat(false);
+
+        // Every voxel of the map, like Transformation.computeIj1, at a scale
+        // that keeps a run short.
+        final long[] dimensions = new long[3];
+        transform.dimensions(dimensions);
+        final long nPoints = dimensions[0] * dimensions[1] * dimensions[2];
+        System.out.println(String.format("%s, %d x %d x %d points", name, dimensions[0], dimensions[1],
+                dimensions[2]));
+        final double chainedTime = Timing.time("  chained", createTask(chained, dimensions, false), nPoints);
+        final double fusedTime = Timing.time("  fused", createTask(fused, dimensions, false), nPoints);
+        Timing.time("  fused, fast float", createTask(fusedFloat, dimensions, true), nPoints);
+        System.out.println(String.format("  fused saves %.1f ns per point", chainedTime - fusedTime));
+    }
+
+    private static Runnable createTask(final RealTransform transform, final long[] dimensions,
+                                       final boolean isFloat) {
+        return new Runnable() {
+            private final double[] source = new double[3];
+            private final double[] target = new double[3];
+            private final float[] sourceFloat = new float[3];
+            private final float[] targetFloat = new float[3];
+
+            @Override
+            public void run() {
+                double sum = 0;
+                for (int z = 0; z < dimensions[2]; ++z) {
+                    for (int y = 0; y < dimensions[1]; ++y) {
+                        for (int x = 0; x < dimensions[0]; ++x) {
+                            if (isFloat) {
+                                sourceFloat[0] = x;
+                                sourceFloat[1] = y;
+                                sourceFloat[2] = z;
+                                transform.apply(sourceFloat, targetFloat);
+                                sum += targetFloat[0];
+                            } else {
+                                source[0] = x;
+                                source[1] = y;
+                                source[2] = z;
+                                transform.apply(source, target);
+                                sum += target[0];
+                            }
+                        }
+                    }
+                }
+                Timing.sink = sum;
+            }
+        };
+    }
+}
@@ -0,0 +1,253 @@
+/**
+ * This file is part of the COS AGW ImageJ plugin bundle.
+ * https://github.com/bhoeckendorf/cos-agw_ij
+ *
+ * Copyright 2012, 2013  B. Hoeckendorf <b.hoeckendorf at web dot de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uni_heidelberg.cos.agw.imglib2.realtransform;
+
+import net.imglib2.Interval;
+import net.imglib2.RealLocalizable;
+import net.imglib2.RealPoint;
+import net.imglib2.RealPositionable;
+import net.imglib2.realtransform.RealTransform;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class TransformPipelineTest {
+
+    // Positions of up to 1000 voxels from the origin.
+    protected final double PREC_DOUBLE = 1E-9;
+    protected final float PREC_FLOAT = 1E-3f;
+    private final int nSamples = 100000;
+
+    private PositionableRealTransform createPositionable(final RealTransform transform, final Random random) {
+        final PositionableRealTransform positionable = new PositionableRealTransform(transform);
+        for (int d = 0; d < 3; ++d) {
+            positionable.setPosition(1000 * random.nextDouble(), d);
+            positionable.rotate(d, 2 * Math.PI * random.nextDouble());
+        }
+        return positionable;
+    }
+
+    // Compares the transforms at random positions within range of each
+    // dimension, on the double, float and RealLocalizable paths.
+    private void assertSame(final RealTransform expected, final RealTransform actual, final double[] range,
+                            final Random random) {
+        final double[] source = new double[3];
+        final double[] truth = new double[3];
+        final double[] target = new double[3];
+        final float[] sourceFloat = new float[3];
+        final float[] truthFloat = new float[3];
+        final float[] targetFloat = new float[3];
+        final RealPoint sourcePoint = new RealPoint(3);
+        final RealPoint targetPoint = new RealPoint(3);
+        for (int i = 0; i < nSamples; ++i) {
+            for (int d = 0; d < 3; ++d) {
+                source[d] = range[d] * random.nextDouble();
+                sourceFloat[d] = (float) source[d];
+            }
+            expected.apply(source, truth);
+            actual.apply(source, target);
+            Assert.assertArrayEquals(truth, target, PREC_DOUBLE);
+
+            expected.apply(sourceFloat, truthFloat);
+            actual.apply(sourceFloat, targetFloat);
+            Assert.assertArrayEquals(truthFloat, targetFloat, PREC_FLOAT);
+
+            sourcePoint.setPosition(source);
+            actual.apply(sourcePoint, targetPoint);
+            targetPoint.localize(target);
+            Assert.assertArrayEquals(truth, target, PREC_DOUBLE);
+
+            // Source and target may be the same array.
+            actual.apply(source, source);
+            Assert.assertArrayEquals(truth, source, PREC_DOUBLE);
+        }
+    }
+
+    private double[] getRange(final Interval interval) {
+        return new double[]{interval.dimension(0) - 1, interval.dimension(1) - 1, interval.dimension(2) - 1};
+    }
+
+    @Test
+    public void testEquirectangular() {
+        System.out.println("fuse(EquirectangularToCartesianTransform)");
+        final Random random = new Random(1);
+        for (final TrigPrecision precision : TrigPrecision.values()) {
+            final EquirectangularToCartesianTransform transform = new EquirectangularToCartesianTransform(200, 425, 0.7, 1);
+            transform.setPrecision(precision);
+            final PositionableRealTransform positionable = createPositionable(transform, random);
+            final RealTransform fused = new TransformPipeline().then(positionable).fuse();
+            Assert.assertFalse(fused instanceof PositionableRealTransform);
+            assertSame(positionable, fused, getRange(transform), random);
+        }
+    }
+
+    @Test
+    public void testAzimuthalEquidistant() {
+        System.out.println("fuse(AzimuthalEquidistantToCartesianTransform)");
+        final Random random = new Random(2);
+        final AzimuthalEquidistantToCartesianTransform transform = new AzimuthalEquidistantToCartesianTransform(200, 425, 0.7, 1);
+        final PositionableRealTransform positionable = createPositionable(transform, random);
+        assertSame(positionable, new TransformPipeline().then(positionable).fuse(), getRange(transform), random);
+        // Without rotation and translation, through the center of the map.
+        final RealTransform fused = new TransformPipeline().then(transform).fuse();
+        final double[] center = {0.5 * transform.dimension(0), 0.5 * transform.dimension(1), 3};
+        final double[] truth = new double[3];
+        final double[] target = new double[3];
+        transform.apply(center, truth);
+        fused.apply(center, target);
+        Assert.assertArrayEquals(truth, target, PREC_DOUBLE);
+    }
+
+    @Test
+    public void testCylindrical() {
+        System.out.println("fuse(CylindricalToCartesianIntervalTransform)");
+        final Random random = new Random(3);
+        final CylindricalToCartesianIntervalTransform transform = new CylindricalToCartesianIntervalTransform(512, 200, 425, 0.7, 1.5);
+        final PositionableRealTransform positionable = createPositionable(transform, random);
+        assertSame(positionable, new TransformPipeline().then(positionable).fuse(), getRange(transform), random);
+    }
+
+    @Test
+    public void testGeographic() {
+        System.out.println("fuse(GeographicToCartesianTransform)");
+        final Random random = new Random(4);
+        final GeographicToCartesianTransform transform = new GeographicToCartesianTransform();
+        // Latitudes and longitudes beyond their ranges are wrapped.
+        final double[] range = {500, 4 * Math.PI, 4 * Math.PI};
+        assertSame(transform, new TransformPipeline().then(transform).fuse(), range, random);
+        final PositionableRealTransform positionable = createPositionable(transform, random);
+        assertSame(positionable, new TransformPipeline().then(positionable).fuse(), range, random);
+    }
+
+    @Test
+    public void testSteps() {
+        System.out.println("then(...).fuse()");
+        final Random random = new Random(5);
+        final EquirectangularToSphericalTransform map = new EquirectangularToSphericalTransform(200, 425, 0.7, 1);
+        final SphericalToCartesianTransform sphericalToCartesian = new SphericalToCartesianTransform();
+        final PositionableRealTransform first = createPositionable(new NullTransform(), random);
+        final PositionableRealTransform second = createPositionable(new NullTransform(), random);
+        final RealTransform fused = new TransformPipeline().then(map).then(sphericalToCartesian).then(first)
+                .then(second).fuse();
+        final RealTransform expected = new RealTransform() {
+            private final double[] temp = new double[3];
+            private final float[] tempFloat = new float[3];
+
+            @Override
+            public void apply(final double[] source, final double[] target) {
+                map.apply(source, temp);
+                sphericalToCartesian.apply(temp, target);
+                first.apply(target, temp);
+                second.apply(temp, target);
+            }
+
+            @Override
+            public void apply(final float[] source, final float[] target) {
+                map.apply(source, tempFloat);
+                sphericalToCartesian.apply(tempFloat, target);
+                first.apply(target, tempFloat);
+                second.apply(tempFloat, target);
+            }
+
+            @Override
+            public void apply(final RealLocalizable source, final RealPositionable target) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public int numSourceDimensions() {
+                return 3;
+            }
+
+            @Override
+            public int numTargetDimensions() {
+                return 3;
+            }
+
+            @Override
+            public RealTransform copy() {
+                return this;
+            }
+        };
+        assertSame(expected, fused, getRange(map), random);
+
+        // Steps that are not recognized are kept.
+        final RealTransform chain = new TransformPipeline().then(map).then(new NullTransform()).then(first).fuse();
+        final double[] source = {10, 20, 30};
+        final double[] truth = new double[3];
+        final double[] target = new double[3];
+        map.apply(source, target);
+        first.apply(target, truth);
+        chain.apply(source, target);
+        Assert.assertArrayEquals(truth, target, PREC_DOUBLE);
+        chain.copy().apply(source, target);
+        Assert.assertArrayEquals(truth, target, PREC_DOUBLE);
+    }
+
+    @Test
+    public void testFastFloat() {
+        System.out.println("fuse(...), fast float");
+        final Random random = new Random(6);
+        for (final TrigPrecision precision : TrigPrecision.values()) {
+            final List<AbstractTrigTransform> transforms = new ArrayList<AbstractTrigTransform>();
+            transforms.add(new EquirectangularToCartesianTransform(200, 425, 0.7, 1));
+            transforms.add(new AzimuthalEquidistantToCartesianTransform(200, 425, 0.7, 1));
+            transforms.add(new CylindricalToCartesianIntervalTransform(512, 200, 425, 0.7, 1.5));
+            for (final AbstractTrigTransform transform : transforms) {
+                transform.setPrecision(precision);
+                final PositionableRealTransform positionable = createPositionable((RealTransform) transform, random);
+                final RealTransform roundedFused = new TransformPipeline().then(positionable).fuse();
+                transform.setFastFloat(true);
+                final RealTransform fast = new TransformPipeline().then(positionable).fuse();
+                final double[] range = getRange((Interval) transform);
+                // Compared with the chained fast float path. The fused one
+                // computes in float too, so some results differ from the
+                // double path rounded to float.
+                final float[] source = new float[3];
+                final float[] truth = new float[3];
+                final float[] rounded = new float[3];
+                final float[] target = new float[3];
+                int nDifferent = 0;
+                for (int i = 0; i < nSamples; ++i) {
+                    for (int d = 0; d < 3; ++d) {
+                        source[d] = (float) (range[d] * random.nextDouble());
+                    }
+                    positionable.apply(source, truth);
+                    fast.apply(source, target);
+                    Assert.assertArrayEquals(truth, target, PREC_FLOAT);
+                    roundedFused.apply(source, rounded);
+                    if (!Arrays.equals(rounded, target)) {
+                        ++nDifferent;
+                    }
+                }
+                Assert.assertTrue(nDifferent > 0);
+            }
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testEmpty() {
+        System.out.println("fuse()");
+        new TransformPipeline().fuse();
+    }
+}
@@ -0,0 +1,195 @@
+/**
+ * This file is part of the COS AGW ImageJ plugin bundle.
+ * https://github.com/bhoeckendorf/cos-agw_ij
+ *
+ * Copyright 2012, 2013  B. Hoeckendorf <b.hoeckendorf at web dot de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.uni_heidelberg.cos.agw.imglib2.realtransform;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class TrigPrecisionTest {
+
+    // Documented maximum errors.
+    protected final double PREC_HIGH = 1E-15;
+    protected final double PREC_LOW = 1E-7;
+    protected final double PREC_FLOAT_SIN_COS = 2E-7;
+    protected final double PREC_FLOAT_INVERSE = 4E-7;
+    private final int nSamples = 1000000;
+
+    private double getPrecision(final TrigPrecision precision) {
+        switch (precision) {
+            case EXACT:
+                return 0;
+            case HIGH:
+                return PREC_HIGH;
+            default:
+                return PREC_LOW;
+        }
+    }
+
+    @Test
+    public void testSinCos() {
+        System.out.println("sin(double), cos(double)");
+        for (final TrigPrecision precision : TrigPrecision.values()) {
+            final double prec = getPrecision(precision);
+            final Random random = new Random(1);
+            for (int i = 0; i < nSamples; ++i) {
+                // Up to beyond the range reduction, which falls back to Math.
+                final double x = (2 * random.nextDouble() - 1) * (i % 3 == 0 ? 10 : i % 3 == 1 ? 1000 : 1e6);
+                Assert.assertEquals(Math.sin(x), precision.sin(x), prec);
+                Assert.assertEquals(Math.cos(x), precision.cos(x), prec);
+            }
+            // Multiples of PI / 4, the borders of the reduced range.
+            for (int i = -64; i <= 64; ++i) {
+                final double x = 0.25 * Math.PI * i;
+                Assert.assertEquals(Math.sin(x), precision.sin(x), prec);
+                Assert.assertEquals(Math.cos(x), precision.cos(x), prec);
+            }
+            Assert.assertTrue(Double.isNaN(precision.sin(Double.NaN)));
+            Assert.assertTrue(Double.isNaN(precision.cos(Double.POSITIVE_INFINITY)));
+        }
+    }
+
+    @Test
+    public void testAtan2() {
+        System.out.println("atan2(double, double)");
+        for (final TrigPrecision precision : TrigPrecision.values()) {
+            final double prec = getPrecision(precision);
+            final Random random = new Random(2);
+            for (int i = 0; i < nSamples; ++i) {
+                // Coordinates over several orders of magnitude.
+                final double y = random.nextGaussian() * Math.pow(10, random.nextInt(8) - 4);
+                final double x = random.nextGaussian() * Math.pow(10, random.nextInt(8) - 4);
+                Assert.assertEquals(Math.atan2(y, x), precision.atan2(y, x), prec);
+            }
+            final double[] axes = {0, -0d, 1, -1, Double.POSITIVE_INFINITY};
+            for (final double y : axes) {
+                for (final double x : axes) {
+                    Assert.assertEquals(Math.atan2(y, x), precision.atan2(y, x), prec);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testAsinAcos() {
+        System.out.println("asin(double), acos(double)");
+        for (final TrigPrecision precision : TrigPrecision.values()) {
+            final double prec = getPrecision(precision);
+            final Random random = new Random(3);
+            for (int i = 0; i < nSamples; ++i) {
+                double x = 2 * random.nextDouble() - 1;
+                if (i % 3 == 0) {
+                    // Near +-1, where the slope is steepest.
+                    x = Math.copySign(1 - 1e-6 * random.nextDouble(), x);
+                }
+                Assert.assertEquals(Math.asin(x), precision.asin(x), prec);
+                Assert.assertEquals(Math.acos(x), precision.acos(x), prec);
+            }
+            final double[] borders = {-1, -0.5, 0, 0.5, 1};
+            for (final double x : borders) {
+                Assert.assertEquals(Math.asin(x), precision.asin(x), prec);
+                Assert.assertEquals(Math.acos(x), precision.acos(x), prec);
+            }
+            Assert.assertTrue(Double.isNaN(precision.asin(1.5)));
+            Assert.assertTrue(Double.isNaN(precision.acos(-1.5)));
+        }
+    }
+
+    @Test
+    public void testSinCosFloat() {
+        System.out.println("sin(float), cos(float)");
+        for (final TrigPrecision precision : TrigPrecision.values()) {
+            final Random random = new Random(1);
+            for (int i = 0; i < nSamples; ++i) {
+                final float x = (float) ((2 * random.nextDouble() - 1) * (i % 2 == 0 ? 10 : 8192));
+                Assert.assertEquals(Math.sin(x), precision.sin(x), PREC_FLOAT_SIN_COS);
+                Assert.assertEquals(Math.cos(x), precision.cos(x), PREC_FLOAT_SIN_COS);
+            }
+            Assert.assertEquals(Math.sin(1e6f), precision.sin(1e6f), PREC_FLOAT_SIN_COS);
+            Assert.assertTrue(Float.isNaN(precision.cos(Float.NaN)));
+        }
+    }
+
+    @Test
+    public void testAtan2Float() {
+        System.out.println("atan2(float, float)");
+        for (final TrigPrecision precision : TrigPrecision.values()) {
+            final Random random = new Random(2);
+            for (int i = 0; i < nSamples; ++i) {
+                final float y = (float) (random.nextGaussian() * Math.pow(10, random.nextInt(6) - 3));
+                final float x = (float) (random.nextGaussian() * Math.pow(10, random.nextInt(6) - 3));
+                Assert.assertEquals(Math.atan2(y, x), precision.atan2(y, x), PREC_FLOAT_INVERSE);
+            }
+            final float[] axes = {0, -0f, 1, -1};
+            for (final float y : axes) {
+                for (final float x : axes) {
+                    Assert.assertEquals(Math.atan2(y, x), precision.atan2(y, x), PREC_FLOAT_INVERSE);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testAsinAcosFloat() {
+        System.out.println("asin(float), acos(float)");
+        for (final TrigPrecision precision : TrigPrecision.values()) {
+            final Random random = new Random(3);
+            for (int i = 0; i < nSamples; ++i) {
+                float x = (float) (2 * random.nextDouble() - 1);
+                if (i % 3 == 0) {
+                    x = (float) Math.copySign(1 - 1e-3 * random.nextDouble(), x);
+                }
+                Assert.assertEquals(Math.asin(x), precision.asin(x), PREC_FLOAT_INVERSE);
+                Assert.assertEquals(Math.acos(x), precision.acos(x), PREC_FLOAT_INVERSE);
+            }
+            Assert.assertEquals(0.5 * Math.PI, precision.asin(1f), PREC_FLOAT_INVERSE);
+            Assert.assertEquals(Math.PI, precision.acos(-1f), PREC_FLOAT_INVERSE);
+            Assert.assertTrue(Float.isNaN(precision.asin(1.5f)));
+            Assert.assertTrue(Float.isNaN(precision.acos(-1.5f)));
+        }
+    }
+
+    @Test
+    public void testSphericalToCartesian() {
+        System.out.println("SphericalToCartesianTransform.setPrecision(...)");
+        final SphericalToCartesianTransform exact = new SphericalToCartesianTransform();
+        final Random random = new Random(4);
+        final double[] cartesian = new double[3];
+        final double[] expected = new double[3];
+        final double[] actual = new double[3];
+        for (final TrigPrecision precision : TrigPrecision.values()) {
+            final SphericalToCartesianTransform transform = new SphericalToCartesianTransform();
+            transform.setPrecision(precision);
+            // Positions of up to 1000 voxels from the origin.
+            final double prec = 1000 * Math.max(getPrecision(precision), 1E-15);
+            for (int i = 0; i < nSamples / 10; ++i) {
+                for (int d = 0; d < 3; ++d) {
+                    cartesian[d] = (2 * random.nextDouble() - 1) * 1000;
+                }
+                exact.applyInverse(expected, cartesian);
+                transform.applyInverse(actual, cartesian);
+                Assert.assertArrayEquals(expected, actual, prec);
+                transform.apply(expected, actual);
+                exact.apply(expected, cartesian);
+                Assert.assertArrayEquals(cartesian, actual, prec);
+            }
+        }
+    }
+}